@@ -0,0 +1,242 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads an XML file by mapping it into memory and decoding the mapped
+ * bytes directly into the caller's buffer.
+ * <p>
+ * The encoding is sniffed on the mapped bytes the same way
+ * {@link XmlEncodingSniffer} sniffs a stream.  Large files are mapped a
+ * window at a time.  Bytes that are not valid in the encoding fail the
+ * read with a {@link java.nio.charset.CharacterCodingException}, as they
+ * would fail a parser decoding the stream itself.
+ */
+public class MappedXmlReader extends Reader
+{
+    // Mapping the file in pieces keeps the address space used bounded,
+    // the cost of a new mapping is negligible at this size
+    private static final int WINDOW_SIZE = 1 << 26;
+
+    private FileChannel _channel;
+    private long _size;
+    private long _windowStart;
+    private ByteBuffer _window;
+
+    private final String _xmlencoding;
+    private final CharsetDecoder _decoder;
+    private boolean _flushed;
+
+    // The second half of a surrogate pair that did not fit the caller's
+    // buffer, or -1
+    private int _pending = -1;
+
+    public MappedXmlReader(File file) throws IOException
+    {
+        _channel = new FileInputStream(file).getChannel();
+
+        try
+        {
+            _size = _channel.size();
+
+            map(0);
+
+            XmlEncodingSniffer sniffer = new XmlEncodingSniffer(
+                new ByteBufferInputStream(_window.duplicate()), null);
+
+            _xmlencoding = sniffer.getXmlEncoding();
+
+            Charset charset;
+
+            try
+            {
+                charset = Charset.forName(sniffer.getJavaEncoding());
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new UnsupportedEncodingException(sniffer.getJavaEncoding());
+            }
+
+            _decoder = charset.newDecoder().
+                onMalformedInput(CodingErrorAction.REPORT).
+                onUnmappableCharacter(CodingErrorAction.REPORT);
+
+            // Unlike the UTF-16 decoder, the UTF-8 one does not consume a
+            // byte order mark
+
+            if (charset.name().equals("UTF-8") && _window.remaining() >= 3 &&
+                (_window.get(0) & 0xFF) == 0xEF &&
+                (_window.get(1) & 0xFF) == 0xBB &&
+                (_window.get(2) & 0xFF) == 0xBF)
+            {
+                _window.position(3);
+            }
+        }
+        catch (IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the XML (IANA) name of the sniffed encoding.
+     */
+    public String getXmlEncoding()
+    {
+        return _xmlencoding;
+    }
+
+    private void map(long start) throws IOException
+    {
+        _windowStart = start;
+        _window = _channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(WINDOW_SIZE, _size - start));
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        if (_channel == null)
+            throw new IOException("Reader closed");
+
+        if (len == 0)
+            return 0;
+
+        if (_pending >= 0)
+        {
+            cbuf[off] = (char) _pending;
+            _pending = -1;
+            return 1;
+        }
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+
+        for ( ; ; )
+        {
+            if (_flushed)
+                return -1;
+
+            boolean last = _windowStart + _window.limit() == _size;
+
+            CoderResult result = _decoder.decode(_window, out, last);
+
+            if (result.isError())
+            {
+                // The characters before the bad bytes are read first, the
+                // next read decodes the bad bytes again and fails
+
+                if (out.position() > off)
+                    return out.position() - off;
+
+                result.throwException();
+            }
+            else if (result.isUnderflow())
+            {
+                if (last)
+                {
+                    _decoder.flush(out);
+                    _flushed = true;
+                }
+                else if (out.position() == off)
+                {
+                    // A character may be split between windows, the
+                    // next window starts at its first byte
+
+                    map(_windowStart + _window.position());
+                    continue;
+                }
+            }
+            else if (result.isOverflow() && out.position() == off)
+            {
+                // Only a surrogate pair does not fit a non empty buffer
+
+                CharBuffer pair = CharBuffer.allocate(2);
+                result = _decoder.decode(_window, pair, last);
+
+                if (result.isError())
+                    result.throwException();
+
+                pair.flip();
+
+                cbuf[off] = pair.get();
+
+                if (pair.hasRemaining())
+                    _pending = pair.get();
+
+                return 1;
+            }
+
+            if (out.position() > off)
+                return out.position() - off;
+        }
+    }
+
+    public void close() throws IOException
+    {
+        // The mapping itself is released when it is garbage collected
+
+        _window = null;
+
+        if (_channel != null)
+        {
+            _channel.close();
+            _channel = null;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer _buf;
+
+        ByteBufferInputStream(ByteBuffer buf)
+        {
+            _buf = buf;
+        }
+
+        public int read()
+        {
+            return _buf.hasRemaining() ? _buf.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+                return 0;
+
+            if (!_buf.hasRemaining())
+                return -1;
+
+            len = Math.min(len, _buf.remaining());
+            _buf.get(b, off, len);
+
+            return len;
+        }
+    }
+}
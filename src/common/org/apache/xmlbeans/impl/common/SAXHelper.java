@@ -18,12 +18,18 @@ package org.apache.xmlbeans.impl.common;
 import java.io.IOException;
 import java.io.StringReader;
 import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.apache.xmlbeans.SystemProperties;
 import org.apache.xmlbeans.XmlOptionsBean;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
@@ -37,18 +43,114 @@ public final class SAXHelper {
     private static final XBLogger logger = XBLogFactory.getLogger(SAXHelper.class);
     private static long lastLog;
 
+    /**
+     * Default number of idle readers kept per parser configuration, can be
+     * overridden with the "xmlbean.xmlreaderpool.size" system property
+     */
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    private static final String POOL_SIZE_PROPERTY = "xmlbean.xmlreaderpool.size";
+
+    private static final ConcurrentMap<ReaderKey, SAXParserFactory> factories =
+        new ConcurrentHashMap<ReaderKey, SAXParserFactory>();
+
+    private static final ConcurrentMap<ReaderKey, BlockingQueue<XMLReader>> pool =
+        new ConcurrentHashMap<ReaderKey, BlockingQueue<XMLReader>>();
+
+    private static volatile int poolSize = initialPoolSize();
+
     private SAXHelper() {}
 
     /**
      * Creates a new SAX XMLReader, with sensible defaults
      */
     public static XMLReader newXMLReader(XmlOptionsBean options) throws SAXException, ParserConfigurationException {
-        XMLReader xmlReader = saxFactory(options).newSAXParser().getXMLReader();
+        SAXParserFactory factory = cachedSaxFactory(options);
+        SAXParser parser;
+        // SAXParserFactory implementations aren't required to be thread-safe
+        synchronized (factory) {
+            parser = factory.newSAXParser();
+        }
+        XMLReader xmlReader = parser.getXMLReader();
         xmlReader.setEntityResolver(IGNORING_ENTITY_RESOLVER);
         trySetSAXFeature(xmlReader, XMLConstants.FEATURE_SECURE_PROCESSING);
         trySetXercesSecurityManager(xmlReader, options);
         return xmlReader;
     }
+
+    /**
+     * Leases a configured SAX XMLReader from the reader pool, or creates a new one
+     * if no idle reader was built with the same DTD and entity settings.
+     * <p>
+     * The reader should be handed back with {@link #returnXMLReader} once the parse
+     * is done. A reader which is never returned is simply garbage collected.
+     */
+    public static XMLReader leaseXMLReader(XmlOptionsBean options) throws SAXException, ParserConfigurationException {
+        BlockingQueue<XMLReader> idle = pool.get(new ReaderKey(options));
+        XMLReader xmlReader = (idle == null) ? null : idle.poll();
+        return (xmlReader != null) ? xmlReader : newXMLReader(options);
+    }
+
+    /**
+     * Returns a reader obtained by {@link #leaseXMLReader} to the pool. The options must
+     * be the same the reader was leased with. The handlers set on the reader are cleared,
+     * and the reader is dropped if the pool for its configuration is full.
+     */
+    public static void returnXMLReader(XmlOptionsBean options, XMLReader xmlReader) {
+        int size = poolSize;
+        if (xmlReader == null || size <= 0) {
+            return;
+        }
+
+        try {
+            xmlReader.setContentHandler(null);
+            xmlReader.setDTDHandler(null);
+            xmlReader.setErrorHandler(null);
+            xmlReader.setEntityResolver(IGNORING_ENTITY_RESOLVER);
+            xmlReader.setProperty("http://xml.org/sax/properties/lexical-handler", null);
+            xmlReader.setProperty("http://xml.org/sax/properties/declaration-handler", null);
+            xmlReader.setFeature("http://xml.org/sax/features/namespace-prefixes", false);
+        } catch (Exception e) {
+            // a reader which can't be reset is not reused
+            return;
+        }
+
+        ReaderKey key = new ReaderKey(options);
+        BlockingQueue<XMLReader> idle = pool.get(key);
+        if (idle == null) {
+            idle = new ArrayBlockingQueue<XMLReader>(size);
+            BlockingQueue<XMLReader> prev = pool.putIfAbsent(key, idle);
+            if (prev != null) {
+                idle = prev;
+            }
+        }
+        idle.offer(xmlReader);
+    }
+
+    /**
+     * Sets the maximum number of idle readers kept per parser configuration and
+     * discards the currently pooled readers. A size of 0 disables pooling.
+     */
+    public static void setXMLReaderPoolSize(int size) {
+        poolSize = Math.max(0, size);
+        pool.clear();
+    }
+
+    public static int getXMLReaderPoolSize() {
+        return poolSize;
+    }
+
+    private static int initialPoolSize() {
+        String size = SystemProperties.getProperty(POOL_SIZE_PROPERTY);
+        if (size != null) {
+            try {
+                return Math.max(0, Integer.parseInt(size.trim()));
+            } catch (NumberFormatException e) {
+                logger.log(XBLogger.WARN, "Invalid value for " + POOL_SIZE_PROPERTY, size);
+            }
+        }
+        return DEFAULT_POOL_SIZE;
+    }
     
     public static final EntityResolver IGNORING_ENTITY_RESOLVER = new EntityResolver() {
         @Override
@@ -62,6 +164,19 @@ public final class SAXHelper {
         return saxFactory(new XmlOptionsBean());
     }
 
+    private static SAXParserFactory cachedSaxFactory(XmlOptionsBean options) {
+        ReaderKey key = new ReaderKey(options);
+        SAXParserFactory factory = factories.get(key);
+        if (factory == null) {
+            factory = saxFactory(options);
+            SAXParserFactory prev = factories.putIfAbsent(key, factory);
+            if (prev != null) {
+                factory = prev;
+            }
+        }
+        return factory;
+    }
+
     static SAXParserFactory saxFactory(XmlOptionsBean options) {
         SAXParserFactory saxFactory = SAXParserFactory.newInstance();
         saxFactory.setValidating(false);
@@ -125,4 +240,35 @@ public final class SAXHelper {
             }
         }
     }
+
+    /**
+     * The parser settings a reader was configured with
+     */
+    private static final class ReaderKey {
+        private final boolean loadDTDGrammar;
+        private final boolean loadExternalDTD;
+        private final int entityExpansionLimit;
+
+        ReaderKey(XmlOptionsBean options) {
+            loadDTDGrammar = options.isLoadDTDGrammar();
+            loadExternalDTD = options.isLoadExternalDTD();
+            entityExpansionLimit = options.getEntityExpansionLimit();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ReaderKey)) {
+                return false;
+            }
+            ReaderKey other = (ReaderKey) o;
+            return loadDTDGrammar == other.loadDTDGrammar &&
+                loadExternalDTD == other.loadExternalDTD &&
+                entityExpansionLimit == other.entityExpansionLimit;
+        }
+
+        @Override
+        public int hashCode() {
+            return entityExpansionLimit * 4 + (loadDTDGrammar ? 2 : 0) + (loadExternalDTD ? 1 : 0);
+        }
+    }
 }
@@ -0,0 +1,817 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.common;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xmlbeans.XmlError;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlOptionsBean;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Evaluates several paths in one pass over the SAX or StAX events of a
+ * document, without loading it.  The paths are those XPath compiles, with
+ * the predicates which can be tested when an element starts : on its
+ * attributes and on its position.
+ * <p/>
+ * A match is delivered as a string as soon as it is complete : the value
+ * of an attribute, a run of text for text(), and for an element either its
+ * string value or its XML text, at its end tag.  Only the text of the
+ * elements being matched is kept, so memory does not grow with the
+ * document.
+ * <p/>
+ * Once its paths are added, an instance can be used by several threads.
+ */
+public class StreamingXPath
+{
+    /**
+     * Receives the matches of an evaluation.
+     */
+    public interface MatchHandler
+    {
+        /**
+         * Called for each match, with the id the path was added with.
+         * Returning false stops the evaluation.
+         */
+        boolean match ( int id, String value );
+    }
+
+    public StreamingXPath ( )
+    {
+        _paths = new ArrayList();
+        _fragments = new ArrayList();
+    }
+
+    /**
+     * Adds a path, returning its id.  Elements matched are delivered by
+     * their string value.
+     */
+    public int addPath ( String path, Map namespaces )
+        throws XmlException
+    {
+        return addPath( path, namespaces, false );
+    }
+
+    /**
+     * Adds a path, returning its id.  Elements matched are delivered by
+     * their XML text if fragments is true, by their string value if not.
+     */
+    public int addPath ( String path, Map namespaces, boolean fragments )
+        throws XmlException
+    {
+        XPath xpath =
+            XPath.compileXPath( path, "$this", namespaces, true );
+
+        if (!xpath.isStreamable())
+        {
+            throw new XPath.XPathCompileException(
+                XmlError.forMessage(
+                    "Path can not be evaluated on a stream: " + path ) );
+        }
+
+        synchronized ( _paths )
+        {
+            _paths.add( xpath );
+            _fragments.add( Boolean.valueOf( fragments ) );
+
+            return _paths.size() - 1;
+        }
+    }
+
+    public int size ( )
+    {
+        synchronized ( _paths )
+        {
+            return _paths.size();
+        }
+    }
+
+    /**
+     * Evaluates the paths on the document read from the stream.  Returns
+     * false if the handler stopped the evaluation.
+     */
+    public boolean evaluate ( InputStream in, MatchHandler handler )
+        throws XmlException
+    {
+        try
+        {
+            XMLStreamReader reader = _factory.createXMLStreamReader( in );
+
+            try
+            {
+                return evaluate( reader, handler );
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch ( XMLStreamException e )
+        {
+            throw new XmlException( e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Evaluates the paths on the events of the reader, from its current
+     * event.  When this is the start of an element rather than of the
+     * document, the evaluation ends with that element.  Returns false if
+     * the handler stopped the evaluation.
+     */
+    public boolean evaluate ( XMLStreamReader reader, MatchHandler handler )
+        throws XMLStreamException
+    {
+        Run run = new Run( handler );
+
+        boolean whole = reader.getEventType() == XMLStreamConstants.START_DOCUMENT;
+
+        run.startDocument();
+
+        for ( int event = reader.getEventType() ; !run._stopped ; event = reader.next() )
+        {
+            switch ( event )
+            {
+            case XMLStreamConstants.START_ELEMENT :
+            {
+                for ( int i = 0 ; i < reader.getNamespaceCount() ; i++ )
+                {
+                    String prefix = reader.getNamespacePrefix( i );
+
+                    run.namespace( prefix == null ? "" : prefix, reader.getNamespaceURI( i ) );
+                }
+
+                for ( int i = 0 ; i < reader.getAttributeCount() ; i++ )
+                    run.attribute( reader.getAttributeName( i ), reader.getAttributeValue( i ) );
+
+                run.startElement( reader.getName() );
+
+                break;
+            }
+
+            case XMLStreamConstants.END_ELEMENT :
+                run.endElement();
+
+                if (!whole && run._depth == 0)
+                {
+                    run.endDocument();
+                    return !run._stopped;
+                }
+
+                break;
+
+            case XMLStreamConstants.CHARACTERS :
+            case XMLStreamConstants.CDATA :
+            case XMLStreamConstants.SPACE :
+                run.characters( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                break;
+
+            case XMLStreamConstants.COMMENT :
+                run.comment( reader.getText() );
+                break;
+
+            case XMLStreamConstants.PROCESSING_INSTRUCTION :
+                run.procinst( reader.getPITarget(), reader.getPIData() );
+                break;
+
+            case XMLStreamConstants.END_DOCUMENT :
+                run.endDocument();
+                return !run._stopped;
+            }
+
+            if (!reader.hasNext())
+                break;
+        }
+
+        return !run._stopped;
+    }
+
+    /**
+     * Returns a SAX handler which evaluates the paths on the events it is
+     * given, from startDocument to endDocument.  It is also a
+     * LexicalHandler, to keep comments in the fragments.  When the match
+     * handler stops the evaluation, the SAX handler throws a SAXException.
+     */
+    public DefaultHandler newContentHandler ( MatchHandler handler )
+    {
+        return new SaxHandler( new Run( handler ) );
+    }
+
+    /**
+     * Evaluates the paths on the document read from the stream, returning
+     * the matches of each path, by id.
+     */
+    public List[] selectAll ( InputStream in )
+        throws XmlException
+    {
+        final List[] matches = new List [ size() ];
+
+        for ( int i = 0 ; i < matches.length ; i++ )
+            matches[ i ] = new ArrayList();
+
+        evaluate(
+            in,
+            new MatchHandler()
+            {
+                public boolean match ( int id, String value )
+                {
+                    matches[ id ].add( value );
+                    return true;
+                }
+            } );
+
+        return matches;
+    }
+
+    /**
+     * Returns whether any of the paths matches in the document read from
+     * the stream, reading no further than the first match.
+     */
+    public boolean matches ( InputStream in )
+        throws XmlException
+    {
+        return
+            !evaluate(
+                in,
+                new MatchHandler()
+                {
+                    public boolean match ( int id, String value )
+                    {
+                        return false;
+                    }
+                } );
+    }
+
+    //
+    // The state of one evaluation.  Each path runs in an execution context
+    // of its own; a context is not given the elements under one it said
+    // not to descend into.
+    //
+
+    private final class Run
+    {
+        Run ( MatchHandler handler )
+        {
+            synchronized ( _paths )
+            {
+                _contexts = new Context [ _paths.size() ];
+
+                for ( int i = 0 ; i < _contexts.length ; i++ )
+                {
+                    _contexts[ i ] =
+                        new Context(
+                            this, (XPath) _paths.get( i ),
+                            ((Boolean) _fragments.get( i )).booleanValue() );
+                }
+            }
+
+            _handler = handler;
+            _captures = new ArrayList();
+            _names = new ArrayList();
+            _namespaces = new ArrayList();
+            _namespaceCounts = new ArrayList();
+            _textIds = new ArrayList();
+            _text = new StringBuffer();
+            _attrNames = new ArrayList();
+            _attrValues = new ArrayList();
+        }
+
+        void startDocument ( )
+        {
+            _depth = 0;
+            _textIds.add( null );
+            _namespaceCounts.add( new Integer( 0 ) );
+
+            for ( int i = 0 ; i < _contexts.length ; i++ )
+            {
+                Context c = _contexts[ i ];
+
+                c.init( c._xpath );
+                c._skip = -1;
+
+                int result = c.start();
+
+                if ((result & XPath.ExecutionContext.HIT) != 0)
+                    _captures.add( new Capture( i, 0, c._fragments ) );
+
+                if ((result & XPath.ExecutionContext.DESCEND) == 0)
+                    c._skip = 0;
+            }
+        }
+
+        void namespace ( String prefix, String uri )
+        {
+            _namespaces.add( prefix );
+            _namespaces.add( uri );
+            _pendingNamespaces++;
+        }
+
+        void attribute ( QName name, String value )
+        {
+            _attrNames.add( name );
+            _attrValues.add( value );
+        }
+
+        String attrValue ( QName name )
+        {
+            int i = _attrNames.indexOf( name );
+
+            return i < 0 ? null : (String) _attrValues.get( i );
+        }
+
+        void startElement ( QName name )
+        {
+            flushText();
+
+            _depth++;
+            _names.add( name );
+            _namespaceCounts.add( new Integer( _pendingNamespaces ) );
+            _pendingNamespaces = 0;
+
+            // The start tag goes to the fragments already open, a fragment
+            // opening here writes it with all the namespaces in scope
+
+            for ( int i = 0 ; i < _captures.size() ; i++ )
+                ((Capture) _captures.get( i )).startTag( name, false );
+
+            int[] textIds = null;
+
+            for ( int i = 0 ; i < _contexts.length && !_stopped ; i++ )
+            {
+                Context c = _contexts[ i ];
+
+                if (c._skip >= 0)
+                    continue;
+
+                int result = c.element( name );
+
+                if ((result & XPath.ExecutionContext.HIT) != 0)
+                {
+                    Capture capture = new Capture( i, _depth, c._fragments );
+
+                    capture.startTag( name, true );
+                    _captures.add( capture );
+                }
+
+                if ((result & XPath.ExecutionContext.ATTRS) != 0)
+                {
+                    for ( int j = 0 ; j < _attrNames.size() && !_stopped ; j++ )
+                    {
+                        if (c.attr( (QName) _attrNames.get( j ) ))
+                            deliver( i, (String) _attrValues.get( j ) );
+                    }
+                }
+
+                if ((result & XPath.ExecutionContext.TEXT) != 0 && c.text())
+                    textIds = add( textIds, i );
+
+                if ((result & XPath.ExecutionContext.DESCEND) == 0)
+                    c._skip = _depth;
+            }
+
+            _textIds.add( textIds );
+
+            _attrNames.clear();
+            _attrValues.clear();
+        }
+
+        void characters ( char[] chars, int off, int cch )
+        {
+            for ( int i = 0 ; i < _captures.size() ; i++ )
+                ((Capture) _captures.get( i )).text( chars, off, cch );
+
+            if (_textIds.get( _depth ) != null)
+                _text.append( chars, off, cch );
+        }
+
+        void comment ( String text )
+        {
+            flushText();
+
+            for ( int i = 0 ; i < _captures.size() ; i++ )
+                ((Capture) _captures.get( i )).comment( text );
+        }
+
+        void procinst ( String target, String data )
+        {
+            flushText();
+
+            for ( int i = 0 ; i < _captures.size() ; i++ )
+                ((Capture) _captures.get( i )).procinst( target, data );
+        }
+
+        void endElement ( )
+        {
+            flushText();
+
+            for ( int i = 0 ; i < _captures.size() ; i++ )
+                ((Capture) _captures.get( i )).endTag();
+
+            closeCaptures();
+
+            for ( int i = 0 ; i < _contexts.length ; i++ )
+            {
+                Context c = _contexts[ i ];
+
+                if (c._skip < 0 || c._skip == _depth)
+                {
+                    c.end();
+                    c._skip = -1;
+                }
+            }
+
+            int count = ((Integer) _namespaceCounts.remove( _namespaceCounts.size() - 1 )).intValue();
+
+            for ( ; count > 0 ; count-- )
+            {
+                _namespaces.remove( _namespaces.size() - 1 );
+                _namespaces.remove( _namespaces.size() - 1 );
+            }
+
+            _textIds.remove( _depth );
+            _names.remove( _depth - 1 );
+            _depth--;
+        }
+
+        void endDocument ( )
+        {
+            flushText();
+            closeCaptures();
+        }
+
+        // Delivers the captures of the element ending, the innermost first
+
+        private void closeCaptures ( )
+        {
+            for ( int i = _captures.size() - 1 ; i >= 0 ; i-- )
+            {
+                Capture capture = (Capture) _captures.get( i );
+
+                if (capture._depth == _depth)
+                {
+                    _captures.remove( i );
+
+                    if (!_stopped)
+                        deliver( capture._id, capture._value.toString() );
+                }
+            }
+        }
+
+        private void flushText ( )
+        {
+            int[] textIds = (int[]) _textIds.get( _depth );
+
+            if (textIds == null || _text.length() == 0)
+                return;
+
+            String text = _text.toString();
+
+            _text.setLength( 0 );
+
+            for ( int i = 0 ; i < textIds.length && !_stopped ; i++ )
+                deliver( textIds[ i ], text );
+        }
+
+        private void deliver ( int id, String value )
+        {
+            if (!_handler.match( id, value ))
+                _stopped = true;
+        }
+
+        private int[] add ( int[] ids, int id )
+        {
+            if (ids == null)
+                return new int[] { id };
+
+            int[] more = new int [ ids.length + 1 ];
+            System.arraycopy( ids, 0, more, 0, ids.length );
+            more[ ids.length ] = id;
+
+            return more;
+        }
+
+        //
+        // The value of a match being read : the text of an element, or its
+        // XML text for a fragment
+        //
+
+        private final class Capture
+        {
+            Capture ( int id, int depth, boolean fragment )
+            {
+                _id = id;
+                _depth = depth;
+                _fragment = fragment;
+                _value = new StringBuffer();
+            }
+
+            void startTag ( QName name, boolean first )
+            {
+                if (!_fragment)
+                    return;
+
+                _value.append( '<' );
+                name( name );
+
+                // The namespaces declared by the element, or all of those in
+                // scope for the element the fragment starts with
+
+                int count = first ?
+                    _namespaces.size() / 2 :
+                    ((Integer) _namespaceCounts.get( _namespaceCounts.size() - 1 )).intValue();
+
+                for ( int i = _namespaces.size() / 2 - count ; i < _namespaces.size() / 2 ; i++ )
+                {
+                    String prefix = (String) _namespaces.get( i * 2 );
+
+                    if (first && declaredAfter( prefix, i ))
+                        continue;
+
+                    _value.append( prefix.length() == 0 ? " xmlns" : " xmlns:" );
+                    _value.append( prefix );
+                    _value.append( "=\"" );
+                    escape( (String) _namespaces.get( i * 2 + 1 ), true );
+                    _value.append( '"' );
+                }
+
+                for ( int i = 0 ; i < _attrNames.size() ; i++ )
+                {
+                    _value.append( ' ' );
+                    name( (QName) _attrNames.get( i ) );
+                    _value.append( "=\"" );
+                    escape( (String) _attrValues.get( i ), true );
+                    _value.append( '"' );
+                }
+
+                _value.append( '>' );
+            }
+
+            private boolean declaredAfter ( String prefix, int i )
+            {
+                for ( i++ ; i < _namespaces.size() / 2 ; i++ )
+                {
+                    if (prefix.equals( _namespaces.get( i * 2 ) ))
+                        return true;
+                }
+
+                return false;
+            }
+
+            void endTag ( )
+            {
+                if (!_fragment)
+                    return;
+
+                _value.append( "</" );
+                name( (QName) _names.get( Run.this._depth - 1 ) );
+                _value.append( '>' );
+            }
+
+            void text ( char[] chars, int off, int cch )
+            {
+                if (_fragment)
+                    escape( new String( chars, off, cch ), false );
+                else
+                    _value.append( chars, off, cch );
+            }
+
+            void comment ( String text )
+            {
+                if (_fragment)
+                    _value.append( "<!--" ).append( text ).append( "-->" );
+            }
+
+            void procinst ( String target, String data )
+            {
+                if (!_fragment)
+                    return;
+
+                _value.append( "<?" ).append( target );
+
+                if (data != null && data.length() > 0)
+                    _value.append( ' ' ).append( data );
+
+                _value.append( "?>" );
+            }
+
+            private void name ( QName name )
+            {
+                String prefix = name.getPrefix();
+
+                if (prefix != null && prefix.length() > 0)
+                    _value.append( prefix ).append( ':' );
+
+                _value.append( name.getLocalPart() );
+            }
+
+            private void escape ( String s, boolean attr )
+            {
+                for ( int i = 0 ; i < s.length() ; i++ )
+                {
+                    char ch = s.charAt( i );
+
+                    switch ( ch )
+                    {
+                    case '<'  : _value.append( "&lt;" ); break;
+                    case '&'  : _value.append( "&amp;" ); break;
+                    case '>'  : _value.append( "&gt;" ); break;
+                    case '"'  : _value.append( attr ? "&quot;" : "\"" ); break;
+                    case '\r' : _value.append( "&#13;" ); break;
+                    case '\n' : _value.append( attr ? "&#10;" : "\n" ); break;
+                    case '\t' : _value.append( attr ? "&#9;" : "\t" ); break;
+                    default   : _value.append( ch ); break;
+                    }
+                }
+            }
+
+            final int          _id;
+            final int          _depth;
+            final boolean      _fragment;
+            final StringBuffer _value;
+        }
+
+        final Context[]      _contexts;
+        final MatchHandler   _handler;
+        final ArrayList      _captures;
+        final ArrayList      _names;
+        final ArrayList      _namespaces;
+        final ArrayList      _namespaceCounts;
+        final ArrayList      _textIds;
+        final StringBuffer   _text;
+        final ArrayList      _attrNames;
+        final ArrayList      _attrValues;
+        int                  _pendingNamespaces;
+        int                  _depth;
+        boolean              _stopped;
+    }
+
+    //
+    // The execution of one path, giving the predicates the attributes of
+    // the element being entered
+    //
+
+    private static final class Context extends XPath.ExecutionContext
+    {
+        Context ( Run run, XPath xpath, boolean fragments )
+        {
+            _run = run;
+            _xpath = xpath;
+            _fragments = fragments;
+        }
+
+        protected String attrValue ( QName name )
+        {
+            return _run.attrValue( name );
+        }
+
+        final Run     _run;
+        final XPath   _xpath;
+        final boolean _fragments;
+        int           _skip;
+    }
+
+    //
+    // SAX events feed a run the way the StAX loop does
+    //
+
+    private static final class SaxHandler
+        extends DefaultHandler implements LexicalHandler
+    {
+        SaxHandler ( Run run )
+        {
+            _run = run;
+        }
+
+        public void startDocument ( )
+        {
+            _run.startDocument();
+        }
+
+        public void endDocument ( )
+        {
+            _run.endDocument();
+        }
+
+        public void startPrefixMapping ( String prefix, String uri )
+        {
+            _run.namespace( prefix == null ? "" : prefix, uri );
+        }
+
+        public void startElement (
+            String uri, String local, String qName, Attributes attrs )
+            throws SAXException
+        {
+            for ( int i = 0 ; i < attrs.getLength() ; i++ )
+            {
+                String attrQName = attrs.getQName( i );
+
+                // Parsers reporting namespace declarations as attributes
+                // have reported them to startPrefixMapping too
+
+                if (attrQName.equals( "xmlns" ) || attrQName.startsWith( "xmlns:" ))
+                    continue;
+
+                _run.attribute( qname( attrs.getURI( i ), attrs.getLocalName( i ), attrQName ), attrs.getValue( i ) );
+            }
+
+            _run.startElement( qname( uri, local, qName ) );
+
+            check();
+        }
+
+        public void endElement ( String uri, String local, String qName )
+            throws SAXException
+        {
+            _run.endElement();
+
+            check();
+        }
+
+        public void characters ( char[] ch, int start, int length )
+            throws SAXException
+        {
+            _run.characters( ch, start, length );
+        }
+
+        public void ignorableWhitespace ( char[] ch, int start, int length )
+            throws SAXException
+        {
+            _run.characters( ch, start, length );
+        }
+
+        public void processingInstruction ( String target, String data )
+            throws SAXException
+        {
+            _run.procinst( target, data );
+
+            check();
+        }
+
+        public void comment ( char[] ch, int start, int length )
+            throws SAXException
+        {
+            _run.comment( new String( ch, start, length ) );
+        }
+
+        public void startDTD ( String name, String publicId, String systemId ) { }
+        public void endDTD ( ) { }
+        public void startEntity ( String name ) { }
+        public void endEntity ( String name ) { }
+        public void startCDATA ( ) { }
+        public void endCDATA ( ) { }
+
+        private void check ( )
+            throws SAXException
+        {
+            if (_run._stopped)
+                throw new SAXException( "Evaluation stopped by the match handler" );
+        }
+
+        private static QName qname ( String uri, String local, String qName )
+        {
+            int colon = qName == null ? -1 : qName.indexOf( ':' );
+
+            if (local == null || local.length() == 0)
+                local = colon < 0 ? qName : qName.substring( colon + 1 );
+
+            return
+                new QName(
+                    uri == null ? "" : uri, local,
+                    colon < 0 ? "" : qName.substring( 0, colon ) );
+        }
+
+        private final Run _run;
+    }
+
+    // Configured once and never changed, so it can be shared
+    private static final XMLInputFactory _factory =
+        StaxHelper.newXMLInputFactory( new XmlOptionsBean() );
+
+    private final ArrayList _paths;
+    private final ArrayList _fragments;
+}
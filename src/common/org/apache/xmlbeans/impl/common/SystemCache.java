@@ -95,6 +95,11 @@ public class SystemCache
 
     private ThreadLocal tl_saxLoaders = new ThreadLocal();
 
+    /**
+     * @deprecated not used by the store anymore, XMLReaders are leased from
+     * the pool in {@link SAXHelper#leaseXMLReader} instead of being kept
+     * in a thread local
+     */
     public Object getSaxLoader()
     {
         SoftReference s = (SoftReference) tl_saxLoaders.get();
@@ -104,6 +109,9 @@ public class SystemCache
             return s.get();
     }
 
+    /**
+     * @deprecated see {@link #getSaxLoader()}
+     */
     public void setSaxLoader(Object saxLoader)
     {
         tl_saxLoaders.set(new SoftReference(saxLoader));
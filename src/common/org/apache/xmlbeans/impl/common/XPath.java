@@ -50,27 +50,47 @@ public class XPath
         public static final int HIT     = 0x1;
         public static final int DESCEND = 0x2;
         public static final int ATTRS   = 0x4;
+        public static final int TEXT    = 0x8;
         
         public final void init ( XPath xpath )
         {
             if (_xpath != xpath)
             {
                 _xpath = xpath;
-                
-                _paths = new PathContext [ xpath._selector._paths.length ];
-                
-                for ( int i = 0 ; i < _paths.length ; i++ )
-                    _paths[ i ] = new PathContext();
+
+                if (xpath._allowPredicates)
+                {
+                    _paths = null;
+
+                    if (_frames == null)
+                        _frames = new ArrayList();
+                }
+                else
+                {
+                    _paths = new PathContext [ xpath._selector._paths.length ];
+
+                    for ( int i = 0 ; i < _paths.length ; i++ )
+                        _paths[ i ] = new PathContext();
+                }
             }
 
             _stack.clear();
 
+            if (_paths == null)
+            {
+                _depth = 0;
+                return;
+            }
+
             for ( int i = 0 ; i < _paths.length ; i++ )
                 _paths[ i ].init( xpath._selector._paths[ i ] );
         }
 
         public final int start ( )
         {
+            if (_paths == null)
+                return startFrames();
+
             int result = 0;
             
             for ( int i = 0 ; i < _paths.length ; i++ )
@@ -84,6 +104,9 @@ public class XPath
             assert name != null;
             
             _stack.add( name );
+
+            if (_paths == null)
+                return elementFrames( name );
             
             int result = 0;
             
@@ -95,6 +118,9 @@ public class XPath
         
         public final boolean attr ( QName name )
         {
+            if (_paths == null)
+                return attrFrames( name );
+
             boolean hit = false;
             
             for ( int i = 0 ; i < _paths.length ; i++ )
@@ -103,13 +129,361 @@ public class XPath
             return hit;
         }
 
+        // Whether the text in the element the execution is at is hit, which
+        // only a path ending in text() does
+
+        public final boolean text ( )
+        {
+            if (_paths == null)
+            {
+                Frame frame = (Frame) _frames.get( _depth );
+
+                _hitCount = 0;
+
+                for ( int i = 0 ; i < frame._count ; i++ )
+                {
+                    if (frame._steps[ i ]._text)
+                        hit( frame._steps[ i ]._id );
+                }
+
+                return _hitCount > 0;
+            }
+
+            return false;
+        }
+
         public final void end ( )
         {
             _stack.remove( _stack.size() - 1 );
+
+            if (_paths == null)
+            {
+                _depth--;
+                return;
+            }
             
             for ( int i = 0 ; i < _paths.length ; i++ )
                 _paths[ i ].end();
         }
+
+        // The paths hit by the last call to start, element, attr or text,
+        // by their index in the array given to compileXPaths.  Only paths
+        // compiled to allow predicates record these.
+
+        public final int hitCount ( )
+        {
+            return _hitCount;
+        }
+
+        public final int hitId ( int i )
+        {
+            assert i >= 0 && i < _hitCount;
+
+            return _hits[ i ];
+        }
+
+        //
+        // Predicates are tested on the element the execution is at, which
+        // only the subclass driving the execution can see.  These are called
+        // only for paths compiled with predicates.
+        //
+
+        protected String attrValue ( QName name )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        protected boolean toFirstChildElement ( )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        protected boolean toNextSiblingElement ( )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        protected void toParentElement ( )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        protected QName elementName ( )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        protected String stringValue ( )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        protected boolean hasText ( String value )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        //
+        // Predicates can not be backtracked over with the names on the stack
+        // alone, so paths compiled to allow them run on frames instead.  Each
+        // element entered gets a frame holding the steps its content may
+        // match.  A deep step stays in the frames below the one it was first
+        // in.  Frames are reused by depth.
+        //
+
+        private Frame frame ( int depth )
+        {
+            if (depth == _frames.size())
+                _frames.add( new Frame() );
+
+            Frame frame = (Frame) _frames.get( depth );
+
+            frame._count = 0;
+
+            return frame;
+        }
+
+        private int startFrames ( )
+        {
+            Frame frame = frame( _depth = 0 );
+
+            _hitCount = 0;
+
+            Step[] paths = _xpath._selector._paths;
+            boolean hit = false;
+
+            for ( int i = 0 ; i < paths.length ; i++ )
+                hit = enter( frame, paths[ i ] ) || hit;
+
+            return hit ? HIT | frame.flags() : frame.flags();
+        }
+
+        // Enters the step to match next at the element of the frame, self
+        // steps matching right there.  Returns whether the element is hit.
+
+        private boolean enter ( Frame frame, Step step )
+        {
+            for ( ; step._name != null ; step = step._next )
+            {
+                if (!step._self)
+                {
+                    frame.add( step );
+                    return false;
+                }
+
+                if (step._deep)
+                    frame.add( step );
+
+                if (!test( step, null ))
+                    return false;
+            }
+
+            hit( step._id );
+
+            return true;
+        }
+
+        private void hit ( int id )
+        {
+            for ( int i = 0 ; i < _hitCount ; i++ )
+            {
+                if (_hits[ i ] == id)
+                    return;
+            }
+
+            if (_hitCount == _hits.length)
+            {
+                int[] hits = new int [ _hitCount * 2 ];
+                System.arraycopy( _hits, 0, hits, 0, _hitCount );
+                _hits = hits;
+            }
+
+            _hits[ _hitCount++ ] = id;
+        }
+
+        private int elementFrames ( QName name )
+        {
+            Frame parent = (Frame) _frames.get( _depth );
+            Frame frame = frame( ++_depth );
+
+            _hitCount = 0;
+
+            boolean hit = false;
+
+            for ( int i = 0 ; i < parent._count ; i++ )
+            {
+                Step s = parent._steps[ i ];
+
+                if (s._deep)
+                    frame.add( s );
+
+                if (s._attr || s._text || !s.match( name ))
+                    continue;
+
+                if (s._predicates != null && !test( s, parent.positions( i ) ))
+                    continue;
+
+                hit = enter( frame, s._next ) || hit;
+            }
+
+            return hit ? HIT | frame.flags() : frame.flags();
+        }
+
+        private boolean attrFrames ( QName name )
+        {
+            Frame frame = (Frame) _frames.get( _depth );
+
+            _hitCount = 0;
+
+            for ( int i = 0 ; i < frame._count ; i++ )
+            {
+                Step s = frame._steps[ i ];
+
+                if (s._attr && s.match( name ))
+                    hit( s._id );
+            }
+
+            return _hitCount > 0;
+        }
+
+        // Tests the predicates of a step in order, positions counting only
+        // the elements which passed the predicates before them
+
+        private boolean test ( Step step, int[] positions )
+        {
+            Predicate[] predicates = step._predicates;
+
+            for ( int i = 0, p = 0 ; i < predicates.length ; i++ )
+            {
+                Predicate predicate = predicates[ i ];
+
+                if (predicate._kind == Predicate.POSITION)
+                {
+                    if (++positions[ p++ ] != predicate._position)
+                        return false;
+                }
+                else if (!test( predicate ))
+                    return false;
+            }
+
+            return true;
+        }
+
+        private boolean test ( Predicate predicate )
+        {
+            switch ( predicate._kind )
+            {
+            case Predicate.ATTR :
+            {
+                String value = attrValue( predicate._child._name );
+
+                return
+                    value != null &&
+                        (predicate._value == null ||
+                            predicate._value.equals( value ));
+            }
+
+            case Predicate.SELF :
+                return predicate._value.equals( stringValue() );
+
+            case Predicate.TEXT :
+                return hasText( predicate._value );
+
+            case Predicate.CHILD :
+            {
+                if (!toFirstChildElement())
+                    return false;
+
+                Step child = predicate._child;
+
+                int[] positions =
+                    child._positions == 0 ? null : new int [ child._positions ];
+
+                boolean found = false;
+
+                do
+                {
+                    if (child.match( elementName() ) &&
+                            (child._predicates == null ||
+                                test( child, positions )) &&
+                            (predicate._value == null ||
+                                predicate._value.equals( stringValue() )))
+                    {
+                        found = true;
+                        break;
+                    }
+                }
+                while ( toNextSiblingElement() );
+
+                toParentElement();
+
+                return found;
+            }
+            }
+
+            throw new IllegalStateException();
+        }
+
+        private static final class Frame
+        {
+            void add ( Step step )
+            {
+                for ( int i = 0 ; i < _count ; i++ )
+                {
+                    if (_steps[ i ] == step)
+                        return;
+                }
+
+                if (_count == _steps.length)
+                {
+                    Step[] steps = new Step [ _count * 2 ];
+                    System.arraycopy( _steps, 0, steps, 0, _count );
+                    _steps = steps;
+
+                    int[][] positions = new int [ _count * 2 ][];
+                    System.arraycopy( _positions, 0, positions, 0, _count );
+                    _positions = positions;
+                }
+
+                _steps[ _count ] = step;
+                _positions[ _count ] = null;
+                _count++;
+            }
+
+            int[] positions ( int i )
+            {
+                if (_steps[ i ]._positions == 0)
+                    return null;
+
+                if (_positions[ i ] == null)
+                    _positions[ i ] = new int [ _steps[ i ]._positions ];
+
+                return _positions[ i ];
+            }
+
+            int flags ( )
+            {
+                int flags = 0;
+
+                for ( int i = 0 ; i < _count ; i++ )
+                {
+                    Step s = _steps[ i ];
+
+                    if (s._attr)
+                        flags |= s._deep ? ATTRS | DESCEND : ATTRS;
+                    else if (s._text)
+                        flags |= TEXT | DESCEND;
+                    else
+                        flags |= DESCEND;
+                }
+
+                return flags;
+            }
+
+            Step[]  _steps     = new Step [ 4 ];
+            int[][] _positions = new int [ 4 ][];
+            int     _count;
+        }
         
         private final class PathContext
         {
@@ -235,6 +609,10 @@ public class XPath
         private XPath         _xpath;
         private ArrayList     _stack;
         private PathContext[] _paths;
+        private ArrayList     _frames;
+        private int           _depth;
+        private int[]         _hits = new int [ 4 ];
+        private int           _hitCount;
     }
 
     //
@@ -262,16 +640,76 @@ public class XPath
     public static XPath compileXPath (
         String xpath, String currentNodeVar, Map namespaces )
             throws XPathCompileException
+    {
+        return compileXPath( xpath, currentNodeVar, namespaces, false );
+    }
+
+    // With allowPredicates, steps may also have predicates comparing an
+    // attribute, a child, the text or the position with a literal, the path
+    // may end in text() and go up with ..  Executing such a path needs an
+    // ExecutionContext which can test the predicates.
+
+    public static XPath compileXPath (
+        String xpath, String currentNodeVar, Map namespaces,
+        boolean allowPredicates )
+            throws XPathCompileException
     {
         return
-            new CompilationContext( namespaces, currentNodeVar ).
+            new CompilationContext( namespaces, currentNodeVar, allowPredicates ).
                 compile( xpath );
     }
 
+    // Compiles several paths into one, allowing predicates, which an
+    // ExecutionContext runs in a single pass.  hitCount and hitId tell
+    // which of the paths were hit, by their index in the array.  The
+    // paths must start at the context and not end in //.
+
+    public static XPath compileXPaths (
+        String[] xpaths, String currentNodeVar, Map namespaces )
+            throws XPathCompileException
+    {
+        ArrayList steps = new ArrayList();
+
+        for ( int i = 0 ; i < xpaths.length ; i++ )
+        {
+            // Each path may declare its own default namespace
+
+            XPath xpath =
+                compileXPath(
+                    xpaths[ i ], currentNodeVar,
+                    namespaces == null ? null : new HashMap( namespaces ), true );
+
+            if (xpath._sawDeepDot || xpath._parentSteps > 0)
+            {
+                throw new XPathCompileException(
+                    XmlError.forMessage(
+                        "Path can not be run with others: " + xpaths[ i ] ) );
+            }
+
+            Step[] paths = xpath._selector._paths;
+
+            for ( int j = 0 ; j < paths.length ; j++ )
+            {
+                for ( Step s = paths[ j ] ; s != null ; s = s._next )
+                    s._id = i;
+
+                steps.add( paths[ j ] );
+            }
+        }
+
+        return
+            new XPath(
+                new Selector( (Step[]) steps.toArray( new Step [ steps.size() ] ) ),
+                false, true, 0 );
+    }
+
     private static class CompilationContext
     {
-        CompilationContext ( Map namespaces, String currentNodeVar )
+        CompilationContext (
+            Map namespaces, String currentNodeVar, boolean allowPredicates )
         {
+            _allowPredicates = allowPredicates;
+
             assert
                 _currentNodeVar == null ||
                 _currentNodeVar.startsWith( "$" );
@@ -645,6 +1083,179 @@ public class XPath
             return sb.toString();
         }
 
+        private String tokenizeValue ( ) throws XPathCompileException
+        {
+            if (!tokenize( "=" ))
+                return null;
+
+            parseWhitespace();
+
+            if (currChar() != '"' && currChar() != '\'')
+                throw newError( "Expected string literal" );
+
+            return tokenizeQuotedUri();
+        }
+
+        private int tokenizePosition ( ) throws XPathCompileException
+        {
+            parseWhitespace();
+
+            int position = 0;
+
+            for ( ; currChar() >= '0' && currChar() <= '9' ; advance() )
+            {
+                if (position > 100000000)
+                    throw newError( "Position too large" );
+
+                position = position * 10 + currChar() - '0';
+            }
+
+            if (position == 0)
+                throw newError( "Expected position" );
+
+            return position;
+        }
+
+        private boolean atToken ( String s )
+        {
+            int offset = 0;
+
+            while ( isWhitespace( offset ) )
+                offset++;
+
+            return startsWith( s, offset );
+        }
+
+        private void tokenizePredicates ( Step step )
+            throws XPathCompileException
+        {
+            while ( _allowPredicates && tokenize( "[" ) )
+            {
+                step.addPredicate( tokenizePredicate() );
+
+                if (!tokenize( "]" ))
+                    throw newError( "Expected ']'" );
+            }
+        }
+
+        private Predicate tokenizePredicate ( ) throws XPathCompileException
+        {
+            if (tokenize( "attribute", "::" ) || tokenize( "@" ))
+            {
+                Step attr = new Step( false, true, tokenizeQName() );
+
+                if (attr.isWild())
+                    throw newError( "Wildcard attribute predicates unsupported" );
+
+                return new Predicate( Predicate.ATTR, attr, tokenizeValue() );
+            }
+
+            if (tokenize( "position", "(", ")" ))
+            {
+                if (!tokenize( "=" ))
+                    throw newError( "Expected '='" );
+
+                return new Predicate( tokenizePosition() );
+            }
+
+            parseWhitespace();
+
+            if (currChar() >= '0' && currChar() <= '9')
+                return new Predicate( tokenizePosition() );
+
+            Predicate predicate;
+
+            if (tokenize( "text", "(", ")" ))
+                predicate = new Predicate( Predicate.TEXT, null, tokenizeValue() );
+            else if (startsWith( ".." ))
+                throw newError( "Parent step in predicate unsupported" );
+            else if (tokenize( "." ))
+                predicate = new Predicate( Predicate.SELF, null, tokenizeValue() );
+            else
+            {
+                tokenize( "child", "::" );
+
+                Step child = new Step( false, false, tokenizeQName() );
+
+                tokenizePredicates( child );
+
+                return new Predicate( Predicate.CHILD, child, tokenizeValue() );
+            }
+
+            if (predicate._value == null)
+                throw newError( "Expected '='" );
+
+            return predicate;
+        }
+
+        private static Step lastStep ( Step steps )
+        {
+            while ( steps._next != null )
+                steps = steps._next;
+
+            return steps;
+        }
+
+        // A .. after a child step is turned into a self step, one matching
+        // where the step before it did, having such a child: a/b/.. is
+        // a/self::*[b] and a//b/.. is a/descendant-or-self::*[b].  A .. at
+        // the start goes up from the context.
+
+        private Step parentStep ( Step steps, boolean deep )
+            throws XPathCompileException
+        {
+            if (deep)
+                throw newError( "Parent step after // unsupported" );
+
+            if (steps == null)
+            {
+                _parents++;
+                return null;
+            }
+
+            Step last = lastStep( steps );
+
+            if (last._self)
+            {
+                // a/self::*[b]/.. is the parent of a, which has a b
+
+                Step prev = last._prev;
+
+                if (last._deep || prev == null || prev._self)
+                    throw newError( "Parent step unsupported here" );
+
+                for ( int i = 0 ; i < last._predicates.length ; i++ )
+                    prev.addPredicate( last._predicates[ i ] );
+
+                prev._next = null;
+
+                return parentStep( steps, false );
+            }
+
+            Step child = last;
+
+            if (last._deep)
+            {
+                child = new Step( false, false, last._name );
+
+                child._predicates = last._predicates;
+                child._positions = last._positions;
+            }
+
+            Step self = new Step( last._deep, false, getAnyQName() );
+
+            self._self = true;
+            self.addPredicate( new Predicate( Predicate.CHILD, child, null ) );
+
+            if (last._prev == null)
+                return self;
+
+            self._prev = last._prev;
+            self._prev._next = self;
+
+            return steps;
+        }
+
         private Step addStep ( boolean deep, boolean attr, QName name, Step steps )
         {
             Step step = new Step( deep, attr, name );
@@ -670,7 +1281,9 @@ public class XPath
 
             boolean deep;
 
-            if (tokenize( "$", _currentNodeVar, "//" ) || tokenize( ".", "//" ))
+            if (_allowPredicates && atToken( ".." ))
+                deep = false;
+            else if (tokenize( "$", _currentNodeVar, "//" ) || tokenize( ".", "//" ))
                 deep = true;
             else if (tokenize( "$", _currentNodeVar, "/" ) || tokenize( ".", "/" ))
                 deep = false;
@@ -693,9 +1306,22 @@ public class XPath
                     break;
                 }
 
+                if (_allowPredicates && tokenize( "text", "(", ")" ))
+                {
+                    steps = addStep( deep, false, getAnyQName(), steps );
+                    lastStep( steps )._text = true;
+                    deepDot = false;
+                    break;
+                }
+
                 QName name;
                 
-                if (tokenize( "." ))
+                if (_allowPredicates && tokenize( ".." ))
+                {
+                    steps = parentStep( steps, deep || deepDot );
+                    deep = false;
+                }
+                else if (tokenize( "." ))
                     deepDot = deepDot || deep;
                 else
                 {
@@ -703,6 +1329,7 @@ public class XPath
                     if ((name = tokenizeQName()) != null)
                     {
                         steps = addStep( deep, false, name, steps );
+                        tokenizePredicates( lastStep( steps ) );
                         deep = false; // only this step needs to be deep
                         // other folowing steps will be deep only if they are preceded by // wildcard
                     }
@@ -858,8 +1485,16 @@ public class XPath
             throws XPathCompileException
         {
             _lastDeepDot = false;
+            _parents = 0;
             
             Step steps = tokenizeSteps();
+
+            // All the paths start from the same context
+
+            if (paths.isEmpty())
+                _pathParents = _parents;
+            else if (_parents != _pathParents)
+                throw newError( "Paths going up from the context differently" );
             
             computeBacktrack( steps );
 
@@ -990,7 +1625,9 @@ public class XPath
                     "Unexpected char '" + (char) currChar() + "'" );
             }
 
-            return new XPath( selector, _sawDeepDot );
+            return
+                new XPath(
+                    selector, _sawDeepDot, _allowPredicates, _pathParents );
         }
 
         //split of prolog decls that are not standard XPath syntax
@@ -1004,6 +1641,10 @@ public class XPath
         private boolean _sawDeepDot;  // Saw one overall
         private boolean _lastDeepDot;
 
+        private boolean _allowPredicates;
+        private int     _parents;
+        private int     _pathParents;
+
         private String _currentNodeVar;
         
        // private Map _namespaces;
@@ -1074,17 +1715,72 @@ public class XPath
             return local.equals(nameLocal) && uri.equals(nameUri);
         }
 
+        void addPredicate ( Predicate predicate )
+        {
+            int n = _predicates == null ? 0 : _predicates.length;
+
+            Predicate[] predicates = new Predicate [ n + 1 ];
+
+            if (n > 0)
+                System.arraycopy( _predicates, 0, predicates, 0, n );
+
+            predicates[ n ] = predicate;
+
+            _predicates = predicates;
+
+            if (predicate._kind == Predicate.POSITION)
+                _positions++;
+        }
+
         final boolean _attr;
         final boolean _deep;
 
+        boolean _text;
+        boolean _self;
+
         int _flags;
         
         final QName _name;
 
         Step _next, _prev;
 
+        Predicate[] _predicates;
+        int         _positions;
+
         boolean _hasBacktrack;
         Step    _backtrack;
+
+        int _id;
+    }
+
+    private static final class Predicate
+    {
+        static final int ATTR     = 0; // [@a] or [@a='v']
+        static final int CHILD    = 1; // [b], [b='v'] or [b[...]]
+        static final int SELF     = 2; // [.='v']
+        static final int TEXT     = 3; // [text()='v']
+        static final int POSITION = 4; // [3] or [position()=3]
+
+        Predicate ( int kind, Step child, String value )
+        {
+            _kind = kind;
+            _child = child;
+            _value = value;
+            _position = 0;
+        }
+
+        Predicate ( int position )
+        {
+            _kind = POSITION;
+            _child = null;
+            _value = null;
+            _position = position;
+        }
+
+        final int    _kind;
+        final Step   _child;
+        final String _value;
+        final int    _position;
     }
 
     private static final class Selector
@@ -1101,10 +1797,14 @@ public class XPath
     //
     //
     
-    private XPath ( Selector selector, boolean sawDeepDot )
+    private XPath (
+        Selector selector, boolean sawDeepDot, boolean allowPredicates,
+        int parentSteps )
     {
         _selector = selector;
         _sawDeepDot = sawDeepDot;
+        _allowPredicates = allowPredicates;
+        _parentSteps = parentSteps;
     }
 
     public boolean sawDeepDot ( )
@@ -1112,8 +1812,46 @@ public class XPath
         return _sawDeepDot;
     }
 
+    // The number of .. the paths start with, the execution starts that
+    // many parents up from the context
+
+    public int parentSteps ( )
+    {
+        return _parentSteps;
+    }
+
+    // Whether the paths can run on events as they are read, without the
+    // tree : the only predicates are on attributes and positions, which
+    // are known when an element starts
+
+    public boolean isStreamable ( )
+    {
+        if (_sawDeepDot || _parentSteps > 0)
+            return false;
+
+        Step[] paths = _selector._paths;
+
+        for ( int i = 0 ; i < paths.length ; i++ )
+        {
+            for ( Step s = paths[ i ] ; s != null ; s = s._next )
+            {
+                for ( int j = 0 ; s._predicates != null && j < s._predicates.length ; j++ )
+                {
+                    int kind = s._predicates[ j ]._kind;
+
+                    if (kind != Predicate.ATTR && kind != Predicate.POSITION)
+                        return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
     public static final String _NS_BOUNDARY = "$xmlbeans!ns_boundary";
     public static final String _DEFAULT_ELT_NS = "$xmlbeans!default_uri";
     private final Selector _selector;
     private final boolean  _sawDeepDot;
+    private final boolean  _allowPredicates;
+    private final int      _parentSteps;
 }
\ No newline at end of file
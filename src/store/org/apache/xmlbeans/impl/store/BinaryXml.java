@@ -0,0 +1,809 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import javax.xml.namespace.QName;
+
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+
+import org.apache.xmlbeans.impl.store.Saver.SaveCur;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The compact binary form of a document, for caches and the wire.
+ * <p>
+ * A document starts with the bytes "XBIN", a version byte and the kind of
+ * the type it was saved with, followed by the name of that type unless
+ * the kind is {@link #TYPE_NONE}.  Then come the tokens of the document,
+ * each an opcode byte and its operands, up to an {@link #OP_END}.
+ * <p>
+ * Numbers are written seven bits to a byte, low bits first, the top bit
+ * set on all but the last byte.  A string is written once, the first time
+ * it is used, and from then on referred to by its index.  Names are
+ * shared the same way, a name being its uri, local part and prefix.  A
+ * text is its length, shifted left by one and or'ed with one if the text
+ * is in two byte chars rather than in Latin-1, followed by its chars.
+ */
+
+final class BinaryXml
+{
+    static final byte[] MAGIC = { 'X', 'B', 'I', 'N' };
+    static final int    VERSION = 1;
+
+    // The kinds of type a document is saved with
+
+    static final int TYPE_NONE      = 0;
+    static final int TYPE_DOCUMENT  = 1;
+    static final int TYPE_GLOBAL    = 2;
+    static final int TYPE_ATTRIBUTE = 3;
+
+    // The opcodes, with their operands.  Prefixed, as the savers inherit
+    // the names of the kinds of token
+
+    static final int OP_END         = 0;
+    static final int OP_ELEMENT     = 1; // name
+    static final int OP_END_ELEMENT = 2;
+    static final int OP_ATTR        = 3; // name, text
+    static final int OP_XMLNS       = 4; // prefix, uri
+    static final int OP_TEXT        = 5; // text
+    static final int OP_COMMENT     = 6; // text
+    static final int OP_PROCINST    = 7; // target, text
+    static final int OP_DOCTYPE     = 8; // name, public id, system id
+
+    // String references, above these are indexes into the strings read
+
+    private static final int NEW_STRING  = 0;
+    private static final int NULL_STRING = 1;
+
+    // Name references, above this are indexes into the names read
+
+    private static final int NEW_NAME = 0;
+
+    private BinaryXml ( )
+    {
+    }
+
+    static void save ( Cur c, XmlOptions options, OutputStream os )
+        throws IOException
+    {
+        BinarySaver saver = new BinarySaver( c, options, os );
+
+        try
+        {
+            saver.writeHeader( c.isRoot() ? c.getUser().get_schema_type() : null );
+
+            while ( saver.process() )
+                ;
+
+            saver.writeByte( OP_END );
+            saver.flush();
+        }
+        catch ( BinaryIOException e )
+        {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    private static class BinaryIOException
+        extends RuntimeException
+    {
+        BinaryIOException ( IOException e )
+        {
+            super( e );
+        }
+    }
+
+    //
+    //
+    //
+
+    static final class BinarySaver extends Saver
+    {
+        BinarySaver ( Cur c, XmlOptions options, OutputStream os )
+        {
+            super( c, options );
+
+            _os = os;
+        }
+
+        void writeHeader ( SchemaType type )
+        {
+            for ( int i = 0 ; i < MAGIC.length ; i++ )
+                writeByte( MAGIC[ i ] );
+
+            writeByte( VERSION );
+
+            // Neither a document nobody typed nor one of no particular
+            // type needs its type saved
+
+            if (type == null || type.isNoType() || type == XmlObject.type)
+                writeByte( TYPE_NONE );
+            else if (type.isDocumentType())
+            {
+                writeByte( TYPE_DOCUMENT );
+                writeName( type.getDocumentElementName() );
+            }
+            else if (type.isAttributeType())
+            {
+                writeByte( TYPE_ATTRIBUTE );
+                writeName( type.getAttributeTypeAttributeName() );
+            }
+            else if (type.getName() != null)
+            {
+                writeByte( TYPE_GLOBAL );
+                writeName( type.getName() );
+            }
+            else
+                writeByte( TYPE_NONE );
+        }
+
+        protected boolean emitElement ( SaveCur c, ArrayList attrNames, ArrayList attrValues )
+        {
+            assert c.isElem();
+
+            QName name = c.getName();
+
+            writeByte( OP_ELEMENT );
+            writeName( name, savedName( name, false )._key );
+
+            if (saveNamespacesFirst())
+                writeNamespaces();
+
+            for ( int i = 0 ; i < attrNames.size() ; i++ )
+            {
+                QName attrName = (QName) attrNames.get( i );
+                String value = (String) attrValues.get( i );
+
+                writeByte( OP_ATTR );
+                writeName( attrName, savedName( attrName, true )._key );
+                writeText( value, 0, value.length() );
+            }
+
+            if (!saveNamespacesFirst())
+                writeNamespaces();
+
+            return false;
+        }
+
+        private void writeNamespaces ( )
+        {
+            for ( iterateMappings() ; hasMapping() ; nextMapping() )
+            {
+                writeByte( OP_XMLNS );
+                writeString( mappingPrefix() );
+                writeString( mappingUri() );
+            }
+        }
+
+        protected void emitFinish ( SaveCur c )
+        {
+            writeByte( OP_END_ELEMENT );
+        }
+
+        protected void emitText ( SaveCur c )
+        {
+            assert c.isText();
+
+            Object src = c.getChars();
+
+            if (c._cchSrc > 0)
+            {
+                writeByte( OP_TEXT );
+                writeText( src, c._offSrc, c._cchSrc );
+            }
+        }
+
+        protected void emitComment ( SaveCur c )
+        {
+            assert c.isComment();
+
+            writeByte( OP_COMMENT );
+            writeValue( c );
+        }
+
+        protected void emitProcinst ( SaveCur c )
+        {
+            assert c.isProcinst();
+
+            writeByte( OP_PROCINST );
+            writeString( c.getName().getLocalPart() );
+            writeValue( c );
+        }
+
+        // The value of a comment or a procinst is the text which follows it
+
+        private void writeValue ( SaveCur c )
+        {
+            c.push();
+            c.next();
+
+            if (c.isText())
+            {
+                Object src = c.getChars();
+                writeText( src, c._offSrc, c._cchSrc );
+            }
+            else
+                writeNumber( 0 );
+
+            c.pop();
+        }
+
+        protected void emitDocType ( String docTypeName, String publicId, String systemId )
+        {
+            writeByte( OP_DOCTYPE );
+            writeString( docTypeName );
+            writeString( publicId );
+            writeString( systemId );
+        }
+
+        protected void emitStartDoc ( SaveCur c )
+        {
+        }
+
+        protected void emitEndDoc ( SaveCur c )
+        {
+        }
+
+        //
+        //
+        //
+
+        void writeByte ( int b )
+        {
+            if (_len == _bytes.length)
+                flush();
+
+            _bytes[ _len++ ] = (byte) b;
+        }
+
+        private void writeNumber ( long n )
+        {
+            if (_len > _bytes.length - 10)
+                flush();
+
+            for ( ; n >= 0x80 ; n >>>= 7 )
+                _bytes[ _len++ ] = (byte) (n | 0x80);
+
+            _bytes[ _len++ ] = (byte) n;
+        }
+
+        private void writeString ( String s )
+        {
+            if (s == null)
+            {
+                writeNumber( NULL_STRING );
+                return;
+            }
+
+            Integer index = (Integer) _strings.get( s );
+
+            if (index != null)
+            {
+                writeNumber( index.intValue() + 2 );
+                return;
+            }
+
+            _strings.put( s, new Integer( _strings.size() ) );
+
+            writeNumber( NEW_STRING );
+            writeText( s, 0, s.length() );
+        }
+
+        private void writeName ( QName name )
+        {
+            writeName( name, name.getPrefix() );
+        }
+
+        private void writeName ( QName name, String prefix )
+        {
+            // QNames do not compare their prefixes, the names which differ
+            // only in the prefix they are written with are chained
+
+            SavedName first = (SavedName) _names.get( name );
+
+            for ( SavedName saved = first ; saved != null ; saved = saved._next )
+            {
+                if (saved._prefix.equals( prefix ))
+                {
+                    writeNumber( saved._index + 1 );
+                    return;
+                }
+            }
+
+            _names.put( name, new SavedName( prefix, _nameCount++, first ) );
+
+            writeNumber( NEW_NAME );
+            writeString( name.getNamespaceURI() );
+            writeString( name.getLocalPart() );
+            writeString( prefix );
+        }
+
+        private void writeText ( Object src, int off, int cch )
+        {
+            char[] chars;
+
+            if (src instanceof char[])
+                chars = (char[]) src;
+            else
+            {
+                if (_chars.length < cch)
+                    _chars = new char [ Math.max( cch, _chars.length * 2 ) ];
+
+                CharUtil.getChars( _chars, 0, src, off, cch );
+
+                chars = _chars;
+                off = 0;
+            }
+
+            int end = off + cch;
+            boolean wide = false;
+
+            for ( int i = off ; i < end ; i++ )
+            {
+                if (chars[ i ] > 0xFF)
+                {
+                    wide = true;
+                    break;
+                }
+            }
+
+            writeNumber( ((long) cch << 1) | (wide ? 1 : 0) );
+
+            byte[] bytes = _bytes;
+
+            for ( int i = off ; i < end ; )
+            {
+                if (_len > bytes.length - 2)
+                    flush();
+
+                if (wide)
+                {
+                    int n = Math.min( end - i, (bytes.length - _len) >> 1 );
+
+                    for ( int stop = i + n ; i < stop ; i++ )
+                    {
+                        char ch = chars[ i ];
+                        bytes[ _len++ ] = (byte) (ch >> 8);
+                        bytes[ _len++ ] = (byte) ch;
+                    }
+                }
+                else
+                {
+                    int n = Math.min( end - i, bytes.length - _len );
+
+                    for ( int stop = i + n ; i < stop ; i++ )
+                        bytes[ _len++ ] = (byte) chars[ i ];
+                }
+            }
+        }
+
+        void flush ( )
+        {
+            try
+            {
+                _os.write( _bytes, 0, _len );
+            }
+            catch ( IOException e )
+            {
+                throw new BinaryIOException( e );
+            }
+
+            _len = 0;
+        }
+
+        private static final class SavedName
+        {
+            SavedName ( String prefix, int index, SavedName next )
+            {
+                _prefix = prefix;
+                _index = index;
+                _next = next;
+            }
+
+            final String    _prefix;
+            final int       _index;
+            final SavedName _next;
+        }
+
+        private final OutputStream _os;
+
+        private byte[] _bytes = new byte [ 8192 ];
+        private int    _len;
+        private char[] _chars = new char [ 512 ];
+
+        private HashMap _strings = new HashMap();
+        private HashMap _names = new HashMap();
+        private int     _nameCount;
+    }
+
+    //
+    //
+    //
+
+    /**
+     * Loads a document saved in the binary form.  Only the bytes of the
+     * document are consumed from a stream which supports mark and reset,
+     * so that more may follow it.
+     */
+
+    static final class Loader
+    {
+        Loader ( Locale l, InputStream is, XmlOptions options )
+        {
+            _locale = l;
+            _is = is;
+            _options = options;
+            _markable = is.markSupported();
+        }
+
+        Cur load ( ) throws XmlException, IOException
+        {
+            readHeader();
+
+            Locale.LoadContext context = new Cur.CurLoadContext( _locale, _options );
+
+            try
+            {
+                int depth = 0;
+
+                for ( ; ; )
+                {
+                    int op = readByte();
+
+                    if (op == OP_END)
+                        break;
+
+                    switch ( op )
+                    {
+                    case OP_ELEMENT :
+                        context.startElement( readName() );
+                        depth++;
+                        break;
+
+                    case OP_END_ELEMENT :
+                        if (depth-- == 0)
+                            throw new XmlException( "Binary XML has an unmatched end of element" );
+
+                        context.endElement();
+                        break;
+
+                    case OP_ATTR :
+                    {
+                        QName name = readName();
+                        int cch = readText();
+                        context.attr( name, new String( _chars, 0, cch ) );
+                        break;
+                    }
+
+                    case OP_XMLNS :
+                    {
+                        String prefix = readString();
+                        String uri = readString();
+
+                        if (prefix == null || uri == null)
+                            throw new XmlException( "Binary XML has a malformed namespace declaration" );
+
+                        context.xmlns( prefix, uri );
+                        break;
+                    }
+
+                    // The text has to be read before _chars is looked at, as
+                    // reading it may grow _chars
+
+                    case OP_TEXT :
+                    {
+                        int cch = readText();
+                        context.text( _chars, 0, cch );
+                        break;
+                    }
+
+                    case OP_COMMENT :
+                    {
+                        int cch = readText();
+                        context.comment( _chars, 0, cch );
+                        break;
+                    }
+
+                    case OP_PROCINST :
+                    {
+                        String target = readString();
+
+                        if (target == null)
+                            throw new XmlException( "Binary XML has a processing instruction without a target" );
+
+                        int cch = readText();
+                        context.procInst( target, new String( _chars, 0, cch ) );
+                        break;
+                    }
+
+                    case OP_DOCTYPE :
+                    {
+                        String name = readString();
+                        String publicId = readString();
+                        String systemId = readString();
+
+                        if (name == null)
+                            throw new XmlException( "Binary XML has a document type without a name" );
+
+                        context.startDTD( name, publicId, systemId );
+                        context.endDTD();
+                        break;
+                    }
+
+                    default :
+                        throw new XmlException( "Binary XML has an unknown opcode: " + op );
+                    }
+                }
+
+                if (depth != 0)
+                    throw new XmlException( "Binary XML ends inside an element" );
+
+                unread();
+            }
+            catch ( XmlException e )
+            {
+                context.abort();
+                throw e;
+            }
+            catch ( IOException e )
+            {
+                context.abort();
+                throw e;
+            }
+            catch ( RuntimeException e )
+            {
+                context.abort();
+                throw e;
+            }
+
+            return context.finish();
+        }
+
+        /**
+         * Returns the type the document was saved with, if it is known to
+         * the type loader of the locale, or null.
+         */
+        SchemaType getSavedType ( )
+        {
+            switch ( _typeKind )
+            {
+            case TYPE_DOCUMENT :
+                return _locale._schemaTypeLoader.findDocumentType( _typeName );
+            case TYPE_GLOBAL :
+                return _locale._schemaTypeLoader.findType( _typeName );
+            case TYPE_ATTRIBUTE :
+                return _locale._schemaTypeLoader.findAttributeType( _typeName );
+            default :
+                return null;
+            }
+        }
+
+        private void readHeader ( ) throws XmlException, IOException
+        {
+            for ( int i = 0 ; i < MAGIC.length ; i++ )
+            {
+                if (readByte() != MAGIC[ i ])
+                    throw new XmlException( "Not binary XML" );
+            }
+
+            int version = readByte();
+
+            if (version != VERSION)
+                throw new XmlException( "Unsupported binary XML version: " + version );
+
+            _typeKind = readByte();
+
+            if (_typeKind > TYPE_ATTRIBUTE)
+                throw new XmlException( "Binary XML has an unknown type kind: " + _typeKind );
+
+            if (_typeKind != TYPE_NONE)
+                _typeName = readName();
+        }
+
+        private int readByte ( ) throws XmlException, IOException
+        {
+            if (_pos == _lim)
+                fill();
+
+            return _bytes[ _pos++ ] & 0xFF;
+        }
+
+        private long readNumber ( ) throws XmlException, IOException
+        {
+            long n = 0;
+
+            for ( int shift = 0 ; shift < 64 ; shift += 7 )
+            {
+                int b = readByte();
+
+                n |= (long) (b & 0x7F) << shift;
+
+                if (b < 0x80)
+                    return n;
+            }
+
+            throw new XmlException( "Binary XML has a malformed number" );
+        }
+
+        private String readString ( ) throws XmlException, IOException
+        {
+            long ref = readNumber();
+
+            if (ref == NEW_STRING)
+            {
+                int cch = readText();
+                String s = new String( _chars, 0, cch );
+                _strings.add( s );
+                return s;
+            }
+
+            if (ref == NULL_STRING)
+                return null;
+
+            if (ref - 2 >= _strings.size())
+                throw new XmlException( "Binary XML refers to an unknown string" );
+
+            return (String) _strings.get( (int) ref - 2 );
+        }
+
+        private QName readName ( ) throws XmlException, IOException
+        {
+            long ref = readNumber();
+
+            if (ref == NEW_NAME)
+            {
+                String uri = readString();
+                String local = readString();
+                String prefix = readString();
+
+                if (uri == null || local == null || prefix == null)
+                    throw new XmlException( "Binary XML has a malformed name" );
+
+                QName name = _locale.makeQName( uri, local, prefix );
+                _names.add( name );
+                return name;
+            }
+
+            if (ref - 1 >= _names.size())
+                throw new XmlException( "Binary XML refers to an unknown name" );
+
+            return (QName) _names.get( (int) ref - 1 );
+        }
+
+        // Reads a text into _chars and returns its length
+
+        private int readText ( ) throws XmlException, IOException
+        {
+            long header = readNumber();
+            long length = header >>> 1;
+            boolean wide = (header & 1) != 0;
+
+            if (length > Integer.MAX_VALUE)
+                throw new XmlException( "Binary XML has a text which is too long" );
+
+            int cch = (int) length;
+
+            if (_chars.length < cch)
+                _chars = new char [ Math.max( cch, _chars.length * 2 ) ];
+
+            char[] chars = _chars;
+            byte[] bytes = _bytes;
+
+            for ( int i = 0 ; i < cch ; )
+            {
+                if (_pos == _lim)
+                    fill();
+
+                if (wide)
+                {
+                    int n = Math.min( cch - i, (_lim - _pos) >> 1 );
+
+                    if (n == 0)
+                    {
+                        // A char split between two fills
+                        int hi = readByte();
+                        chars[ i++ ] = (char) (hi << 8 | readByte());
+                        continue;
+                    }
+
+                    for ( int stop = i + n ; i < stop ; _pos += 2 )
+                        chars[ i++ ] = (char) ((bytes[ _pos ] & 0xFF) << 8 | (bytes[ _pos + 1 ] & 0xFF));
+                }
+                else
+                {
+                    int n = Math.min( cch - i, _lim - _pos );
+
+                    for ( int stop = i + n ; i < stop ; )
+                        chars[ i++ ] = (char) (bytes[ _pos++ ] & 0xFF);
+                }
+            }
+
+            return cch;
+        }
+
+        private void fill ( ) throws XmlException, IOException
+        {
+            if (_markable)
+                _is.mark( _bytes.length );
+
+            int n;
+
+            do
+            {
+                n = _is.read( _bytes, 0, _bytes.length );
+            }
+            while ( n == 0 );
+
+            if (n < 0)
+                throw new XmlException( "Binary XML ends unexpectedly" );
+
+            _pos = 0;
+            _lim = n;
+        }
+
+        // Gives back to the stream what was read past the end of the document
+
+        private void unread ( ) throws IOException
+        {
+            if (!_markable || _pos == _lim)
+                return;
+
+            _is.reset();
+
+            for ( long n = _pos ; n > 0 ; )
+            {
+                long skipped = _is.skip( n );
+
+                if (skipped <= 0)
+                {
+                    if (_is.read() < 0)
+                        break;
+
+                    skipped = 1;
+                }
+
+                n -= skipped;
+            }
+
+            _pos = _lim;
+        }
+
+        private final Locale      _locale;
+        private final InputStream _is;
+        private final XmlOptions  _options;
+        private final boolean     _markable;
+
+        private byte[] _bytes = new byte [ 8192 ];
+        private int    _pos;
+        private int    _lim;
+        private char[] _chars = new char [ 512 ];
+
+        private ArrayList _strings = new ArrayList();
+        private ArrayList _names = new ArrayList();
+
+        private int   _typeKind;
+        private QName _typeName;
+    }
+}
@@ -22,6 +22,34 @@ public final class CharUtil
     public CharUtil ( int charBufSize )
     {
         _charBufSize = charBufSize;
+        _maxCharBufSize = charBufSize;
+    }
+
+    /**
+     * Creates a CharUtil which behaves as an arena: each new buffer is
+     * twice the size of the previous one, up to maxCharBufSize chars, so a
+     * large document ends up in a few big slabs rather than many small ones.
+     */
+    public CharUtil ( int charBufSize, int maxCharBufSize )
+    {
+        _charBufSize = charBufSize;
+        _maxCharBufSize = Math.max( charBufSize, maxCharBufSize );
+    }
+
+    /**
+     * Number of char buffers this CharUtil has allocated so far.
+     */
+    public int getBufferCount ( )
+    {
+        return _bufferCount;
+    }
+
+    /**
+     * Total size, in chars, of the buffers this CharUtil has allocated.
+     */
+    public long getAllocatedChars ( )
+    {
+        return _allocatedChars;
     }
 
     public CharIterator getCharIterator ( Object src, int off, int cch )
@@ -396,6 +424,12 @@ public final class CharUtil
         {
             _currentBuffer = new char [ Math.max( cch, _charBufSize ) ];
             _currentOffset = 0;
+
+            _bufferCount++;
+            _allocatedChars += _currentBuffer.length;
+
+            if (_charBufSize < _maxCharBufSize)
+                _charBufSize = Math.min( _charBufSize * 2, _maxCharBufSize );
         }
 
         _offSrc = _currentOffset;
@@ -917,8 +951,12 @@ public final class CharUtil
     // Current char buffer we're allcoating new chars to
 
     private int    _charBufSize;
+    private int    _maxCharBufSize;
     private int    _currentOffset;
     private char[] _currentBuffer;
+
+    private int    _bufferCount;
+    private long   _allocatedChars;
     
     // These members are used to communicate offset and character count
     // information back to a caller of various methods on CharUtil.
@@ -0,0 +1,132 @@
+/*   Copyright 2004-2018 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import org.apache.xmlbeans.QNameSet;
+
+/**
+ * Snapshot of the element children of one parent, grouped by name, in
+ * document order.
+ * <p>
+ * Generated accessors for repeated elements (getXArray(i), sizeOfXArray())
+ * look children up by name and position on every call, which is a walk of
+ * the sibling list.  For parents with many children the locale builds one
+ * of these instead, see {@link Locale#childIndex}.  An index is only valid
+ * for the structure version it was built at; it is never updated.
+ */
+final class ChildIndex
+{
+    private static final Xobj[] EMPTY = new Xobj[0];
+
+    ChildIndex(Xobj parent)
+    {
+        ArrayList elems = new ArrayList();
+        HashMap byName = new HashMap();
+
+        for (Xobj x = parent._firstChild; x != null; x = x._nextSibling)
+        {
+            if (!x.isElem())
+                continue;
+
+            elems.add(x);
+
+            ArrayList named = (ArrayList) byName.get(x._name);
+
+            if (named == null)
+                byName.put(x._name, named = new ArrayList());
+
+            named.add(x);
+        }
+
+        _elems = (Xobj[]) elems.toArray(new Xobj[elems.size()]);
+
+        _byName = new HashMap(byName.size() * 2);
+
+        for (Iterator i = byName.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry e = (Map.Entry) i.next();
+            ArrayList named = (ArrayList) e.getValue();
+
+            _byName.put(e.getKey(),
+                named.toArray(new Xobj[named.size()]));
+        }
+    }
+
+    /**
+     * Returns the element children matching name or set, in document
+     * order.  As for {@link Locale#findNthChildElem}, at most one of name
+     * and set is not null, and both null matches any element.
+     */
+    Xobj[] children(QName name, QNameSet set)
+    {
+        if (set != null)
+        {
+            // Sets come from generated code, and QNameSet compares by
+            // identity, which is good enough here
+
+            Xobj[] a = (Xobj[]) _bySet.get(set);
+
+            if (a == null)
+            {
+                ArrayList matches = new ArrayList();
+
+                for (int i = 0; i < _elems.length; i++)
+                    if (set.contains(_elems[i]._name))
+                        matches.add(_elems[i]);
+
+                a = (Xobj[]) matches.toArray(new Xobj[matches.size()]);
+
+                _bySet.putIfAbsent(set, a);
+            }
+
+            return a;
+        }
+
+        if (name == null)
+            return _elems;
+
+        Xobj[] a = (Xobj[]) _byName.get(name);
+
+        return a == null ? EMPTY : a;
+    }
+
+    Xobj nth(QName name, QNameSet set, int n)
+    {
+        Xobj[] a = children(name, set);
+
+        return n < a.length ? a[n] : null;
+    }
+
+    int count(QName name, QNameSet set)
+    {
+        return children(name, set).length;
+    }
+
+    private final Xobj[] _elems;
+    private final HashMap _byName;
+
+    // Filled on demand, possibly by several readers of a document open to
+    // concurrent reads
+    private final ConcurrentHashMap _bySet = new ConcurrentHashMap();
+}
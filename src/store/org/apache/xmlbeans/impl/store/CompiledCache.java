@@ -0,0 +1,275 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xmlbeans.SystemProperties;
+
+/**
+ * The cache of compiled paths and queries shared by all threads.  Lookups
+ * take no lock.  When the cache grows past getMaxSize() entries, the least
+ * recently used ones are dropped.
+ * <p/>
+ * The size can be set with the system property
+ * "xmlbeans.compiledcache.size".
+ */
+
+public final class CompiledCache
+{
+    private CompiledCache ( int maxSize )
+    {
+        _maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cache used by selectPath and execQuery.
+     */
+
+    public static CompiledCache getInstance ( )
+    {
+        return _instance;
+    }
+
+    public int getMaxSize ( )
+    {
+        return _maxSize;
+    }
+
+    public int size ( )
+    {
+        return _map.size();
+    }
+
+    /**
+     * The number of lookups which found a compiled expression.
+     */
+
+    public long getHits ( )
+    {
+        return _hits.get();
+    }
+
+    /**
+     * The number of lookups which had to compile the expression.
+     */
+
+    public long getMisses ( )
+    {
+        return _misses.get();
+    }
+
+    /**
+     * The number of compiled expressions dropped to keep the cache
+     * within its size.
+     */
+
+    public long getEvictions ( )
+    {
+        return _evictions.get();
+    }
+
+    public void clear ( )
+    {
+        _map.clear();
+    }
+
+    /**
+     * What a compiled expression depends on : the expression itself, the
+     * name of the variable bound to the current node, and the engine it
+     * was compiled for, with the name of the delegate class if one was
+     * asked for.
+     */
+
+    static final class Key
+    {
+        Key ( Class owner, int engine, String expr, String currentVar, String delegate )
+        {
+            assert owner != null && expr != null;
+
+            _owner = owner;
+            _engine = engine;
+            _expr = expr;
+            _currentVar = currentVar;
+            _delegate = delegate;
+
+            int h = owner.hashCode();
+            h = h * 31 + engine;
+            h = h * 31 + expr.hashCode();
+            h = h * 31 + (currentVar == null ? 0 : currentVar.hashCode());
+            h = h * 31 + (delegate == null ? 0 : delegate.hashCode());
+
+            _hash = h;
+        }
+
+        public boolean equals ( Object o )
+        {
+            if (!(o instanceof Key))
+                return false;
+
+            Key k = (Key) o;
+
+            return
+                k._hash == _hash && k._owner == _owner && k._engine == _engine &&
+                    k._expr.equals( _expr ) && same( k._currentVar, _currentVar ) &&
+                    same( k._delegate, _delegate );
+        }
+
+        private static boolean same ( String a, String b )
+        {
+            return a == null ? b == null : a.equals( b );
+        }
+
+        public int hashCode ( )
+        {
+            return _hash;
+        }
+
+        private final Class  _owner;
+        private final int    _engine;
+        private final String _expr;
+        private final String _currentVar;
+        private final String _delegate;
+        private final int    _hash;
+    }
+
+    /**
+     * Returns the compiled expression for the key, or null if it has not
+     * been compiled or has been dropped.
+     */
+
+    Object get ( Key key )
+    {
+        Entry e = (Entry) _map.get( key );
+
+        if (e == null)
+        {
+            _misses.incrementAndGet();
+            return null;
+        }
+
+        e._used = _clock.incrementAndGet();
+        _hits.incrementAndGet();
+
+        return e._value;
+    }
+
+    /**
+     * Adds a compiled expression.  If another thread added one for the same
+     * key meanwhile, that one is kept and returned.
+     */
+
+    Object put ( Key key, Object value )
+    {
+        assert value != null;
+
+        Entry e = new Entry( value, _clock.incrementAndGet() );
+        Entry prev = (Entry) _map.putIfAbsent( key, e );
+
+        if (prev != null)
+            return prev._value;
+
+        if (_map.size() > _maxSize)
+            evict();
+
+        return value;
+    }
+
+    private void evict ( )
+    {
+        // One thread at a time trims the cache, the others go on.  Trimming
+        // to three quarters of the size keeps the sort off most puts.
+
+        if (!_evicting.compareAndSet( false, true ))
+            return;
+
+        try
+        {
+            Map.Entry[] entries = (Map.Entry[]) _map.entrySet().toArray( new Map.Entry[ 0 ] );
+
+            int keep = _maxSize - _maxSize / 4;
+
+            if (entries.length <= keep)
+                return;
+
+            // Entries are used while this runs, so their times are read once
+
+            long[] used = new long[ entries.length ];
+
+            for ( int i = 0 ; i < entries.length ; i++ )
+                used[ i ] = ((Entry) entries[ i ].getValue())._used;
+
+            long[] sorted = (long[]) used.clone();
+
+            Arrays.sort( sorted );
+
+            long cutoff = sorted[ entries.length - keep - 1 ];
+
+            for ( int i = 0 ; i < entries.length ; i++ )
+            {
+                if (used[ i ] <= cutoff && _map.remove( entries[ i ].getKey(), entries[ i ].getValue() ))
+                    _evictions.incrementAndGet();
+            }
+        }
+        finally
+        {
+            _evicting.set( false );
+        }
+    }
+
+    private static final class Entry
+    {
+        Entry ( Object value, long used )
+        {
+            _value = value;
+            _used = used;
+        }
+
+        final Object  _value;
+        volatile long _used;
+    }
+
+    private static int maxSize ( )
+    {
+        try
+        {
+            int size = Integer.parseInt( SystemProperties.getProperty( "xmlbeans.compiledcache.size", "1000" ) );
+
+            return size > 0 ? size : 1;
+        }
+        catch (NumberFormatException e)
+        {
+            return 1000;
+        }
+    }
+
+    private static final CompiledCache _instance = new CompiledCache( maxSize() );
+
+    private final int _maxSize;
+
+    private final ConcurrentHashMap _map = new ConcurrentHashMap();
+
+    private final AtomicLong    _clock     = new AtomicLong();
+    private final AtomicLong    _hits      = new AtomicLong();
+    private final AtomicLong    _misses    = new AtomicLong();
+    private final AtomicLong    _evictions = new AtomicLong();
+    private final AtomicBoolean _evicting  = new AtomicBoolean();
+}
@@ -1934,6 +1934,10 @@ final class Cur
                 to.getParent().invalidateUser();
         }
 
+        // The elements containing x are saved differently without it
+
+        x._locale.invalidateSaved( x._parent );
+
         // If there is any text after x, I move it to be before x.  This frees me to extract x
         // and it's contents with out this text coming along for the ride.  Note that if this
         // node is the last attr and there is text after it, transferText will move the text
@@ -1995,6 +1999,8 @@ final class Cur
             else
                 here.insertXobj( x );
 
+            x._locale.invalidateSaved( x._parent );
+
             // The only text I need to move is that to the right of "to".  Even considering all
             // the cases where an attribute is involed!
 
@@ -2043,6 +2049,7 @@ final class Cur
                 x.invalidateUser();
                 x.invalidateSpecialAttr( null );
                 x._locale._versionAll++;
+                x._locale.invalidateSaved( x );
             }
             else if (x.hasTextEnsureOccupancy())
             {
@@ -2186,6 +2193,8 @@ final class Cur
         x._locale._versionAll++;
         x._locale._versionSansText++;
 
+        x._locale.invalidateSaved( x );
+
         if (to != null && valueMovedCch == 0)
         {
             to.getParent().invalidateUser();
@@ -2270,6 +2279,8 @@ final class Cur
             else
                 here.insertXobjs( firstToMove, lastToMove );
 
+            firstToMove._locale.invalidateSaved( firstToMove._parent );
+
             // Position "to" to be at the beginning of the newly inserted contents
 
             to.moveTo( firstToMove );
@@ -2824,6 +2835,7 @@ final class Cur
     }
 
     static final String LOAD_USE_LOCALE_CHAR_UTIL = "LOAD_USE_LOCALE_CHAR_UTIL";
+    static final String LOAD_SOURCE_TEXT = "LOAD_SOURCE_TEXT";
 
     static final class CurLoadContext extends LoadContext
     {
@@ -2834,7 +2846,7 @@ final class Cur
             _locale = l;
 
             _charUtil =
-                options.hasOption( LOAD_USE_LOCALE_CHAR_UTIL )
+                options.hasOption( LOAD_USE_LOCALE_CHAR_UTIL ) || _locale.hasCharArena()
                     ? _locale.getCharUtil()
                     : CharUtil.getThreadLocalCharUtil();
 
@@ -2854,6 +2866,16 @@ final class Cur
             _stripComments   = options.hasOption( XmlOptions.LOAD_STRIP_COMMENTS   );
             _stripProcinsts  = options.hasOption( XmlOptions.LOAD_STRIP_PROCINSTS  );
 
+            _readOnly =
+                options.hasOption( XmlOptions.LOAD_READ_ONLY ) ||
+                options.hasOption( XmlOptions.LOAD_CONCURRENT_READS );
+
+            // Refused by Locale.getLocale, read-only is a state of the locale
+
+            assert !_readOnly || !options.hasOption( Locale.USE_SAME_LOCALE );
+
+            _source = (String) options.get( LOAD_SOURCE_TEXT );
+
             _substituteNamespaces = (Map) options.get( XmlOptions.LOAD_SUBSTITUTE_NAMESPACES );
             _additionalNamespaces = (Map) options.get( XmlOptions.LOAD_ADDITIONAL_NAMESPACES );
 
@@ -2914,7 +2936,7 @@ final class Cur
                 _lastPos += _frontier._cchAfter + 1;
 
                 _frontier._srcAfter =
-                    _charUtil.saveChars(
+                    saveText(
                         src, off, cch,
                         _frontier._srcAfter, _frontier._offAfter, _frontier._cchAfter );
 
@@ -2925,7 +2947,7 @@ final class Cur
             else
             {
                 _frontier._srcValue =
-                    _charUtil.saveChars(
+                    saveText(
                         src, off, cch,
                         _frontier._srcValue, _frontier._offValue, _frontier._cchValue );
 
@@ -2934,6 +2956,37 @@ final class Cur
             }
         }
 
+        /**
+         * Saves text as CharUtil.saveChars does, except that text of the
+         * source of a lazy text load, which StaxLoader passes on only where
+         * the parser reported it as is, is referenced instead of copied.
+         */
+        private Object saveText (
+            Object src, int off, int cch,
+            Object srcPrev, int offPrev, int cchPrev )
+        {
+            if (src == _source && src != null)
+            {
+                if (cchPrev == 0)
+                {
+                    _charUtil._offSrc = off;
+                    _charUtil._cchSrc = cch;
+
+                    return _source;
+                }
+
+                if (srcPrev == _source && offPrev + cchPrev == off)
+                {
+                    _charUtil._offSrc = offPrev;
+                    _charUtil._cchSrc = cchPrev + cch;
+
+                    return _source;
+                }
+            }
+
+            return _charUtil.saveChars( src, off, cch, srcPrev, offPrev, cchPrev );
+        }
+
         private void flushText ( )
         {
             if (_stripWhitespace)
@@ -3143,6 +3196,11 @@ final class Cur
             stripText( src, off, cch );
         }
 
+        protected void text ( String s, int off, int cch )
+        {
+            stripText( s, off, cch );
+        }
+
         protected void bookmark ( XmlBookmark bm )
         {
             _lastXobj.setBookmark( _lastPos, bm.getKey(), bm );
@@ -3191,6 +3249,16 @@ final class Cur
         }
 
         protected Cur finish ( )
+        {
+            Cur c = finishTree();
+
+            if (_readOnly)
+                _locale.makeReadOnly( c._xobj );
+
+            return c;
+        }
+
+        private Cur finishTree ( )
         {
             flushText();
 
@@ -3325,6 +3393,11 @@ final class Cur
         private boolean  _stripWhitespace;
         private boolean  _stripComments;
         private boolean  _stripProcinsts;
+        private boolean  _readOnly;
+
+        // The string being loaded, for a lazy text load
+        private String   _source;
+
         private Map      _substituteNamespaces;
         private Map      _additionalNamespaces;
         
@@ -46,6 +46,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.FileOutputStream;
 
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 import org.w3c.dom.Node;
 
 import org.xml.sax.ContentHandler;
@@ -497,6 +501,10 @@ public final class Cursor implements XmlCursor, ChangeListener {
         return _newInputStream(null);
     }
 
+    public ReadableByteChannel _newChannel() {
+        return _newChannel(null);
+    }
+
     public String _xmlText() {
         return _xmlText(null);
     }
@@ -513,6 +521,14 @@ public final class Cursor implements XmlCursor, ChangeListener {
         _save(os, null);
     }
 
+    public void _save(WritableByteChannel channel) throws IOException {
+        _save(channel, null);
+    }
+
+    public void _saveBinary(OutputStream os) throws IOException {
+        _saveBinary(os, null);
+    }
+
     public void _save(Writer w) throws IOException {
         _save(w, null);
     }
@@ -550,6 +566,15 @@ public final class Cursor implements XmlCursor, ChangeListener {
         return new Saver.InputStreamSaver(_cur, options);
     }
 
+    public ReadableByteChannel _newChannel(XmlOptions options) {
+        String encoding = Saver.getEncoding(_cur, options);
+
+        if (Saver.ByteSaver.canSave(options, encoding))
+            return new Saver.ChannelSaver(_cur, options, encoding);
+
+        return Channels.newChannel(_newInputStream(options));
+    }
+
     public Reader _newReader(XmlOptions options) {
         return new Saver.TextReader(_cur, options);
     }
@@ -576,6 +601,13 @@ public final class Cursor implements XmlCursor, ChangeListener {
         if (os == null)
             throw new IllegalArgumentException("Null OutputStream specified");
 
+        String encoding = Saver.getEncoding(_cur, options);
+
+        if (Saver.ByteSaver.canSave(options, encoding)) {
+            Saver.ByteSaver.save(_cur, options, encoding, os);
+            return;
+        }
+
         InputStream is = _newInputStream(options);
 
         try {
@@ -594,6 +626,20 @@ public final class Cursor implements XmlCursor, ChangeListener {
         }
     }
 
+    public void _save(WritableByteChannel channel, XmlOptions options) throws IOException {
+        if (channel == null)
+            throw new IllegalArgumentException("Null WritableByteChannel specified");
+
+        _save(Channels.newOutputStream(channel), options);
+    }
+
+    public void _saveBinary(OutputStream os, XmlOptions options) throws IOException {
+        if (os == null)
+            throw new IllegalArgumentException("Null OutputStream specified");
+
+        BinaryXml.save(_cur, options, os);
+    }
+
     public void _save(Writer w, XmlOptions options) throws IOException {
         if (w == null)
             throw new IllegalArgumentException("Null Writer specified");
@@ -941,6 +987,12 @@ public final class Cursor implements XmlCursor, ChangeListener {
         return true;
     }
 
+    // Adds a selection found by a MultiPath walk, at that
+
+    void addToSelection(Cur that) {
+        _cur.addToSelection(that);
+    }
+
     public int _getSelectionCount() {
         // Should never get to MAX_VALUE selection index, so, state should not change
         _toSelection(Integer.MAX_VALUE);
@@ -2275,6 +2327,24 @@ public final class Cursor implements XmlCursor, ChangeListener {
         }
     }
 
+    public ReadableByteChannel newChannel() {
+        if (preCheck()) {
+            _cur._locale.enter();
+            try {
+                return _newChannel();
+            } finally {
+                _cur._locale.exit();
+            }
+        } else synchronized (_cur._locale) {
+            _cur._locale.enter();
+            try {
+                return _newChannel();
+            } finally {
+                _cur._locale.exit();
+            }
+        }
+    }
+
     public Reader newReader() {
         if (preCheck()) {
             _cur._locale.enter();
@@ -2383,6 +2453,42 @@ public final class Cursor implements XmlCursor, ChangeListener {
         }
     }
 
+    public void save(WritableByteChannel channel) throws IOException {
+        if (preCheck()) {
+            _cur._locale.enter();
+            try {
+                _save(channel);
+            } finally {
+                _cur._locale.exit();
+            }
+        } else synchronized (_cur._locale) {
+            _cur._locale.enter();
+            try {
+                _save(channel);
+            } finally {
+                _cur._locale.exit();
+            }
+        }
+    }
+
+    public void saveBinary(OutputStream os) throws IOException {
+        if (preCheck()) {
+            _cur._locale.enter();
+            try {
+                _saveBinary(os);
+            } finally {
+                _cur._locale.exit();
+            }
+        } else synchronized (_cur._locale) {
+            _cur._locale.enter();
+            try {
+                _saveBinary(os);
+            } finally {
+                _cur._locale.exit();
+            }
+        }
+    }
+
     public void save(Writer w) throws IOException {
         if (preCheck()) {
             _cur._locale.enter();
@@ -2458,6 +2564,24 @@ public final class Cursor implements XmlCursor, ChangeListener {
         }
     }
 
+    public ReadableByteChannel newChannel(XmlOptions options) {
+        if (preCheck()) {
+            _cur._locale.enter();
+            try {
+                return _newChannel(options);
+            } finally {
+                _cur._locale.exit();
+            }
+        } else synchronized (_cur._locale) {
+            _cur._locale.enter();
+            try {
+                return _newChannel(options);
+            } finally {
+                _cur._locale.exit();
+            }
+        }
+    }
+
     public Reader newReader(XmlOptions options) {
         if (preCheck()) {
             _cur._locale.enter();
@@ -2548,6 +2672,42 @@ public final class Cursor implements XmlCursor, ChangeListener {
         }
     }
 
+    public void save(WritableByteChannel channel, XmlOptions options) throws IOException {
+        if (preCheck()) {
+            _cur._locale.enter();
+            try {
+                _save(channel, options);
+            } finally {
+                _cur._locale.exit();
+            }
+        } else synchronized (_cur._locale) {
+            _cur._locale.enter();
+            try {
+                _save(channel, options);
+            } finally {
+                _cur._locale.exit();
+            }
+        }
+    }
+
+    public void saveBinary(OutputStream os, XmlOptions options) throws IOException {
+        if (preCheck()) {
+            _cur._locale.enter();
+            try {
+                _saveBinary(os, options);
+            } finally {
+                _cur._locale.exit();
+            }
+        } else synchronized (_cur._locale) {
+            _cur._locale.enter();
+            try {
+                _saveBinary(os, options);
+            } finally {
+                _cur._locale.exit();
+            }
+        }
+    }
+
     public void save(Writer w, XmlOptions options) throws IOException {
         if (preCheck()) {
             _cur._locale.enter();
@@ -0,0 +1,245 @@
+/*   Copyright 2004-2018 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.SchemaTypeLoader;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlRuntimeException;
+
+/**
+ * Iterator over the elements of a given name in a document, each loaded as
+ * a document of its own, see {@link Locale#streamElements}.
+ * <p>
+ * Only one matching element is held in a store at a time; the content
+ * around the matches is read past without being loaded.  The namespace
+ * declarations of the skipped ancestors are kept on a stack so that each
+ * loaded element can be given the namespaces in scope where it was found.
+ */
+final class ElementStream implements Iterator
+{
+    ElementStream(SchemaTypeLoader stl, InputStream is, QName name,
+        SchemaType type, XmlOptions options)
+        throws XmlException
+    {
+        _stl = stl;
+        _name = name;
+        _type = type;
+        _options = options;
+        _xsr = StaxLoader.newReader(is, options);
+    }
+
+    public boolean hasNext()
+    {
+        if (_xsr == null)
+            return false;
+
+        try
+        {
+            return advance();
+        }
+        catch (XMLStreamException e)
+        {
+            close();
+
+            throw new XmlRuntimeException(
+                StaxLoader.newXmlException(e, _options));
+        }
+    }
+
+    public Object next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        _matched = false;
+
+        try
+        {
+            return load();
+        }
+        catch (XmlException e)
+        {
+            close();
+
+            throw new XmlRuntimeException(e);
+        }
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Moves the reader to the start of the next matching element, if it is
+     * not there already.
+     */
+    private boolean advance()
+        throws XMLStreamException
+    {
+        if (_matched)
+            return true;
+
+        // The reader is left on the end of the last element loaded, which
+        // was never pushed, so that end is stepped over here
+
+        while (_xsr.hasNext())
+        {
+            int eventType = _xsr.next();
+
+            if (eventType == XMLStreamReader.START_ELEMENT)
+            {
+                if (_name.equals(_xsr.getName()))
+                    return _matched = true;
+
+                _marks.add(new Integer(_nsDecls.size()));
+
+                for (int i = 0, n = _xsr.getNamespaceCount(); i < n; i++)
+                {
+                    String prefix = _xsr.getNamespacePrefix(i);
+                    String uri = _xsr.getNamespaceURI(i);
+
+                    _nsDecls.add(prefix == null ? "" : prefix);
+                    _nsDecls.add(uri == null ? "" : uri);
+                }
+            }
+            else if (eventType == XMLStreamReader.END_ELEMENT)
+            {
+                int mark = ((Integer) _marks.remove(_marks.size() - 1)).intValue();
+
+                while (_nsDecls.size() > mark)
+                    _nsDecls.remove(_nsDecls.size() - 1);
+            }
+        }
+
+        close();
+
+        return false;
+    }
+
+    /**
+     * The namespaces declared by the open ancestors of the current element,
+     * innermost declaration of each prefix only.
+     */
+    private String[] inScope()
+    {
+        ArrayList pairs = new ArrayList();
+        HashSet seen = new HashSet();
+
+        for (int i = _nsDecls.size() - 2; i >= 0; i -= 2)
+        {
+            String prefix = (String) _nsDecls.get(i);
+            String uri = (String) _nsDecls.get(i + 1);
+
+            // An undeclared default namespace needs no declaration, the
+            // element would have to undeclare it itself to be in no
+            // namespace
+
+            if (seen.add(prefix) && uri.length() > 0)
+            {
+                pairs.add(prefix);
+                pairs.add(uri);
+            }
+        }
+
+        return (String[]) pairs.toArray(new String[pairs.size()]);
+    }
+
+    private XmlObject load()
+        throws XmlException
+    {
+        Locale l = Locale.getLocale(_stl, _options);
+
+        if (l.noSync())
+        {
+            l.enter();
+            try
+            {
+                return load(l);
+            }
+            finally
+            {
+                l.exit();
+            }
+        }
+        else
+            synchronized (l)
+            {
+                l.enter();
+                try
+                {
+                    return load(l);
+                }
+                finally
+                {
+                    l.exit();
+                }
+            }
+    }
+
+    private XmlObject load(Locale l)
+        throws XmlException
+    {
+        Cur c = StaxLoader.loadElement(l, _xsr, inScope(), _options);
+
+        Locale.autoTypeDocument(c, _type, _options);
+
+        XmlObject x = (XmlObject) c.getUser();
+
+        c.release();
+
+        return x;
+    }
+
+    private void close()
+    {
+        try
+        {
+            _xsr.close();
+        }
+        catch (XMLStreamException e)
+        {
+        }
+
+        _xsr = null;
+    }
+
+    private final SchemaTypeLoader _stl;
+    private final QName _name;
+    private final SchemaType _type;
+    private final XmlOptions _options;
+
+    private XMLStreamReader _xsr;
+    private boolean _matched;
+
+    // Flat prefix, uri pairs declared by the open ancestors, and the size
+    // of that list at the start of each of them
+    private final ArrayList _nsDecls = new ArrayList();
+    private final ArrayList _marks = new ArrayList();
+}
@@ -613,11 +613,25 @@ public class Jsr173
                     throw new IllegalStateException();
 
                 Object src = cText.getChars( -1 );
-                
-                ensureCharBufLen( cText._cchSrc );
 
-                CharUtil.getChars(
-                    _chars, _offChars = 0, src, cText._offSrc, _cchChars = cText._cchSrc );
+                // Text held in a char[] of the store is handed out as is,
+                // other text is copied into a buffer of our own
+
+                if (src instanceof char[])
+                {
+                    _textChars = (char[]) src;
+                    _offChars = cText._offSrc;
+                    _cchChars = cText._cchSrc;
+                }
+                else
+                {
+                    ensureCharBufLen( cText._cchSrc );
+
+                    CharUtil.getChars(
+                        _chars, _offChars = 0, src, cText._offSrc, _cchChars = cText._cchSrc );
+
+                    _textChars = _chars;
+                }
 
                 if (cText != _cur)
                     cText.release();
@@ -645,7 +659,7 @@ public class Jsr173
 
             fetchChars();
 
-            return _chars;
+            return _textChars;
         }
 
         public int getTextStart ( )
@@ -778,6 +792,7 @@ public class Jsr173
         private int     _cchSrc;
         
         private boolean _textFetched;
+        private char[]  _textChars;
         private char[]  _chars;
         private int     _offChars;
         private int     _cchChars;
@@ -1039,6 +1054,9 @@ public class Jsr173
         {
             checkChanged();
 
+            if (_src instanceof char[])
+                return (char[]) _src;
+
             char[] chars = new char [ _cch ];
 
             CharUtil.getChars( chars, 0, _src, _off, _cch );
@@ -1049,7 +1067,10 @@ public class Jsr173
         {
             checkChanged();
 
-            return _off;
+            // Only text held in a char[] is returned in place, other text
+            // is copied to the start of a new array
+
+            return _src instanceof char[] ? _off : 0;
         }
         public int getTextLength ( )
         {
@@ -29,6 +29,8 @@ import org.xml.sax.SAXException;
 import org.xml.sax.DTDHandler;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import java.lang.ref.ReferenceQueue;
@@ -119,6 +121,9 @@ public final class Locale
     static final int WS_REPLACE = TypeStore.WS_REPLACE;
     static final int WS_COLLAPSE = TypeStore.WS_COLLAPSE;
 
+    // Characters an entity may expand to unless LOAD_ENTITY_BYTES_LIMIT is set
+    static final int DEFAULT_ENTITY_BYTES_LIMIT = 10240;
+
     static final String _xsi = "http://www.w3.org/2001/XMLSchema-instance";
     static final String _schema = "http://www.w3.org/2001/XMLSchema";
     static final String _openFragUri = "http://www.openuri.org/fragment";
@@ -165,6 +170,14 @@ public final class Locale
         _schemaTypeLoader = stl;
 
         _validateOnSet = options.hasOption(XmlOptions.VALIDATE_ON_SET);
+
+        if (options.hasOption(XmlOptions.LOAD_USE_CHAR_ARENA))
+        {
+            _charUtil = new CharUtil(CHAR_ARENA_INITIAL_SIZE,
+                CHAR_ARENA_MAX_SIZE);
+
+            _charArena = true;
+        }
         
         //
         // Check for Saaj implementation request
@@ -208,16 +221,40 @@ public final class Locale
 
         if (options.hasOption(USE_SAME_LOCALE))
         {
+            // Being read-only is a state of the whole locale, which would
+            // impose it on the other documents in the locale
+
+            if (options.hasOption(XmlOptions.LOAD_READ_ONLY) ||
+                options.hasOption(XmlOptions.LOAD_CONCURRENT_READS))
+                throw new IllegalArgumentException(
+                    "A read-only document cannot be loaded into the locale " +
+                        "of another document");
+
             Object source = options.get(USE_SAME_LOCALE);
 
             if (source instanceof Locale)
                 l = (Locale) source;
             else if (source instanceof XmlTokenSource)
-                l = (Locale) ((XmlTokenSource) source).monitor();
+            {
+                Object monitor = ((XmlTokenSource) source).monitor();
+
+                // Documents open to concurrent reads hand out private
+                // monitors rather than their locale
+
+                if (!(monitor instanceof Locale))
+                    throw new IllegalArgumentException(
+                        "Source locale is read-only");
+
+                l = (Locale) monitor;
+            }
             else
                 throw new IllegalArgumentException(
                     "Source locale not understood: " + source);
 
+            if (l.isReadOnly())
+                throw new IllegalArgumentException(
+                    "Source locale is read-only");
+
             if (l._schemaTypeLoader != stl)
                 throw new IllegalArgumentException(
                     "Source locale does not support same schema type loader");
@@ -232,6 +269,8 @@ public final class Locale
                     "Source locale does not support same validate on set");
 
             // TODO - other things to check?
+
+            l._shared = true;
         }
         else
             l = new Locale(stl, options);
@@ -259,6 +298,23 @@ public final class Locale
     static void autoTypeDocument(Cur c, SchemaType requestedType,
         XmlOptions options)
         throws XmlException
+    {
+        typeDocument(c, requestedType, options);
+
+        // Users are created against the type of the root, so this has to
+        // wait until the document is typed
+
+        if (c._locale.isReadOnly() &&
+            XmlOptions.maskNull(options).hasOption(
+                XmlOptions.LOAD_CONCURRENT_READS))
+        {
+            c._locale.openToConcurrentReads(c._xobj);
+        }
+    }
+
+    private static void typeDocument(Cur c, SchemaType requestedType,
+        XmlOptions options)
+        throws XmlException
     {
         assert c.isRoot();
 
@@ -701,12 +757,20 @@ public final class Locale
     Cur parse(String s, SchemaType type, XmlOptions options)
         throws XmlException
     {
+        // Only the StAX reader says where in the source its text came from
+        if (options != null && options.hasOption(XmlOptions.LOAD_LAZY_TEXT) &&
+                !options.hasOption(XmlOptions.LOAD_USE_XMLREADER))
+        {
+            options = new XmlOptions(options);
+            options.put(XmlOptions.LOAD_USE_STAX);
+            options.put(Cur.LOAD_SOURCE_TEXT, s);
+        }
+
         Reader r = new StringReader(s);
 
         try
         {
-            Cur c = getSaxLoader(options).load(this, new InputSource(r),
-                options);
+            Cur c = loadInputSource(new InputSource(r), options);
 
             autoTypeDocument(c, type, options);
 
@@ -834,6 +898,18 @@ public final class Locale
             }
     }
 
+    /**
+     * Returns an iterator over the elements named name in the given
+     * stream, each loaded and typed as a document of its own, see
+     * {@link XmlBeans#streamElements}.
+     */
+    public static Iterator streamElements(SchemaTypeLoader stl,
+        InputStream is, QName name, SchemaType type, XmlOptions options)
+        throws XmlException
+    {
+        return new ElementStream(stl, is, name, type, options);
+    }
+
     public XmlObject parseToXmlObject(XMLStreamReader xsr, SchemaType type,
         XmlOptions options)
         throws XmlException
@@ -1269,8 +1345,72 @@ public final class Locale
         XmlOptions options)
         throws XmlException, IOException
     {
-        Cur c = getSaxLoader(options).load(this, new InputSource(is),
-            options);
+        Cur c = loadInputSource(new InputSource(is), options);
+
+        autoTypeDocument(c, type, options);
+
+        XmlObject x = (XmlObject) c.getUser();
+
+        c.release();
+
+        return x;
+    }
+
+    //
+    //
+    //
+
+    public static XmlObject parseBinaryToXmlObject(SchemaTypeLoader stl,
+        InputStream is, SchemaType type, XmlOptions options)
+        throws XmlException, IOException
+    {
+        Locale l = getLocale(stl, options);
+
+        if (l.noSync())
+        {
+            l.enter();
+            try
+            {
+                return l.parseBinaryToXmlObject(is, type, options);
+            }
+            finally
+            {
+                l.exit();
+            }
+        }
+        else
+            synchronized (l)
+            {
+                l.enter();
+                try
+                {
+                    return l.parseBinaryToXmlObject(is, type, options);
+                }
+                finally
+                {
+                    l.exit();
+                }
+            }
+    }
+
+    private XmlObject parseBinaryToXmlObject(InputStream is, SchemaType type,
+        XmlOptions options)
+        throws XmlException, IOException
+    {
+        BinaryXml.Loader loader = new BinaryXml.Loader(this, is, options);
+
+        Cur c = loader.load();
+
+        associateSourceName(c, options);
+
+        // A type given by the caller or in the options wins over the type
+        // saved with the document
+
+        if (type == null &&
+            !XmlOptions.maskNull(options).hasOption(XmlOptions.DOCUMENT_TYPE))
+        {
+            type = loader.getSavedType();
+        }
 
         autoTypeDocument(c, type, options);
 
@@ -1322,8 +1462,7 @@ public final class Locale
         XmlOptions options)
         throws XmlException, IOException
     {
-        Cur c = getSaxLoader(options).load(this, new InputSource(reader),
-            options);
+        Cur c = loadInputSource(new InputSource(reader), options);
 
         autoTypeDocument(c, type, options);
 
@@ -1682,6 +1821,8 @@ public final class Locale
 
     void notifyChange()
     {
+        checkWritable();
+
         // First, notify the registered listeners ...
 
         while (_changeListeners != null)
@@ -2025,6 +2166,11 @@ public final class Locale
         if (parent == null)
             return null;
 
+        ChildIndex index = childIndex(parent, false);
+
+        if (index != null)
+            return index.nth(name, set, n);
+
         int da = _nthCache_A.distance(parent, name, set, n);
         int db = _nthCache_B.distance(parent, name, set, n);
 
@@ -2045,13 +2191,23 @@ public final class Locale
 
     int count(Xobj parent, QName name, QNameSet set)
     {
+        if (parent == null)
+            return 0;
+
+        ChildIndex index = childIndex(parent, false);
+
+        if (index != null)
+            return index.count(name, set);
+
         int n = 0;
+        int elems = 0;
 
-        for (Xobj x = findNthChildElem(parent, name, set, 0);
-             x != null; x = x._nextSibling)
+        for (Xobj x = parent._firstChild; x != null; x = x._nextSibling)
         {
             if (x.isElem())
             {
+                elems++;
+
                 if (set == null)
                 {
                     if (x._name.equals(name))
@@ -2062,9 +2218,53 @@ public final class Locale
             }
         }
 
+        // A count is usually followed by indexed access to the same
+        // children, so this is a good time to index a wide parent
+
+        if (elems > CHILD_INDEX_THRESHOLD)
+            childIndex(parent, true);
+
         return n;
     }
 
+    /**
+     * Returns the child index of parent for the current structure of the
+     * document, building it if create is true and there is none.  Indexes
+     * are kept only for parents with more than CHILD_INDEX_THRESHOLD
+     * element children, and are all dropped on the first lookup after an
+     * element is inserted, removed or renamed anywhere in this locale.
+     */
+    ChildIndex childIndex(Xobj parent, boolean create)
+    {
+        // The indexes of a document open to concurrent reads were all built
+        // when it was opened, into a map which is not changed after that
+
+        if (_concurrentRoots != null && isConcurrentRead(parent))
+            return (ChildIndex) _concurrentIndexes.get(parent);
+
+        if (_childIndexes != null && _childIndexVersion != _versionSansText)
+            _childIndexes = null;
+
+        ChildIndex index =
+            _childIndexes == null
+            ? null : (ChildIndex) _childIndexes.get(parent);
+
+        if (index == null && create)
+        {
+            if (_childIndexes == null)
+            {
+                _childIndexes = new IdentityHashMap();
+                _childIndexVersion = _versionSansText;
+            }
+
+            index = new ChildIndex(parent);
+
+            _childIndexes.put(parent, index);
+        }
+
+        return index;
+    }
+
     static boolean toChild(Cur c, QName name, int n)
     {
         if (n >= 0 && pushToContainer(c))
@@ -2675,11 +2875,236 @@ public final class Locale
         return _charUtil;
     }
 
+    boolean hasCharArena()
+    {
+        return _charArena;
+    }
+
+    /**
+     * Returns the total size, in chars, of the slabs allocated by the char
+     * arena of this locale, or 0 if the locale was not created with
+     * {@link XmlOptions#setLoadUseCharArena}.  The slabs are only referenced
+     * by this locale, so they are all reclaimed together with the document.
+     */
+    public long getCharArenaSize()
+    {
+        return _charArena ? _charUtil.getAllocatedChars() : 0;
+    }
+
+    /**
+     * Returns the number of slabs allocated by the char arena of this locale,
+     * or 0 if the locale has no char arena.
+     */
+    public int getCharArenaSlabCount()
+    {
+        return _charArena ? _charUtil.getBufferCount() : 0;
+    }
+
+    boolean isReadOnly()
+    {
+        return _readOnly;
+    }
+
+    void checkWritable()
+    {
+        if (_readOnly)
+            throw new IllegalStateException("Cannot modify a read-only document");
+    }
+
+    /**
+     * Whether any document of this locale is open to concurrent reads.
+     */
+    boolean hasConcurrentReads()
+    {
+        return _concurrentRoots != null;
+    }
+
+    /**
+     * Whether the document holding x is open to concurrent reads.  The
+     * other documents of this locale, such as copies made before it was
+     * frozen, are still read under the lock.
+     */
+    boolean isConcurrentRead(Xobj x)
+    {
+        Xobj[] roots = _concurrentRoots;
+
+        if (roots == null)
+            return false;
+
+        while (x._parent != null)
+            x = x._parent;
+
+        for (int i = 0; i < roots.length; i++)
+        {
+            if (roots[i] == x)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Compacts the text of the tree rooted at root into a single buffer
+     * and marks this locale read-only, see
+     * {@link XmlOptions#setLoadReadOnly}.  Text loaded into the shared
+     * (thread local) char buffers would otherwise keep those buffers alive
+     * for as long as the document is.  Text held in strings, such as the
+     * source of a lazy text load, is left where it is.
+     */
+    void makeReadOnly(Xobj root)
+    {
+        assert root.isRoot();
+
+        int cch = 0;
+
+        for (Xobj x = root; x != null; x = x.walk(root, true))
+        {
+            if (!(x._srcValue instanceof String))
+                cch += x._cchValue;
+
+            if (!(x._srcAfter instanceof String))
+                cch += x._cchAfter;
+        }
+
+        if (cch > 0)
+        {
+            char[] buf = new char[cch];
+            int off = 0;
+
+            for (Xobj x = root; x != null; x = x.walk(root, true))
+            {
+                if (x._cchValue > 0 && !(x._srcValue instanceof String))
+                {
+                    CharUtil.getChars(buf, off, x._srcValue, x._offValue,
+                        x._cchValue);
+
+                    x._srcValue = buf;
+                    x._offValue = off;
+                    off += x._cchValue;
+                }
+
+                if (x._cchAfter > 0 && !(x._srcAfter instanceof String))
+                {
+                    CharUtil.getChars(buf, off, x._srcAfter, x._offAfter,
+                        x._cchAfter);
+
+                    x._srcAfter = buf;
+                    x._offAfter = off;
+                    off += x._cchAfter;
+                }
+            }
+
+            assert off == cch;
+        }
+
+        _readOnly = true;
+    }
+
+    /**
+     * Opens the read-only document rooted at root to concurrent reads, see
+     * {@link XmlOptions#setLoadConcurrentReads}.  Everything the typed
+     * getters would otherwise compute lazily is computed here: the typed
+     * objects of all the nodes, their values, and the child indexes of
+     * wide elements.  The volatile write at the end publishes all of it to
+     * the threads which then read the document without taking this lock.
+     */
+    void openToConcurrentReads(Xobj root)
+    {
+        assert _readOnly && root.isRoot();
+
+        IdentityHashMap indexes =
+            _concurrentIndexes == null
+            ? new IdentityHashMap() : new IdentityHashMap(_concurrentIndexes);
+
+        for (Xobj x = root; x != null; x = x.walk(root, true))
+        {
+            if (x.isUserNode())
+                x.getUser().precompute_value();
+
+            if (x.isContainer())
+            {
+                int elems = 0;
+
+                for (Xobj y = x._firstChild; y != null; y = y._nextSibling)
+                    if (y.isElem())
+                        elems++;
+
+                if (elems > CHILD_INDEX_THRESHOLD)
+                    indexes.put(x, new ChildIndex(x));
+            }
+        }
+
+        Xobj[] roots = _concurrentRoots;
+        Xobj[] newRoots;
+
+        if (roots == null)
+            newRoots = new Xobj[] { root };
+        else
+        {
+            newRoots = new Xobj[roots.length + 1];
+            System.arraycopy(roots, 0, newRoots, 0, roots.length);
+            newRoots[roots.length] = root;
+        }
+
+        _concurrentIndexes = indexes;
+        _concurrentRoots = newRoots;
+    }
+
+    /**
+     * Freezes the document rooted at root, see {@link XmlObject#freeze}.
+     * Only the given document is settled and opened to concurrent reads,
+     * but the whole locale becomes read-only, which is why a locale shared
+     * on purpose with other documents cannot be frozen.
+     */
+    void freeze(Xobj root)
+    {
+        assert root.isRoot();
+
+        if (isConcurrentRead(root))
+            return;
+
+        if (_shared)
+            throw new IllegalStateException(
+                "Cannot freeze a document which shares its synchronization domain");
+
+        if (!_readOnly)
+        {
+            // Text last set through a typed object is held by that object
+            // until asked for, and has to be back in the tree before the
+            // tree is compacted
+
+            for (Xobj x = root; x != null; x = x.walk(root, true))
+                x.ensureOccupancy();
+
+            makeReadOnly(root);
+        }
+
+        openToConcurrentReads(root);
+    }
+
     long version()
     {
         return _versionAll;
     }
 
+    /**
+     * Drops the saved bytes of the elements a change at x makes stale,
+     * those of x and of the elements containing it.  The elements within
+     * an element with saved bytes all have saved bytes too, so the walk
+     * up stops at the first element which has none.
+     */
+    void invalidateSaved(Xobj x)
+    {
+        if (_savedElements == null)
+            return;
+
+        for (; x != null; x = x._parent)
+        {
+            if (_savedElements.remove(x) == null && x.isElem())
+                return;
+        }
+    }
+
     Cur weakCur(Object o)
     {
         assert o != null && !(o instanceof Ref);
@@ -2816,6 +3241,10 @@ public final class Locale
     {
         assert _numTempFramesLeft >= 0;
 
+        // Readers of a document open to concurrent reads hold no lock, they
+        // must take it before using any of the working state of the locale
+        assert _concurrentRoots == null || _noSync || Thread.holdsLock(this);
+
         if (--_numTempFramesLeft <= 0)
         {
             Cur[] newTempFrames = new Cur[_tempFrames.length * 2];
@@ -2984,6 +3413,9 @@ public final class Locale
 
         protected abstract void text(String s);
 
+        // s may be the source of a lazy text load, which is then referenced
+        protected abstract void text(String s, int off, int cch);
+
         protected abstract Cur finish();
 
         protected abstract void abort();
@@ -3030,7 +3462,11 @@ public final class Locale
         }
     }
 
-    private static SaxLoader getSaxLoader(XmlOptions options) throws XmlException
+    /**
+     * The resolver external entities of a load are read through, or null
+     * for the default resolution of the parser.
+     */
+    static EntityResolver getEntityResolver(XmlOptions options)
     {
         options = XmlOptions.maskNull(options);
 
@@ -3047,18 +3483,29 @@ public final class Locale
                 er = new DefaultEntityResolver();
         }
 
+        return er;
+    }
+
+    private static SaxLoader getSaxLoader(XmlOptions options) throws XmlException
+    {
+        options = XmlOptions.maskNull(options);
+
+        EntityResolver er = getEntityResolver(options);
+
         XMLReader xr = (XMLReader) options.get(
             XmlOptions.LOAD_USE_XMLREADER);
 
-        if (xr == null) {
+        boolean pooled = xr == null;
+
+        if (pooled) {
             try {
-                xr = SAXHelper.newXMLReader(new XmlOptionsBean(options));
+                xr = SAXHelper.leaseXMLReader(new XmlOptionsBean(options));
             } catch(Exception e) {
                 throw new XmlException("Problem creating XMLReader", e);
             } 
         }
 
-        SaxLoader sl = new XmlReaderSaxLoader(xr);
+        SaxLoader sl = new XmlReaderSaxLoader(xr, pooled);
 
         // I've noticed that most XMLReaders don't like a null EntityResolver...
 
@@ -3071,10 +3518,27 @@ public final class Locale
     private static class XmlReaderSaxLoader
         extends SaxLoader
     {
-        XmlReaderSaxLoader(XMLReader xr)
+        XmlReaderSaxLoader(XMLReader xr, boolean pooled)
         {
             super(xr, null);
+
+            _pooled = pooled;
         }
+
+        void releaseXMLReader(XmlOptions options)
+        {
+            // hand a leased reader back to the pool, user supplied
+            // readers are left alone
+            if (_pooled)
+            {
+                _pooled = false;
+
+                SAXHelper.returnXMLReader(new XmlOptionsBean(options),
+                    getXMLReader());
+            }
+        }
+
+        private boolean _pooled;
     }
 
     private static abstract class SaxHandler
@@ -3356,7 +3820,7 @@ public final class Locale
         private boolean _wantCdataBookmarks;
         private Locator _startLocator;
         private boolean _insideCDATA = false;
-        private int _entityBytesLimit = 10240;
+        private int _entityBytesLimit = DEFAULT_ENTITY_BYTES_LIMIT;
         private int _entityBytes = 0;
         private int _insideEntity = 0;
     }
@@ -3402,6 +3866,15 @@ public final class Locale
             _context = null;
         }
 
+        void releaseXMLReader(XmlOptions options)
+        {
+        }
+
+        XMLReader getXMLReader()
+        {
+            return _xr;
+        }
+
         public Cur load(Locale l, InputSource is, XmlOptions options)
             throws XmlException, IOException
         {
@@ -3453,6 +3926,10 @@ public final class Locale
 
                 throw e;
             }
+            finally
+            {
+                releaseXMLReader(options);
+            }
         }
 
         public void fatalError(SAXParseException e)
@@ -3476,10 +3953,23 @@ public final class Locale
         private XMLReader _xr;
     }
 
+    private Cur loadInputSource(InputSource is, XmlOptions options)
+        throws XmlException, IOException
+    {
+        if (StaxLoader.isStaxLoad(options))
+        {
+            return is.getByteStream() != null
+                ? StaxLoader.load(this, is.getByteStream(), options)
+                : StaxLoader.load(this, is.getCharacterStream(), options);
+        }
+
+        return getSaxLoader(options).load(this, is, options);
+    }
+
     private Dom load(InputSource is, XmlOptions options)
         throws XmlException, IOException
     {
-        return getSaxLoader(options).load(this, is, options).getDom();
+        return loadInputSource(is, options).getDom();
     }
 
     public Dom load(Reader r)
@@ -3733,9 +4223,26 @@ public final class Locale
     long _versionAll;
     long _versionSansText;
 
+    // The bytes elements were last saved as and the options they were
+    // saved with, see XmlOptions.setSaveReuseUnchanged
+    Map _savedElements;
+    Object _savedOptions;
+
     Locations _locations;
 
     private CharUtil _charUtil;
+    private boolean _charArena;
+    private boolean _readOnly;
+    // The roots of the documents open to concurrent reads, and the child
+    // indexes built for them.  Both are replaced, never changed, the roots
+    // last, so that a reader seeing a root sees its indexes.
+
+    private volatile Xobj[] _concurrentRoots;
+    private volatile IdentityHashMap _concurrentIndexes;
+    private boolean _shared;
+
+    private static final int CHAR_ARENA_INITIAL_SIZE = 1024 * 64;
+    private static final int CHAR_ARENA_MAX_SIZE = 1024 * 1024;
 
     int _offSrc;
     int _cchSrc;
@@ -3750,6 +4257,11 @@ public final class Locale
 
     int _posTemp;
 
+    static final int CHILD_INDEX_THRESHOLD = 32;
+
+    private IdentityHashMap _childIndexes;
+    private long _childIndexVersion;
+
     nthCache _nthCache_A = new nthCache();
     nthCache _nthCache_B = new nthCache();
 
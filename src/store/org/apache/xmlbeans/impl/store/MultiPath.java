@@ -0,0 +1,222 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import java.util.ArrayList;
+
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlRuntimeException;
+import org.apache.xmlbeans.impl.common.XPath;
+
+/**
+ * A set of paths selected together.  The paths the XBeans engine runs are
+ * compiled into one automaton and selected in a single walk of the
+ * document, each match going to the paths it was hit by.  Other paths are
+ * selected one by one, as XmlCursor.selectPath would.
+ * <p/>
+ * A MultiPath does not change once compiled, and can be used by several
+ * threads.
+ */
+
+public final class MultiPath
+{
+    private MultiPath(String[] paths, XmlOptions options, XPath xpath, int[] combined)
+    {
+        _paths = paths;
+        _options = options;
+        _xpath = xpath;
+        _combined = combined;
+    }
+
+    /**
+     * Compiles the paths, with the options selectPath would be given.
+     */
+
+    public static MultiPath compile(String[] paths, XmlOptions options)
+    {
+        paths = (String[]) paths.clone();
+        options = options == null ? null : new XmlOptions(options);
+
+        ArrayList combined = new ArrayList();
+
+        for (int i = 0; i < paths.length; i++)
+        {
+            // Fails as selectPath would if no engine can compile the path
+
+            XPath xpath = Path.getCompiledPath(paths[i], options).getXbeanXPath();
+
+            if (xpath != null && !xpath.sawDeepDot() && xpath.parentSteps() == 0)
+                combined.add(new Integer(i));
+        }
+
+        if (combined.isEmpty())
+            return new MultiPath(paths, options, null, new int[0]);
+
+        String[] exprs = new String[combined.size()];
+        int[] ids = new int[combined.size()];
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = ((Integer) combined.get(i)).intValue();
+            exprs[i] = paths[ids[i]];
+        }
+
+        try
+        {
+            return new MultiPath(paths, options,
+                XPath.compileXPaths(exprs, Path.getCurrentNodeVar(options), null), ids);
+        }
+        catch (XPath.XPathCompileException e)
+        {
+            // Each compiled on its own above, so they compile together too
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    public int size()
+    {
+        return _paths.length;
+    }
+
+    public String getPath(int i)
+    {
+        return _paths[i];
+    }
+
+    /**
+     * Selects the paths from the position of the cursor.  Returns a new
+     * cursor for each path, at that position, holding the selections of
+     * the path as if selectPath had been called on it.  The caller
+     * disposes of the cursors.
+     */
+
+    public XmlCursor[] select(XmlCursor xc)
+    {
+        Cursor cursor = (Cursor) xc;
+
+        Locale l = cursor.locale();
+
+        if (l.noSync())         { l.enter(); try { return selectImpl( cursor ); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return selectImpl( cursor ); } finally { l.exit(); } }
+    }
+
+    private XmlCursor[] selectImpl(Cursor cursor)
+    {
+        Cur c = cursor.tempCur();
+
+        try
+        {
+            Cursor[] results = new Cursor[_paths.length];
+
+            for (int i = 0; i < results.length; i++)
+                results[i] = new Cursor(c);
+
+            // The walk needs a container to start from, the engines the
+            // paths fall back to do not
+
+            boolean walk = _xpath != null && c.isContainer();
+
+            boolean[] selected = new boolean[_paths.length];
+
+            if (walk)
+            {
+                Cursor[] selections = new Cursor[_combined.length];
+
+                for (int i = 0; i < _combined.length; i++)
+                {
+                    selections[i] = results[_combined[i]];
+                    selected[_combined[i]] = true;
+                }
+
+                Path.selectPaths(_xpath, c, selections);
+            }
+
+            for (int i = 0; i < results.length; i++)
+            {
+                if (!selected[i])
+                    results[i]._selectPath(_paths[i], _options);
+            }
+
+            return results;
+        }
+        finally
+        {
+            c.release();
+        }
+    }
+
+    /**
+     * Selects the paths from the object.  Returns the objects selected by
+     * each path, as XmlObject.selectPath would.
+     */
+
+    public XmlObject[][] select(XmlObject xo)
+    {
+        XmlCursor xc = xo.newCursor();
+
+        XmlCursor[] cursors;
+
+        try
+        {
+            cursors = select(xc);
+        }
+        finally
+        {
+            xc.dispose();
+        }
+
+        XmlObject[][] results = new XmlObject[cursors.length][];
+
+        try
+        {
+            for (int i = 0; i < cursors.length; i++)
+                results[i] = objects(cursors[i]);
+        }
+        finally
+        {
+            for (int i = 0; i < cursors.length; i++)
+                cursors[i].dispose();
+        }
+
+        return results;
+    }
+
+    private static XmlObject[] objects(XmlCursor c)
+    {
+        XmlObject[] objects = new XmlObject[c.getSelectionCount()];
+
+        for (int i = 0; c.toNextSelection(); i++)
+        {
+            if ((objects[i] = c.getObject()) == null)
+            {
+                if (!c.toParent() || (objects[i] = c.getObject()) == null)
+                    throw
+                        new XmlRuntimeException(
+                            "Path must select only elements " +
+                                "and attributes");
+            }
+        }
+
+        return objects;
+    }
+
+    private final String[] _paths;
+    private final XmlOptions _options;
+    private final XPath _xpath;
+    private final int[] _combined;
+}
@@ -20,9 +20,7 @@ import java.util.*;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.xmlbeans.impl.common.XPath;
 import org.apache.xmlbeans.impl.common.XPath.XPathCompileException;
@@ -31,6 +29,8 @@ import org.apache.xmlbeans.impl.common.XPath.ExecutionContext;
 import org.apache.xmlbeans.*;
 import org.w3c.dom.Node;
 
+import javax.xml.namespace.QName;
+
 
 // TODO - This class handled query *and* path ... rename it?
 
@@ -49,21 +49,15 @@ public abstract class Path
     private static final int USE_XQRL2002 = 0x08;
     private static final int USE_XDK      = 0x10;
 
-    private static Map _xbeanPathCache = new WeakHashMap();
-    private static Map _xdkPathCache = new WeakHashMap();
-    private static Map _xqrlPathCache = new WeakHashMap();
-    private static Map _xqrl2002PathCache = new WeakHashMap();
-
-    private static Method _xdkCompilePath;
-    private static Method _xqrlCompilePath;
-    private static Method _xqrl2002CompilePath;
+    private static volatile Method _xdkCompilePath;
+    private static volatile Method _xqrlCompilePath;
+    private static volatile Method _xqrl2002CompilePath;
 
-    private static boolean _xdkAvailable = true;
-    private static boolean _xqrlAvailable = true;
-    private static boolean _xqrl2002Available = true;
+    private static volatile boolean _xdkAvailable = true;
+    private static volatile boolean _xqrlAvailable = true;
+    private static volatile boolean _xqrl2002Available = true;
 
     private static String _delIntfName;
-    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     static
     {
@@ -98,6 +92,14 @@ public abstract class Path
 
     abstract PathEngine execute(Cur c, XmlOptions options);
 
+    // The path compiled for the XBeans engine, null if another engine
+    // runs it
+
+    XPath getXbeanXPath()
+    {
+        return null;
+    }
+
     //
     //
     //
@@ -139,61 +141,37 @@ public abstract class Path
 
     static Path getCompiledPath(String pathExpr, int force,
         String currentVar, String delIntfName)
+    {
+        CompiledCache cache = CompiledCache.getInstance();
+        CompiledCache.Key key = new CompiledCache.Key(Path.class, force,
+            pathExpr, currentVar, (force & USE_DELEGATE) != 0 ? delIntfName : null);
+
+        Path path = (Path) cache.get(key);
+        if (path != null)
+            return path;
+
+        // Two threads may compile the same path, the first one cached wins
+        return (Path) cache.put(key,
+            compilePath(pathExpr, force, currentVar, delIntfName));
+    }
+
+    static private Path compilePath(String pathExpr, int force,
+        String currentVar, String delIntfName)
     {
         Path path = null;
-        WeakReference pathWeakRef = null;
         Map namespaces = (force & USE_DELEGATE) != 0 ? new HashMap() : null;
-        lock.readLock().lock();
-        try {
+
         if ((force & USE_XBEAN) != 0)
-            pathWeakRef = (WeakReference)_xbeanPathCache.get(pathExpr);
-        if (pathWeakRef == null && (force & USE_XQRL) != 0)
-            pathWeakRef = (WeakReference)_xqrlPathCache.get(pathExpr);
-        if (pathWeakRef == null && (force & USE_XDK) != 0)
-            pathWeakRef = (WeakReference)_xdkPathCache.get(pathExpr);
-        if (pathWeakRef == null && (force & USE_XQRL2002) != 0)
-            pathWeakRef = (WeakReference)_xqrl2002PathCache.get(pathExpr);
-
-        if (pathWeakRef!=null)
-            path = (Path)pathWeakRef.get();
-        if (path != null)
-            return path;
-        } finally {
-            lock.readLock().unlock();
-        }
-        lock.writeLock().lock();
-        try {
-        if ((force & USE_XBEAN) != 0) {
-            pathWeakRef = (WeakReference)_xbeanPathCache.get(pathExpr);
-            if (pathWeakRef != null)
-                path = (Path)pathWeakRef.get();
-            if (path==null)
-            path = getCompiledPathXbean(pathExpr, currentVar, namespaces);
-        }
-        if (path == null && (force & USE_XQRL) != 0) {
-            pathWeakRef = (WeakReference)_xqrlPathCache.get(pathExpr);
-            if (pathWeakRef != null)
-                path = (Path)pathWeakRef.get();
-            if (path==null)
-            path = getCompiledPathXqrl(pathExpr, currentVar);
-        }
-        if (path == null && (force & USE_XDK) != 0) {
-            pathWeakRef = (WeakReference)_xdkPathCache.get(pathExpr);
-            if (pathWeakRef != null)
-                path = (Path)pathWeakRef.get();
-            if (path==null)
-            path = getCompiledPathXdk(pathExpr, currentVar);
-        }
-        if (path == null && (force & USE_DELEGATE) != 0) {
+            path = XbeanPath.create(pathExpr, currentVar, namespaces);
+        if (path == null && (force & USE_XQRL) != 0)
+            path = createXqrlCompiledPath(pathExpr, currentVar);
+        if (path == null && (force & USE_XDK) != 0)
+            path = createXdkCompiledPath(pathExpr, currentVar);
+        if (path == null && (force & USE_DELEGATE) != 0)
             path = getCompiledPathDelegate(pathExpr, currentVar, namespaces, delIntfName);
-        }
-        if (path == null && (force & USE_XQRL2002) != 0) {
-            pathWeakRef = (WeakReference)_xqrl2002PathCache.get(pathExpr);
-            if (pathWeakRef != null)
-                path = (Path)pathWeakRef.get();
-            if (path==null)
-            path = getCompiledPathXqrl2002(pathExpr, currentVar);
-        }
+        if (path == null && (force & USE_XQRL2002) != 0)
+            path = createXqrl2002CompiledPath(pathExpr, currentVar);
+
         if (path == null)
         {
             StringBuffer errMessage = new StringBuffer();
@@ -210,45 +188,6 @@ public abstract class Path
 
             throw new RuntimeException(errMessage.toString() + " FAILED on " + pathExpr);
         }
-        } finally {
-            lock.writeLock().unlock();
-        }
-        return path;
-    }
-
-    static private Path getCompiledPathXdk(String pathExpr, String currentVar)
-    {
-        Path path = createXdkCompiledPath(pathExpr, currentVar);
-        if (path != null)
-            _xdkPathCache.put(path._pathKey, new WeakReference(path));
-
-        return path;
-    }
-
-    static private Path getCompiledPathXqrl(String pathExpr, String currentVar)
-    {
-        Path path = createXqrlCompiledPath(pathExpr, currentVar);
-        if (path != null)
-            _xqrlPathCache.put(path._pathKey, new WeakReference(path));
-
-        return path;
-    }
-
-    static private Path getCompiledPathXqrl2002(String pathExpr, String currentVar)
-    {
-        Path path = createXqrl2002CompiledPath(pathExpr, currentVar);
-        if (path != null)
-            _xqrl2002PathCache.put(path._pathKey, new WeakReference(path));
-
-        return path;
-    }
-
-    static private Path getCompiledPathXbean(String pathExpr,
-        String currentVar, Map namespaces)
-    {
-        Path path = XbeanPath.create(pathExpr, currentVar, namespaces);
-        if (path != null)
-            _xbeanPathCache.put(path._pathKey, new WeakReference(path));
 
         return path;
     }
@@ -298,7 +237,7 @@ public abstract class Path
             try
             {
                 return new XbeanPath(pathExpr, currentVar,
-                                XPath.compileXPath(pathExpr, currentVar, namespaces));
+                                XPath.compileXPath(pathExpr, currentVar, namespaces, true));
             }
             catch (XPathCompileException e) {
                 return null;
@@ -333,6 +272,11 @@ public abstract class Path
             return new XbeanPathEngine(_compiledPath, c);
         }
 
+        XPath getXbeanXPath()
+        {
+            return _compiledPath;
+        }
+
         private final String _currentVar;
         private final XPath _compiledPath;
         public Map namespaces;
@@ -469,12 +413,29 @@ public abstract class Path
         implements PathEngine
     {
         XbeanPathEngine(XPath xpath, Cur c)
+        {
+            this(xpath, c, null);
+        }
+
+        // With selections, the paths were compiled together and the hits of
+        // each go to the cursor at its index instead of to c
+
+        XbeanPathEngine(XPath xpath, Cur c, Cursor[] selections)
         {
             assert c.isContainer();
 
+            _selections = selections;
+
             _version = c._locale.version();
             _cur = c.weakCur(this);
 
+            for (int i = xpath.parentSteps(); i > 0; i--) {
+                if (!_cur.toParent()) {
+                    release();
+                    return;
+                }
+            }
+
             _cur.push();
 
             init(xpath);
@@ -482,14 +443,27 @@ public abstract class Path
             int ret = start();
 
             if ((ret & HIT) != 0)
-                c.addToSelection();
+                select(c);
 
             doAttrs(ret, c);
 
-            if ((ret & DESCEND) == 0 || !Locale.toFirstChildElement(_cur))
+            if ((ret & DESCEND) == 0 || !toContent(ret))
                 release();
         }
 
+        // Paths ending in text() see all the content, others only the child
+        // elements
+
+        private boolean toContent(int ret)
+        {
+            if ((ret & TEXT) == 0)
+                return Locale.toFirstChildElement(_cur);
+
+            _cur.next();
+
+            return true;
+        }
+
         private void advance(Cur c)
         {
             assert _cur != null;
@@ -508,23 +482,26 @@ public abstract class Path
                 int ret = element(_cur.getName());
 
                 if ((ret & HIT) != 0)
-                    c.addToSelection(_cur);
+                    select(c);
 
                 doAttrs(ret, c);
 
-                if ((ret & DESCEND) == 0 || !Locale.toFirstChildElement(_cur))
+                if ((ret & DESCEND) == 0 || !toContent(ret))
                 {
                     end();
                     _cur.skip();
                 }
             }
+            else if (_cur.isText())
+            {
+                if (text())
+                    select(c);
+
+                _cur.next();
+            }
             else
             {
-                do
-                {
-                    _cur.next();
-                }
-                while(!_cur.isContainerOrFinish());
+                _cur.skip();
             }
         }
 
@@ -536,7 +513,7 @@ public abstract class Path
                 if (_cur.toFirstAttr()) {
                     do {
                         if (attr(_cur.getName()))
-                            c.addToSelection(_cur);
+                            select(c);
                     }
                     while (_cur.toNextAttr());
 
@@ -545,6 +522,24 @@ public abstract class Path
             }
         }
 
+        private void select(Cur c)
+        {
+            if (_selections == null)
+                c.addToSelection(_cur);
+            else {
+                for (int i = 0; i < hitCount(); i++)
+                    _selections[hitId(i)].addToSelection(_cur);
+            }
+        }
+
+        // Runs the paths to the end, for paths compiled together
+
+        void selectAll(Cur c)
+        {
+            while (_cur != null)
+                advance(c);
+        }
+
         public boolean next(Cur c)
         {
             if (_cur != null && _version != _cur._locale.version())
@@ -570,10 +565,83 @@ public abstract class Path
             }
         }
 
+        //
+        // The element the predicates are tested on is the one at _cur
+        //
+
+        protected String attrValue(QName name)
+        {
+            return _cur.getAttrValue(name);
+        }
+
+        protected boolean toFirstChildElement()
+        {
+            _cur.push();
+
+            if (Locale.toFirstChildElement(_cur))
+                return true;
+
+            _cur.pop();
+
+            return false;
+        }
+
+        protected boolean toNextSiblingElement()
+        {
+            return Locale.toNextSiblingElement(_cur);
+        }
+
+        protected void toParentElement()
+        {
+            _cur.pop();
+        }
+
+        protected QName elementName()
+        {
+            return _cur.getName();
+        }
+
+        protected String stringValue()
+        {
+            return _cur.getValueAsString(Locale.WS_PRESERVE);
+        }
+
+        protected boolean hasText(String value)
+        {
+            _cur.push();
+
+            boolean found = false;
+
+            for (_cur.next(); !_cur.isFinish(); ) {
+                if (!_cur.isText())
+                    _cur.skip();
+                else if (value.equals(_cur.getCharsAsString(-1))) {
+                    found = true;
+                    break;
+                }
+                else
+                    _cur.next();
+            }
+
+            _cur.pop();
+
+            return found;
+        }
+
         private final long _version;
+        private final Cursor[] _selections;
         private Cur _cur;
     }
 
+    // Selects each of the paths compiled together by
+    // XPath.compileXPaths into the cursor at its index, in one walk of the
+    // content of c
+
+    static void selectPaths(XPath xpath, Cur c, Cursor[] selections)
+    {
+        new XbeanPathEngine(xpath, c, selections).selectAll(c);
+    }
+
     private static final class DelegatePathImpl
         extends Path
     {
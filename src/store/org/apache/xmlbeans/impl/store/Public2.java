@@ -322,6 +322,7 @@ public final class Public2
         public void invalidate_nilvalue() { throw new RuntimeException( "Not impl" ); }
         public void invalidate_element_order() { throw new RuntimeException( "Not impl" ); }
         public void validate_now() { throw new RuntimeException( "Not impl" ); }
+        public void precompute_value() { }
         public void disconnect_store() { throw new RuntimeException( "Not impl" ); }
         public TypeStoreUser create_element_user(QName eltName, QName xsiType) { return new TestTypeStoreUser( "ELEM" ); }
         public TypeStoreUser create_attribute_user(QName attrName) { throw new RuntimeException( "Not impl" ); }
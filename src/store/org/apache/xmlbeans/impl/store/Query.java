@@ -35,20 +35,20 @@ public abstract class Query
     public static String _useDelegateForXQuery = "use delegate for xquery";
     public static String _useXdkForXQuery = "use xdk for xquery";
 
+    private static final int USE_XDK      = 0x01;
+    private static final int USE_DELEGATE = 0x02;
+    private static final int USE_XQRL2002 = 0x04;
+
     private static String _delIntfName;
-    //private static HashMap _delegateQueryCache = new HashMap();
 
-    private static HashMap _xdkQueryCache = new HashMap();
-    private static Method _xdkCompileQuery;
-    private static boolean _xdkAvailable = true;  // at the beginning assume is available
+    private static volatile Method _xdkCompileQuery;
+    private static volatile boolean _xdkAvailable = true;  // at the beginning assume is available
 
-    private static HashMap _xqrlQueryCache = new HashMap(); //todo check for memory leaks
-    private static Method _xqrlCompileQuery;
-    private static boolean _xqrlAvailable = true;  // at the beginning assume is available
+    private static volatile Method _xqrlCompileQuery;
+    private static volatile boolean _xqrlAvailable = true;  // at the beginning assume is available
 
-    private static HashMap _xqrl2002QueryCache = new HashMap();
-    private static Method  _xqrl2002CompileQuery;
-    private static boolean _xqrl2002Available = true;  // at the beginning assume is available
+    private static volatile Method  _xqrl2002CompileQuery;
+    private static volatile boolean _xqrl2002Available = true;  // at the beginning assume is available
 
     static
     {
@@ -84,29 +84,48 @@ public abstract class Query
         return getCompiledQuery(queryExpr, options).cursorExecute(c, options);
     }
 
-    public static synchronized Query getCompiledQuery(String queryExpr, XmlOptions options)
+    public static Query getCompiledQuery(String queryExpr, XmlOptions options)
     {
         return getCompiledQuery(queryExpr, Path.getCurrentNodeVar(options), options);
     }
 
-    static synchronized Query getCompiledQuery(String queryExpr, String currentVar, XmlOptions options)
+    static Query getCompiledQuery(String queryExpr, String currentVar, XmlOptions options)
     {
         assert queryExpr != null;
         options = XmlOptions.maskNull(options);
+
+        int engine =
+            options.hasOption(Path._forceXqrl2002ForXpathXQuery) ? USE_XQRL2002
+            : (options.hasOption(_useXdkForXQuery) ? USE_XDK : 0)
+              | (options.hasOption(_useDelegateForXQuery) ? USE_DELEGATE : 0);
+        String delIntfName =
+            options.hasOption(QUERY_DELEGATE_INTERFACE) ?
+                (String)options.get(QUERY_DELEGATE_INTERFACE) : _delIntfName;
+
+        CompiledCache cache = CompiledCache.getInstance();
+        CompiledCache.Key key = new CompiledCache.Key(Query.class, engine,
+            queryExpr, currentVar, engine == USE_XQRL2002 ? null : delIntfName);
+
+        Query query = (Query) cache.get(key);
+        if (query != null)
+            return query;
+
+        // Two threads may compile the same query, the first one cached wins
+        return (Query) cache.put(key,
+            compileQuery(queryExpr, currentVar, engine, delIntfName));
+    }
+
+    private static Query compileQuery(String queryExpr, String currentVar,
+        int engine, String delIntfName)
+    {
         Query query;
 
-        if (options.hasOption(Path._forceXqrl2002ForXpathXQuery))
+        if (engine == USE_XQRL2002)
         {
-            query = (Query)_xqrl2002QueryCache.get(queryExpr);
-            if (query!=null)
-                return query;
-
             query = getXqrl2002CompiledQuery(queryExpr, currentVar);
             if (query!=null)
-            {
-                _xqrl2002QueryCache.put(queryExpr, query);
                 return query;
-            }
+
             throw new RuntimeException("No 2002 query engine found.");
         }
 
@@ -128,58 +147,33 @@ public abstract class Query
                 ((Integer) boundary.get(XPath._NS_BOUNDARY)).intValue();
         }
 
-        if (options.hasOption(_useXdkForXQuery))
+        if ((engine & USE_XDK) != 0)
         {
             //try XDK
-            query = (Query) _xdkQueryCache.get(queryExpr);
-            if (query != null)
-                return query;
-
             query = createXdkCompiledQuery(queryExpr, currentVar);
             if (query != null)
-            {
-                _xdkQueryCache.put(queryExpr, query);
                 return query;
-            }
         }
 
-        if (!options.hasOption(_useDelegateForXQuery))
-        {
-        //try XQRL
-        query = (Query) _xqrlQueryCache.get(queryExpr);
-        if (query != null)
-            return query;
-
-        query = createXqrlCompiledQuery(queryExpr, currentVar);
-        if (query != null)
+        if ((engine & USE_DELEGATE) == 0)
         {
-            _xqrlQueryCache.put(queryExpr, query);
-            return query;
-        }
+            //try XQRL
+            query = createXqrlCompiledQuery(queryExpr, currentVar);
+            if (query != null)
+                return query;
         }
 
-        //otherwise (if _useDelegateForXQuery option is set), 
+        //otherwise (if _useDelegateForXQuery option is set),
         //or if xqrl is not found, try delegate
-        //query = (Query) _delegateQueryCache.get(queryExpr);
-
-        //if (query != null)
-        //    return query;
-
-        String delIntfName = 
-            options.hasOption(QUERY_DELEGATE_INTERFACE) ? 
-                (String)options.get(QUERY_DELEGATE_INTERFACE) : _delIntfName;
         query = DelegateQueryImpl.createDelegateCompiledQuery(delIntfName, queryExpr, currentVar, boundaryVal);
 
         if (query != null)
-        {
-            //_delegateQueryCache.put(queryExpr, query);
             return query;
-        }
 
         throw new RuntimeException("No query engine found");
     }
 
-    public static synchronized String compileQuery(String queryExpr, XmlOptions options)
+    public static String compileQuery(String queryExpr, XmlOptions options)
     {
         getCompiledQuery(queryExpr, options);
         return queryExpr;
@@ -17,6 +17,7 @@ package org.apache.xmlbeans.impl.store;
 
 import javax.xml.namespace.QName;
 
+import org.apache.xmlbeans.CDataBookmark;
 import org.apache.xmlbeans.SystemProperties;
 import org.apache.xmlbeans.XmlDocumentProperties;
 import org.apache.xmlbeans.XmlOptions;
@@ -25,27 +26,39 @@ import org.apache.xmlbeans.xml.stream.*;
 
 import org.apache.xmlbeans.impl.common.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Writer;
 import java.io.Reader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
 import org.xml.sax.ContentHandler;
 import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.SAXException;
 
-import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.Attributes;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.LinkedHashMap;
+import java.util.WeakHashMap;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 abstract class Saver
 {
@@ -67,6 +80,18 @@ abstract class Saver
 
     protected void syntheticNamespace ( String prefix, String uri, boolean considerDefault ) { }
 
+    // Called before an element is saved, in the namespace scope of its
+    // parent.  Returns true if the element has been emitted whole, as it
+    // was saved before, then emitDone is not called for it.
+    protected boolean emitUnchanged ( SaveCur c ) { return false; }
+
+    // Called once an element and its content have been emitted
+    protected void emitDone ( SaveCur c ) { }
+
+    // Called when a name is saved with a prefix picked by the order of the
+    // mappings, rather than by the mappings alone
+    protected void anyPrefixUsed ( ) { }
+
     Saver ( Cur c, XmlOptions options )
     {
         assert c._locale.entered();
@@ -78,7 +103,9 @@ abstract class Saver
         _locale = c._locale;
         _version = _locale.version();
 
-        _namespaceStack = new ArrayList();
+        _namespaceStack = new String [ 64 ];
+        _frameStarts = new int [ 16 ];
+        _frameScopes = new int [ 16 ];
         _uriMap = new HashMap();
         _prefixMap = new HashMap();
 
@@ -138,6 +165,47 @@ abstract class Saver
         _ancestorNamespaces = _cur.getAncestorNamespaces();
     }
 
+    /**
+     * Creates a saver which saves what cur presents in the namespace scope
+     * parent is in, as if parent were saving it.  Only the mappings are
+     * taken from parent, the two savers can then be run on different
+     * threads, see ByteSaver.saveRanges.
+     */
+    Saver ( Saver parent, SaveCur cur, XmlOptions options )
+    {
+        options = XmlOptions.maskNull( options );
+
+        String filterPI = (String) options.get( XmlOptions.SAVE_FILTER_PROCINST );
+
+        if (filterPI != null)
+            cur = new FilterPiSaveCur( cur, filterPI );
+
+        _cur = cur;
+
+        _locale = parent._locale;
+        _version = parent._version;
+
+        _namespaceStack = (String[]) parent._namespaceStack.clone();
+        _namespaceTop = parent._namespaceTop;
+        _frameStarts = (int[]) parent._frameStarts.clone();
+        _frameScopes = (int[]) parent._frameScopes.clone();
+        _frameTop = parent._frameTop;
+        _scope = parent._scope;
+        _lastScope = parent._lastScope;
+        _uriMap = (HashMap) parent._uriMap.clone();
+        _prefixMap = (HashMap) parent._prefixMap.clone();
+        _initialDefaultUri = parent._initialDefaultUri;
+
+        _attrNames = new ArrayList();
+        _attrValues = new ArrayList ();
+
+        _replaceChar = parent._replaceChar;
+        _useDefaultNamespace = parent._useDefaultNamespace;
+        _saveNamespacesFirst = parent._saveNamespacesFirst;
+        _suggestedPrefixes = parent._suggestedPrefixes;
+        _preComputedNamespaces = parent._preComputedNamespaces;
+    }
+
     private static SaveCur createSaveCur ( Cur c, XmlOptions options )
     {
         QName synthName = (QName) options.get( XmlOptions.SAVE_SYNTHETIC_DOCUMENT_ELEMENT );
@@ -291,6 +359,106 @@ abstract class Saver
             (ch == 0x9) || (ch == 0xA) || (ch == 0xD)
         );
     }
+
+    /**
+     * Returns the text of a comment as it is saved.  Chars which are not
+     * valid in xml become a '?', and a '-' which would end the comment or
+     * follows another one becomes a space.
+     */
+    static String commentText ( String text )
+    {
+        char[] chars = text.toCharArray();
+
+        boolean lastWasDash = false;
+
+        for ( int i = 0 ; i < chars.length ; i++ )
+        {
+            char ch = chars[ i ];
+
+            if (isBadChar( ch ))
+                chars[ i ] = '?';
+            else if (ch == '-')
+            {
+                // Replace "--" with "- " to make well formed
+                if (lastWasDash)
+                    chars[ i ] = ' ';
+
+                lastWasDash = !lastWasDash;
+            }
+            else
+                lastWasDash = false;
+        }
+
+        if (chars.length > 0 && chars[ chars.length - 1 ] == '-')
+            chars[ chars.length - 1 ] = ' ';
+
+        return new String( chars );
+    }
+
+    /**
+     * Returns the text of a processing instruction as it is saved.  Chars
+     * which are not valid in xml become a '?', and the '>' of a "?>"
+     * which would end the processing instruction becomes a space.
+     */
+    static String procinstText ( String text )
+    {
+        char[] chars = text.toCharArray();
+
+        boolean lastWasQuestion = false;
+
+        for ( int i = 0 ; i < chars.length ; i++ )
+        {
+            char ch = chars[ i ];
+
+            // The '?' a bad char is replaced with may start a "?>"
+            if (isBadChar( ch ))
+                ch = chars[ i ] = '?';
+            else if (ch == '>' && lastWasQuestion)
+                ch = chars[ i ] = ' ';
+
+            lastWasQuestion = ch == '?';
+        }
+
+        return new String( chars );
+    }
+
+    private static String[] escapes ( String chars, String[] replacements )
+    {
+        String[] escapes = new String [ 0x80 ];
+
+        for ( int i = 0 ; i < chars.length() ; i++ )
+            escapes[ chars.charAt( i ) ] = replacements[ i ];
+
+        return escapes;
+    }
+
+    private static String[] withBadChars ( String[] escapes )
+    {
+        for ( char ch = 0 ; ch < 0x20 ; ch++ )
+        {
+            if (isBadChar( ch ))
+                escapes[ ch ] = "?";
+        }
+
+        return escapes;
+    }
+
+    // The replacements of the ascii chars escaped in saved text, shared by
+    // the savers which escape chars themselves
+
+    static final String[] ATTR_ESCAPES =
+        escapes( "<&\"", new String[] { "&lt;", "&amp;", "&quot;" } );
+
+    // A '>' is only escaped after "]]", a '\r' is kept when pretty
+    // printing
+    static final String[] TEXT_ESCAPES = withBadChars(
+        escapes( "<&>\r", new String[] { "&lt;", "&amp;", "&gt;", "&#13;" } ) );
+
+    static final String[] PRETTY_TEXT_ESCAPES = withBadChars(
+        escapes( "<&>", new String[] { "&lt;", "&amp;", "&gt;" } ) );
+
+    static final String[] CDATA_ESCAPES = withBadChars(
+        escapes( ">", new String[] { "]]>><![CDATA[" } ) );
         
     protected boolean saveNamespacesFirst ( )
     {
@@ -309,7 +477,10 @@ abstract class Saver
 
     protected final boolean process ( )
     {
-        assert _locale.entered();
+        // Savers of a document open to concurrent reads may run on threads
+        // which have not entered the locale, see ChildRangeSaveCur
+
+        assert _locale.entered() || _locale.hasConcurrentReads();
 
         if (_cur == null)
             return false;
@@ -347,6 +518,7 @@ abstract class Saver
     private final void processFinish ( )
     {
         emitFinish( _cur );
+        emitDone( _cur );
         popMappings();
     }
 
@@ -411,6 +583,12 @@ abstract class Saver
     {
         assert _cur.isElem() && _cur.getName() != null;
 
+        if (emitUnchanged( _cur ))
+        {
+            _cur.toEnd();
+            return;
+        }
+
         QName name = _cur.getName();
 
         // Add a new entry to the frontier.  If this element has a name
@@ -491,38 +669,107 @@ abstract class Saver
 
         if (emitElement( _cur, _attrNames, _attrValues ))
         {
+            emitDone( _cur );
             popMappings();
             _cur.toEnd();
         }
     }
 
+    /**
+     * Returns the mappings an element is saved in, taken before those of
+     * the element are pushed.  An element which has not changed is saved
+     * the same in equal mappings.  Returns null for an element which is
+     * also saved with mappings from elsewhere: the first element of a
+     * fragment is given those of its ancestors, and the first element
+     * saved with aggressive namespaces those of the whole save.
+     * <p>
+     * The whole stack of mappings is compared, not just those in effect.
+     * A uri whose prefix is mapped again is given a prefix found in the
+     * stack, and the stack of a fragment, which starts with the mappings
+     * of its ancestors, differs from that of the whole document.
+     */
+    protected final Object namespaceContext ( )
+    {
+        if (_ancestorNamespaces != null || _preComputedNamespaces != null)
+            return null;
+
+        // The mappings only change with the scope
+
+        if (_context == null || _contextScope != _scope)
+        {
+            _context =
+                new NamespaceContext(
+                    _namespaceStack, _namespaceTop,
+                    _prefixMap.get( "" ) == _initialDefaultUri );
+
+            _contextScope = _scope;
+        }
+
+        return _context;
+    }
+
+    private static final class NamespaceContext
+    {
+        NamespaceContext ( String[] namespaceStack, int namespaceTop, boolean initialDefault )
+        {
+            _namespaceStack = new String [ namespaceTop ];
+            System.arraycopy( namespaceStack, 0, _namespaceStack, 0, namespaceTop );
+            _initialDefault = initialDefault;
+        }
+
+        public boolean equals ( Object o )
+        {
+            if (o == this)
+                return true;
+
+            if (!(o instanceof NamespaceContext))
+                return false;
+
+            NamespaceContext that = (NamespaceContext) o;
+
+            // The initial default mapping may be replaced where a mapping
+            // of "" made by the document may not
+
+            return
+                _initialDefault == that._initialDefault &&
+                    Arrays.equals( _namespaceStack, that._namespaceStack );
+        }
+
+        public int hashCode ( )
+        {
+            return Arrays.hashCode( _namespaceStack );
+        }
+
+        private final String[] _namespaceStack;
+        private final boolean  _initialDefault;
+    }
+
     //
-    // Layout of namespace stack:
+    // Layout of namespace stack, eight strings per mapping:
     //
     //    URI Undo
     //    URI Rename
     //    Prefix Undo
     //    Mapping
     //
+    // The mappings made by the open elements are in frames, _frameStarts
+    // holds the index in the stack at which each frame starts.  The
+    // mappings made before the first frame are in none.
+    //
 
     boolean hasMappings ( )
     {
-        int i = _namespaceStack.size();
-
-        return i > 0 && _namespaceStack.get( i - 1 ) != null;
+        return _namespaceTop > frameStart();
     }
 
     void iterateMappings ( )
     {
-        _currentMapping = _namespaceStack.size();
-
-        while ( _currentMapping > 0 && _namespaceStack.get( _currentMapping - 1 ) != null )
-            _currentMapping -= 8;
+        _currentMapping = frameStart();
     }
 
     boolean hasMapping ( )
     {
-        return _currentMapping < _namespaceStack.size();
+        return _currentMapping < _namespaceTop;
     }
 
     void nextMapping ( )
@@ -533,21 +780,45 @@ abstract class Saver
     String mappingPrefix ( )
     {
         assert hasMapping();
-        return (String) _namespaceStack.get( _currentMapping + 6 );
+        return _namespaceStack[ _currentMapping + 6 ];
     }
 
     String mappingUri ( )
     {
         assert hasMapping();
-        return (String) _namespaceStack.get( _currentMapping + 7 );
+        return _namespaceStack[ _currentMapping + 7 ];
+    }
+
+    private int frameStart ( )
+    {
+        return _frameTop == 0 ? 0 : _frameStarts[ _frameTop - 1 ];
+    }
+
+    private final void pushFrame ( )
+    {
+        if (_frameTop == _frameStarts.length)
+        {
+            int[] newStarts = new int [ _frameTop * 2 ];
+            int[] newScopes = new int [ _frameTop * 2 ];
+
+            System.arraycopy( _frameStarts, 0, newStarts, 0, _frameTop );
+            System.arraycopy( _frameScopes, 0, newScopes, 0, _frameTop );
+
+            _frameStarts = newStarts;
+            _frameScopes = newScopes;
+        }
+
+        _frameStarts[ _frameTop ] = _namespaceTop;
+        _frameScopes[ _frameTop ] = _scope;
+
+        _frameTop++;
     }
 
     private final void pushMappings ( SaveCur c, boolean ensureDefaultEmpty )
     {
         assert c.isContainer();
 
-        _namespaceStack.add( null );
-
+        pushFrame();
         c.push();
 
         namespaces:
@@ -629,19 +900,13 @@ abstract class Saver
                 renameUri = null;
             else
             {
-                int i = _namespaceStack.size();
+                int i = _namespaceTop;
 
                 while ( i > 0 )
                 {
-                    if (_namespaceStack.get( i - 1 ) == null)
-                    {
-                        i--;
-                        continue;
-                    }
-
-                    if (_namespaceStack.get( i - 7 ).equals( renameUri ))
+                    if (_namespaceStack[ i - 7 ].equals( renameUri ))
                     {
-                        renamePrefix = (String) _namespaceStack.get( i - 8 );
+                        renamePrefix = _namespaceStack[ i - 8 ];
 
                         if (renamePrefix == null || !renamePrefix.equals( prefix ))
                             break;
@@ -654,119 +919,125 @@ abstract class Saver
             }
         }
 
-        _namespaceStack.add( _uriMap.get( uri ) );
-        _namespaceStack.add( uri );
-
-        if (renameUri != null)
+        if (_namespaceTop == _namespaceStack.length)
         {
-            _namespaceStack.add( _uriMap.get( renameUri ) );
-            _namespaceStack.add( renameUri );
+            String[] newStack = new String [ _namespaceTop * 2 ];
+            System.arraycopy( _namespaceStack, 0, newStack, 0, _namespaceTop );
+            _namespaceStack = newStack;
         }
-        else
+
+        String[] stack = _namespaceStack;
+        int i = _namespaceTop;
+
+        stack[ i     ] = (String) _uriMap.get( uri );
+        stack[ i + 1 ] = uri;
+
+        if (renameUri != null)
         {
-            _namespaceStack.add( null );
-            _namespaceStack.add( null );
+            stack[ i + 2 ] = (String) _uriMap.get( renameUri );
+            stack[ i + 3 ] = renameUri;
         }
 
-        _namespaceStack.add( prefix );
-        _namespaceStack.add( _prefixMap.get( prefix ) );
+        stack[ i + 4 ] = prefix;
+        stack[ i + 5 ] = (String) _prefixMap.get( prefix );
+
+        stack[ i + 6 ] = prefix;
+        stack[ i + 7 ] = uri;
 
-        _namespaceStack.add( prefix );
-        _namespaceStack.add( uri );
+        _namespaceTop += 8;
 
         _uriMap.put( uri, prefix );
         _prefixMap.put( prefix, uri );
 
         if (renameUri != null)
             _uriMap.put( renameUri, renamePrefix );
+
+        // Names looked up before this mapping may now be saved differently
+
+        _scope = ++_lastScope;
     }
 
     private final void popMappings ( )
     {
-        for ( ; ; )
+        int start = 0;
+
+        if (_frameTop > 0)
         {
-            int i = _namespaceStack.size();
+            _frameTop--;
 
-            if (i == 0)
-                break;
+            start = _frameStarts[ _frameTop ];
+            _scope = _frameScopes[ _frameTop ];
+        }
 
-            if (_namespaceStack.get( i - 1 ) == null)
-            {
-                _namespaceStack.remove( i - 1 );
-                break;
-            }
+        String[] stack = _namespaceStack;
 
-            Object oldUri = _namespaceStack.get( i - 7 );
-            Object oldPrefix = _namespaceStack.get( i - 8 );
+        for ( int i = _namespaceTop ; i > start ; i -= 8 )
+        {
+            String oldUri = stack[ i - 7 ];
+            String oldPrefix = stack[ i - 8 ];
 
             if (oldPrefix == null)
                 _uriMap.remove( oldUri );
             else
                 _uriMap.put( oldUri, oldPrefix );
 
-            oldPrefix = _namespaceStack.get( i - 4 );
-            oldUri = _namespaceStack.get( i - 3 );
+            oldPrefix = stack[ i - 4 ];
+            oldUri = stack[ i - 3 ];
 
             if (oldUri == null)
                 _prefixMap.remove( oldPrefix );
             else
                 _prefixMap.put( oldPrefix, oldUri );
 
-            String uri = (String) _namespaceStack.get( i - 5 );
+            String uri = stack[ i - 5 ];
 
             if (uri != null)
-                _uriMap.put( uri, _namespaceStack.get( i - 6 ) );
-
-            // Hahahahahaha -- :-(
-            _namespaceStack.remove( i - 1 );
-            _namespaceStack.remove( i - 2 );
-            _namespaceStack.remove( i - 3 );
-            _namespaceStack.remove( i - 4 );
-            _namespaceStack.remove( i - 5 );
-            _namespaceStack.remove( i - 6 );
-            _namespaceStack.remove( i - 7 );
-            _namespaceStack.remove( i - 8 );
+                _uriMap.put( uri, stack[ i - 6 ] );
+
+            for ( int j = i - 8 ; j < i ; j++ )
+                stack[ j ] = null;
         }
+
+        _namespaceTop = start;
     }
 
     private final void dumpMappings ( )
     {
-        for ( int i = _namespaceStack.size() ; i > 0 ; )
+        int frame = _frameTop;
+
+        for ( int i = _namespaceTop ; i > 0 ; i -= 8 )
         {
-            if (_namespaceStack.get( i - 1 ) == null)
+            while ( frame > 0 && _frameStarts[ frame - 1 ] == i )
             {
                 System.out.println( "----------------" );
-                i--;
-                continue;
+                frame--;
             }
 
             System.out.print( "Mapping: " );
-            System.out.print( _namespaceStack.get( i - 2 ) );
+            System.out.print( _namespaceStack[ i - 2 ] );
             System.out.print( " -> " );
-            System.out.print( _namespaceStack.get( i - 1 ) );
+            System.out.print( _namespaceStack[ i - 1 ] );
             System.out.println();
 
             System.out.print( "Prefix Undo: " );
-            System.out.print( _namespaceStack.get( i - 4 ) );
+            System.out.print( _namespaceStack[ i - 4 ] );
             System.out.print( " -> " );
-            System.out.print( _namespaceStack.get( i - 3 ) );
+            System.out.print( _namespaceStack[ i - 3 ] );
             System.out.println();
 
             System.out.print( "Uri Rename: " );
-            System.out.print( _namespaceStack.get( i - 5 ) );
+            System.out.print( _namespaceStack[ i - 5 ] );
             System.out.print( " -> " );
-            System.out.print( _namespaceStack.get( i - 6 ) );
+            System.out.print( _namespaceStack[ i - 6 ] );
             System.out.println();
 
             System.out.print( "UriUndo: " );
-            System.out.print( _namespaceStack.get( i - 7 ) );
+            System.out.print( _namespaceStack[ i - 7 ] );
             System.out.print( " -> " );
-            System.out.print( _namespaceStack.get( i - 8 ) );
+            System.out.print( _namespaceStack[ i - 8 ] );
             System.out.println();
 
             System.out.println();
-
-            i -= 8;
         }
     }
 
@@ -890,6 +1161,166 @@ abstract class Saver
         return _prefixMap;
     }
 
+    /**
+     * The text and bytes a name or a namespace declaration is saved as.
+     */
+    static final class SavedText
+    {
+        SavedText ( String key, String text )
+        {
+            _key = key;
+            _text = text;
+        }
+
+        // The prefix a name is saved with, the uri of a declaration
+        String _key;
+        String _text;
+
+        // Encoded by a ByteSaver on first use
+        byte[] _bytes;
+
+        // The scope a name was last looked up in
+        int _scope;
+
+        // Given one of the prefixes mapped to the uri, by the order of the
+        // mappings
+        boolean _anyPrefix;
+
+        // QNames do not compare their prefixes, the names which differ only
+        // in the prefix they were given are chained
+        String    _namePrefix;
+        SavedText _next;
+    }
+
+    /**
+     * Returns the prefixed name a name is saved with under the current
+     * mappings.
+     * <p>
+     * Each change to the mappings starts a new scope, and popping a frame
+     * returns to the scope it was pushed in, so a name looked up in the
+     * current scope is saved as it was then.  Otherwise the prefix is
+     * looked up again, and the text is only made anew if that differs.
+     */
+    protected final SavedText savedName ( QName name, boolean needsPrefix )
+    {
+        assert name != null;
+
+        HashMap saved = needsPrefix ? _savedAttrNames : _savedElemNames;
+
+        String namePrefix = name.getPrefix();
+
+        SavedText first = (SavedText) saved.get( name );
+        SavedText text = first;
+
+        while ( text != null && !text._namePrefix.equals( namePrefix ) )
+            text = text._next;
+
+        if (text != null && text._scope == _scope)
+        {
+            if (text._anyPrefix)
+                anyPrefixUsed();
+
+            return text;
+        }
+
+        String uri = name.getNamespaceURI();
+        String prefix = "";
+        boolean anyPrefix = false;
+
+        assert uri != null;
+
+        if (uri.length() != 0)
+        {
+            prefix = namePrefix;
+            String mappedUri = getNamespaceForPrefix( prefix );
+
+            if (mappedUri == null || !mappedUri.equals( uri ))
+                prefix = getUriMapping( uri );
+
+            // Attrs need a prefix.  If I have not found one, then there must be a default
+            // prefix obscuring the prefix needed for this attr.  Find it manually.
+
+            // NOTE - Consider keeping the currently mapped default URI separate fromn the
+            // _urpMap and _prefixMap.  This way, I would not have to look it up manually
+            // here
+
+            if (needsPrefix && prefix.length() == 0)
+            {
+                prefix = getNonDefaultUriMapping( uri );
+                anyPrefix = true;
+            }
+        }
+
+        assert name.getLocalPart().length() > 0;
+
+        if (text == null)
+        {
+            text = new SavedText( null, null );
+            text._namePrefix = namePrefix;
+            text._next = first;
+
+            saved.put( name, text );
+        }
+
+        if (text._text == null || !text._key.equals( prefix ))
+        {
+            text._key = prefix;
+            text._text = prefix.length() == 0
+                ? name.getLocalPart()
+                : prefix + ":" + name.getLocalPart();
+            text._bytes = null;
+        }
+
+        text._scope = _scope;
+        text._anyPrefix = anyPrefix;
+
+        if (anyPrefix)
+            anyPrefixUsed();
+
+        return text;
+    }
+
+    /**
+     * Returns the text of a namespace declaration, with the space before it
+     * and the uri entitized as an attribute value.
+     */
+    protected final SavedText savedXmlns ( String prefix, String uri )
+    {
+        SavedText text = (SavedText) _savedXmlns.get( prefix );
+
+        if (text != null && text._key.equals( uri ))
+            return text;
+
+        StringBuffer sb = new StringBuffer( prefix.length() + uri.length() + 10 );
+
+        sb.append( prefix.length() == 0 ? " xmlns=\"" : " xmlns:" );
+
+        if (prefix.length() > 0)
+            sb.append( prefix ).append( "=\"" );
+
+        for ( int i = 0 ; i < uri.length() ; i++ )
+        {
+            char ch = uri.charAt( i );
+
+            if (ch == '<')
+                sb.append( "&lt;" );
+            else if (ch == '&')
+                sb.append( "&amp;" );
+            else if (ch == '"')
+                sb.append( "&quot;" );
+            else
+                sb.append( ch );
+        }
+
+        sb.append( '"' );
+
+        text = new SavedText( uri, sb.toString() );
+
+        _savedXmlns.put( prefix, text );
+
+        return text;
+    }
+
     //
     //
     //
@@ -946,6 +1377,9 @@ abstract class Saver
             if (options != null && options.hasOption(XmlOptions.SAVE_PRETTY_PRINT) )
                 _isPrettyPrint = true;
 
+            _textEscapes = withEscapedChars( _isPrettyPrint ? PRETTY_TEXT_ESCAPES : TEXT_ESCAPES );
+            _attrEscapes = withEscapedChars( ATTR_ESCAPES );
+
             _in = _out = 0;
             _free = 0;
 
@@ -1006,36 +1440,10 @@ abstract class Saver
             emit( '>' );
         }
 
-        protected void emitXmlns ( String prefix, String uri )
-        {
-            assert prefix != null;
-            assert uri != null;
-
-            emit( "xmlns" );
-
-            if (prefix.length() > 0)
-            {
-                emit( ':' );
-                emit( prefix );
-            }
-
-            emit( '=', '\"' );
-
-            // TODO - must encode uri properly
-
-            emit( uri );
-            entitizeAttrValue(false);
-
-            emit( '"' );
-        }
-
         private void emitNamespacesHelper ( )
         {
             for ( iterateMappings() ; hasMapping() ; nextMapping() )
-            {
-                emit( ' ' );
-                emitXmlns( mappingPrefix(), mappingUri() );
-            }
+                emit( savedXmlns( mappingPrefix(), mappingUri() )._text );
         }
 
         private void emitAttrHelper ( QName attrName, String attrValue )
@@ -1043,8 +1451,10 @@ abstract class Saver
             emit( ' ' );
             emitName( attrName, true );
             emit( '=', '\"' );
-            emit( attrValue );
-            entitizeAttrValue(true);
+
+            if (attrValue != null)
+                emitEscaped( attrValue, 0, attrValue.length(), _attrEscapes, false, Integer.MAX_VALUE );
+
             emit( '"' );
         }
 
@@ -1055,9 +1465,41 @@ abstract class Saver
             // c.isTextCData() is expensive do it only if useCDataBookmarks option is enabled
             boolean forceCData = _useCDataBookmarks && c.isTextCData();
 
-            emit( c );
+            Object src = c.getChars();
+            int off = c._offSrc;
+            int cch = c._cchSrc;
+
+            if (cch == 0)
+                return;
+
+            // Whether to save a text as a CDATA depends on how many entities
+            // it has, they are counted as the text is escaped.  Once there
+            // are enough of them, what was emitted of the text is taken
+            // back and it is emitted again as a CDATA.
+
+            boolean cdata = forceCData ||
+                (cch > _cdataLengthThreshold && _cdataEntityCountThreshold < 0);
+
+            if (!cdata)
+            {
+                int entityLimit =
+                    cch > _cdataLengthThreshold ? _cdataEntityCountThreshold : Integer.MAX_VALUE;
+
+                int available = getAvailable();
+
+                if (!emitEscaped( src, off, cch, _textEscapes, true, entityLimit ))
+                {
+                    unemit( getAvailable() - available );
+                    cdata = true;
+                }
+            }
 
-            entitizeContent( forceCData );
+            if (cdata)
+            {
+                emit( "<![CDATA[" );
+                emitEscaped( src, off, cch, CDATA_ESCAPES, true, Integer.MAX_VALUE );
+                emit( "]]>" );
+            }
         }
 
         protected void emitComment ( SaveCur c )
@@ -1069,11 +1511,11 @@ abstract class Saver
             c.push();
             c.next();
 
-            emit( c );
+            if (c.isText())
+                emit( commentText( CharUtil.getString( c.getChars(), c._offSrc, c._cchSrc ) ) );
 
             c.pop();
 
-            entitizeComment();
             emit( "-->" );
         }
 
@@ -1093,8 +1535,7 @@ abstract class Saver
             if (c.isText())
             {
                 emit( " " );
-                emit( c );
-                entitizeProcinst();
+                emit( procinstText( CharUtil.getString( c.getChars(), c._offSrc, c._cchSrc ) ) );
             }
 
             c.pop();
@@ -1158,50 +1599,17 @@ abstract class Saver
 
         private void emitName ( QName name, boolean needsPrefix )
         {
-            assert name != null;
+            emit( savedName( name, needsPrefix )._text );
+        }
 
-            String uri = name.getNamespaceURI();
-
-            assert uri != null;
-
-            if (uri.length() != 0)
-            {
-                String prefix = name.getPrefix();
-                String mappedUri = getNamespaceForPrefix( prefix );
-
-                if (mappedUri == null || !mappedUri.equals( uri ))
-                    prefix = getUriMapping( uri );
-
-                // Attrs need a prefix.  If I have not found one, then there must be a default
-                // prefix obscuring the prefix needed for this attr.  Find it manually.
-
-                // NOTE - Consider keeping the currently mapped default URI separate fromn the
-                // _urpMap and _prefixMap.  This way, I would not have to look it up manually
-                // here
-
-                if (needsPrefix && prefix.length() == 0)
-                    prefix = getNonDefaultUriMapping( uri );
-
-                if (prefix.length() > 0)
-                {
-                    emit( prefix );
-                    emit( ':' );
-                }
-            }
-
-            assert name.getLocalPart().length() > 0;
-
-            emit( name.getLocalPart() );
-        }
-
-        private void emit ( char ch )
-        {
-            assert _buf==null ||
-                (_out<_in && _free == _buf.length - ( _in - _out ) ) || // data in the middle, free on the edges
-                (_out>_in && _free == _out - _in ) ||                   // data on the edges, free in the middle
-                (_out==_in && _free == _buf.length) ||                  // no data, all buffer free
-                (_out==_in && _free == 0)                               // buffer full
-                : "_buf.length:" + _buf.length + " _in:" + _in + " _out:" + _out + " _free:" + _free;
+        private void emit ( char ch )
+        {
+            assert _buf==null ||
+                (_out<_in && _free == _buf.length - ( _in - _out ) ) || // data in the middle, free on the edges
+                (_out>_in && _free == _out - _in ) ||                   // data on the edges, free in the middle
+                (_out==_in && _free == _buf.length) ||                  // no data, all buffer free
+                (_out==_in && _free == 0)                               // buffer full
+                : "_buf.length:" + _buf.length + " _in:" + _in + " _out:" + _out + " _free:" + _free;
 
             preEmit( 1 );
 
@@ -1272,6 +1680,47 @@ abstract class Saver
                 : "_buf.length:" + _buf.length + " _in:" + _in + " _out:" + _out + " _free:" + _free;
         }
 
+        private void emit ( char[] chars, int off, int cch )
+        {
+            if (preEmit( cch ))
+                return;
+
+            int chunk;
+
+            if (_in <= _out || cch < (chunk = _buf.length - _in))
+            {
+                System.arraycopy( chars, off, _buf, _in, cch );
+                _in += cch;
+            }
+            else
+            {
+                System.arraycopy( chars, off, _buf, _in, chunk );
+                System.arraycopy( chars, off + chunk, _buf, 0, cch - chunk );
+                _in = (_in + cch) % _buf.length;
+            }
+
+            assert _buf==null ||
+                (_out<_in && _free == _buf.length - ( _in - _out ) ) || // data in the middle, free on the edges
+                (_out>_in && _free == _out - _in ) ||                   // data on the edges, free in the middle
+                (_out==_in && _free == _buf.length) ||                  // no data, all buffer free
+                (_out==_in && _free == 0)                               // buffer full
+                : "_buf.length:" + _buf.length + " _in:" + _in + " _out:" + _out + " _free:" + _free;
+        }
+
+        /**
+         * Takes back the last cch chars emitted.
+         */
+        private void unemit ( int cch )
+        {
+            assert cch >= 0 && cch <= getAvailable();
+
+            if (cch == 0)
+                return;
+
+            _in = (_in - cch + _buf.length) % _buf.length;
+            _free += cch;
+        }
+
         private void emit ( SaveCur c )
         {
             if (c.isText())
@@ -1310,8 +1759,6 @@ abstract class Saver
                 (_out==_in && _free == 0)                               // buffer full
                 : "_buf.length:" + _buf.length + " _in:" + _in + " _out:" + _out + " _free:" + _free;
 
-            _lastEmitCch = cch;
-
             if (cch == 0)
                 return true;
 
@@ -1333,8 +1780,6 @@ abstract class Saver
                 _in = _out = 0;
             }
 
-            _lastEmitIn = _in;
-
             _free -= cch;
 
             assert _free >= 0;
@@ -1349,305 +1794,151 @@ abstract class Saver
             return false;
         }
 
-        private void entitizeContent ( boolean forceCData )
+        /**
+         * Emits the chars of a String, char[] or CharJoin with those which
+         * have an entry in escapes replaced.  The chars in between are
+         * copied in runs.  A char[] is scanned where it is, anything else
+         * is copied out a chunk at a time.  Returns false, having emitted
+         * only part of the chars, once there are more '<' and '&' than the
+         * entity limit.
+         */
+        private boolean emitEscaped (
+            Object src, int off, int cch, String[] escapes, boolean text, int entityLimit )
         {
-            assert _free >=0;
-            
-            if (_lastEmitCch == 0)
-                return;
-
-            int i = _lastEmitIn;
-            final int n = _buf.length;
-
-            boolean hasCharToBeReplaced = false;
-
             int count = 0;
-            char prevChar = 0;
-            char prevPrevChar = 0;
-            for ( int cch = _lastEmitCch ; cch > 0 ; cch-- )
-            {
-                char ch = _buf[ i ];
-
-                if (ch == '<' || ch == '&')
-                    count++;
-                else if (prevPrevChar == ']' && prevChar == ']' && ch == '>' )
-                    hasCharToBeReplaced = true;
-                else if (isBadChar( ch ) || isEscapedChar( ch ) || (!_isPrettyPrint && ch == '\r') )
-                    hasCharToBeReplaced = true;
-
-                if (++i == n)
-                    i = 0;
-
-                prevPrevChar = prevChar;
-                prevChar = ch;
-            }
-
-            if (!forceCData && count == 0 && !hasCharToBeReplaced && count<_cdataEntityCountThreshold)
-                return;
 
-            i = _lastEmitIn;
+            _prev1 = _prev2 = 0;
 
-            //
-            // Heuristic for knowing when to save out stuff as a CDATA.
-            //
-            if (forceCData || (_lastEmitCch > _cdataLengthThreshold && count > _cdataEntityCountThreshold) )
+            while ( cch > 0 )
             {
-                boolean lastWasBracket = _buf[ i ] == ']';
+                char[] chars;
+                int start;
+                int end;
 
-                i = replace( i, "<![CDATA[" + _buf[ i ] );
-
-                boolean secondToLastWasBracket = lastWasBracket;
-
-                lastWasBracket = _buf[ i ] == ']';
-
-                if (++i == _buf.length)
-                    i = 0;
-
-                for ( int cch = _lastEmitCch - 2 ; cch > 0 ; cch-- )
+                if (src instanceof char[])
                 {
-                    char ch = _buf[ i ];
-
-                    if (ch == '>' && secondToLastWasBracket && lastWasBracket)
-                        i = replace( i, "]]>><![CDATA[" );
-                    else if (isBadChar( ch ))
-                        i = replace( i, "?" );
-                    else
-                        i++;
-
-                    secondToLastWasBracket = lastWasBracket;
-                    lastWasBracket = ch == ']';
-
-                    if (i == _buf.length)
-                        i = 0;
+                    chars = (char[]) src;
+                    start = off;
+                    end = off + cch;
                 }
-
-                emit( "]]>" );
-            }
-            else
-            {
-                char ch = 0, ch_1 = 0, ch_2;
-                for ( int cch = _lastEmitCch ; cch > 0 ; cch-- )
+                else
                 {
-                    ch_2 = ch_1;
-                    ch_1 = ch;
-                    ch = _buf[ i ];
-
-                    if (ch == '<')
-                        i = replace( i, "&lt;" );
-                    else if (ch == '&')
-                        i = replace( i, "&amp;" );
-                    else if (ch == '>' && ch_1 == ']' && ch_2 == ']')
-                        i = replace( i, "&gt;" );
-                    else if (isBadChar( ch ))
-                        i = replace( i, "?" );
-                    else if (!_isPrettyPrint && ch == '\r')
-                        i = replace( i, "&#13;" );
-                    else if (isEscapedChar( ch ))
-                        i = replace( i, _replaceChar.getEscapedString( ch ) );
-                    else
-                        i++;
+                    if (_chars == null)
+                        _chars = new char [ 512 ];
 
-                    if (i == _buf.length)
-                        i = 0;
-                }
-            }
-        }
+                    int chunk = cch < _chars.length ? cch : _chars.length;
 
-        private void entitizeAttrValue ( boolean replaceEscapedChar )
-        {
-            if (_lastEmitCch == 0)
-                return;
+                    CharUtil.getChars( _chars, 0, src, off, chunk );
 
-            int i = _lastEmitIn;
+                    chars = _chars;
+                    start = 0;
+                    end = chunk;
+                }
 
-            for ( int cch = _lastEmitCch ; cch > 0 ; cch-- )
-            {
-                char ch = _buf[ i ];
+                int run = start;
 
-                if (ch == '<')
-                    i = replace( i, "&lt;" );
-                else if (ch == '&')
-                    i = replace( i, "&amp;" );
-                else if (ch == '"')
-                    i = replace( i, "&quot;" );
-                else if (isEscapedChar( ch ))
+                for ( int i = start ; i < end ; i++ )
                 {
-                    if (replaceEscapedChar)
-                        i = replace( i, _replaceChar.getEscapedString( ch ) );
-                }
-                else
-                    i++;
+                    char ch = chars[ i ];
+                    String escape;
 
-                if (i == _buf.length)
-                    i = 0;
-            }
-        }
+                    // The chars given by SAVE_SUBSTITUTE_CHARACTERS are not
+                    // substituted in a CDATA
 
-        private void entitizeComment ( )
-        {
-            if (_lastEmitCch == 0)
-                return;
+                    if (ch < 0x80)
+                    {
+                        if ((escape = escapes[ ch ]) == null)
+                            continue;
 
-            int i = _lastEmitIn;
+                        if (ch == '<' || ch == '&')
+                        {
+                            if (++count > entityLimit)
+                                return false;
+                        }
+                        else if (ch == '>' && !followsBrackets( chars, start, i ) &&
+                                    (escapes == CDATA_ESCAPES || (escape = escapedChar( ch )) == null))
+                        {
+                            continue;
+                        }
+                    }
+                    else if (text && isBadChar( ch ))
+                        escape = "?";
+                    else if (escapes == CDATA_ESCAPES || (escape = escapedChar( ch )) == null)
+                        continue;
 
-            boolean lastWasDash = false;
+                    emit( chars, run, i - run );
+                    emit( escape );
 
-            for ( int cch = _lastEmitCch ; cch > 0 ; cch-- )
-            {
-                char ch = _buf[ i ];
+                    run = i + 1;
+                }
 
-                if (isBadChar( ch ))
-                    i = replace( i, "?" );
-                else if (ch == '-')
+                emit( chars, run, end - run );
+
+                if (end - start > 1)
                 {
-                    if (lastWasDash)
-                    {
-                        // Replace "--" with "- " to make well formed
-                        i = replace( i, " " );
-                        lastWasDash = false;
-                    }
-                    else
-                    {
-                        lastWasDash = true;
-                        i++;
-                    }
+                    _prev2 = chars[ end - 2 ];
+                    _prev1 = chars[ end - 1 ];
                 }
                 else
                 {
-                    lastWasDash = false;
-                    i++;
+                    _prev2 = _prev1;
+                    _prev1 = chars[ start ];
                 }
 
-                if (i == _buf.length)
-                    i = 0;
+                off += end - start;
+                cch -= end - start;
             }
 
-            // Because I have only replaced chars with single chars,
-            // _lastEmitIn will still be ok
-
-            int offset = (_lastEmitIn + _lastEmitCch - 1) % _buf.length;
-            if (_buf[ offset ] == '-')
-                i = replace( offset, " " );
+            return true;
         }
 
-        private void entitizeProcinst ( )
+        /**
+         * Only a '>' which ends a "]]>" is escaped in text, the two chars
+         * before it may be at the end of the previous chunk.
+         */
+        private boolean followsBrackets ( char[] chars, int start, int i )
         {
-            if (_lastEmitCch == 0)
-                return;
-
-            int i = _lastEmitIn;
-
-            boolean lastWasQuestion = false;
-
-            for ( int cch = _lastEmitCch ; cch > 0 ; cch-- )
-            {
-                char ch = _buf[ i ];
-
-                if (isBadChar( ch ))
-                    i = replace( i, "?" );
-
-                if (ch == '>')
-                {
-    // TODO - Had to convert to a space here ... imples not well formed XML
-                    if (lastWasQuestion)
-                        i = replace( i, " " );
-                    else
-                        i++;
+            char ch1 = i > start ? chars[ i - 1 ] : _prev1;
+            char ch2 = i > start + 1 ? chars[ i - 2 ] : i == start + 1 ? _prev1 : _prev2;
 
-                    lastWasQuestion = false;
-                }
-                else
-                {
-                    lastWasQuestion = ch == '?';
-                    i++;
-                }
-
-                if (i == _buf.length)
-                    i = 0;
-            }
+            return ch1 == ']' && ch2 == ']';
         }
 
         /**
-         * Test if a character is to be replaced with an escaped value
+         * Returns the replacement of a char given by the
+         * SAVE_SUBSTITUTE_CHARACTERS option, or null.
          */
-        private boolean isEscapedChar ( char ch )
+        private String escapedChar ( char ch )
         {
-            return ( null != _replaceChar && _replaceChar.containsChar( ch ) );
+            return _replaceChar == null ? null : _replaceChar.getEscapedString( ch );
         }
 
-        private int replace ( int i, String replacement )
+        /**
+         * Adds the replacements given by the SAVE_SUBSTITUTE_CHARACTERS
+         * option to a table of escapes, for the chars it does not already
+         * escape.
+         */
+        private String[] withEscapedChars ( String[] escapes )
         {
-            assert replacement.length() > 0;
-
-            int dCch = replacement.length() - 1;
-
-            if (dCch == 0)
-            {
-                _buf[ i ] = replacement.charAt( 0 );
-                return i + 1;
-            }
+            if (_replaceChar == null)
+                return escapes;
 
-            assert _free >= 0;
-
-            if (dCch > _free)
-                i = resize( dCch, i );
-
-            assert _free >= 0;
+            String[] result = null;
 
-            assert _free >= dCch;
-            assert getAvailable() > 0;
-
-            int charsToCopy = dCch + 1;
-
-            if (_out > _in && i >= _out)
-            {
-                System.arraycopy( _buf, _out, _buf, _out - dCch, i - _out );
-                _out -= dCch;
-                i -= dCch;
-            }
-            else
+            for ( char ch = 0 ; ch < 0x80 ; ch++ )
             {
-                assert i < _in;
-                int availableEndChunk = _buf.length - _in;
-                if ( dCch <= availableEndChunk )
-                {
-                    System.arraycopy( _buf, i, _buf, i + dCch, _in - i );
-                    _in = ( _in + dCch) % _buf.length;
-                }
-                else if ( dCch <= availableEndChunk + _in - i - 1 )
-                {
-                    int numToCopyToStart = dCch - availableEndChunk;
-                    System.arraycopy( _buf, _in-numToCopyToStart, _buf, 0, numToCopyToStart );
-                    System.arraycopy( _buf, i+1, _buf, i+1+dCch, _in-i-1-numToCopyToStart);
-
-                    _in = numToCopyToStart;
-                }
-                else
+                if (escapes[ ch ] == null && _replaceChar.containsChar( ch ))
                 {
-                    int numToCopyToStart = _in - i - 1;
-                    charsToCopy = availableEndChunk + _in - i;
+                    if (result == null)
+                        result = (String[]) escapes.clone();
 
-                    System.arraycopy( _buf, _in-numToCopyToStart, _buf, dCch-charsToCopy+1, numToCopyToStart );
-                    replacement.getChars( charsToCopy, dCch + 1, _buf, 0);
-
-                    _in = numToCopyToStart + dCch - charsToCopy + 1;
+                    result[ ch ] = _replaceChar.getEscapedString( ch );
                 }
             }
 
-            replacement.getChars( 0, charsToCopy, _buf, i );
-
-            _free -= dCch;
-
-            assert _free >= 0;
-            assert _buf==null ||
-                (_out<_in && _free == _buf.length - ( _in - _out ) ) || // data in the middle, free on the edges
-                (_out>_in && _free == _out - _in ) ||                   // data on the edges, free in the middle
-                (_out==_in && _free == _buf.length) ||                  // no data, all buffer free
-                (_out==_in && _free == 0)                               // buffer full
-                : "_buf.length:" + _buf.length + " _in:" + _in + " _out:" + _out + " _free:" + _free;
-
-            return (i + dCch + 1) % _buf.length;
+            return result == null ? escapes : result;
         }
+
         //
         //
         //
@@ -1877,14 +2168,23 @@ abstract class Saver
         //
 
         private static final int _initialBufSize = 4096;
+
+        private final String[] _textEscapes;
+        private final String[] _attrEscapes;
+
+        // Chunks of text which is not in a char[] are copied here to be
+        // escaped
+        private char[] _chars;
+
+        // The last two chars of the previous chunk of a text
+        private char _prev1;
+        private char _prev2;
+
         private int _cdataLengthThreshold = 32;
         private int _cdataEntityCountThreshold = 5;
         private boolean _useCDataBookmarks = false;
         private boolean _isPrettyPrint = false;
 
-        private int _lastEmitIn;
-        private int _lastEmitCch;
-
         private int    _free;
         private int    _in;
         private int    _out;
@@ -2018,34 +2318,10 @@ abstract class Saver
             emit( '>' );
         }
 
-        protected void emitXmlns ( String prefix, String uri )
-        {
-            assert prefix != null;
-            assert uri != null;
-
-            emit( "xmlns" );
-
-            if (prefix.length() > 0)
-            {
-                emit( ':' );
-                emit( prefix );
-            }
-
-            emit( '=', '\"' );
-
-            // TODO - must encode uri properly
-            emitAttrValue(uri);
-
-            emit( '"' );
-        }
-
         private void emitNamespacesHelper ( )
         {
             for ( iterateMappings() ; hasMapping() ; nextMapping() )
-            {
-                emit( ' ' );
-                emitXmlns( mappingPrefix(), mappingUri() );
-            }
+                emit( savedXmlns( mappingPrefix(), mappingUri() )._text );
         }
 
         private void emitAttrHelper ( QName attrName, String attrValue )
@@ -2136,40 +2412,7 @@ abstract class Saver
 
         private void emitName ( QName name, boolean needsPrefix )
         {
-            assert name != null;
-
-            String uri = name.getNamespaceURI();
-
-            assert uri != null;
-
-            if (uri.length() != 0)
-            {
-                String prefix = name.getPrefix();
-                String mappedUri = getNamespaceForPrefix( prefix );
-
-                if (mappedUri == null || !mappedUri.equals( uri ))
-                    prefix = getUriMapping( uri );
-
-                // Attrs need a prefix.  If I have not found one, then there must be a default
-                // prefix obscuring the prefix needed for this attr.  Find it manually.
-
-                // NOTE - Consider keeping the currently mapped default URI separate fromn the
-                // _urpMap and _prefixMap.  This way, I would not have to look it up manually
-                // here
-
-                if (needsPrefix && prefix.length() == 0)
-                    prefix = getNonDefaultUriMapping( uri );
-
-                if (prefix.length() > 0)
-                {
-                    emit( prefix );
-                    emit( ':' );
-                }
-            }
-
-            assert name.getLocalPart().length() > 0;
-
-            emit( name.getLocalPart() );
+            emit( savedName( name, needsPrefix )._text );
         }
 
         private void emitAttrValue ( CharSequence attVal)
@@ -2355,12 +2598,1203 @@ abstract class Saver
         }
     }
 
-    static final class TextReader extends Reader
+    /**
+     * Saves straight to bytes for the encodings whose characters map to
+     * bytes without a charset encoder: UTF-8, US-ASCII and ISO-8859-1.  The
+     * output is the same as that of the {@link InputStreamSaver}, which
+     * goes through a {@link TextSaver} and an OutputStreamWriter.
+     * <p>
+     * Characters are encoded into a byte buffer which is reused by the
+     * saves made on a thread.  Escaping is driven by tables of the encoded
+     * replacements of the ASCII characters, and the bytes of each name and
+     * namespace declaration are kept with its saved text.
+     */
+    static final class ByteSaver extends Saver
     {
-        TextReader ( Cur c, XmlOptions options )
+        static private class SaverIOException
+            extends RuntimeException
         {
-            _textSaver = new TextSaver( c, options, null );
-            _locale = c._locale;
+            SaverIOException(IOException e)
+            {
+                super(e);
+            }
+        }
+
+        /**
+         * Returns true if a save with these options, in this encoding, can
+         * be made by a ByteSaver.  Pretty printing and character
+         * substitution are left to the {@link TextSaver}.
+         */
+        static boolean canSave ( XmlOptions options, String encoding )
+        {
+            if (options != null &&
+                    (options.hasOption( XmlOptions.SAVE_PRETTY_PRINT ) ||
+                        options.hasOption( XmlOptions.SAVE_SUBSTITUTE_CHARACTERS )))
+                return false;
+
+            return maxChar( encoding ) > 0;
+        }
+
+        static void save ( Cur c, XmlOptions options, String encoding, OutputStream os )
+            throws IOException
+        {
+            ByteSaver saver = new ByteSaver( c, options, encoding, os );
+
+            try
+            {
+                saver.splitDocumentElement( c, options );
+
+                saver.reuseUnchanged( c, options );
+
+                saver.writeDecl( c, options, encoding );
+
+                while ( saver.process() )
+                    ;
+
+                saver.flushBytes();
+            }
+            catch ( SaverIOException e )
+            {
+                throw (IOException) e.getCause();
+            }
+        }
+
+        private static int maxChar ( String encoding )
+        {
+            String javaEncoding = EncodingMap.getIANA2JavaMapping( encoding );
+
+            if ("UTF8".equals( javaEncoding ))
+                return Character.MAX_CODE_POINT;
+            else if ("ISO8859_1".equals( javaEncoding ))
+                return 0xFF;
+            else if ("ASCII".equals( javaEncoding ))
+                return 0x7F;
+
+            return 0;
+        }
+
+        ByteSaver ( Cur c, XmlOptions options, String encoding, OutputStream os )
+        {
+            super( c, options );
+
+            _os = os;
+            _maxChar = maxChar( encoding );
+
+            assert _maxChar > 0;
+
+            if (options != null && options.hasOption( XmlOptions.SAVE_CDATA_LENGTH_THRESHOLD ))
+                _cdataLengthThreshold = ((Integer) options.get( XmlOptions.SAVE_CDATA_LENGTH_THRESHOLD )).intValue();
+
+            if (options != null && options.hasOption( XmlOptions.SAVE_CDATA_ENTITY_COUNT_THRESHOLD ))
+                _cdataEntityCountThreshold = ((Integer) options.get( XmlOptions.SAVE_CDATA_ENTITY_COUNT_THRESHOLD )).intValue();
+
+            _useCDataBookmarks =
+                options != null && options.hasOption( XmlOptions.LOAD_SAVE_CDATA_BOOKMARKS );
+
+        }
+
+        private ByteSaver ( ByteSaver parent, SaveCur cur, OutputStream os )
+        {
+            super( parent, cur, parent._rangeOptions );
+
+            _os = os;
+            _maxChar = parent._maxChar;
+            _cdataLengthThreshold = parent._cdataLengthThreshold;
+            _cdataEntityCountThreshold = parent._cdataEntityCountThreshold;
+            _useCDataBookmarks = parent._useCDataBookmarks;
+
+        }
+
+        /**
+         * Prepares a parallel save of the document c is on, see
+         * {@link XmlOptions#setSaveExecutor}.  The children of the document
+         * element are split into ranges of about the same number of
+         * children.  The first range starts with the content of the
+         * document element, the others each start at a child, held in
+         * _rangeStarts.  Nothing is split if the document cannot be saved
+         * in parallel.
+         */
+        private void splitDocumentElement ( Cur c, XmlOptions options )
+        {
+            if (options == null || !options.hasOption( XmlOptions.SAVE_EXECUTOR ) ||
+                    options.hasOption( XmlOptions.SAVE_SYNTHETIC_DOCUMENT_ELEMENT ) ||
+                    !c.isRoot() || !c._locale.isConcurrentRead( c._xobj ))
+                return;
+
+            Cur start = c.tempCur();
+            Cur end   = c.tempCur();
+
+            positionToInner( c, start, end );
+
+            boolean isFragment = Locale.isFragment( start, end );
+
+            start.release();
+            end.release();
+
+            if (isFragment)
+                return;
+
+            Xobj docElem = c._xobj._firstChild;
+
+            while ( !docElem.isElem() )
+                docElem = docElem._nextSibling;
+
+            Xobj first = docElem._firstChild;
+
+            while ( first != null && first.isAttr() )
+                first = first._nextSibling;
+
+            int n = 0;
+
+            for ( Xobj x = first ; x != null ; x = x._nextSibling )
+                n++;
+
+            int parallelism =
+                options.hasOption( XmlOptions.SAVE_PARALLELISM )
+                    ? ((Integer) options.get( XmlOptions.SAVE_PARALLELISM )).intValue()
+                    : Runtime.getRuntime().availableProcessors();
+
+            int ranges = Math.min( parallelism, n );
+
+            if (ranges < 2)
+                return;
+
+            _rangeStarts = new Xobj [ ranges ];
+
+            Xobj x = first;
+
+            for ( int i = 0, r = 1 ; r < ranges ; r++ )
+            {
+                for ( ; i < r * n / ranges ; i++ )
+                    x = x._nextSibling;
+
+                _rangeStarts[ r ] = x;
+            }
+
+            _rangeParent = docElem;
+            _rangeOptions = options;
+            _executor = (Executor) options.get( XmlOptions.SAVE_EXECUTOR );
+        }
+
+        /**
+         * Saves the children of the document element, the ranges after the
+         * first on the executor into buffers of their own and the first on
+         * this thread, then writes the buffers out in order.  Each range is
+         * saved in the namespace scope of the document element, mappings
+         * made within a range are declared in that range as they would be
+         * in a save made on one thread.
+         */
+        private void saveRanges ( )
+        {
+            Xobj[] starts = _rangeStarts;
+
+            _rangeStarts = null;
+
+            FutureTask[] tasks = new FutureTask [ starts.length ];
+
+            try
+            {
+                for ( int i = 1 ; i < starts.length ; i++ )
+                {
+                    final ByteSaver saver =
+                        rangeSaver( starts, i, new ByteArrayOutputStream() );
+
+                    tasks[ i ] = new FutureTask(
+                        new Callable()
+                        {
+                            public Object call ( )
+                            {
+                                saver.saveRange();
+                                return saver._os;
+                            }
+                        } );
+
+                    _executor.execute( tasks[ i ] );
+                }
+
+                flushBytes();
+
+                rangeSaver( starts, 0, _os ).saveRange();
+
+                for ( int i = 1 ; i < tasks.length ; i++ )
+                    ((ByteArrayOutputStream) tasks[ i ].get()).writeTo( _os );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+
+                throw new SaverIOException(
+                    new InterruptedIOException( "Interrupted during save" ) );
+            }
+            catch ( ExecutionException e )
+            {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+
+                throw new RuntimeException( e.getCause() );
+            }
+            catch ( IOException e )
+            {
+                throw new SaverIOException( e );
+            }
+            finally
+            {
+                // Ranges not yet started are not needed after a failure
+
+                for ( int i = 1 ; i < tasks.length ; i++ )
+                {
+                    if (tasks[ i ] != null)
+                        tasks[ i ].cancel( false );
+                }
+            }
+        }
+
+        /**
+         * Saves the elements of c's document which have not changed since
+         * they were last saved with these options as they were then, see
+         * {@link XmlOptions#setSaveReuseUnchanged}.  The bytes of the other
+         * elements are kept for the next save.  Bytes kept for other
+         * options are dropped.
+         * <p>
+         * An element is saved the same if it has not changed, its bytes are
+         * dropped when it or anything in it changes, see
+         * Locale.invalidateSaved, and if it is saved in equal mappings.  Its
+         * bytes are kept in runs between those of its child elements, which
+         * are kept by themselves.
+         */
+        private void reuseUnchanged ( Cur c, XmlOptions options )
+        {
+            if (options == null || !options.hasOption( XmlOptions.SAVE_REUSE_UNCHANGED ) ||
+                    _rangeStarts != null || _useCDataBookmarks || c._locale.isConcurrentRead( c._xobj ))
+                return;
+
+            Map suggestedPrefixes = (Map) options.get( XmlOptions.SAVE_SUGGESTED_PREFIXES );
+
+            ArrayList savedOptions = new ArrayList();
+
+            savedOptions.add( new Integer( _maxChar ) );
+            savedOptions.add( new Integer( _cdataLengthThreshold ) );
+            savedOptions.add( new Integer( _cdataEntityCountThreshold ) );
+            savedOptions.add( Boolean.valueOf( saveNamespacesFirst() ) );
+            savedOptions.add(
+                Boolean.valueOf( options.hasOption( XmlOptions.SAVE_USE_DEFAULT_NAMESPACE ) ) );
+            savedOptions.add( suggestedPrefixes == null ? null : new HashMap( suggestedPrefixes ) );
+            savedOptions.add( options.get( XmlOptions.SAVE_FILTER_PROCINST ) );
+
+            Locale l = c._locale;
+
+            if (l._savedElements == null || !savedOptions.equals( l._savedOptions ))
+            {
+                // Elements no longer in the document go with their bytes
+
+                l._savedElements = new WeakHashMap();
+                l._savedOptions = savedOptions;
+            }
+
+            _savedElements = l._savedElements;
+        }
+
+        protected boolean emitUnchanged ( SaveCur c )
+        {
+            if (_savedElements == null)
+                return false;
+
+            Xobj x = c.getXobj();
+            Object context = x == null ? null : namespaceContext();
+
+            // The bytes so far are those of the parent
+
+            cut();
+
+            if (context != null)
+            {
+                SavedElement saved = (SavedElement) _savedElements.get( x );
+
+                if (saved != null && saved._context.equals( context ))
+                {
+                    Capture capture = _capture;
+
+                    if (capture != null)
+                        capture.add( saved );
+
+                    _capture = null;
+
+                    emitSaved( saved );
+
+                    _capture = capture;
+                    _captured = _len;
+
+                    return true;
+                }
+            }
+
+            _capture = new Capture( _capture, context == null ? null : x, context );
+
+            return false;
+        }
+
+        protected void emitDone ( SaveCur c )
+        {
+            if (_savedElements == null)
+                return;
+
+            cut();
+
+            Capture capture = _capture;
+
+            _capture = capture._parent;
+
+            SavedElement saved = capture.saved();
+
+            if (saved != null)
+                _savedElements.put( capture._xobj, saved );
+
+            // The elements within an element with saved bytes all have
+            // saved bytes, see Locale.invalidateSaved
+
+            if (_capture != null)
+            {
+                if (saved == null)
+                    _capture._xobj = null;
+                else
+                    _capture.add( saved );
+            }
+        }
+
+        protected void anyPrefixUsed ( )
+        {
+            // A prefix picked by the order of the mappings may be picked
+            // differently in equal mappings
+
+            if (_capture != null)
+                _capture._xobj = null;
+        }
+
+        private void emitSaved ( SavedElement saved )
+        {
+            int start = 0;
+
+            for ( int i = 0 ; i < saved._children.length ; i++ )
+            {
+                emit( saved._bytes, start, saved._at[ i ] - start );
+                emitSaved( saved._children[ i ] );
+
+                start = saved._at[ i ];
+            }
+
+            emit( saved._bytes, start, saved._bytes.length - start );
+        }
+
+        /**
+         * Adds the bytes emitted since the last cut to the element being
+         * saved.
+         */
+        private void cut ( )
+        {
+            if (_capture != null)
+                _capture.append( _bytes, _captured, _len - _captured );
+
+            _captured = _len;
+        }
+
+        /**
+         * The bytes an element is saved as, in runs around the saved bytes
+         * of its child elements.
+         */
+        private static final class SavedElement
+        {
+            SavedElement ( Object context, byte[] bytes, int[] at, SavedElement[] children )
+            {
+                _context = context;
+                _bytes = bytes;
+                _at = at;
+                _children = children;
+            }
+
+            // The mappings the element was saved in
+            final Object _context;
+
+            final byte[]         _bytes;
+            final int[]          _at;
+            final SavedElement[] _children;
+        }
+
+        /**
+         * The bytes of an element being saved.  The bytes of an element
+         * which cannot be saved the same again, one with no Xobj, are not
+         * kept.
+         */
+        private static final class Capture
+        {
+            Capture ( Capture parent, Xobj xobj, Object context )
+            {
+                _parent = parent;
+                _xobj = xobj;
+                _context = context;
+            }
+
+            void append ( byte[] bytes, int off, int len )
+            {
+                if (_xobj == null || len == 0)
+                    return;
+
+                if (_len + len > _bytes.length)
+                {
+                    byte[] newBytes = new byte [ Math.max( _bytes.length * 2, _len + len ) ];
+                    System.arraycopy( _bytes, 0, newBytes, 0, _len );
+                    _bytes = newBytes;
+                }
+
+                System.arraycopy( bytes, off, _bytes, _len, len );
+                _len += len;
+            }
+
+            void add ( SavedElement child )
+            {
+                if (_xobj == null)
+                    return;
+
+                if (_children == null)
+                {
+                    _children = new ArrayList();
+                    _at = new int [ 4 ];
+                }
+                else if (_children.size() == _at.length)
+                {
+                    int[] newAt = new int [ _at.length * 2 ];
+                    System.arraycopy( _at, 0, newAt, 0, _at.length );
+                    _at = newAt;
+                }
+
+                _at[ _children.size() ] = _len;
+                _children.add( child );
+            }
+
+            SavedElement saved ( )
+            {
+                if (_xobj == null)
+                    return null;
+
+                byte[] bytes = new byte [ _len ];
+                System.arraycopy( _bytes, 0, bytes, 0, _len );
+
+                if (_children == null)
+                    return new SavedElement( _context, bytes, NO_AT, NO_CHILDREN );
+
+                int[] at = new int [ _children.size() ];
+                System.arraycopy( _at, 0, at, 0, at.length );
+
+                return
+                    new SavedElement(
+                        _context, bytes, at,
+                        (SavedElement[]) _children.toArray( new SavedElement [ at.length ] ) );
+            }
+
+            final Capture _parent;
+            final Object  _context;
+
+            // Null once the element cannot be saved the same again
+            Xobj _xobj;
+
+            private byte[]    _bytes = new byte [ 64 ];
+            private int       _len;
+            private ArrayList _children;
+            private int[]     _at;
+
+            private static final int[] NO_AT = new int [ 0 ];
+            private static final SavedElement[] NO_CHILDREN = new SavedElement [ 0 ];
+        }
+
+        private ByteSaver rangeSaver ( Xobj[] starts, int i, OutputStream os )
+        {
+            Xobj stop = i + 1 < starts.length ? starts[ i + 1 ] : null;
+
+            return
+                new ByteSaver(
+                    this, new ChildRangeSaveCur( _rangeParent, starts[ i ], stop ), os );
+        }
+
+        private void saveRange ( )
+        {
+            while ( process() )
+                ;
+
+            flushBytes();
+        }
+
+        private void writeDecl ( Cur c, XmlOptions options, String encoding )
+        {
+            if (options != null && options.hasOption( XmlOptions.SAVE_NO_XML_DECL ))
+                return;
+
+            XmlDocumentProperties props = Locale.getDocProps( c, false );
+
+            String version = props == null ? null : props.getVersion();
+
+            if (version == null)
+                version = "1.0";
+
+            emit( "<?xml version=\"" );
+            emit( version );
+            emit( "\" encoding=\"" );
+            emit( encoding );
+            emit( "\"?>" );
+            emit( _newLine );
+        }
+
+        protected boolean emitElement ( SaveCur c, ArrayList attrNames, ArrayList attrValues )
+        {
+            assert c.isElem();
+
+            emit( (byte) '<' );
+            emitName( c.getName(), false );
+
+            if (saveNamespacesFirst())
+                emitNamespacesHelper();
+
+            for ( int i = 0 ; i < attrNames.size() ; i++ )
+                emitAttrHelper( (QName) attrNames.get( i ), (String) attrValues.get( i ) );
+
+            if (!saveNamespacesFirst())
+                emitNamespacesHelper();
+
+            if (_rangeStarts != null)
+            {
+                // The document element of a parallel save, its content is
+                // saved here and then it is done with
+
+                assert c.getName().equals( _rangeParent._name );
+
+                emit( (byte) '>' );
+                saveRanges();
+                emitFinish( c );
+
+                return true;
+            }
+
+            if (!c.hasChildren() && !c.hasText())
+            {
+                emit( (byte) '/', (byte) '>' );
+                return true;
+            }
+            else
+            {
+                emit( (byte) '>' );
+                return false;
+            }
+        }
+
+        protected void emitFinish ( SaveCur c )
+        {
+            emit( (byte) '<', (byte) '/' );
+            emitName( c.getName(), false );
+            emit( (byte) '>' );
+        }
+
+        private void emitNamespacesHelper ( )
+        {
+            for ( iterateMappings() ; hasMapping() ; nextMapping() )
+                emit( savedXmlns( mappingPrefix(), mappingUri() ) );
+        }
+
+        private void emitAttrHelper ( QName attrName, String attrValue )
+        {
+            emit( (byte) ' ' );
+            emitName( attrName, true );
+            emit( (byte) '=', (byte) '"' );
+            emit( attrValue, ATTR_ESCAPE_BYTES );
+            emit( (byte) '"' );
+        }
+
+        protected void emitText ( SaveCur c )
+        {
+            assert c.isText();
+
+            // c.isTextCData() is expensive do it only if useCDataBookmarks option is enabled
+            boolean forceCData = _useCDataBookmarks && c.isTextCData();
+
+            Object src = c.getChars();
+            int off = c._offSrc;
+            int cch = c._cchSrc;
+
+            boolean cdata = forceCData ||
+                (cch > _cdataLengthThreshold &&
+                    countEntities( src, off, cch ) > _cdataEntityCountThreshold);
+
+            if (cdata)
+                emit( CDATA_START );
+
+            _prev1 = _prev2 = 0;
+
+            emit( src, off, cch, cdata ? CDATA_ESCAPE_BYTES : TEXT_ESCAPE_BYTES, true );
+
+            if (cdata)
+                emit( CDATA_END );
+        }
+
+        /**
+         * Counts the characters which would be entitized in a text, stopping
+         * once there are enough of them to save the text as a CDATA.
+         */
+        private int countEntities ( Object src, int off, int cch )
+        {
+            int count = 0;
+
+            while ( cch > 0 && count <= _cdataEntityCountThreshold )
+            {
+                int chunk = cch < _chars.length ? cch : _chars.length;
+
+                CharUtil.getChars( _chars, 0, src, off, chunk );
+
+                for ( int i = 0 ; i < chunk ; i++ )
+                {
+                    char ch = _chars[ i ];
+
+                    if (ch == '<' || ch == '&')
+                        count++;
+                }
+
+                off += chunk;
+                cch -= chunk;
+            }
+
+            return count;
+        }
+
+        protected void emitComment ( SaveCur c )
+        {
+            assert c.isComment();
+
+            emit( COMMENT_START );
+
+            c.push();
+            c.next();
+
+            if (c.isText())
+                emit( commentText( CharUtil.getString( c.getChars(), c._offSrc, c._cchSrc ) ) );
+
+            c.pop();
+
+            emit( COMMENT_END );
+        }
+
+        protected void emitProcinst ( SaveCur c )
+        {
+            assert c.isProcinst();
+
+            emit( (byte) '<', (byte) '?' );
+            emit( c.getName().getLocalPart() );
+
+            c.push();
+            c.next();
+
+            if (c.isText())
+            {
+                emit( (byte) ' ' );
+                emit( procinstText( CharUtil.getString( c.getChars(), c._offSrc, c._cchSrc ) ) );
+            }
+
+            c.pop();
+
+            emit( (byte) '?', (byte) '>' );
+        }
+
+        private void emitLiteral ( String literal )
+        {
+            byte quote = literal.indexOf( '"' ) < 0 ? (byte) '"' : (byte) '\'';
+
+            emit( quote );
+            emit( literal );
+            emit( quote );
+        }
+
+        protected void emitDocType ( String docTypeName, String publicId, String systemId )
+        {
+            assert docTypeName != null;
+
+            emit( "<!DOCTYPE " );
+            emit( docTypeName );
+
+            if (publicId == null && systemId != null)
+            {
+                emit( " SYSTEM " );
+                emitLiteral( systemId );
+            }
+            else if (publicId != null)
+            {
+                emit( " PUBLIC " );
+                emitLiteral( publicId );
+                emit( (byte) ' ' );
+                emitLiteral( systemId );
+            }
+
+            emit( (byte) '>' );
+            emit( _newLine );
+        }
+
+        protected void emitStartDoc ( SaveCur c )
+        {
+        }
+
+        protected void emitEndDoc ( SaveCur c )
+        {
+        }
+
+        //
+        //
+        //
+
+        private void emitName ( QName name, boolean needsPrefix )
+        {
+            emit( savedName( name, needsPrefix ) );
+        }
+
+        private void emit ( SavedText text )
+        {
+            if (text._bytes != null)
+            {
+                emit( text._bytes );
+                return;
+            }
+
+            // Encode the text where it is emitted, with room enough in the
+            // buffer for it not to be flushed part way.  The bytes of text
+            // too long for that are not kept.
+
+            int maxBytes = text._text.length() * 4 + MAX_CHAR_BYTES;
+
+            if (maxBytes > _bytes.length)
+            {
+                emit( text._text );
+                return;
+            }
+
+            if (_len + maxBytes > _bytes.length)
+                flushBytes();
+
+            int start = _len;
+
+            emit( text._text );
+
+            text._bytes = new byte [ _len - start ];
+            System.arraycopy( _bytes, start, text._bytes, 0, text._bytes.length );
+        }
+
+        //
+        // The byte buffer
+        //
+
+        private void emit ( byte b )
+        {
+            if (_len == _bytes.length)
+                flushBytes();
+
+            _bytes[ _len++ ] = b;
+        }
+
+        private void emit ( byte b1, byte b2 )
+        {
+            if (_len + 2 > _bytes.length)
+                flushBytes();
+
+            _bytes[ _len++ ] = b1;
+            _bytes[ _len++ ] = b2;
+        }
+
+        private void emit ( byte[] bytes )
+        {
+            emit( bytes, 0, bytes.length );
+        }
+
+        private void emit ( byte[] bytes, int off, int len )
+        {
+            if (_len + len > _bytes.length)
+            {
+                flushBytes();
+
+                if (len > _bytes.length)
+                {
+                    if (_capture != null)
+                        _capture.append( bytes, off, len );
+
+                    write( bytes, off, len );
+                    return;
+                }
+            }
+
+            System.arraycopy( bytes, off, _bytes, _len, len );
+            _len += len;
+        }
+
+        private void emit ( String s )
+        {
+            emit( s, NO_ESCAPE_BYTES );
+        }
+
+        private void emit ( String s, byte[][] escapes )
+        {
+            emit( s, 0, s.length(), escapes, false );
+        }
+
+        /**
+         * Encodes chars of a String, char[] or CharJoin, a chunk at a time.
+         */
+        private void emit ( Object src, int off, int cch, byte[][] escapes, boolean text )
+        {
+            while ( cch > 0 )
+            {
+                int chunk = cch < _chars.length ? cch : _chars.length;
+
+                CharUtil.getChars( _chars, 0, src, off, chunk );
+
+                // Keep a surrogate pair in one chunk
+
+                if (chunk < cch && chunk > 1 && Character.isHighSurrogate( _chars[ chunk - 1 ] ))
+                    chunk--;
+
+                encode( _chars, chunk, escapes, text );
+
+                off += chunk;
+                cch -= chunk;
+            }
+        }
+
+        private void encode ( char[] chars, int cch, byte[][] escapes, boolean text )
+        {
+            byte[] bytes = _bytes;
+            int len = _len;
+
+            for ( int i = 0 ; i < cch ; i++ )
+            {
+                if (len > bytes.length - MAX_CHAR_BYTES)
+                {
+                    _len = len;
+                    flushBytes();
+                    len = _len;
+                }
+
+                char ch = chars[ i ];
+
+                if (ch < 0x80)
+                {
+                    byte[] escape = escapes[ ch ];
+
+                    if (escape == null)
+                        bytes[ len++ ] = (byte) ch;
+                    else if (ch == '>' && !followsBrackets( chars, i ))
+                        bytes[ len++ ] = (byte) '>';
+                    else
+                    {
+                        System.arraycopy( escape, 0, bytes, len, escape.length );
+                        len += escape.length;
+                    }
+
+                    continue;
+                }
+
+                int cp = ch;
+
+                if (Character.isHighSurrogate( ch ) && i + 1 < cch &&
+                        Character.isLowSurrogate( chars[ i + 1 ] ))
+                {
+                    cp = Character.toCodePoint( ch, chars[ ++i ] );
+                }
+                else if (Character.isHighSurrogate( ch ) || Character.isLowSurrogate( ch ) ||
+                        (text && isBadChar( ch )))
+                {
+                    cp = '?';
+                }
+
+                // The encoders replace what they cannot encode with a '?'
+
+                if (cp > _maxChar)
+                    bytes[ len++ ] = (byte) '?';
+                else if (cp < 0x80 || _maxChar == 0xFF)
+                    bytes[ len++ ] = (byte) cp;
+                else if (cp < 0x800)
+                {
+                    bytes[ len++ ] = (byte) (0xC0 | (cp >> 6));
+                    bytes[ len++ ] = (byte) (0x80 | (cp & 0x3F));
+                }
+                else if (cp < 0x10000)
+                {
+                    bytes[ len++ ] = (byte) (0xE0 | (cp >> 12));
+                    bytes[ len++ ] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[ len++ ] = (byte) (0x80 | (cp & 0x3F));
+                }
+                else
+                {
+                    bytes[ len++ ] = (byte) (0xF0 | (cp >> 18));
+                    bytes[ len++ ] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    bytes[ len++ ] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[ len++ ] = (byte) (0x80 | (cp & 0x3F));
+                }
+            }
+
+            _len = len;
+
+            if (cch > 1)
+            {
+                _prev2 = chars[ cch - 2 ];
+                _prev1 = chars[ cch - 1 ];
+            }
+            else if (cch == 1)
+            {
+                _prev2 = _prev1;
+                _prev1 = chars[ 0 ];
+            }
+        }
+
+        /**
+         * Only a '>' which ends a "]]>" is escaped in text, the two chars
+         * before it may be at the end of the previous chunk.
+         */
+        private boolean followsBrackets ( char[] chars, int i )
+        {
+            char ch1 = i > 0 ? chars[ i - 1 ] : _prev1;
+            char ch2 = i > 1 ? chars[ i - 2 ] : i == 1 ? _prev1 : _prev2;
+
+            return ch1 == ']' && ch2 == ']';
+        }
+
+        private void flushBytes ( )
+        {
+            cut();
+
+            write( _bytes, 0, _len );
+            _len = 0;
+            _captured = 0;
+        }
+
+        private void write ( byte[] bytes, int off, int len )
+        {
+            if (len == 0)
+                return;
+
+            try
+            {
+                _os.write( bytes, off, len );
+            }
+            catch ( IOException e )
+            {
+                throw new SaverIOException( e );
+            }
+        }
+
+        private static byte[] bytes ( String s )
+        {
+            byte[] bytes = new byte [ s.length() ];
+
+            for ( int i = 0 ; i < bytes.length ; i++ )
+                bytes[ i ] = (byte) s.charAt( i );
+
+            return bytes;
+        }
+
+        /**
+         * Returns the bytes of a table of escapes, which are all ascii.
+         */
+        private static byte[][] bytes ( String[] escapes )
+        {
+            byte[][] bytes = new byte [ escapes.length ][];
+
+            for ( int i = 0 ; i < escapes.length ; i++ )
+            {
+                if (escapes[ i ] != null)
+                    bytes[ i ] = bytes( escapes[ i ] );
+            }
+
+            return bytes;
+        }
+
+        // The longest replacement of a single char, "]]>><![CDATA["
+        private static final int MAX_CHAR_BYTES = 16;
+
+        private static final byte[][] NO_ESCAPE_BYTES = new byte [ 0x80 ][];
+
+        private static final byte[][] ATTR_ESCAPE_BYTES = bytes( ATTR_ESCAPES );
+        private static final byte[][] TEXT_ESCAPE_BYTES = bytes( TEXT_ESCAPES );
+        private static final byte[][] CDATA_ESCAPE_BYTES = bytes( CDATA_ESCAPES );
+
+        private static final byte[] CDATA_START = bytes( "<![CDATA[" );
+        private static final byte[] CDATA_END = bytes( "]]>" );
+        private static final byte[] COMMENT_START = bytes( "<!--" );
+        private static final byte[] COMMENT_END = bytes( "-->" );
+
+        private final OutputStream _os;
+        private final int _maxChar;
+        // Each save has buffers of its own, a save made while another one
+        // writes to its stream included
+        private final byte[] _bytes = new byte [ 8192 ];
+        private final char[] _chars = new char [ 512 ];
+        private int _len;
+
+        // The last two chars of the previous chunk of a text
+        private char _prev1;
+        private char _prev2;
+
+        private int _cdataLengthThreshold = 32;
+        private int _cdataEntityCountThreshold = 5;
+        private boolean _useCDataBookmarks;
+
+        // The split of a parallel save, see splitDocumentElement
+        private Xobj[]     _rangeStarts;
+        private Xobj       _rangeParent;
+        private XmlOptions _rangeOptions;
+        private Executor   _executor;
+
+        // The elements saved before, see reuseUnchanged, and the innermost
+        // element being saved with the index in _bytes its bytes start at
+        private Map     _savedElements;
+        private Capture _capture;
+        private int     _captured;
+    }
+
+    /**
+     * A channel which is read to save through a {@link ByteSaver}.  Each
+     * read saves only as much of the document as it takes to fill the
+     * buffer read into, so a document can be written out a buffer at a
+     * time as the destination is ready for it.
+     */
+    static final class ChannelSaver implements ReadableByteChannel
+    {
+        ChannelSaver ( Cur c, XmlOptions options, String encoding )
+        {
+            _locale = c._locale;
+
+            assert _locale.entered();
+
+            _queue = new ByteQueue();
+            _saver = new ByteSaver( c, options, encoding, _queue );
+
+            _saver.writeDecl( c, options, encoding );
+        }
+
+        public boolean isOpen ( )
+        {
+            return !_closed;
+        }
+
+        public void close ( )
+        {
+            if (_locale.noSync())         { _locale.enter(); try { release(); } finally { _locale.exit(); } }
+            else synchronized ( _locale ) { _locale.enter(); try { release(); } finally { _locale.exit(); } }
+
+            _closed = true;
+        }
+
+        public int read ( ByteBuffer dst ) throws IOException
+        {
+            if (_closed)
+                throw new ClosedChannelException();
+
+            if (_locale.noSync())         { _locale.enter(); try { return fill( dst ); } finally { _locale.exit(); } }
+            else synchronized ( _locale ) { _locale.enter(); try { return fill( dst ); } finally { _locale.exit(); } }
+        }
+
+        private int fill ( ByteBuffer dst )
+        {
+            if (_saver != null)
+            {
+                // The saver holds on to what it encodes until its buffer
+                // is full, count that as well
+
+                boolean done = false;
+
+                while ( _queue.available() + _saver._len < dst.remaining() )
+                {
+                    if (!_saver.process())
+                    {
+                        done = true;
+                        break;
+                    }
+                }
+
+                _saver.flushBytes();
+
+                if (done)
+                    release();
+            }
+
+            if (_queue.available() == 0)
+                return _saver == null ? -1 : 0;
+
+            return _queue.read( dst );
+        }
+
+        private void release ( )
+        {
+            _saver = null;
+        }
+
+        private static final class ByteQueue extends OutputStream
+        {
+            int available ( )
+            {
+                return _end - _start;
+            }
+
+            int read ( ByteBuffer dst )
+            {
+                int n = Math.min( available(), dst.remaining() );
+
+                dst.put( _buf, _start, n );
+
+                _start += n;
+
+                if (_start == _end)
+                    _start = _end = 0;
+
+                return n;
+            }
+
+            public void write ( int b )
+            {
+                write( new byte[] { (byte) b }, 0, 1 );
+            }
+
+            public void write ( byte[] b, int off, int len )
+            {
+                if (_end + len > _buf.length)
+                {
+                    int used = available();
+
+                    byte[] buf = _buf;
+
+                    if (used + len > _buf.length)
+                        buf = new byte [ Math.max( _buf.length * 2, used + len ) ];
+
+                    System.arraycopy( _buf, _start, buf, 0, used );
+
+                    _buf = buf;
+                    _start = 0;
+                    _end = used;
+                }
+
+                System.arraycopy( b, off, _buf, _end, len );
+                _end += len;
+            }
+
+            private byte[] _buf = new byte [ 8192 ];
+            private int    _start;
+            private int    _end;
+        }
+
+        private final Locale    _locale;
+        private final ByteQueue _queue;
+        private ByteSaver       _saver;
+        private boolean         _closed;
+    }
+
+    static final class TextReader extends Reader
+    {
+        TextReader ( Cur c, XmlOptions options )
+        {
+            _textSaver = new TextSaver( c, options, null );
+            _locale = c._locale;
             _closed = false;
         }
 
@@ -2403,6 +3837,42 @@ abstract class Saver
         private boolean   _closed;
     }
 
+    /**
+     * Returns the IANA name of the encoding a document is saved to bytes
+     * in: the one in the options, else the one the document was loaded
+     * from, else UTF-8.
+     */
+    static String getEncoding ( Cur c, XmlOptions options )
+    {
+        options = XmlOptions.maskNull( options );
+
+        String encoding = null;
+
+        XmlDocumentProperties props = Locale.getDocProps( c, false );
+
+        if (props != null && props.getEncoding() != null)
+            encoding = EncodingMap.getIANA2JavaMapping( props.getEncoding() );
+
+        if (options.hasOption( XmlOptions.CHARACTER_ENCODING ))
+            encoding = (String) options.get( XmlOptions.CHARACTER_ENCODING );
+
+        if (encoding != null)
+        {
+            String ianaEncoding = EncodingMap.getJava2IANAMapping( encoding );
+
+            if (ianaEncoding != null)
+                encoding = ianaEncoding;
+        }
+
+        if (encoding == null)
+            encoding = EncodingMap.getJava2IANAMapping( "UTF8" );
+
+        if (EncodingMap.getIANA2JavaMapping( encoding ) == null)
+            throw new IllegalStateException( "Unknown encoding: " + encoding );
+
+        return encoding;
+    }
+
     static final class InputStreamSaver extends InputStream
     {
         InputStreamSaver ( Cur c, XmlOptions options )
@@ -2417,32 +3887,10 @@ abstract class Saver
 
             _outStreamImpl = new OutputStreamImpl();
 
-            String encoding = null;
-
-            XmlDocumentProperties props = Locale.getDocProps( c, false );
-
-            if (props != null && props.getEncoding() != null)
-                encoding = EncodingMap.getIANA2JavaMapping( props.getEncoding() );
-
-            if (options.hasOption( XmlOptions.CHARACTER_ENCODING ))
-                encoding = (String) options.get( XmlOptions.CHARACTER_ENCODING );
-
-            if (encoding != null)
-            {
-                String ianaEncoding = EncodingMap.getJava2IANAMapping( encoding );
-
-                if (ianaEncoding != null)
-                    encoding = ianaEncoding;
-            }
-
-            if (encoding == null)
-                encoding = EncodingMap.getJava2IANAMapping( "UTF8" );
+            String encoding = getEncoding( c, options );
 
             String javaEncoding = EncodingMap.getIANA2JavaMapping( encoding );
 
-            if (javaEncoding == null)
-                throw new IllegalStateException( "Unknown encoding: " + encoding );
-
             try
             {
                 _converter = new OutputStreamWriter( _outStreamImpl, javaEncoding );
@@ -3413,7 +4861,7 @@ abstract class Saver
             _contentHandler = ch;
             _lexicalHandler = lh;
 
-            _attributes = new AttributesImpl();
+            _attributes = new SaxAttributes();
             _nsAsAttrs = !options.hasOption( XmlOptions.SAVE_SAX_NO_NSDECLS_IN_ATTRIBUTES );
 
             _contentHandler.startDocument();
@@ -3441,22 +4889,6 @@ abstract class Saver
             SAXException _saxException;
         }
 
-        private String getPrefixedName ( QName name )
-        {
-            String uri = name.getNamespaceURI();
-            String local = name.getLocalPart();
-
-            if (uri.length() == 0)
-                return local;
-
-            String prefix = getUriMapping( uri );
-
-            if (prefix.length() == 0)
-                return local;
-
-            return prefix + ":" + local;
-        }
-
         private void emitNamespacesHelper ( )
         {
             for ( iterateMappings() ; hasMapping() ; nextMapping() )
@@ -3474,31 +4906,15 @@ abstract class Saver
                 }
 
                 if (_nsAsAttrs)
-                    if (prefix == null || prefix.length() == 0)
-                        _attributes.addAttribute( "http://www.w3.org/2000/xmlns/", "xmlns", "xmlns", "CDATA", uri );
-                    else
-                        _attributes.addAttribute( "http://www.w3.org/2000/xmlns/", prefix, "xmlns:" + prefix, "CDATA", uri );
+                    _attributes.addNamespace( prefix, uri );
             }
         }
 
         protected boolean emitElement ( SaveCur c, ArrayList attrNames, ArrayList attrValues )
         {
-            _attributes.clear();
-
-            if (saveNamespacesFirst())
-                emitNamespacesHelper();
+            _attributes.reset( attrNames, attrValues, saveNamespacesFirst() );
 
-            for ( int i = 0 ; i < attrNames.size() ; i++ )
-            {
-                QName name = (QName) attrNames.get( i );
-
-                _attributes.addAttribute(
-                    name.getNamespaceURI(), name.getLocalPart(), getPrefixedName( name ),
-                    "CDATA", (String) attrValues.get( i ) );
-            }
-
-            if (!saveNamespacesFirst())
-                emitNamespacesHelper();
+            emitNamespacesHelper();
 
             QName elemName = c.getName();
 
@@ -3506,7 +4922,7 @@ abstract class Saver
             {
                 _contentHandler.startElement(
                     elemName.getNamespaceURI(), elemName.getLocalPart(),
-                    getPrefixedName( elemName ), _attributes );
+                    savedName( elemName, false )._text, _attributes );
             }
             catch ( SAXException e )
             {
@@ -3523,7 +4939,8 @@ abstract class Saver
             try
             {
                 _contentHandler.endElement(
-                    name.getNamespaceURI(), name.getLocalPart(), getPrefixedName( name ) );
+                    name.getNamespaceURI(), name.getLocalPart(),
+                    savedName( name, false )._text );
 
                 for ( iterateMappings() ; hasMapping() ; nextMapping() )
                     _contentHandler.endPrefixMapping( mappingPrefix() );
@@ -3605,63 +5022,222 @@ abstract class Saver
                 }
                 catch ( SAXException e )
                 {
-                    throw new SaverSAXException( e );
+                    throw new SaverSAXException( e );
+                }
+
+                c.pop();
+            }
+        }
+
+        protected void emitProcinst ( SaveCur c )
+        {
+            String target = c.getName().getLocalPart();
+
+            c.push();
+
+            c.next();
+
+            String value = CharUtil.getString( c.getChars(), c._offSrc, c._cchSrc );
+
+            c.pop();
+
+            try
+            {
+                _contentHandler.processingInstruction( c.getName().getLocalPart(), value );
+            }
+            catch ( SAXException e )
+            {
+                throw new SaverSAXException( e );
+            }
+        }
+
+        protected void emitDocType ( String docTypeName, String publicId, String systemId )
+        {
+            if (_lexicalHandler != null)
+            {
+                try
+                {
+                    _lexicalHandler.startDTD( docTypeName, publicId, systemId );
+                    _lexicalHandler.endDTD();
+                }
+                catch ( SAXException e )
+                {
+                    throw new SaverSAXException( e );
+                }
+            }
+        }
+
+        protected void emitStartDoc ( SaveCur c )
+        {
+        }
+
+        protected void emitEndDoc ( SaveCur c )
+        {
+        }
+
+        /**
+         * The attributes of the element being started, as a view of the
+         * lists the saver gathered them in rather than a copy of them.
+         * The namespace declarations, when reported as attributes, come
+         * before or after the attributes as they are saved.
+         */
+        private final class SaxAttributes implements Attributes
+        {
+            void reset ( ArrayList names, ArrayList values, boolean namespacesFirst )
+            {
+                _names = names;
+                _values = values;
+                _namespacesFirst = namespacesFirst;
+                _nsCount = 0;
+            }
+
+            void addNamespace ( String prefix, String uri )
+            {
+                if (_nsCount == _nsPrefixes.length)
+                {
+                    String[] prefixes = new String [ _nsCount * 2 ];
+                    String[] uris = new String [ _nsCount * 2 ];
+                    System.arraycopy( _nsPrefixes, 0, prefixes, 0, _nsCount );
+                    System.arraycopy( _nsUris, 0, uris, 0, _nsCount );
+                    _nsPrefixes = prefixes;
+                    _nsUris = uris;
+                }
+
+                _nsPrefixes[ _nsCount ] = prefix == null ? "" : prefix;
+                _nsUris[ _nsCount ] = uri;
+                _nsCount++;
+            }
+
+            public int getLength ( )
+            {
+                return _names.size() + _nsCount;
+            }
+
+            // Returns the index of a namespace declaration among the
+            // declarations, or -1 if the attribute at an index is not one
+
+            private int namespaceIndex ( int index )
+            {
+                int i = _namespacesFirst ? index : index - _names.size();
+
+                return i >= 0 && i < _nsCount ? i : -1;
+            }
+
+            private QName attrName ( int index )
+            {
+                int i = _namespacesFirst ? index - _nsCount : index;
+
+                return i >= 0 && i < _names.size() ? (QName) _names.get( i ) : null;
+            }
+
+            public String getURI ( int index )
+            {
+                if (namespaceIndex( index ) >= 0)
+                    return XMLNS_URI;
+
+                QName name = attrName( index );
+
+                return name == null ? null : name.getNamespaceURI();
+            }
+
+            public String getLocalName ( int index )
+            {
+                int ns = namespaceIndex( index );
+
+                if (ns >= 0)
+                    return _nsPrefixes[ ns ].length() == 0 ? "xmlns" : _nsPrefixes[ ns ];
+
+                QName name = attrName( index );
+
+                return name == null ? null : name.getLocalPart();
+            }
+
+            public String getQName ( int index )
+            {
+                int ns = namespaceIndex( index );
+
+                if (ns >= 0)
+                    return _nsPrefixes[ ns ].length() == 0 ? "xmlns" : "xmlns:" + _nsPrefixes[ ns ];
+
+                QName name = attrName( index );
+
+                return name == null ? null : savedName( name, true )._text;
+            }
+
+            public String getType ( int index )
+            {
+                return index >= 0 && index < getLength() ? "CDATA" : null;
+            }
+
+            public String getValue ( int index )
+            {
+                int ns = namespaceIndex( index );
+
+                if (ns >= 0)
+                    return _nsUris[ ns ];
+
+                int i = _namespacesFirst ? index - _nsCount : index;
+
+                return i >= 0 && i < _values.size() ? (String) _values.get( i ) : null;
+            }
+
+            public int getIndex ( String uri, String localName )
+            {
+                for ( int i = 0, n = getLength() ; i < n ; i++ )
+                {
+                    if (getURI( i ).equals( uri ) && getLocalName( i ).equals( localName ))
+                        return i;
                 }
 
-                c.pop();
+                return -1;
             }
-        }
-
-        protected void emitProcinst ( SaveCur c )
-        {
-            String target = c.getName().getLocalPart();
 
-            c.push();
-
-            c.next();
+            public int getIndex ( String qName )
+            {
+                for ( int i = 0, n = getLength() ; i < n ; i++ )
+                {
+                    if (getQName( i ).equals( qName ))
+                        return i;
+                }
 
-            String value = CharUtil.getString( c.getChars(), c._offSrc, c._cchSrc );
+                return -1;
+            }
 
-            c.pop();
+            public String getType ( String uri, String localName )
+            {
+                return getType( getIndex( uri, localName ) );
+            }
 
-            try
+            public String getType ( String qName )
             {
-                _contentHandler.processingInstruction( c.getName().getLocalPart(), value );
+                return getType( getIndex( qName ) );
             }
-            catch ( SAXException e )
+
+            public String getValue ( String uri, String localName )
             {
-                throw new SaverSAXException( e );
+                return getValue( getIndex( uri, localName ) );
             }
-        }
 
-        protected void emitDocType ( String docTypeName, String publicId, String systemId )
-        {
-            if (_lexicalHandler != null)
+            public String getValue ( String qName )
             {
-                try
-                {
-                    _lexicalHandler.startDTD( docTypeName, publicId, systemId );
-                    _lexicalHandler.endDTD();
-                }
-                catch ( SAXException e )
-                {
-                    throw new SaverSAXException( e );
-                }
+                return getValue( getIndex( qName ) );
             }
-        }
 
-        protected void emitStartDoc ( SaveCur c )
-        {
-        }
+            private static final String XMLNS_URI = "http://www.w3.org/2000/xmlns/";
 
-        protected void emitEndDoc ( SaveCur c )
-        {
+            private ArrayList _names;
+            private ArrayList _values;
+            private boolean   _namespacesFirst;
+
+            private String[] _nsPrefixes = new String [ 4 ];
+            private String[] _nsUris = new String [ 4 ];
+            private int      _nsCount;
         }
 
         private ContentHandler _contentHandler;
         private LexicalHandler _lexicalHandler;
 
-        private AttributesImpl _attributes;
+        private SaxAttributes _attributes;
 
         private char[] _buf;
         private boolean _nsAsAttrs;
@@ -3713,6 +5289,9 @@ abstract class Saver
         abstract List  getAncestorNamespaces ( );
         abstract XmlDocumentProperties getDocProps ( );
 
+        // The element of the tree the cursor is on, null if it is not on one
+        Xobj getXobj ( ) { return null; }
+
         int _offSrc;
         int _cchSrc;
     }
@@ -3758,6 +5337,8 @@ abstract class Saver
 
         List getAncestorNamespaces ( ) { return null; }
 
+        Xobj getXobj ( ) { return _cur.isElem() ? _cur._xobj : null; }
+
         Object getChars ( )
         {
             Object o = _cur.getChars( -1 );
@@ -3828,6 +5409,8 @@ abstract class Saver
 
         List getAncestorNamespaces ( ) { return _cur.getAncestorNamespaces(); }
 
+        Xobj getXobj ( ) { return _cur.getXobj(); }
+
         Object getChars ( )
         {
             Object o = _cur.getChars();
@@ -3860,6 +5443,265 @@ abstract class Saver
         private String _piTarget;
     }
 
+    /**
+     * Presents a run of the children of an element as the content of a
+     * document, walking the tree directly rather than through a Cur.  A Cur
+     * cannot be used from threads other than the one which entered the
+     * locale, which is why this is only used on documents open to
+     * concurrent reads: nothing in their tree changes, and all of their
+     * text is in the tree.
+     */
+    private static final class ChildRangeSaveCur extends SaveCur
+    {
+        /**
+         * The range starts at first, or at the start of the content of
+         * parent if first is null, and goes up to stop, or to the end of
+         * parent if stop is null.  The text after a child is in the same
+         * range as the child.
+         */
+        ChildRangeSaveCur ( Xobj parent, Xobj first, Xobj stop )
+        {
+            assert parent._locale.isConcurrentRead( parent ) && parent.isContainer();
+
+            _parent = parent;
+            _first = first;
+            _stop = stop;
+
+            // Positioned on the root of the document the range is presented as
+
+            _xobj = null;
+            _pos = 0;
+
+            _stackXobjs = new Xobj [ 4 ];
+            _stackPositions = new int [ 4 ];
+        }
+
+        void release ( )
+        {
+            _xobj = null;
+            _pos = Cur.END_POS;
+        }
+
+        int kind ( )
+        {
+            if (_xobj == null)
+                return _pos == 0 ? ROOT : - ROOT;
+
+            int kind = _xobj.kind();
+
+            return _pos == 0 ? kind : (_pos == Cur.END_POS ? - kind : TEXT);
+        }
+
+        QName  getName        ( ) { return _xobj._name; }
+        String getXmlnsPrefix ( ) { assert isXmlns(); return _xobj.getXmlnsPrefix(); }
+        String getXmlnsUri    ( ) { assert isXmlns(); return getAttrValue(); }
+
+        boolean isXmlns       ( ) { return _xobj != null && _pos == 0 && _xobj.isXmlns(); }
+
+        boolean hasChildren   ( ) { return _xobj.hasChildren(); }
+        boolean hasText       ( ) { return _xobj.hasTextNoEnsureOccupancy(); }
+        boolean isTextCData   ( ) { return _xobj.hasBookmark( CDataBookmark.class, _pos ); }
+
+        boolean toFirstAttr ( )
+        {
+            Xobj a = _xobj.firstAttr();
+
+            if (a == null)
+                return false;
+
+            _xobj = a;
+
+            return true;
+        }
+
+        boolean toNextAttr ( )
+        {
+            Xobj a = _xobj.nextAttr();
+
+            if (a == null)
+                return false;
+
+            _xobj = a;
+
+            return true;
+        }
+
+        String getAttrValue ( )
+        {
+            assert isAttr();
+
+            return CharUtil.getString( _xobj._srcValue, _xobj._offValue, _xobj._cchValue );
+        }
+
+        void toEnd ( )
+        {
+            assert _xobj != null && _pos == 0;
+
+            _pos = Cur.END_POS;
+        }
+
+        boolean next ( )
+        {
+            if (_xobj == null)
+            {
+                if (_pos != 0)
+                    return false;
+
+                if (_first == null)
+                    moveToContent( _parent );
+                else
+                    moveToNode( _first, _parent );
+            }
+            else if (_pos == 0)
+                moveToContent( _xobj );
+            else if (_pos == Cur.END_POS)
+                moveAfter( _xobj );
+            else if (_pos < _xobj.posAfter())
+            {
+                // The text of a container with no attributes
+
+                moveToNode( _xobj._firstChild, _xobj );
+            }
+            else
+                moveToNode( _xobj._nextSibling, _xobj._parent );
+
+            return true;
+        }
+
+        /**
+         * Moves to the text x starts with, its first child or its end.
+         */
+        private void moveToContent ( Xobj x )
+        {
+            if (x._cchValue > 0)
+            {
+                _xobj = x;
+                _pos = 1;
+                return;
+            }
+
+            Xobj c = x._firstChild;
+
+            if (c != null && c.isAttr())
+            {
+                while ( c._nextSibling != null && c._nextSibling.isAttr() )
+                    c = c._nextSibling;
+
+                if (c._cchAfter > 0)
+                {
+                    _xobj = c;
+                    _pos = c.posAfter();
+                    return;
+                }
+
+                c = c._nextSibling;
+            }
+
+            moveToNode( c, x );
+        }
+
+        /**
+         * Moves to the text after x, its next sibling or the end of its
+         * parent.
+         */
+        private void moveAfter ( Xobj x )
+        {
+            if (x._cchAfter > 0)
+            {
+                _pos = x.posAfter();
+                return;
+            }
+
+            moveToNode( x._nextSibling, x._parent );
+        }
+
+        /**
+         * Moves to x, or to the end of parent if x is null, which is the
+         * end of the range if that is where the range stops.
+         */
+        private void moveToNode ( Xobj x, Xobj parent )
+        {
+            if (x != null && x != _stop)
+            {
+                _xobj = x;
+                _pos = 0;
+            }
+            else if (x == null && parent != _parent)
+            {
+                _xobj = parent;
+                _pos = Cur.END_POS;
+            }
+            else
+            {
+                _xobj = null;
+                _pos = Cur.END_POS;
+            }
+        }
+
+        void push ( )
+        {
+            if (_stackTop == _stackXobjs.length)
+            {
+                Xobj[] newXobjs = new Xobj [ _stackTop * 2 ];
+                int[] newPositions = new int [ _stackTop * 2 ];
+
+                System.arraycopy( _stackXobjs, 0, newXobjs, 0, _stackTop );
+                System.arraycopy( _stackPositions, 0, newPositions, 0, _stackTop );
+
+                _stackXobjs = newXobjs;
+                _stackPositions = newPositions;
+            }
+
+            _stackXobjs[ _stackTop ] = _xobj;
+            _stackPositions[ _stackTop ] = _pos;
+
+            _stackTop++;
+        }
+
+        void pop ( )
+        {
+            _stackTop--;
+
+            _xobj = _stackXobjs[ _stackTop ];
+            _pos = _stackPositions[ _stackTop ];
+
+            _stackXobjs[ _stackTop ] = null;
+        }
+
+        List getAncestorNamespaces ( ) { return null; }
+
+        Object getChars ( )
+        {
+            assert isText();
+
+            if (_pos >= _xobj.posAfter())
+            {
+                _offSrc = _xobj._offAfter;
+                _cchSrc = _xobj._cchAfter;
+
+                return _xobj._srcAfter;
+            }
+
+            _offSrc = _xobj._offValue;
+            _cchSrc = _xobj._cchValue;
+
+            return _xobj._srcValue;
+        }
+
+        XmlDocumentProperties getDocProps ( ) { return null; }
+
+        private final Xobj _parent;
+        private final Xobj _first;
+        private final Xobj _stop;
+
+        private Xobj _xobj;
+        private int  _pos;
+
+        private Xobj[] _stackXobjs;
+        private int[]  _stackPositions;
+        private int    _stackTop;
+    }
+
     private static final class FragSaveCur extends SaveCur
     {
         FragSaveCur ( Cur start, Cur end, QName synthElem )
@@ -3885,6 +5727,11 @@ abstract class Saver
             return _ancestorNamespaces;
         }
 
+        Xobj getXobj ( )
+        {
+            return _state == CUR && _cur.isElem() ? _cur._xobj : null;
+        }
+
         private void computeAncestorNamespaces ( Cur c )
         {
             _ancestorNamespaces = new ArrayList();
@@ -4178,12 +6025,22 @@ abstract class Saver
         private int   _stateStackSize;
     }
 
+    /**
+     * Adds the white space which indents the saved document, and trims
+     * the white space of the text already there.  The text presented is
+     * made of pieces of the original text and of a table of indentation,
+     * a newline followed by spaces, so no text is copied to do this.
+     */
     private static final class PrettySaveCur extends SaveCur
     {
         PrettySaveCur ( SaveCur c, XmlOptions options )
         {
-            _sb = new StringBuffer();
-            _stack = new ArrayList();
+            _stackTxt = new Object [ 4 ];
+            _stackOffs = new int [ 4 ];
+            _stackCchs = new int [ 4 ];
+            _stackDepths = new int [ 4 ];
+
+            _chars = new char [ 64 ];
 
             _cur = c;
 
@@ -4207,6 +6064,8 @@ abstract class Saver
             {
                 _useCDataBookmarks = true;
             }
+
+            _indentation = indentation( 32 );
         }
 
         List getAncestorNamespaces ( ) { return _cur.getAncestorNamespaces(); }
@@ -4247,7 +6106,7 @@ abstract class Saver
 
             if (_txt != null)
             {
-                assert _txt.length() > 0;
+                assert _cchTxt > 0;
                 assert !_cur.isText();
                 _txt = null;
                 _isTextCData = false;
@@ -4260,47 +6119,80 @@ abstract class Saver
                 if (!_cur.next())
                     return false;
 
-                _sb.delete( 0, _sb.length() );
-
-                assert _txt == null;
+                Object src = null;
+                int off = 0;
+                int cch = 0;
 
-                // place any text encountered in the buffer
+                // Take any text encountered, less its leading and trailing
+                // white space
                 if (_cur.isText())
                 {
                     // _cur.isTextCData() is expensive do it only if useCDataBookmarks option is enabled
                     _isTextCData = _useCDataBookmarks && _cur.isTextCData();
-                    CharUtil.getString( _sb, _cur.getChars(), _cur._offSrc, _cur._cchSrc );
+
+                    src = _cur.getChars();
+                    off = _cur._offSrc;
+                    cch = _cur._cchSrc;
+
                     _cur.next();
-                    trim( _sb );
+
+                    int cchLeading = leadingWhiteSpace( src, off, cch );
+
+                    off += cchLeading;
+                    cch -= cchLeading;
+                    cch -= trailingWhiteSpace( src, off, cch );
                 }
 
                 k = _cur.kind();
 
+                // The text is put on a line of its own, and the next token
+                // on the next line.  Both are taken from the indentation
+
+                int cchBefore = 0;
+                int offAfter = 0;
+                int cchAfter = 0;
+
                 // Check for non leaf, _prettyIndent < 0 means that the save is all on one line
 
                 if (_prettyIndent >= 0 &&
                       prevKind != COMMENT && prevKind != PROCINST && (prevKind != ELEM || k != -ELEM))
-//                if (prevKind != COMMENT && prevKind != PROCINST && (prevKind != ELEM || k != -ELEM))
                 {
-                    if (_sb.length() > 0)
-                    {
-                        _sb.insert( 0, _newLine );
-                        spaces( _sb, _newLine.length(), _prettyOffset + _prettyIndent * _depth );
-                    }
+                    if (cch > 0)
+                        cchBefore = _newLine.length() + spaces( _depth );
 
                     if (k != -ROOT)
                     {
-                        if (prevKind != ROOT)
-                            _sb.append( _newLine );
+                        if (prevKind == ROOT)
+                            offAfter = _newLine.length();
 
                         int d = k < 0 ? _depth - 1 : _depth;
-                        spaces( _sb, _sb.length(), _prettyOffset + _prettyIndent * d );
+                        cchAfter = _newLine.length() - offAfter + spaces( d );
                     }
                 }
 
-                if (_sb.length() > 0)
+                if (cchAfter > 0)
+                {
+                    if (cch == 0)
+                        src = _indentation;
+                    else
+                        src = new CharUtil.CharJoin( src, off, cch, _indentation, offAfter );
+
+                    off = cch == 0 ? offAfter : 0;
+                    cch += cchAfter;
+                }
+
+                if (cchBefore > 0)
+                {
+                    src = new CharUtil.CharJoin( _indentation, 0, cchBefore, src, off );
+                    off = 0;
+                    cch += cchBefore;
+                }
+
+                if (cch > 0)
                 {
-                    _txt = _sb.toString();
+                    _txt = src;
+                    _offTxt = off;
+                    _cchTxt = cch;
                     k = TEXT;
                 }
             }
@@ -4316,16 +6208,50 @@ abstract class Saver
         void push ( )
         {
             _cur.push();
-            _stack.add( _txt );
-            _stack.add( new Integer( _depth ) );
+
+            if (_stackTop == _stackTxt.length)
+            {
+                int n = _stackTop * 2;
+
+                Object[] newTxt = new Object [ n ];
+                int[] newOffs = new int [ n ];
+                int[] newCchs = new int [ n ];
+                int[] newDepths = new int [ n ];
+
+                System.arraycopy( _stackTxt, 0, newTxt, 0, _stackTop );
+                System.arraycopy( _stackOffs, 0, newOffs, 0, _stackTop );
+                System.arraycopy( _stackCchs, 0, newCchs, 0, _stackTop );
+                System.arraycopy( _stackDepths, 0, newDepths, 0, _stackTop );
+
+                _stackTxt = newTxt;
+                _stackOffs = newOffs;
+                _stackCchs = newCchs;
+                _stackDepths = newDepths;
+            }
+
+            _stackTxt[ _stackTop ] = _txt;
+            _stackOffs[ _stackTop ] = _offTxt;
+            _stackCchs[ _stackTop ] = _cchTxt;
+            _stackDepths[ _stackTop ] = _depth;
+
+            _stackTop++;
+
             _isTextCData = false;
         }
 
         void pop ( )
         {
             _cur.pop();
-            _depth = ((Integer) _stack.remove( _stack.size() - 1 )).intValue();
-            _txt = (String) _stack.remove( _stack.size() - 1 );
+
+            _stackTop--;
+
+            _txt = _stackTxt[ _stackTop ];
+            _offTxt = _stackOffs[ _stackTop ];
+            _cchTxt = _stackCchs[ _stackTop ];
+            _depth = _stackDepths[ _stackTop ];
+
+            _stackTxt[ _stackTop ] = null;
+
             _isTextCData = false;
         }
 
@@ -4333,8 +6259,8 @@ abstract class Saver
         {
             if (_txt != null)
             {
-                _offSrc = 0;
-                _cchSrc = _txt.length();
+                _offSrc = _offTxt;
+                _cchSrc = _cchTxt;
                 return _txt;
             }
 
@@ -4348,27 +6274,69 @@ abstract class Saver
 
         XmlDocumentProperties getDocProps ( ) { return _cur.getDocProps(); }
 
-        static void spaces ( StringBuffer sb, int offset, int count )
+        /**
+         * Returns the number of spaces to indent the given depth by, making
+         * sure the indentation has that many.
+         */
+        private int spaces ( int depth )
         {
-            while ( count-- > 0 )
-                sb.insert( offset, ' ' );
+            int count = _prettyOffset + _prettyIndent * depth;
+
+            if (count <= 0)
+                return 0;
+
+            if (_newLine.length() + count > _indentation.length())
+                _indentation = indentation( count * 2 );
+
+            return count;
         }
 
-        static void trim ( StringBuffer sb )
+        private static String indentation ( int count )
         {
-            int i;
+            StringBuffer sb = new StringBuffer( _newLine.length() + count );
 
-            for ( i = 0 ; i < sb.length() ; i++ )
-                if (!CharUtil.isWhiteSpace( sb.charAt( i ) ))
-                    break;
+            sb.append( _newLine );
 
-            sb.delete( 0, i );
+            for ( int i = 0 ; i < count ; i++ )
+                sb.append( ' ' );
 
-            for ( i = sb.length() ; i > 0 ; i-- )
-                if (!CharUtil.isWhiteSpace( sb.charAt( i - 1 ) ))
-                    break;
+            return sb.toString();
+        }
+
+        private int leadingWhiteSpace ( Object src, int off, int cch )
+        {
+            for ( int i = 0 ; i < cch ; )
+            {
+                int chunk = Math.min( cch - i, _chars.length );
+
+                CharUtil.getChars( _chars, 0, src, off + i, chunk );
+
+                for ( int j = 0 ; j < chunk ; j++ )
+                    if (!CharUtil.isWhiteSpace( _chars[ j ] ))
+                        return i + j;
+
+                i += chunk;
+            }
+
+            return cch;
+        }
+
+        private int trailingWhiteSpace ( Object src, int off, int cch )
+        {
+            for ( int i = cch ; i > 0 ; )
+            {
+                int chunk = Math.min( i, _chars.length );
+
+                CharUtil.getChars( _chars, 0, src, off + i - chunk, chunk );
+
+                for ( int j = chunk ; j > 0 ; j-- )
+                    if (!CharUtil.isWhiteSpace( _chars[ j - 1 ] ))
+                        return cch - (i - chunk + j);
 
-            sb.delete( i, sb.length() );
+                i -= chunk;
+            }
+
+            return cch;
         }
 
         private SaveCur _cur;
@@ -4376,12 +6344,23 @@ abstract class Saver
         private int _prettyIndent;
         private int _prettyOffset;
 
-        private String       _txt;
-        private StringBuffer _sb;
+        // A newline followed by at least as many spaces as used so far
+        private String       _indentation;
+
+        private Object       _txt;
+        private int          _offTxt;
+        private int          _cchTxt;
+
+        private char[]       _chars;
 
         private int          _depth;
 
-        private ArrayList    _stack;
+        private Object[]     _stackTxt;
+        private int[]        _stackOffs;
+        private int[]        _stackCchs;
+        private int[]        _stackDepths;
+        private int          _stackTop;
+
         private boolean      _isTextCData = false;
         private boolean      _useCDataBookmarks = false;
     }
@@ -4406,12 +6385,28 @@ abstract class Saver
     private ArrayList _attrNames;
     private ArrayList _attrValues;
 
-    private ArrayList _namespaceStack;
+    private String[]  _namespaceStack;
+    private int       _namespaceTop;
+    private int[]     _frameStarts;
+    private int[]     _frameScopes;
+    private int       _frameTop;
     private int       _currentMapping;
+
+    // Identifies the mappings in effect, see savedName
+    private int       _scope;
+    private int       _lastScope;
+
+    private final HashMap _savedElemNames = new HashMap();
+    private final HashMap _savedAttrNames = new HashMap();
+    private final HashMap _savedXmlns = new HashMap();
     private HashMap   _uriMap;
     private HashMap   _prefixMap;
     private String    _initialDefaultUri;
 
+    // The mappings of the scope last asked for, see namespaceContext
+    private Object    _context;
+    private int       _contextScope;
+
     static final String _newLine =
         SystemProperties.getProperty( "line.separator" ) == null
             ? "\n"
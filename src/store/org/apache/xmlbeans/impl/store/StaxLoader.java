@@ -0,0 +1,678 @@
+/*   Copyright 2004-2018 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xmlbeans.CDataBookmark;
+import org.apache.xmlbeans.XmlError;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlLineNumber;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlOptionsBean;
+import org.apache.xmlbeans.XmlRuntimeException;
+import org.apache.xmlbeans.impl.common.StaxHelper;
+import org.apache.xmlbeans.impl.common.XBLogFactory;
+import org.apache.xmlbeans.impl.common.XBLogger;
+import org.apache.xmlbeans.impl.common.XMLBeansConstants;
+
+import org.apache.xmlbeans.impl.store.Locale.LoadContext;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Pull based loader used when {@link XmlOptions#LOAD_USE_STAX} is set.
+ * <p>
+ * The events of an XMLStreamReader are appended straight into the store
+ * through a {@link Cur.CurLoadContext}; text is handed over as the
+ * parser's own char[] window, and names are resolved through the
+ * locale's QName factory, so no SAX Attributes or qname strings are
+ * built along the way.  For a lazy text load, see
+ * {@link XmlOptions#setLoadLazyText}, text which is in the loaded string
+ * as is stays there and only its offset and length are stored.
+ */
+final class StaxLoader
+{
+    private static final XBLogger logger = XBLogFactory.getLogger(StaxLoader.class);
+
+    private static final String REPORT_CDATA =
+        "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final String IGNORE_EXTERNAL_DTD =
+        "http://java.sun.com/xml/stream/properties/ignore-external-dtd";
+
+    private static final String MAX_GENERAL_ENTITY_SIZE_LIMIT =
+        "http://www.oracle.com/xml/jaxp/properties/maxGeneralEntitySizeLimit";
+
+    // One configured factory per combination of DTD options and limits;
+    // factories are not modified after creation, so they can be shared.
+    private static final ConcurrentMap _factories = new ConcurrentHashMap();
+
+    private StaxLoader()
+    {
+    }
+
+    static boolean isStaxLoad(XmlOptions options)
+    {
+        return options != null &&
+            options.hasOption(XmlOptions.LOAD_USE_STAX) &&
+            !options.hasOption(XmlOptions.LOAD_USE_XMLREADER);
+    }
+
+    static Cur load(Locale l, InputStream is, XmlOptions options)
+        throws XmlException
+    {
+        return load(l, newReader(is, options), options);
+    }
+
+    static XMLStreamReader newReader(InputStream is, XmlOptions options)
+        throws XmlException
+    {
+        try
+        {
+            return getFactory(options).createXMLStreamReader(is);
+        }
+        catch (XMLStreamException e)
+        {
+            throw newXmlException(e, options);
+        }
+    }
+
+    static Cur load(Locale l, Reader r, XmlOptions options)
+        throws XmlException
+    {
+        XMLStreamReader xsr;
+
+        try
+        {
+            xsr = getFactory(options).createXMLStreamReader(r);
+        }
+        catch (XMLStreamException e)
+        {
+            throw newXmlException(e, options);
+        }
+
+        return load(l, xsr, options);
+    }
+
+    private static XMLInputFactory getFactory(XmlOptions options)
+    {
+        XmlOptionsBean bean = new XmlOptionsBean(options);
+
+        // The external DTD is read through the entity resolver of the load,
+        // which a shared factory cannot hold
+        if (bean.isLoadExternalDTD())
+            return newFactory(bean, Locale.getEntityResolver(options));
+
+        FactoryKey key = new FactoryKey(bean);
+
+        XMLInputFactory factory = (XMLInputFactory) _factories.get(key);
+
+        if (factory == null)
+        {
+            factory = newFactory(bean, null);
+
+            XMLInputFactory existing =
+                (XMLInputFactory) _factories.putIfAbsent(key, factory);
+
+            if (existing != null)
+                factory = existing;
+        }
+
+        return factory;
+    }
+
+    private static XMLInputFactory newFactory(XmlOptionsBean bean,
+        EntityResolver er)
+    {
+        XMLInputFactory factory = StaxHelper.newXMLInputFactory(bean);
+
+        trySetProperty(factory, REPORT_CDATA, Boolean.TRUE);
+
+        // The internal subset is always read, as it is by the SAX loader,
+        // so that its entities and attribute types are known; only reading
+        // the external subset depends on the options
+        trySetProperty(factory, XMLInputFactory.SUPPORT_DTD, Boolean.TRUE);
+        trySetProperty(factory, IGNORE_EXTERNAL_DTD,
+            Boolean.valueOf(!bean.isLoadExternalDTD()));
+
+        trySetProperty(factory, XMLBeansConstants.ENTITY_EXPANSION_LIMIT,
+            new Integer(bean.getEntityExpansionLimit()));
+        trySetProperty(factory, MAX_GENERAL_ENTITY_SIZE_LIMIT,
+            new Integer(getEntityBytesLimit(bean)));
+
+        factory.setXMLResolver(new Resolver(er));
+
+        return factory;
+    }
+
+    private static int getEntityBytesLimit(XmlOptions options)
+    {
+        return options.hasOption(XmlOptions.LOAD_ENTITY_BYTES_LIMIT)
+            ? ((Integer) options.get(XmlOptions.LOAD_ENTITY_BYTES_LIMIT)).intValue()
+            : Locale.DEFAULT_ENTITY_BYTES_LIMIT;
+    }
+
+    /**
+     * The options a shared factory is configured with.
+     */
+    private static final class FactoryKey
+    {
+        FactoryKey(XmlOptionsBean bean)
+        {
+            _loadDTDGrammar = bean.isLoadDTDGrammar();
+            _entityExpansionLimit = bean.getEntityExpansionLimit();
+            _entityBytesLimit = getEntityBytesLimit(bean);
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof FactoryKey))
+                return false;
+
+            FactoryKey that = (FactoryKey) o;
+
+            return _loadDTDGrammar == that._loadDTDGrammar &&
+                _entityExpansionLimit == that._entityExpansionLimit &&
+                _entityBytesLimit == that._entityBytesLimit;
+        }
+
+        public int hashCode()
+        {
+            return (_loadDTDGrammar ? 1 : 0) +
+                31 * _entityExpansionLimit + 961 * _entityBytesLimit;
+        }
+
+        private final boolean _loadDTDGrammar;
+        private final int _entityExpansionLimit;
+        private final int _entityBytesLimit;
+    }
+
+    /**
+     * Resolves external entities through the SAX entity resolver of the
+     * load.  Without one, as for the shared factories, they resolve to
+     * nothing, so nothing outside the document is ever read.
+     */
+    private static final class Resolver implements XMLResolver
+    {
+        Resolver(EntityResolver er)
+        {
+            _er = er;
+        }
+
+        public Object resolveEntity(String publicId, String systemId,
+            String baseURI, String namespace)
+            throws XMLStreamException
+        {
+            if (_er == null)
+                return new ByteArrayInputStream(new byte[0]);
+
+            try
+            {
+                InputSource is = _er.resolveEntity(publicId, systemId);
+
+                if (is == null)
+                    return null;
+
+                if (is.getByteStream() != null)
+                    return is.getByteStream();
+
+                if (is.getCharacterStream() != null)
+                {
+                    StringWriter w = new StringWriter();
+                    Reader r = is.getCharacterStream();
+                    char[] buf = new char[1024];
+
+                    for (int n; (n = r.read(buf)) >= 0; )
+                        w.write(buf, 0, n);
+
+                    return new ByteArrayInputStream(
+                        w.toString().getBytes("UTF-8"));
+                }
+
+                return null;
+            }
+            catch (SAXException e)
+            {
+                throw new XMLStreamException(e.getMessage(), e);
+            }
+            catch (IOException e)
+            {
+                throw new XMLStreamException(e.getMessage(), e);
+            }
+        }
+
+        private final EntityResolver _er;
+    }
+
+    private static void trySetProperty(XMLInputFactory factory, String name,
+        Object value)
+    {
+        try
+        {
+            factory.setProperty(name, value);
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.log(XBLogger.DEBUG, "StAX Property unsupported", name, e);
+        }
+    }
+
+    private static Cur load(Locale l, XMLStreamReader xsr, XmlOptions options)
+        throws XmlException
+    {
+        try
+        {
+            return load(l, xsr, null, options);
+        }
+        finally
+        {
+            try
+            {
+                xsr.close();
+            }
+            catch (XMLStreamException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * Loads the element the reader is positioned at as a document of its
+     * own, and leaves the reader at the end of that element.  inScope holds
+     * the prefix, uri pairs of the namespaces declared by the ancestors of
+     * the element, which are declared again on the loaded element unless
+     * it declares the prefix itself.
+     */
+    static Cur loadElement(Locale l, XMLStreamReader xsr, String[] inScope,
+        XmlOptions options)
+        throws XmlException
+    {
+        assert xsr.getEventType() == XMLStreamReader.START_ELEMENT;
+        assert inScope != null;
+
+        return load(l, xsr, inScope, options);
+    }
+
+    private static Cur load(Locale l, XMLStreamReader xsr, String[] inScope,
+        XmlOptions options)
+        throws XmlException
+    {
+        options = XmlOptions.maskNull(options);
+
+        boolean lineNums = options.hasOption(XmlOptions.LOAD_LINE_NUMBERS);
+        boolean lineNumsAtEnd =
+            options.hasOption(XmlOptions.LOAD_LINE_NUMBERS_END_ELEMENT);
+        boolean cdataBookmarks =
+            options.hasOption(XmlOptions.LOAD_SAVE_CDATA_BOOKMARKS);
+
+        LoadContext context = new Cur.CurLoadContext(l, options);
+        int depth = 0;
+
+        // For a lazy text load, the string being loaded and where in it the
+        // next text would start, if known
+        String source =
+            inScope == null ? (String) options.get(Cur.LOAD_SOURCE_TEXT) : null;
+        int sourcePos = -1;
+
+        try
+        {
+            events:
+            for (int eventType = xsr.getEventType(); ; eventType = xsr.next())
+            {
+                int textPos = sourcePos;
+
+                sourcePos = -1;
+
+                switch (eventType)
+                {
+                case XMLStreamReader.START_ELEMENT:
+                    {
+                        context.startElement(l.makeQName(
+                            xsr.getNamespaceURI(), xsr.getLocalName(),
+                            xsr.getPrefix()));
+
+                        if (lineNums)
+                            lineNumber(xsr, context);
+
+                        if (depth++ == 0 && inScope != null)
+                            declareInScope(xsr, context, inScope);
+
+                        // Attribute types come from the DTD, as
+                        // SaxHandler.attributeDecl would have seen them
+                        for (int i = 0, n = xsr.getAttributeCount(); i < n; i++)
+                        {
+                            if ("ID".equals(xsr.getAttributeType(i)))
+                            {
+                                context.addIdAttr(
+                                    qName(xsr.getPrefix(), xsr.getLocalName()),
+                                    qName(xsr.getAttributePrefix(i),
+                                        xsr.getAttributeLocalName(i)));
+                            }
+                        }
+
+                        for (int i = 0, n = xsr.getNamespaceCount(); i < n; i++)
+                        {
+                            String prefix = xsr.getNamespacePrefix(i);
+                            String uri = xsr.getNamespaceURI(i);
+
+                            context.xmlns(prefix == null ? "" : prefix,
+                                uri == null ? "" : uri);
+                        }
+
+                        for (int i = 0, n = xsr.getAttributeCount(); i < n; i++)
+                        {
+                            context.attr(xsr.getAttributeLocalName(i),
+                                xsr.getAttributeNamespace(i),
+                                xsr.getAttributePrefix(i),
+                                xsr.getAttributeValue(i));
+                        }
+
+                        sourcePos = sourceOffset(xsr, source);
+
+                        break;
+                    }
+
+                case XMLStreamReader.END_ELEMENT:
+                    {
+                        context.endElement();
+
+                        if (lineNumsAtEnd)
+                            lineNumber(xsr, context);
+
+                        if (--depth == 0 && inScope != null)
+                            break events;
+
+                        sourcePos = sourceOffset(xsr, source);
+
+                        break;
+                    }
+
+                case XMLStreamReader.CHARACTERS:
+                case XMLStreamReader.CDATA:
+                    {
+                        char[] chars = xsr.getTextCharacters();
+                        int start = xsr.getTextStart();
+                        int cch = xsr.getTextLength();
+
+                        // Text the parser reports as it is in the source is
+                        // referenced there rather than copied
+                        if (textPos >= 0 && eventType == XMLStreamReader.CHARACTERS &&
+                                inSource(source, textPos, chars, start, cch))
+                        {
+                            context.text(source, textPos, cch);
+                            sourcePos = textPos + cch;
+                        }
+                        else
+                            context.text(chars, start, cch);
+
+                        if (cdataBookmarks && eventType == XMLStreamReader.CDATA)
+                            context.bookmarkLastNonAttr(CDataBookmark.CDATA_BOOKMARK);
+
+                        break;
+                    }
+
+                case XMLStreamReader.ENTITY_REFERENCE:
+                    {
+                        context.text(xsr.getText());
+                        break;
+                    }
+
+                case XMLStreamReader.COMMENT:
+                    {
+                        context.comment(xsr.getTextCharacters(),
+                            xsr.getTextStart(), xsr.getTextLength());
+                        break;
+                    }
+
+                case XMLStreamReader.PROCESSING_INSTRUCTION:
+                    {
+                        String data = xsr.getPIData();
+
+                        context.procInst(xsr.getPITarget(),
+                            data == null ? "" : data);
+                        break;
+                    }
+
+                case XMLStreamReader.DTD:
+                    {
+                        doctype(xsr.getText(), context);
+                        break;
+                    }
+
+                case XMLStreamReader.END_DOCUMENT:
+                    break events;
+
+                    // These are ignored, as they are by the SAX loader
+                case XMLStreamReader.START_DOCUMENT:
+                case XMLStreamReader.SPACE:
+                    break;
+
+                default :
+                    throw new RuntimeException(
+                        "Unhandled xml event type: " + eventType);
+                }
+
+                if (!xsr.hasNext())
+                    break;
+            }
+
+            Cur c = context.finish();
+
+            Locale.associateSourceName(c, options);
+
+            return c;
+        }
+        catch (XMLStreamException e)
+        {
+            context.abort();
+
+            throw newXmlException(e, options);
+        }
+        catch (XmlRuntimeException e)
+        {
+            context.abort();
+
+            throw new XmlException(e);
+        }
+        catch (RuntimeException e)
+        {
+            context.abort();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the offset in source of the end of the current event, or -1.
+     * The JDK parser reports this exactly for start and end tags, but not
+     * for text or CDATA, whose reported offsets run ahead of the event.
+     */
+    private static int sourceOffset(XMLStreamReader xsr, String source)
+    {
+        if (source == null)
+            return -1;
+
+        Location loc = xsr.getLocation();
+
+        return loc == null ? -1 : loc.getCharacterOffset();
+    }
+
+    /**
+     * Tells whether the cch chars at start in chars are in source, as is,
+     * at pos.  They are not when the parser replaced entity or character
+     * references or normalized line ends, and not when the offsets of the
+     * parser are off, so only the chars themselves are trusted.
+     */
+    private static boolean inSource(String source, int pos, char[] chars,
+        int start, int cch)
+    {
+        if (pos + cch > source.length())
+            return false;
+
+        for (int i = 0; i < cch; i++)
+        {
+            if (source.charAt(pos + i) != chars[start + i])
+                return false;
+        }
+
+        return true;
+    }
+
+    private static void declareInScope(XMLStreamReader xsr,
+        LoadContext context, String[] inScope)
+    {
+        int n = xsr.getNamespaceCount();
+
+        prefixes:
+        for (int i = 0; i < inScope.length; i += 2)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                String prefix = xsr.getNamespacePrefix(j);
+
+                if (inScope[i].equals(prefix == null ? "" : prefix))
+                    continue prefixes;
+            }
+
+            context.xmlns(inScope[i], inScope[i + 1]);
+        }
+    }
+
+    private static String qName(String prefix, String local)
+    {
+        return prefix == null || prefix.length() == 0
+            ? local : prefix + ":" + local;
+    }
+
+    /**
+     * Passes the name and ids of a document type declaration, given as its
+     * text, <!DOCTYPE name [SYSTEM 'id' | PUBLIC 'id' 'id'] [subset]>, on
+     * to the context.
+     */
+    private static void doctype(String text, LoadContext context)
+    {
+        if (text == null || !text.startsWith("<!DOCTYPE"))
+            return;
+
+        int[] pos = { "<!DOCTYPE".length() };
+
+        String name = token(text, pos);
+        String publicId = null;
+        String systemId = null;
+
+        String keyword = token(text, pos);
+
+        if ("PUBLIC".equals(keyword))
+        {
+            publicId = literal(text, pos);
+            systemId = literal(text, pos);
+        }
+        else if ("SYSTEM".equals(keyword))
+            systemId = literal(text, pos);
+
+        if (name != null)
+        {
+            context.startDTD(name, publicId, systemId);
+            context.endDTD();
+        }
+    }
+
+    private static int skipSpace(String text, int i)
+    {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i)))
+            i++;
+
+        return i;
+    }
+
+    private static String token(String text, int[] pos)
+    {
+        int start = skipSpace(text, pos[0]);
+        int end = start;
+
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end)) &&
+                "[>'\"".indexOf(text.charAt(end)) < 0)
+            end++;
+
+        pos[0] = end;
+
+        return end == start ? null : text.substring(start, end);
+    }
+
+    private static String literal(String text, int[] pos)
+    {
+        int start = skipSpace(text, pos[0]);
+
+        if (start >= text.length())
+            return null;
+
+        char quote = text.charAt(start);
+
+        if (quote != '\'' && quote != '"')
+            return null;
+
+        int end = text.indexOf(quote, start + 1);
+
+        if (end < 0)
+            return null;
+
+        pos[0] = end + 1;
+
+        return text.substring(start + 1, end);
+    }
+
+    private static void lineNumber(XMLStreamReader xsr, LoadContext context)
+    {
+        Location loc = xsr.getLocation();
+
+        if (loc != null)
+        {
+            context.bookmark(new XmlLineNumber(loc.getLineNumber(),
+                loc.getColumnNumber() - 1, -1));
+        }
+    }
+
+    static XmlException newXmlException(XMLStreamException e,
+        XmlOptions options)
+    {
+        Location loc = e.getLocation();
+
+        String sourceName = (String) XmlOptions.safeGet(options,
+            XmlOptions.DOCUMENT_SOURCE_NAME);
+
+        XmlError err = loc == null
+            ? XmlError.forMessage(e.getMessage())
+            : XmlError.forLocation(e.getMessage(), sourceName,
+                loc.getLineNumber(), loc.getColumnNumber(), -1);
+
+        return new XmlException(err.toString(), e, err);
+    }
+}
@@ -0,0 +1,700 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import java.util.ArrayList;
+
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Node;
+
+import org.apache.xmlbeans.impl.store.DomImpl.Dom;
+
+/**
+ * A read only view of a node of the store, for tree models (like the
+ * Saxon one) which navigate the store in place rather than through DOM.
+ * <p/>
+ * A node is either an Xobj, or one of the two runs of text an Xobj can
+ * hold : the text at the start of its content and the text after it.
+ * Namespace declarations are not nodes of this view, they are given by
+ * {@link #getNamespaceDeclarations}.
+ */
+
+public final class StoreNode
+{
+    private StoreNode ( Xobj x, int pos )
+    {
+        assert x != null;
+        assert pos == NODE || pos == VALUE_TEXT || pos == AFTER_TEXT;
+
+        _xobj = x;
+        _pos = pos;
+    }
+
+    /**
+     * Returns the store node under a DOM node of the store, or null if
+     * the node does not belong to the store.
+     */
+
+    public static StoreNode forDom ( Object node )
+    {
+        if (!(node instanceof Dom))
+            return null;
+
+        Locale l = ((Dom) node).locale();
+
+        if (l.noSync())         { l.enter(); try { return forDomImpl( (Dom) node ); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return forDomImpl( (Dom) node ); } finally { l.exit(); } }
+    }
+
+    private static StoreNode forDomImpl ( Dom d )
+    {
+        Cur c = d.tempCur();
+
+        try
+        {
+            Xobj x = c._xobj;
+
+            // The text of an attribute is its value rather than a node
+
+            if (c._pos == 0 || (x.isAttr() && c._pos < x.posAfter()))
+                return new StoreNode( x, NODE );
+
+            return new StoreNode( x, c._pos < x.posAfter() ? VALUE_TEXT : AFTER_TEXT );
+        }
+        finally
+        {
+            c.release();
+        }
+    }
+
+    /**
+     * Returns the DOM node of the store for this node.  For text, this is
+     * the first DOM text node of the run.
+     */
+
+    public Node getDom ( )
+    {
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getDomImpl(); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getDomImpl(); } finally { l.exit(); } }
+    }
+
+    private Node getDomImpl ( )
+    {
+        if (_pos == NODE)
+            return (Node) _xobj.getDom();
+
+        Cur c = _xobj.tempCur();
+
+        try
+        {
+            c.moveTo( _xobj, _pos == VALUE_TEXT ? 1 : _xobj.posAfter() );
+
+            return (Node) c.getDom();
+        }
+        finally
+        {
+            c.release();
+        }
+    }
+
+    /**
+     * Returns one of the DOM node types Node.DOCUMENT_NODE,
+     * Node.ELEMENT_NODE, Node.ATTRIBUTE_NODE, Node.TEXT_NODE,
+     * Node.COMMENT_NODE or Node.PROCESSING_INSTRUCTION_NODE.
+     */
+
+    public int getNodeType ( )
+    {
+        if (_pos != NODE)
+            return Node.TEXT_NODE;
+
+        switch ( _xobj.kind() )
+        {
+        case Xobj.ROOT     : return Node.DOCUMENT_NODE;
+        case Xobj.ELEM     : return Node.ELEMENT_NODE;
+        case Xobj.ATTR     : return Node.ATTRIBUTE_NODE;
+        case Xobj.COMMENT  : return Node.COMMENT_NODE;
+        case Xobj.PROCINST : return Node.PROCESSING_INSTRUCTION_NODE;
+        }
+
+        throw new IllegalStateException( "Unexpected kind " + _xobj.kind() );
+    }
+
+    private boolean isNamed ( )
+    {
+        return _pos == NODE && (_xobj.isElem() || _xobj.isAttr() || _xobj.isProcinst());
+    }
+
+    /**
+     * The local name of an element or attribute, the target of a
+     * processing instruction, "" for the other nodes.
+     */
+
+    public String getLocalName ( )
+    {
+        return isNamed() ? _xobj._name.getLocalPart() : "";
+    }
+
+    public String getNamespaceURI ( )
+    {
+        return isNamed() ? _xobj._name.getNamespaceURI() : "";
+    }
+
+    public String getPrefix ( )
+    {
+        if (!isNamed())
+            return "";
+
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getPrefixImpl(); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getPrefixImpl(); } finally { l.exit(); } }
+    }
+
+    private String getPrefixImpl ( )
+    {
+        QName name = _xobj._name;
+
+        String prefix = name.getPrefix();
+        String uri = name.getNamespaceURI();
+
+        // Names made without a prefix may still need one to be written
+
+        if (prefix.length() == 0 && uri.length() > 0 && !_xobj.isProcinst())
+        {
+            Xobj base = _xobj.isAttr() ? _xobj._parent : _xobj;
+
+            if (base != null && (_xobj.isAttr() || !uri.equals( base.namespaceForPrefix( "", false ) )))
+            {
+                String found = base.prefixForNamespace( uri, null, false );
+
+                if (found != null)
+                    prefix = found;
+            }
+        }
+
+        return prefix;
+    }
+
+    public StoreNode getParent ( )
+    {
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getParentImpl(); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getParentImpl(); } finally { l.exit(); } }
+    }
+
+    private StoreNode getParentImpl ( )
+    {
+        if (_pos == VALUE_TEXT)
+            return new StoreNode( _xobj, NODE );
+
+        return _xobj._parent == null ? null : new StoreNode( _xobj._parent, NODE );
+    }
+
+    /**
+     * Returns the topmost ancestor of this node, usually the document.
+     */
+
+    public StoreNode getRoot ( )
+    {
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getRootImpl(); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getRootImpl(); } finally { l.exit(); } }
+    }
+
+    private StoreNode getRootImpl ( )
+    {
+        Xobj r = root( _xobj );
+
+        return r == _xobj && _pos == NODE ? this : new StoreNode( r, NODE );
+    }
+
+    private static Xobj root ( Xobj x )
+    {
+        while ( x._parent != null )
+            x = x._parent;
+
+        return x;
+    }
+
+    /**
+     * Returns the first child of a document or element, not counting
+     * attributes, or null.
+     */
+
+    public StoreNode getFirstChild ( )
+    {
+        if (_pos != NODE || !_xobj.isContainer())
+            return null;
+
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return firstChild( _xobj ); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return firstChild( _xobj ); } finally { l.exit(); } }
+    }
+
+    public boolean hasChildNodes ( )
+    {
+        return getFirstChild() != null;
+    }
+
+    private static StoreNode firstChild ( Xobj x )
+    {
+        x.ensureOccupancy();
+
+        // The text at the start of the content is the value of the
+        // container, or comes after its last attribute
+
+        if (x._cchValue > 0)
+            return new StoreNode( x, VALUE_TEXT );
+
+        Xobj lastAttr = x.lastAttr();
+
+        if (lastAttr == null)
+            return x._firstChild == null ? null : new StoreNode( x._firstChild, NODE );
+
+        if (lastAttr._cchAfter > 0)
+            return new StoreNode( lastAttr, AFTER_TEXT );
+
+        return lastAttr._nextSibling == null ? null : new StoreNode( lastAttr._nextSibling, NODE );
+    }
+
+    public StoreNode getNextSibling ( )
+    {
+        if (_pos == NODE && _xobj.isAttr())
+            return null;
+
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getNextSiblingImpl(); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getNextSiblingImpl(); } finally { l.exit(); } }
+    }
+
+    private StoreNode getNextSiblingImpl ( )
+    {
+        if (_pos == VALUE_TEXT)
+            return _xobj._firstChild == null ? null : new StoreNode( _xobj._firstChild, NODE );
+
+        if (_pos == NODE && _xobj._cchAfter > 0)
+            return new StoreNode( _xobj, AFTER_TEXT );
+
+        return _xobj._nextSibling == null ? null : new StoreNode( _xobj._nextSibling, NODE );
+    }
+
+    public StoreNode getPreviousSibling ( )
+    {
+        if (_pos == VALUE_TEXT || _xobj.isAttr())
+            return null;
+
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getPreviousSiblingImpl(); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getPreviousSiblingImpl(); } finally { l.exit(); } }
+    }
+
+    private StoreNode getPreviousSiblingImpl ( )
+    {
+        if (_pos == AFTER_TEXT)
+            return new StoreNode( _xobj, NODE );
+
+        Xobj prev = _xobj._prevSibling;
+
+        if (prev == null)
+        {
+            Xobj parent = _xobj._parent;
+
+            return parent != null && parent._cchValue > 0 ? new StoreNode( parent, VALUE_TEXT ) : null;
+        }
+
+        if (prev._cchAfter > 0)
+            return new StoreNode( prev, AFTER_TEXT );
+
+        return prev.isAttr() ? null : new StoreNode( prev, NODE );
+    }
+
+    /**
+     * Returns the first attribute of an element, or null.  Namespace
+     * declarations are not attributes here.
+     */
+
+    public StoreNode getFirstAttribute ( )
+    {
+        if (_pos != NODE || !_xobj.isElem())
+            return null;
+
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return normalAttr( _xobj._firstChild ); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return normalAttr( _xobj._firstChild ); } finally { l.exit(); } }
+    }
+
+    /**
+     * Returns the attribute after this one on the same element, or null.
+     */
+
+    public StoreNode getNextAttribute ( )
+    {
+        if (_pos != NODE || !_xobj.isAttr())
+            return null;
+
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return normalAttr( _xobj._nextSibling ); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return normalAttr( _xobj._nextSibling ); } finally { l.exit(); } }
+    }
+
+    private static StoreNode normalAttr ( Xobj a )
+    {
+        for ( ; a != null && a.isAttr() ; a = a._nextSibling )
+            if (a.isNormalAttr())
+                return new StoreNode( a, NODE );
+
+        return null;
+    }
+
+    /**
+     * Returns the value of the attribute of this element with the given
+     * name, or null if there is no such attribute.
+     */
+
+    public String getAttributeValue ( String uri, String local )
+    {
+        if (_pos != NODE || !_xobj.isElem())
+            return null;
+
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getAttributeValueImpl( uri, local ); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getAttributeValueImpl( uri, local ); } finally { l.exit(); } }
+    }
+
+    private String getAttributeValueImpl ( String uri, String local )
+    {
+        for ( Xobj a = _xobj._firstChild ; a != null && a.isAttr() ; a = a._nextSibling )
+        {
+            if (a.isNormalAttr() && a._name.getLocalPart().equals( local ) &&
+                    a._name.getNamespaceURI().equals( uri ))
+            {
+                return valueText( a );
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the namespaces declared on this element as pairs of
+     * prefix and uri, the default namespace having the prefix "".
+     */
+
+    public String[] getNamespaceDeclarations ( )
+    {
+        if (_pos != NODE || !_xobj.isElem())
+            return EMPTY_DECLARATIONS;
+
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getNamespaceDeclarationsImpl(); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getNamespaceDeclarationsImpl(); } finally { l.exit(); } }
+    }
+
+    private String[] getNamespaceDeclarationsImpl ( )
+    {
+        ArrayList decls = null;
+
+        for ( Xobj a = _xobj._firstChild ; a != null && a.isAttr() ; a = a._nextSibling )
+        {
+            if (a.isXmlns())
+            {
+                if (decls == null)
+                    decls = new ArrayList();
+
+                decls.add( a.getXmlnsPrefix() );
+                decls.add( valueText( a ) );
+            }
+        }
+
+        return decls == null ? EMPTY_DECLARATIONS : (String[]) decls.toArray( new String[ decls.size() ] );
+    }
+
+    /**
+     * Returns the XPath string value of this node : the text of all the
+     * text descendants of a document or element, the value of an
+     * attribute, comment or processing instruction and the text itself
+     * of text.
+     */
+
+    public String getStringValue ( )
+    {
+        Locale l = _xobj._locale;
+
+        if (l.noSync())         { l.enter(); try { return getStringValueImpl(); } finally { l.exit(); } }
+        else synchronized ( l ) { l.enter(); try { return getStringValueImpl(); } finally { l.exit(); } }
+    }
+
+    private String getStringValueImpl ( )
+    {
+        if (_pos == VALUE_TEXT)
+            return valueText( _xobj );
+
+        if (_pos == AFTER_TEXT)
+            return _xobj.getCharsAsString( _xobj.posAfter(), -1, Locale.WS_PRESERVE );
+
+        if (!_xobj.isContainer())
+            return valueText( _xobj );
+
+        StringBuffer sb = new StringBuffer();
+
+        // Walk the descendants in document order, taking the value text of
+        // the containers and the text after each node
+
+        for ( Xobj x = _xobj ; ; )
+        {
+            if (x.isContainer())
+            {
+                x.ensureOccupancy();
+
+                if (x._cchValue > 0)
+                    sb.append( x.getCharsAsString( 1, -1, Locale.WS_PRESERVE ) );
+
+                if (x._firstChild != null)
+                {
+                    x = x._firstChild;
+                    continue;
+                }
+            }
+
+            for ( ; ; )
+            {
+                if (x == _xobj)
+                    return sb.toString();
+
+                if (x._cchAfter > 0)
+                    sb.append( x.getCharsAsString( x.posAfter(), -1, Locale.WS_PRESERVE ) );
+
+                if (x._nextSibling != null)
+                {
+                    x = x._nextSibling;
+                    break;
+                }
+
+                x = x._parent;
+            }
+        }
+    }
+
+    private static String valueText ( Xobj x )
+    {
+        x.ensureOccupancy();
+
+        return x.getCharsAsString( 1, -1, Locale.WS_PRESERVE );
+    }
+
+    public boolean equals ( Object o )
+    {
+        if (!(o instanceof StoreNode))
+            return false;
+
+        StoreNode n = (StoreNode) o;
+
+        return n._xobj == _xobj && n._pos == _pos;
+    }
+
+    public int hashCode ( )
+    {
+        return System.identityHashCode( _xobj ) * 3 + _pos + 1;
+    }
+
+    /**
+     * Numbers the nodes of a tree in document order.  The numbers are
+     * made the first time they are asked for, and made again after the
+     * tree changes, so they stay the same as long as the tree does.
+     */
+
+    public static final class Numbering
+    {
+        /**
+         * Returns the position of a node in the document order of its
+         * tree.  Attributes come after their element and before its
+         * content.
+         */
+
+        public int getNumber ( StoreNode n )
+        {
+            Locale l = n._xobj._locale;
+
+            if (l.noSync())         { l.enter(); try { return number( n ); } finally { l.exit(); } }
+            else synchronized ( l ) { l.enter(); try { return number( n ); } finally { l.exit(); } }
+        }
+
+        /**
+         * Compares the document order of two nodes, returning -1, 0 or 1.
+         * Nodes of different trees are in an arbitrary but stable order.
+         */
+
+        public int compare ( StoreNode a, StoreNode b )
+        {
+            if (a.equals( b ))
+                return 0;
+
+            Locale l = a._xobj._locale;
+
+            if (l != b._xobj._locale)
+                return System.identityHashCode( l ) < System.identityHashCode( b._xobj._locale ) ? -1 : 1;
+
+            if (l.noSync())         { l.enter(); try { return compareImpl( a, b ); } finally { l.exit(); } }
+            else synchronized ( l ) { l.enter(); try { return compareImpl( a, b ); } finally { l.exit(); } }
+        }
+
+        private int compareImpl ( StoreNode a, StoreNode b )
+        {
+            Xobj ra = root( a._xobj );
+            Xobj rb = root( b._xobj );
+
+            if (ra != rb)
+                return System.identityHashCode( ra ) < System.identityHashCode( rb ) ? -1 : 1;
+
+            int na = number( a );
+            int nb = number( b );
+
+            return na < nb ? -1 : na > nb ? 1 : 0;
+        }
+
+        private int number ( StoreNode n )
+        {
+            Xobj x = n._xobj;
+            Xobj r = root( x );
+
+            if (r != _root || _version != x._locale._versionAll)
+                renumber( r );
+
+            int i = find( x ) * 2;
+
+            assert _keys[ i / 2 ] == x;
+
+            return n._pos == NODE ? _numbers[ i ] : n._pos == VALUE_TEXT ? _numbers[ i ] + 1 : _numbers[ i + 1 ];
+        }
+
+        private void renumber ( Xobj r )
+        {
+            _root = r;
+            _version = r._locale._versionAll;
+            _count = 0;
+            _keys = new Xobj[ 64 ];
+            _numbers = new int[ 128 ];
+
+            // Each Xobj gets a number for itself and one for its value
+            // text, then its children are numbered, then its after text
+
+            int number = 0;
+
+            for ( Xobj x = r ; ; )
+            {
+                int i = add( x ) * 2;
+
+                _numbers[ i ] = number;
+                number += 2;
+
+                if (x._firstChild != null)
+                {
+                    x = x._firstChild;
+                    continue;
+                }
+
+                for ( ; ; )
+                {
+                    _numbers[ find( x ) * 2 + 1 ] = number++;
+
+                    if (x == r)
+                        return;
+
+                    if (x._nextSibling != null)
+                    {
+                        x = x._nextSibling;
+                        break;
+                    }
+
+                    x = x._parent;
+                }
+            }
+        }
+
+        // An open addressed identity map from Xobj to its two numbers,
+        // lighter than an IdentityHashMap of boxed numbers for big trees
+
+        private int find ( Xobj x )
+        {
+            int mask = _keys.length - 1;
+            int i = System.identityHashCode( x ) & mask;
+
+            while ( _keys[ i ] != null && _keys[ i ] != x )
+                i = (i + 1) & mask;
+
+            return i;
+        }
+
+        private int add ( Xobj x )
+        {
+            if (_count * 2 >= _keys.length)
+            {
+                Xobj[] keys = _keys;
+                int[] numbers = _numbers;
+
+                _keys = new Xobj[ keys.length * 2 ];
+                _numbers = new int[ numbers.length * 2 ];
+
+                for ( int j = 0 ; j < keys.length ; j++ )
+                {
+                    if (keys[ j ] != null)
+                    {
+                        int i = find( keys[ j ] );
+
+                        _keys[ i ] = keys[ j ];
+                        _numbers[ i * 2 ] = numbers[ j * 2 ];
+                        _numbers[ i * 2 + 1 ] = numbers[ j * 2 + 1 ];
+                    }
+                }
+            }
+
+            int i = find( x );
+
+            _keys[ i ] = x;
+            _count++;
+
+            return i;
+        }
+
+        private Xobj   _root;
+        private long   _version;
+        private Xobj[] _keys;
+        private int[]  _numbers;
+        private int    _count;
+    }
+
+    private static final int NODE       = 0;
+    private static final int VALUE_TEXT = 1;
+    private static final int AFTER_TEXT = 2;
+
+    private static final String[] EMPTY_DECLARATIONS = new String[ 0 ];
+
+    private final Xobj _xobj;
+    private final int  _pos;
+}
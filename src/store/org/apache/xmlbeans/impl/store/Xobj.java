@@ -605,6 +605,8 @@ abstract class Xobj implements TypeStore
 
             _locale._versionAll++;
             _locale._versionSansText++;
+
+            _locale.invalidateSaved( this );
         }
     }
 
@@ -1026,6 +1028,8 @@ abstract class Xobj implements TypeStore
             _offValue = cu._offSrc;
             _cchValue = cu._cchSrc;
 
+            _locale.invalidateSaved( this );
+
             if (invalidate)
             {
                 invalidateUser();
@@ -1038,6 +1042,8 @@ abstract class Xobj implements TypeStore
             _offAfter = cu._offSrc;
             _cchAfter = cu._cchSrc;
 
+            _locale.invalidateSaved( _parent );
+
             if (invalidate && _parent != null)
                 _parent.invalidateUser();
         }
@@ -1083,6 +1089,8 @@ abstract class Xobj implements TypeStore
             _offValue = cu._offSrc;
             _cchValue = cu._cchSrc;
 
+            _locale.invalidateSaved( this );
+
             if (invalidate)
             {
                 invalidateUser();
@@ -1095,6 +1103,8 @@ abstract class Xobj implements TypeStore
             _offAfter = cu._offSrc;
             _cchAfter = cu._cchSrc;
 
+            _locale.invalidateSaved( _parent );
+
             if (invalidate && _parent != null)
                 _parent.invalidateUser();
         }
@@ -1768,15 +1778,47 @@ abstract class Xobj implements TypeStore
 
     public boolean is_attribute    ( ) { assert isValid(); return isAttr();               }
     public boolean validate_on_set ( ) { assert isValid(); return _locale._validateOnSet; }
+    public boolean is_read_only    ( ) { assert isValid(); return _locale.isReadOnly();    }
+    public boolean is_concurrent_read ( ) { return isConcurrentRead(); }
+
+    final boolean isConcurrentRead ( ) { return _locale.isConcurrentRead( this ); }
+
+    public void freeze ( )
+    {
+        if (isConcurrentRead())
+            return;
+
+        _locale.enter();
+
+        try
+        {
+            Xobj root = this;
+
+            while ( root._parent != null )
+                root = root._parent;
+
+            _locale.freeze( root );
+        }
+        finally
+        {
+            _locale.exit();
+        }
+    }
 
     public void invalidate_text ( )
     {
+        _locale.checkWritable();
+
         _locale.enter();
 
         try
         {
             assert isValid();
 
+            // The value is saved from the user from now on
+
+            _locale.invalidateSaved( this );
+
             if (isOccupied())
             {
                 if (hasTextNoEnsureOccupancy() || hasChildren())
@@ -1804,6 +1846,19 @@ abstract class Xobj implements TypeStore
     }
 
     public String fetch_text ( int wsr )
+    {
+        if (isConcurrentRead())
+        {
+            synchronized ( _locale )
+            {
+                return fetchText( wsr );
+            }
+        }
+
+        return fetchText( wsr );
+    }
+
+    private String fetchText ( int wsr )
     {
         _locale.enter();
 
@@ -1820,6 +1875,19 @@ abstract class Xobj implements TypeStore
     }
 
     public XmlCursor new_cursor ( )
+    {
+        if (isConcurrentRead())
+        {
+            synchronized ( _locale )
+            {
+                return newCursor( );
+            }
+        }
+
+        return newCursor( );
+    }
+
+    private XmlCursor newCursor ( )
     {
         _locale.enter();
 
@@ -1869,6 +1937,19 @@ abstract class Xobj implements TypeStore
     }
 
     public void validate ( ValidatorListener eventSink )
+    {
+        if (isConcurrentRead())
+        {
+            synchronized ( _locale )
+            {
+                validateNow( eventSink );
+            }
+        }
+        else
+            validateNow( eventSink );
+    }
+
+    private void validateNow ( ValidatorListener eventSink )
     {
         _locale.enter();
 
@@ -1886,6 +1967,11 @@ abstract class Xobj implements TypeStore
 
     public TypeStoreUser change_type ( SchemaType type )
     {
+        if (isConcurrentRead())
+            throw new IllegalStateException( "Cannot change the type of a document open to concurrent reads" );
+
+        _locale.checkWritable();
+
         _locale.enter();
 
         try
@@ -1904,6 +1990,11 @@ abstract class Xobj implements TypeStore
 
     public TypeStoreUser substitute ( QName name, SchemaType type )
     {
+        if (isConcurrentRead())
+            throw new IllegalStateException( "Cannot change the type of a document open to concurrent reads" );
+
+        _locale.checkWritable();
+
         _locale.enter();
 
         try
@@ -1927,6 +2018,8 @@ abstract class Xobj implements TypeStore
 
     public void store_text ( String text )
     {
+        _locale.checkWritable();
+
         _locale.enter();
 
         TypeStoreUser user = _user;
@@ -2020,6 +2113,19 @@ abstract class Xobj implements TypeStore
     }
 
     public boolean find_nil ( )
+    {
+        if (isConcurrentRead())
+        {
+            synchronized ( _locale )
+            {
+                return findNil( );
+            }
+        }
+
+        return findNil( );
+    }
+
+    private boolean findNil ( )
     {
         if (isAttr())
             return false;
@@ -2045,6 +2151,8 @@ abstract class Xobj implements TypeStore
 
     public void invalidate_nil ( )
     {
+        _locale.checkWritable();
+
         if (isAttr())
             return;
 
@@ -2075,24 +2183,60 @@ abstract class Xobj implements TypeStore
 
     public TypeStoreUser find_element_user ( QName name, int i )
     {
-        for ( Xobj x = _firstChild ; x != null ; x = x._nextSibling )
-            if (x.isElem() && x._name.equals( name ) && --i < 0)
-                return x.getUser();
-
-        return null;
+        return find_element_user( name, null, i );
     }
 
     public TypeStoreUser find_element_user ( QNameSet names, int i )
     {
-        for ( Xobj x = _firstChild ; x != null ; x = x._nextSibling )
-            if (x.isElem() && names.contains( x._name ) && --i < 0)
-                return x.getUser();
+        return find_element_user( null, names, i );
+    }
 
-        return null;
+    private TypeStoreUser find_element_user ( QName name, QNameSet names, int i )
+    {
+        ChildIndex index = _locale.childIndex( this, false );
+
+        if (index == null)
+        {
+            int elems = 0;
+            int n = i;
+
+            for ( Xobj x = _firstChild ; x != null ; x = x._nextSibling )
+            {
+                if (!x.isElem())
+                    continue;
+
+                if ((names == null ? x._name.equals( name ) : names.contains( x._name )) && --n < 0)
+                    return x.getUser();
+
+                // Past this many elements, looking for the i'th by walking
+                // the siblings on every call gets quadratic for the caller
+
+                if (++elems > Locale.CHILD_INDEX_THRESHOLD)
+                {
+                    index = _locale.childIndex( this, true );
+                    break;
+                }
+            }
+
+            if (index == null)
+                return null;
+        }
+
+        Xobj x = index.nth( name, names, i );
+
+        return x == null ? null : x.getUser();
     }
 
     public void find_all_element_users ( QName name, List fillMeUp )
     {
+        ChildIndex index = _locale.childIndex( this, false );
+
+        if (index != null)
+        {
+            addUsers( index.children( name, null ), fillMeUp );
+            return;
+        }
+
         for ( Xobj x = _firstChild ; x != null ; x = x._nextSibling )
             if (x.isElem() && x._name.equals( name ))
                 fillMeUp.add( x.getUser() );
@@ -2100,11 +2244,25 @@ abstract class Xobj implements TypeStore
 
     public void find_all_element_users ( QNameSet names, List fillMeUp )
     {
+        ChildIndex index = _locale.childIndex( this, false );
+
+        if (index != null)
+        {
+            addUsers( index.children( null, names ), fillMeUp );
+            return;
+        }
+
         for ( Xobj x = _firstChild ; x != null ; x = x._nextSibling )
             if (x.isElem() && names.contains( x._name ))
                 fillMeUp.add( x.getUser() );
     }
 
+    private static void addUsers ( Xobj[] xs, List fillMeUp )
+    {
+        for ( int i = 0 ; i < xs.length ; i++ )
+            fillMeUp.add( xs[ i ].getUser() );
+    }
+
     private static TypeStoreUser insertElement ( QName name, Xobj x, int pos )
     {
         x._locale.enter();
@@ -2126,6 +2284,8 @@ abstract class Xobj implements TypeStore
 
     public TypeStoreUser insert_element_user ( QName name, int i )
     {
+        _locale.checkWritable();
+
         if (i < 0)
             throw new IndexOutOfBoundsException();
 
@@ -2147,6 +2307,8 @@ abstract class Xobj implements TypeStore
 
     public TypeStoreUser insert_element_user ( QNameSet names, QName name, int i )
     {
+        _locale.checkWritable();
+
         if (i < 0)
             throw new IndexOutOfBoundsException();
 
@@ -2168,6 +2330,8 @@ abstract class Xobj implements TypeStore
 
     public TypeStoreUser add_element_user ( QName name )
     {
+        _locale.checkWritable();
+
         if (!isContainer())
             throw new IllegalStateException();
 
@@ -2221,6 +2385,8 @@ abstract class Xobj implements TypeStore
 
     public void remove_element ( QName name, int i )
     {
+        _locale.checkWritable();
+
         if (i < 0)
             throw new IndexOutOfBoundsException();
 
@@ -2238,6 +2404,8 @@ abstract class Xobj implements TypeStore
 
     public void remove_element ( QNameSet names, int i )
     {
+        _locale.checkWritable();
+
         if (i < 0)
             throw new IndexOutOfBoundsException();
 
@@ -2262,6 +2430,8 @@ abstract class Xobj implements TypeStore
 
     public TypeStoreUser add_attribute_user ( QName name )
     {
+        _locale.checkWritable();
+
         if (getAttr( name ) != null)
             throw new IndexOutOfBoundsException();
 
@@ -2279,6 +2449,8 @@ abstract class Xobj implements TypeStore
 
     public void remove_attribute ( QName name )
     {
+        _locale.checkWritable();
+
         _locale.enter();
 
         try
@@ -2299,6 +2471,24 @@ abstract class Xobj implements TypeStore
         if (xSrc == this)
             return getUser();
 
+        _locale.checkWritable();
+
+        // The source may be open to concurrent reads, in which case the
+        // caller does not hold its lock
+
+        if (xSrc._locale != _locale && xSrc.isConcurrentRead())
+        {
+            synchronized ( xSrc._locale )
+            {
+                return copyContentsFrom( xSrc );
+            }
+        }
+
+        return copyContentsFrom( xSrc );
+    }
+
+    private TypeStoreUser copyContentsFrom ( Xobj xSrc )
+    {
         _locale.enter();
 
         try
@@ -2387,7 +2577,8 @@ abstract class Xobj implements TypeStore
             sType = type == null ? XmlObject.type : type;
 
         Locale locale = this.locale();
-        if ( Boolean.TRUE.equals(options.get(XmlOptions.COPY_USE_NEW_SYNC_DOMAIN)) )
+        if ( Boolean.TRUE.equals(options.get(XmlOptions.COPY_USE_NEW_SYNC_DOMAIN)) ||
+             locale.isReadOnly() )
             locale = Locale.getLocale(stl, options);
 
         if (sType.isDocumentType() || (sType.isNoType() && (this instanceof Xobj.DocumentXobj)))
@@ -2414,6 +2605,8 @@ abstract class Xobj implements TypeStore
 
     public void array_setter ( XmlObject[] sources, QName elementName )
     {
+        _locale.checkWritable();
+
         _locale.enter();
 
         try
@@ -2515,6 +2708,19 @@ abstract class Xobj implements TypeStore
     }
 
     public XmlObject[] exec_query ( String queryExpr, XmlOptions options ) throws XmlException
+    {
+        if (isConcurrentRead())
+        {
+            synchronized ( _locale )
+            {
+                return execQuery( queryExpr, options );
+            }
+        }
+
+        return execQuery( queryExpr, options );
+    }
+
+    private XmlObject[] execQuery ( String queryExpr, XmlOptions options ) throws XmlException
     {
         _locale.enter();
 
@@ -2535,6 +2741,19 @@ abstract class Xobj implements TypeStore
     }
 
     public String find_prefix_for_nsuri ( String nsuri, String suggested_prefix )
+    {
+        if (isConcurrentRead())
+        {
+            synchronized ( _locale )
+            {
+                return findPrefixForNsuri( nsuri, suggested_prefix );
+            }
+        }
+
+        return findPrefixForNsuri( nsuri, suggested_prefix );
+    }
+
+    private String findPrefixForNsuri ( String nsuri, String suggested_prefix )
     {
         _locale.enter();
 
@@ -16,6 +16,7 @@
 package org.apache.xmlbeans.impl.schema;
 
 import org.apache.xmlbeans.impl.common.QNameHelper;
+import org.apache.xmlbeans.impl.common.MappedXmlReader;
 import org.apache.xmlbeans.impl.validator.ValidatingXMLInputStream;
 
 import org.apache.xmlbeans.impl.store.Locale;
@@ -44,6 +45,7 @@ import java.io.FileInputStream;
 import java.util.List;
 import java.util.ArrayList;
 import java.net.URL;
+import java.nio.charset.CharacterCodingException;
 import java.net.URLConnection;
 import java.net.HttpURLConnection;
 import java.security.DigestInputStream;
@@ -245,6 +247,29 @@ public abstract class SchemaTypeLoaderBase implements SchemaTypeLoader
             options.put( XmlOptions.DOCUMENT_SOURCE_NAME, file.toURI().normalize().toString() );
         }
 
+        if (options.hasOption( XmlOptions.LOAD_MAP_FILE ) &&
+            !options.hasOption( XmlOptions.LOAD_MESSAGE_DIGEST ))
+        {
+            // The digest is of the bytes, which only the stream sees
+
+            MappedXmlReader mr = new MappedXmlReader( file );
+
+            try
+            {
+                return parse( mr, type, options );
+            }
+            catch ( CharacterCodingException e )
+            {
+                throw new XmlException(
+                    "Invalid " + mr.getXmlEncoding() + " byte sequence in " +
+                        options.get( XmlOptions.DOCUMENT_SOURCE_NAME ), e );
+            }
+            finally
+            {
+                mr.close();
+            }
+        }
+
         InputStream fis = new FileInputStream( file );
 
         try
@@ -350,6 +375,11 @@ public abstract class SchemaTypeLoaderBase implements SchemaTypeLoader
         return result;
     }
 
+    public XmlObject parseBinary ( InputStream is, SchemaType type, XmlOptions options ) throws XmlException, IOException
+    {
+        return Locale.parseBinaryToXmlObject( this, is, type, options );
+    }
+
     public XmlObject parse ( Reader jior, SchemaType type, XmlOptions options ) throws XmlException, IOException
     {
         XmlFactoryHook hook = XmlFactoryHook.ThreadContext.getHook();
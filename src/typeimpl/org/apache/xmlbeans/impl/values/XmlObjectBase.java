@@ -33,8 +33,11 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.lang.reflect.Array;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Date;
 import java.util.List;
 import java.util.Arrays;
@@ -87,12 +90,35 @@ import org.xml.sax.SAXException;
 public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlObject, SimpleValue
 {
     public static final short MAJOR_VERSION_NUMBER = (short) 1; // for serialization
-    public static final short MINOR_VERSION_NUMBER = (short) 1; // for serialization
+    public static final short MINOR_VERSION_NUMBER = (short) 2; // for serialization
 
     public static final short KIND_SETTERHELPER_SINGLETON = 1;
     public static final short KIND_SETTERHELPER_ARRAYITEM = 2;
 
     public final Object monitor()
+    {
+        if (has_store())
+        {
+            TypeStore store = get_store();
+
+            // The getters of a document open to concurrent reads only look at
+            // state which was settled before it was opened, so there is
+            // nothing to share a lock over.
+            if (store.is_concurrent_read())
+                return new Object();
+
+            return store.get_locale();
+        }
+        return this;
+    }
+
+    /**
+     * The lock of the underlying store.  This is the same as monitor()
+     * except for documents open to concurrent reads, and is used where the
+     * store of another object is involved, so that the two locks are
+     * always taken in the same way.
+     */
+    private Object store_monitor()
     {
         if (has_store())
             return get_store().get_locale();
@@ -198,6 +224,12 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
     public InputStream newInputStream(XmlOptions options)
         { XmlCursor cur = newCursorForce(); try { return cur.newInputStream(makeInnerOptions(options)); } finally { cur.dispose(); } }
 
+    public ReadableByteChannel newChannel()
+        { return newChannel(null); }
+
+    public ReadableByteChannel newChannel(XmlOptions options)
+        { XmlCursor cur = newCursorForce(); try { return cur.newChannel(makeInnerOptions(options)); } finally { cur.dispose(); } }
+
     public Reader newReader()
         { return newReader(null); }
 
@@ -222,6 +254,12 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
     public void save(OutputStream os, XmlOptions options) throws IOException
         { XmlCursor cur = newCursorForce(); try { cur.save(os, makeInnerOptions(options)); } finally { cur.dispose(); } }
 
+    public void save(WritableByteChannel channel, XmlOptions options) throws IOException
+        { XmlCursor cur = newCursorForce(); try { cur.save(channel, makeInnerOptions(options)); } finally { cur.dispose(); } }
+
+    public void saveBinary(OutputStream os, XmlOptions options) throws IOException
+        { XmlCursor cur = newCursorForce(); try { cur.saveBinary(os, makeInnerOptions(options)); } finally { cur.dispose(); } }
+
     public void save(Writer w, XmlOptions options) throws IOException
         { XmlCursor cur = newCursorForce(); try { cur.save(w, makeInnerOptions(options)); } finally { cur.dispose(); } }
 
@@ -234,6 +272,12 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
     public void save(OutputStream os) throws IOException
         { save( os, null ); }
 
+    public void save(WritableByteChannel channel) throws IOException
+        { save( channel, null ); }
+
+    public void saveBinary(OutputStream os) throws IOException
+        { saveBinary( os, null ); }
+
     public void save(Writer w) throws IOException
         { save( w, null ); }
 
@@ -783,6 +827,27 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         return (_flags & FLAG_IMMUTABLE) != 0;
     }
 
+    public void freeze()
+    {
+        if (has_store())
+        {
+            synchronized (store_monitor())
+            {
+                check_orphaned();
+                get_store().freeze();
+            }
+        }
+        else if (!isImmutable())
+            setImmutable();
+    }
+
+    public boolean isFrozen()
+    {
+        if (has_store())
+            return get_store().is_concurrent_read();
+        return isImmutable();
+    }
+
 
 
 
@@ -1325,6 +1390,26 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         }
     }
 
+    /**
+     * Called by a TypeStore before it is opened to concurrent reads, to
+     * settle all of the state which is otherwise computed lazily by the
+     * getters.  A value which is not valid for its type is left dated, and
+     * keeps failing when it is read.
+     */
+    public final void precompute_value()
+    {
+        try
+        {
+            check_dated();
+        }
+        catch (XmlValueOutOfRangeException e)
+        {
+        }
+        catch (XmlValueNotNillableException e)
+        {
+        }
+    }
+
     /**
      * Called before every set operation (except for the
      * special case of setting a string) to:
@@ -1336,6 +1421,8 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         check_element_dated();
         if ((_flags & FLAG_IMMUTABLE) != 0)
             throw new IllegalStateException();
+        if ((_flags & FLAG_STORE) != 0 && get_store().is_read_only())
+            throw new IllegalStateException("Cannot modify a read-only document");
     }
 
     /**
@@ -2019,13 +2106,13 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
             boolean noSyncThis = preCheck();
             boolean noSyncObj  = obj.preCheck();
 
-            if (monitor() == obj.monitor())             // both are in the same locale
+            if (store_monitor() == obj.store_monitor()) // both are in the same locale
             {
                 if (noSyncThis)                         // the locale is not sync
                     newObj = setterHelper( obj );
                 else                                    // the locale is sync
                 {
-                    synchronized (monitor()) {
+                    synchronized (store_monitor()) {
                         newObj = setterHelper( obj );
                     }
                 }
@@ -2040,7 +2127,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                     }
                     else                                // only obj is sync
                     {
-                        synchronized (obj.monitor()) {
+                        synchronized (obj.store_monitor()) {
                             newObj = setterHelper( obj );
                         }
                     }
@@ -2049,7 +2136,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                 {
                     if (noSyncObj)                      // only this is sync
                     {
-                        synchronized (monitor()) {
+                        synchronized (store_monitor()) {
                             newObj = setterHelper( obj );
                         }
                     }
@@ -2063,9 +2150,9 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                             GlobalLock.acquire();
                             acquired = true;
 
-                            synchronized (monitor())
+                            synchronized (store_monitor())
                             {
-                                synchronized (obj.monitor())
+                                synchronized (obj.store_monitor())
                                 {
                                     GlobalLock.release();
                                     acquired = false;
@@ -2121,7 +2208,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         boolean noSyncThis = preCheck();
         boolean noSyncObj  = srcObj.preCheck();
 
-        if (monitor() == srcObj.monitor())             // both are in the same locale
+        if (store_monitor() == srcObj.store_monitor()) // both are in the same locale
         {
             if (noSyncThis)                         // the locale is not sync
             {
@@ -2129,7 +2216,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
             }
             else                                    // the locale is sync
             {
-                synchronized (monitor())
+                synchronized (store_monitor())
                 {
                     return (XmlObject)objSetterHelper(srcObj, propName, index, kindSetterHelper);
                 }
@@ -2145,7 +2232,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
             }
             else                                // only obj is sync
             {
-                synchronized (srcObj.monitor())
+                synchronized (srcObj.store_monitor())
                 {
                     return (XmlObject)objSetterHelper(srcObj, propName, index, kindSetterHelper);
                 }
@@ -2155,7 +2242,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         {
             if (noSyncObj)                      // only this is sync
             {
-                synchronized (monitor())
+                synchronized (store_monitor())
                 {
                     return (XmlObject)objSetterHelper(srcObj, propName, index, kindSetterHelper);
                 }
@@ -2170,9 +2257,9 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                     GlobalLock.acquire();
                     acquired = true;
 
-                    synchronized (monitor())
+                    synchronized (store_monitor())
                     {
-                        synchronized (srcObj.monitor())
+                        synchronized (srcObj.store_monitor())
                         {
                             GlobalLock.release();
                             acquired = false;
@@ -2808,7 +2895,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
      *
      * (1) Only the root XmlObject for a document actually gets
      *     fully serialized; it is serialized as a SerializedRootObject,
-     *     which simply saves itself as XML text.
+     *     which saves itself in the binary form of saveBinary.
      *
      * (2) Interior XmlObjects get serialized as a reference to the
      *     root XmlObject for their document, plus an integer which
@@ -2890,11 +2977,13 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
             out.writeShort((short)0);
             out.writeShort(MAJOR_VERSION_NUMBER);
             out.writeShort(MINOR_VERSION_NUMBER);
-            // CR122401 - need to use writeObject instead of writeUTF
-            // for xmlText as writeUTF has a length limitation of
-            // 65535 bytes
-            String xmlText = _impl.xmlText();
-            out.writeObject(xmlText);
+            // since 1.2 the document is written in its binary form,
+            // which is loaded without being parsed again, as the
+            // length of the bytes followed by the bytes
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            _impl.saveBinary(bytes);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
             out.writeBoolean(false);
         }
 
@@ -2923,6 +3012,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                 }
 
                 String xmlText = null;
+                byte[] binary = null;
                 switch (majorVersionNum)
                 {
                     case 0: // original, unnumbered version
@@ -2939,6 +3029,12 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                                 in.readBoolean(); // ignored
                                 break;
 
+                            case 2:
+                                binary = new byte[in.readInt()];
+                                in.readFully(binary);
+                                in.readBoolean(); // ignored
+                                break;
+
                             default:
                                 throw new IOException("Deserialization error: " +
                                         "version number " + majorVersionNum + "." +
@@ -2953,7 +3049,10 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                 }
 
                 XmlOptions opts = new XmlOptions().setDocumentType(XmlBeans.typeForClass(_xbeanClass));
-                _impl = XmlBeans.getContextTypeLoader().parse(xmlText, null, opts);
+                if (binary != null)
+                    _impl = XmlBeans.getContextTypeLoader().parseBinary(new ByteArrayInputStream(binary), null, opts);
+                else
+                    _impl = XmlBeans.getContextTypeLoader().parse(xmlText, null, opts);
             }
             catch (Exception e)
             {
@@ -123,6 +123,25 @@ public interface TypeStore extends NamespaceManager
      */
     boolean validate_on_set();
 
+    /**
+     * Tells if the store containing this TypeStore is read-only, in which
+     * case the strongly typed objects must refuse to be set.
+     */
+    boolean is_read_only();
+
+    /**
+     * Tells if the store containing this TypeStore is open to concurrent
+     * reads.  Such a store is read-only and all of its users have been
+     * settled, so the getters of the strongly typed objects need no lock.
+     */
+    boolean is_concurrent_read();
+
+    /**
+     * Makes the store containing this TypeStore read-only and opens it to
+     * concurrent reads, settling all of its users first.
+     */
+    void freeze();
+
     /**
      * Here the typestore is resposible for finding the schema field for
      * this object. This is done by
@@ -101,6 +101,13 @@ public interface TypeStoreUser
      */
     void validate_now();
 
+    /**
+     * A store will call precompute_value before it is opened to concurrent
+     * reads, to have us compute now anything we would otherwise fetch
+     * lazily from the store.  Invalid text must not cause an exception.
+     */
+    void precompute_value();
+
     /**
      * A store calls back on this call in order to force a disconnect.
      * After this is done, the object should be considered invalid.
@@ -23,6 +23,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.math.BigInteger;
 import java.math.BigDecimal;
 import java.util.Calendar;
@@ -107,6 +109,16 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         return underlyingXmlObject().isImmutable();
     }
 
+    public void freeze()
+    {
+        underlyingXmlObject().freeze();
+    }
+
+    public boolean isFrozen()
+    {
+        return underlyingXmlObject().isFrozen();
+    }
+
     public XmlObject set(XmlObject srcObj)
     {
         return underlyingXmlObject().set(srcObj);
@@ -180,6 +192,11 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         return underlyingXmlObject().newInputStream();
     }
 
+    public ReadableByteChannel newChannel()
+    {
+        return underlyingXmlObject().newChannel();
+    }
+
     public Reader newReader()
     {
         return underlyingXmlObject().newReader();
@@ -210,6 +227,16 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         underlyingXmlObject().save(os);
     }
 
+    public void save(WritableByteChannel channel) throws IOException
+    {
+        underlyingXmlObject().save(channel);
+    }
+
+    public void saveBinary(OutputStream os) throws IOException
+    {
+        underlyingXmlObject().saveBinary(os);
+    }
+
     public void save(Writer w) throws IOException
     {
         underlyingXmlObject().save(w);
@@ -238,6 +265,11 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         return underlyingXmlObject().newInputStream(options);
     }
 
+    public ReadableByteChannel newChannel(XmlOptions options)
+    {
+        return underlyingXmlObject().newChannel(options);
+    }
+
     public Reader newReader(XmlOptions options)
     {
         return underlyingXmlObject().newReader(options);
@@ -263,6 +295,16 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         underlyingXmlObject().save(os, options);
     }
 
+    public void save(WritableByteChannel channel, XmlOptions options) throws IOException
+    {
+        underlyingXmlObject().save(channel, options);
+    }
+
+    public void saveBinary(OutputStream os, XmlOptions options) throws IOException
+    {
+        underlyingXmlObject().saveBinary(os, options);
+    }
+
     public void save(Writer w, XmlOptions options) throws IOException
     {
         underlyingXmlObject().save(w, options);
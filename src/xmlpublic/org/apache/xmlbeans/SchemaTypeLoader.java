@@ -154,6 +154,8 @@ public interface SchemaTypeLoader
      * @deprecated Deprecated by XMLStreamReader from STaX - jsr173 API.
      */
     public XmlObject parse ( XMLInputStream xis, SchemaType type, XmlOptions options ) throws XmlException, XMLStreamException;
+    /** Loads an instance of the given type from the binary form written by {@link XmlTokenSource#saveBinary}. */
+    public XmlObject parseBinary ( InputStream is, SchemaType type, XmlOptions options ) throws XmlException, IOException;
     /** Returns an XmlSaxHandler that can parse an instance of the given type. */
     public XmlSaxHandler newXmlSaxHandler ( SchemaType type, XmlOptions options );
     /** Returns a DOMImplementation. */
@@ -22,6 +22,8 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Constructor;
 import java.lang.ref.SoftReference;
 import java.io.File;
+import java.io.InputStream;
+import java.util.Iterator;
 
 import javax.xml.stream.XMLStreamReader;
 
@@ -132,6 +134,7 @@ public final class XmlBeans
     private static final Method _nodeToXmlObjectMethod = buildNodeToXmlObjectMethod();
     private static final Method _nodeToXmlStreamMethod = buildNodeToXmlStreamMethod();
     private static final Method _streamToNodeMethod = buildStreamToNodeMethod();
+    private static final Method _streamElementsMethod = buildStreamElementsMethod();
     private static final Constructor _pathResourceLoaderConstructor = buildPathResourceLoaderConstructor();
 
     private static RuntimeException causedException ( RuntimeException e, Throwable cause )
@@ -250,6 +253,14 @@ public final class XmlBeans
                 new Class[] { XMLStreamReader.class } );
     }
 
+    private static final Method buildStreamElementsMethod()
+    {
+        return
+            buildMethod(
+                "org.apache.xmlbeans.impl.store.Locale", "streamElements",
+                new Class[] { SchemaTypeLoader.class, InputStream.class, QName.class, SchemaType.class, XmlOptions.class } );
+    }
+
     private static final Constructor buildPathResourceLoaderConstructor()
     {
         return
@@ -458,6 +469,48 @@ public final class XmlBeans
         }
     }
 
+    /**
+     * Returns an iterator over the elements of the given name in an XML
+     * stream, each one loaded as an independent XmlObject document, for
+     * documents too large to be loaded as a whole.
+     * <p>
+     * Only the element currently being loaded is held in memory; the
+     * content outside the matching elements is skipped.  Each element is
+     * loaded with the namespace declarations of its ancestors, so that
+     * prefixes used in its content still resolve, and is typed the way
+     * XmlObject.Factory.parse() would type it given the same type, using
+     * the context type loader.  A matching element nested in another one
+     * is part of the outer document and not returned on its own.
+     * <p>
+     * The iterator reads the stream as it is advanced, and throws an
+     * {@link XmlRuntimeException} if the stream is not well formed.  The
+     * stream is not closed.
+     *
+     * @param is the stream to read
+     * @param name the name of the elements to return
+     * @param type the type to load each element as, or null to find it from
+     * the element name as parse() does
+     * @param options the load options, used for each element
+     * @return an Iterator over XmlObject
+     */
+    public static Iterator streamElements ( InputStream is, QName name, SchemaType type, XmlOptions options ) throws XmlException
+    {
+        try
+        {
+            return (Iterator) _streamElementsMethod.invoke( null, new Object[] { getContextTypeLoader(), is, name, type, options } );
+        }
+        catch ( IllegalAccessException e )
+        {
+            throw causedException(
+                new IllegalStateException(
+                    "No access to streamElements verify that version of xbean.jar is correct" ), e );
+        }
+        catch ( InvocationTargetException e )
+        {
+            throw wrappedException( e.getCause() );
+        }
+    }
+
     /**
      * Returns the SchemaTypeSystem that results from compiling the XML
      * schema definitions passed.
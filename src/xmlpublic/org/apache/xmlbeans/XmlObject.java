@@ -432,6 +432,34 @@ public interface XmlObject extends XmlTokenSource
      */
     boolean isImmutable();
 
+    /**
+     * Makes the whole XML document containing this XmlObject read-only,
+     * so that it can be shared between threads without locking.
+     * <p>
+     * Everything the strongly typed getters would otherwise compute on
+     * first use is computed here, and from then on monitor() no longer
+     * returns a lock shared with other threads, see
+     * {@link XmlOptions#setLoadConcurrentReads}, which loads a document
+     * directly in this state.  Any attempt to change a frozen document
+     * throws an IllegalStateException; use copy() to get a modifiable
+     * document back.
+     * <p>
+     * Freezing a free-standing value makes it immutable.  A document which
+     * was made to share its synchronization domain with other documents
+     * cannot be frozen.  Copies made from the document before it was
+     * frozen stay in its synchronization domain: they become read-only
+     * with it, but are not frozen and their getters still lock.  Freezing
+     * a frozen document does nothing.
+     */
+    void freeze();
+
+    /**
+     * True if this XmlObject is part of a document which was frozen, or
+     * loaded for concurrent reads, or if it is an immutable value.
+     * @see #freeze()
+     */
+    boolean isFrozen();
+
     /**
      * Set the value/type of this XmlObject to be a copy of the source
      * XmlObject.  Because the type of the source may be different than this
@@ -824,6 +852,25 @@ public interface XmlObject extends XmlTokenSource
         public static XmlObject parse ( XMLInputStream xis, XmlOptions options ) throws XmlException, XMLStreamException {
           return XmlBeans.getContextTypeLoader().parse( xis, null, options ); }
 
+        /**
+         * Loads an XmlObject from the binary form written by
+         * {@link XmlTokenSource#saveBinary(java.io.OutputStream)}.
+         */
+        public static XmlObject parseBinary ( InputStream is ) throws XmlException, IOException {
+          return XmlBeans.getContextTypeLoader().parseBinary( is, null, null ); }
+
+        /**
+         * Loads an XmlObject from the binary form written by
+         * {@link XmlTokenSource#saveBinary(java.io.OutputStream, XmlOptions)}.
+         *
+         * The load options which change the document as it is built, such
+         * as {@link XmlOptions#setLoadStripWhitespace} or
+         * {@link XmlOptions#setLoadSubstituteNamespaces}, apply as they do
+         * to {@link #parse(InputStream, XmlOptions)}.
+         */
+        public static XmlObject parseBinary ( InputStream is, XmlOptions options ) throws XmlException, IOException {
+          return XmlBeans.getContextTypeLoader().parseBinary( is, null, options ); }
+
         /**
          * Returns an {@link XmlSaxHandler} that can load an XmlObject from SAX events.
          */ 
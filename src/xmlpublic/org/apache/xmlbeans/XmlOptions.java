@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import javax.xml.namespace.QName;
 
 /**
@@ -463,6 +464,53 @@ public class XmlOptions implements java.io.Serializable
         return set( SAVE_SAX_NO_NSDECLS_IN_ATTRIBUTES );
     }
 
+    /**
+     * Saves a document open to concurrent reads in parallel: the children
+     * of the document element are split into ranges, and all but the
+     * first range are saved on the given executor while the first one is
+     * saved on the calling thread.  The output is the same as that of a
+     * save made on one thread.
+     * <br>
+     * This only applies when a whole document, frozen or loaded with
+     * {@link #setLoadConcurrentReads}, is saved to a byte stream without
+     * pretty printing or character substitution.  Other saves ignore the
+     * option.
+     *
+     * @see XmlObject#freeze()
+     * @see XmlOptions#setSaveParallelism(int)
+     */
+    public XmlOptions setSaveExecutor (Executor executor) {
+        return set( SAVE_EXECUTOR, executor );
+    }
+
+    /**
+     * The number of ranges a parallel save splits the children of the
+     * document element into.  The default is the number of processors
+     * available.
+     *
+     * @see XmlOptions#setSaveExecutor(Executor)
+     */
+    public XmlOptions setSaveParallelism (int parallelism) {
+        return set( SAVE_PARALLELISM, parallelism );
+    }
+
+    /**
+     * Keeps the bytes each element of a document is saved as, so that a
+     * later save with the same options writes out the bytes of the
+     * elements which have not changed since rather than saving them again.
+     * This suits documents which are saved, changed a little and saved
+     * again; the bytes kept take about as much memory as the saved
+     * document.
+     * <br>
+     * This only applies to saves to a byte stream without pretty printing
+     * or character substitution, and not to documents open to concurrent
+     * reads.  The bytes are dropped when the document is saved this way
+     * with other options.
+     */
+    public XmlOptions setSaveReuseUnchanged () {
+        return set( SAVE_REUSE_UNCHANGED );
+    }
+
     /**
      * If this option is set, the document element is replaced with the
      * given QName when parsing.  If null is supplied, the document element
@@ -907,6 +955,118 @@ public class XmlOptions implements java.io.Serializable
         return set(LOAD_EXTERNAL_DTD, loadExternalDTD);
     }
 
+    /**
+     * If this option is set when loading from a String, InputStream,
+     * Reader or File, the document is read with a StAX (JSR 173) pull
+     * parser and appended directly to the store, instead of being routed
+     * through the SAX callback pipeline.
+     * <br>
+     * If an XMLReader is given with {@link #setLoadUseXMLReader} the
+     * SAX parser is used regardless of this option.
+     *
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadUseStax ()
+    {
+        return set( LOAD_USE_STAX );
+    }
+
+    /**
+     * If this option is set, the text of the loaded document is kept in a
+     * char arena owned by the document: a few large slabs, each twice the
+     * size of the previous one, instead of the small shared buffers used by
+     * default.  This reduces the number of allocations for large documents
+     * and lets all of the text be reclaimed at once when the document is
+     * dropped.  Text added later by modifications also goes to the arena.
+     *
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadUseCharArena ()
+    {
+        return set( LOAD_USE_CHAR_ARENA );
+    }
+
+    /**
+     * If this option is set, the loaded document is read-only.  Once the
+     * tree is built, all of its text is compacted into a single buffer of
+     * exactly the needed size, so the document no longer holds on to the
+     * larger parse buffers it was loaded into.
+     * <br>
+     * Any attempt to modify the document, through the XmlObject, XmlCursor
+     * or DOM APIs, throws an IllegalStateException.  Use
+     * {@link XmlObject#copy()} to get a modifiable copy of a read-only
+     * document.
+     *
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadReadOnly ()
+    {
+        return set( LOAD_READ_ONLY );
+    }
+
+    /**
+     * Loads the document read-only, as {@link #setLoadReadOnly}, and
+     * prepares it to be read from many threads at once.  The typed
+     * XmlObjects for all of the nodes are created and their values
+     * computed at load time, after which the getters of the typed
+     * XmlObjects do not take the document's lock: {@link XmlTokenSource#monitor}
+     * returns a new object on each call.  Cursors, DOM nodes and
+     * XPath queries over the document still synchronize as usual.
+     * <br>
+     * This uses more memory than a plain read-only load, and is meant for
+     * documents which are loaded once and then shared, such as cached
+     * configuration.
+     *
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadConcurrentReads ()
+    {
+        return set( LOAD_CONCURRENT_READS );
+    }
+
+    /**
+     * If this option is set, parsing a File maps the file into memory
+     * instead of reading it through a stream.  The encoding is sniffed on
+     * the mapped bytes, which are then decoded straight into the parser's
+     * buffers, so the content is not first copied out of the page cache
+     * into stream buffers.  This pays off for large files.
+     * <br>
+     * A mapped file stays mapped until the mapping is garbage collected,
+     * and on some platforms cannot be deleted or replaced until then.  The
+     * option is ignored if {@link #setLoadMessageDigest} is also set.
+     *
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadMapFile ()
+    {
+        return set( LOAD_MAP_FILE );
+    }
+
+    /**
+     * If this option is set, parsing a String leaves the text of the
+     * document in that string, and the document keeps the offset and
+     * length of each text run instead of a copy of it.  The chars are only
+     * read from the string when the text is asked for, or when it is
+     * saved.  This saves the copying and the memory for the text when
+     * only a few values of a document are ever read.
+     * <br>
+     * The document is read with the StAX loader, see
+     * {@link #setLoadUseStax}, which reports where in the string the text
+     * is.  Text which does not appear in the string as is, because it
+     * contains entity or character references or line ends which are
+     * normalized, or which is in a CDATA section, is copied as usual, as
+     * are attribute values.  The document keeps the string from being
+     * garbage collected.  The option has no effect on the other sources a
+     * document can be parsed from, or when an XMLReader is given with
+     * {@link #setLoadUseXMLReader}.
+     *
+     * @see XmlObject.Factory#parse(String, XmlOptions)
+     */
+    public XmlOptions setLoadLazyText ()
+    {
+        return set( LOAD_LAZY_TEXT );
+    }
+
     public static final String GENERATE_JAVA_14 = "1.4";
     public static final String GENERATE_JAVA_15 = "1.5";
 
@@ -956,6 +1116,12 @@ public class XmlOptions implements java.io.Serializable
     /** @exclude */
     public static final String SAVE_SAX_NO_NSDECLS_IN_ATTRIBUTES = "SAVE_SAX_NO_NSDECLS_IN_ATTRIBUTES";
     /** @exclude */
+    public static final String SAVE_EXECUTOR                   = "SAVE_EXECUTOR";
+    /** @exclude */
+    public static final String SAVE_PARALLELISM                = "SAVE_PARALLELISM";
+    /** @exclude */
+    public static final String SAVE_REUSE_UNCHANGED            = "SAVE_REUSE_UNCHANGED";
+    /** @exclude */
     public static final String LOAD_REPLACE_DOCUMENT_ELEMENT   = "LOAD_REPLACE_DOCUMENT_ELEMENT";
     /** @exclude */
     public static final String LOAD_STRIP_WHITESPACE           = "LOAD_STRIP_WHITESPACE";
@@ -1037,6 +1203,18 @@ public class XmlOptions implements java.io.Serializable
     public static final String LOAD_DTD_GRAMMAR                = "LOAD_DTD_GRAMMAR";
     /** @exclude */
     public static final String LOAD_EXTERNAL_DTD               = "LOAD_EXTERNAL_DTD";
+    /** @exclude */
+    public static final String LOAD_USE_STAX                   = "LOAD_USE_STAX";
+    /** @exclude */
+    public static final String LOAD_USE_CHAR_ARENA             = "LOAD_USE_CHAR_ARENA";
+    /** @exclude */
+    public static final String LOAD_READ_ONLY                  = "LOAD_READ_ONLY";
+    /** @exclude */
+    public static final String LOAD_CONCURRENT_READS           = "LOAD_CONCURRENT_READS";
+    /** @exclude */
+    public static final String LOAD_MAP_FILE                   = "LOAD_MAP_FILE";
+    /** @exclude */
+    public static final String LOAD_LAZY_TEXT                  = "LOAD_LAZY_TEXT";
 
     public static final int DEFAULT_ENTITY_EXPANSION_LIMIT = 2048;
 
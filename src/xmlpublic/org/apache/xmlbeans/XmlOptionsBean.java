@@ -21,6 +21,7 @@ import org.xml.sax.EntityResolver;
 import javax.xml.namespace.QName;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Same as {@link XmlOptions} but adhering to JavaBean conventions
@@ -213,6 +214,16 @@ public class XmlOptionsBean extends XmlOptions
         return hasOption( SAVE_SAX_NO_NSDECLS_IN_ATTRIBUTES );
     }
 
+    public Executor getSaveExecutor()
+    {
+        return (Executor) get( SAVE_EXECUTOR );
+    }
+
+    public Integer getSaveParallelism()
+    {
+        return (Integer) get( SAVE_PARALLELISM );
+    }
+
     public QName getLoadReplaceDocumentElement()
     {
         return (QName) get( LOAD_REPLACE_DOCUMENT_ELEMENT );
@@ -475,4 +486,82 @@ public class XmlOptionsBean extends XmlOptions
         Boolean flag = (Boolean) get( LOAD_EXTERNAL_DTD );
         return flag == null ? false : flag;
     }
+
+    public void setLoadUseStax(boolean b)
+    {
+        if (b)
+            super.setLoadUseStax();
+        else
+            remove( LOAD_USE_STAX );
+    }
+
+    public boolean isLoadUseStax()
+    {
+        return hasOption( LOAD_USE_STAX );
+    }
+
+    public void setLoadUseCharArena(boolean b)
+    {
+        if (b)
+            super.setLoadUseCharArena();
+        else
+            remove( LOAD_USE_CHAR_ARENA );
+    }
+
+    public boolean isLoadUseCharArena()
+    {
+        return hasOption( LOAD_USE_CHAR_ARENA );
+    }
+
+    public void setLoadReadOnly(boolean b)
+    {
+        if (b)
+            super.setLoadReadOnly();
+        else
+            remove( LOAD_READ_ONLY );
+    }
+
+    public boolean isLoadReadOnly()
+    {
+        return hasOption( LOAD_READ_ONLY );
+    }
+
+    public void setLoadConcurrentReads(boolean b)
+    {
+        if (b)
+            super.setLoadConcurrentReads();
+        else
+            remove( LOAD_CONCURRENT_READS );
+    }
+
+    public boolean isLoadConcurrentReads()
+    {
+        return hasOption( LOAD_CONCURRENT_READS );
+    }
+
+    public void setLoadMapFile(boolean b)
+    {
+        if (b)
+            super.setLoadMapFile();
+        else
+            remove( LOAD_MAP_FILE );
+    }
+
+    public boolean isLoadMapFile()
+    {
+        return hasOption( LOAD_MAP_FILE );
+    }
+
+    public void setLoadLazyText(boolean b)
+    {
+        if (b)
+            super.setLoadLazyText();
+        else
+            remove( LOAD_LAZY_TEXT );
+    }
+
+    public boolean isLoadLazyText()
+    {
+        return hasOption( LOAD_LAZY_TEXT );
+    }
 }
@@ -23,6 +23,8 @@ import java.io.Reader;
 import java.io.Writer;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import javax.xml.stream.XMLStreamReader;
 
@@ -50,6 +52,11 @@ public interface XmlTokenSource
      * multithreaded access to a document is required, the access should should
      * be protected by synchronizing on this monitor() object.  There is one
      * monitor per XML document tree.
+     * <p>
+     * A document loaded with {@link XmlOptions#setLoadConcurrentReads}, or
+     * frozen with {@link XmlObject#freeze}, cannot be modified and needs no
+     * external synchronization; for such a document this returns a new
+     * object on each call.
      */
     Object monitor();
     
@@ -138,6 +145,25 @@ public interface XmlTokenSource
      */
     InputStream newInputStream();
 
+    /**
+     * Returns a new channel containing standard XML text, encoded the same
+     * way as by {@link #newInputStream()}.
+     *
+     * Each read saves only as much of the XML as it takes to fill the
+     * buffer read into and then returns, so a large document can be
+     * written out one buffer at a time as its destination becomes ready,
+     * for example by a non-blocking server.
+     *
+     * This is a fail-fast channel, so if the underlying data is changed
+     * while the channel is being read, the channel throws a
+     * ConcurrentModificationException.
+     *
+     * Throws an IllegalStateException if the XmlTokenSource is not
+     * positioned at begin-tag or begin-document (e.g., if it is at
+     * an attribute).
+     */
+    ReadableByteChannel newChannel();
+
     /**
      * Returns a new character reader containing XML text.
      *
@@ -197,6 +223,27 @@ public interface XmlTokenSource
      */
     void save ( OutputStream os ) throws IOException;
 
+    /**
+     * Writes the XML represented by this source to the given channel.
+     * This method will save the XML declaration, including encoding information,
+     * with the XML.  To write to a channel in non-blocking mode, read the
+     * XML from {@link #newChannel()} instead.
+     */
+    void save ( WritableByteChannel channel ) throws IOException;
+
+    /**
+     * Writes the XML represented by this source to the given output stream
+     * in a compact binary form, which is loaded back with
+     * {@link XmlObject.Factory#parseBinary(InputStream)}.
+     *
+     * Loading the binary form gives the same document as parsing the XML
+     * text saved with the same options would, but without decoding and
+     * parsing text.  The name of the type of a document is saved with it,
+     * so that the document is given the same type when it is loaded by a
+     * loader which can find that type.
+     */
+    void saveBinary ( OutputStream os ) throws IOException;
+
     /**
      * Writes the XML represented by this source to the given output.
      * Note that this method does not save the XML declaration, including the encoding information. 
@@ -320,6 +367,13 @@ public interface XmlTokenSource
      * @see XmlOptions
      */
     InputStream newInputStream(XmlOptions options);
+
+    /**
+     * Just like newChannel() but with options.
+     * Options map may be null.
+     * @see XmlOptions
+     */
+    ReadableByteChannel newChannel(XmlOptions options);
     
     /**
      * Just like newReader() but with options.
@@ -359,6 +413,21 @@ public interface XmlTokenSource
      */
     void save ( OutputStream os, XmlOptions options ) throws IOException;
 
+    /**
+     * Writes the XML represented by this source to the given channel.
+     * This method will save the XML declaration, including encoding information,
+     * with the XML.
+     */
+    void save ( WritableByteChannel channel, XmlOptions options ) throws IOException;
+
+    /**
+     * Writes the XML represented by this source to the given output stream
+     * in a compact binary form, see {@link #saveBinary(OutputStream)}.
+     * The options which choose namespace prefixes and which part of the
+     * XML is saved apply as they do to {@link #save(OutputStream, XmlOptions)}.
+     */
+    void saveBinary ( OutputStream os, XmlOptions options ) throws IOException;
+
     /**
      * Writes the XML represented by this source to the given output.
      * Note that this method does not save the XML declaration, including the encoding information. 
@@ -0,0 +1,53 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.xpath.saxon;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.om.NodeInfo;
+
+import org.apache.xmlbeans.impl.store.StoreNode;
+
+/**
+ * The Saxon document node over the root of an XmlBeans store tree.  The
+ * store keeps no DTD, so there are no IDs nor unparsed entities.
+ */
+public class XBeansDocumentInfo
+        extends XBeansNodeInfo
+        implements DocumentInfo
+{
+    XBeansDocumentInfo(StoreNode node, Tree tree)
+    {
+        super(node, tree);
+    }
+
+    public NodeInfo selectID(String id)
+    {
+        return null;
+    }
+
+    public Iterator getUnparsedEntityNames()
+    {
+        return Collections.EMPTY_LIST.iterator();
+    }
+
+    public String[] getUnparsedEntity(String name)
+    {
+        return null;
+    }
+}
@@ -0,0 +1,525 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.xpath.saxon;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.AxisIterator;
+import net.sf.saxon.om.DocumentInfo;
+import net.sf.saxon.om.EmptyIterator;
+import net.sf.saxon.om.FastStringBuffer;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NamespaceIterator;
+import net.sf.saxon.om.Navigator;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.SingletonIterator;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.om.VirtualNode;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.StringValue;
+import net.sf.saxon.value.UntypedAtomicValue;
+import net.sf.saxon.value.Value;
+
+import org.apache.xmlbeans.impl.store.StoreNode;
+
+import java.util.HashSet;
+
+/**
+ * A Saxon node over a node of the XmlBeans store.  Saxon navigates the
+ * store in place through these, so that a query neither wraps the store
+ * in DOM nor copies it into a tree of its own.
+ */
+public class XBeansNodeInfo
+        implements NodeInfo, VirtualNode
+{
+    /**
+     * What the nodes of one tree share : the configuration, the document
+     * number and the document order numbering.
+     */
+    static final class Tree
+    {
+        Tree(Configuration config)
+        {
+            this.config = config;
+            this.documentNumber =
+                config.getDocumentNumberAllocator().allocateDocumentNumber();
+        }
+
+        final Configuration config;
+        final int documentNumber;
+        final StoreNode.Numbering numbering = new StoreNode.Numbering();
+        String systemId;
+    }
+
+    protected final StoreNode node;
+    protected final Tree tree;
+    private int nameCode = -2;
+
+    protected XBeansNodeInfo(StoreNode node, Tree tree)
+    {
+        this.node = node;
+        this.tree = tree;
+    }
+
+    /**
+     * Returns the Saxon node for a DOM node of the XmlBeans store, or null
+     * if the node does not belong to the store.  The nodes reached from
+     * the one returned belong to one new Saxon tree.
+     * @param config The Saxon configuration
+     * @param domNode The DOM node of the store
+     */
+    public static NodeInfo wrap(Configuration config, Object domNode)
+    {
+        StoreNode n = StoreNode.forDom(domNode);
+        return n == null ? null : wrap(n, new Tree(config));
+    }
+
+    static XBeansNodeInfo wrap(StoreNode n, Tree tree)
+    {
+        if (n == null)
+            return null;
+
+        return n.getNodeType() == Type.DOCUMENT ?
+            new XBeansDocumentInfo(n, tree) : new XBeansNodeInfo(n, tree);
+    }
+
+    private XBeansNodeInfo wrap(StoreNode n)
+    {
+        return wrap(n, tree);
+    }
+
+    public Object getUnderlyingNode()
+    {
+        return node.getDom();
+    }
+
+    public Configuration getConfiguration()
+    {
+        return tree.config;
+    }
+
+    public NamePool getNamePool()
+    {
+        return tree.config.getNamePool();
+    }
+
+    public int getNodeKind()
+    {
+        // Saxon numbers the kinds of nodes as DOM does
+        return node.getNodeType();
+    }
+
+    public boolean isSameNodeInfo(NodeInfo other)
+    {
+        return other instanceof XBeansNodeInfo &&
+            node.equals(((XBeansNodeInfo)other).node);
+    }
+
+    public boolean equals(Object other)
+    {
+        return other instanceof NodeInfo && isSameNodeInfo((NodeInfo)other);
+    }
+
+    public int hashCode()
+    {
+        return node.hashCode();
+    }
+
+    public String getSystemId()
+    {
+        return tree.systemId;
+    }
+
+    public void setSystemId(String systemId)
+    {
+        tree.systemId = systemId;
+    }
+
+    public String getBaseURI()
+    {
+        return tree.systemId;
+    }
+
+    public int getLineNumber()
+    {
+        return -1;
+    }
+
+    public int compareOrder(NodeInfo other)
+    {
+        if (other instanceof XBeansNodeInfo)
+            return tree.numbering.compare(node, ((XBeansNodeInfo)other).node);
+
+        // Namespace nodes order themselves against their element
+        return -other.compareOrder(this);
+    }
+
+    public String getStringValue()
+    {
+        return node.getStringValue();
+    }
+
+    public CharSequence getStringValueCS()
+    {
+        return node.getStringValue();
+    }
+
+    public SequenceIterator getTypedValue() throws XPathException
+    {
+        return SingletonIterator.makeIterator((AtomicValue)atomize());
+    }
+
+    public Value atomize() throws XPathException
+    {
+        switch (getNodeKind())
+        {
+            case Type.COMMENT:
+            case Type.PROCESSING_INSTRUCTION:
+                return new StringValue(getStringValueCS());
+            default:
+                return new UntypedAtomicValue(getStringValueCS());
+        }
+    }
+
+    public int getTypeAnnotation()
+    {
+        switch (getNodeKind())
+        {
+            case Type.ELEMENT:
+                return StandardNames.XS_UNTYPED;
+            case Type.ATTRIBUTE:
+                return StandardNames.XS_UNTYPED_ATOMIC;
+            default:
+                return -1;
+        }
+    }
+
+    public int getNameCode()
+    {
+        if (nameCode == -2)
+        {
+            switch (getNodeKind())
+            {
+                case Type.ELEMENT:
+                case Type.ATTRIBUTE:
+                case Type.PROCESSING_INSTRUCTION:
+                    nameCode = getNamePool().allocate(node.getPrefix(),
+                        node.getNamespaceURI(), node.getLocalName());
+                    break;
+                default:
+                    nameCode = -1;
+            }
+        }
+        return nameCode;
+    }
+
+    public int getFingerprint()
+    {
+        int nc = getNameCode();
+        return nc == -1 ? -1 : nc & NamePool.FP_MASK;
+    }
+
+    public String getLocalPart()
+    {
+        return node.getLocalName();
+    }
+
+    public String getURI()
+    {
+        return node.getNamespaceURI();
+    }
+
+    public String getPrefix()
+    {
+        return node.getPrefix();
+    }
+
+    public String getDisplayName()
+    {
+        String prefix = node.getPrefix();
+        return prefix.length() == 0 ?
+            node.getLocalName() : prefix + ":" + node.getLocalName();
+    }
+
+    public NodeInfo getParent()
+    {
+        return wrap(node.getParent());
+    }
+
+    public NodeInfo getRoot()
+    {
+        return wrap(node.getRoot());
+    }
+
+    public DocumentInfo getDocumentRoot()
+    {
+        NodeInfo root = getRoot();
+        return root instanceof DocumentInfo ? (DocumentInfo)root : null;
+    }
+
+    public boolean hasChildNodes()
+    {
+        return node.hasChildNodes();
+    }
+
+    public AxisIterator iterateAxis(byte axisNumber)
+    {
+        return iterateAxis(axisNumber, null);
+    }
+
+    public AxisIterator iterateAxis(byte axisNumber, NodeTest nodeTest)
+    {
+        int kind = getNodeKind();
+        AxisIterator it;
+
+        switch (axisNumber)
+        {
+            case Axis.ANCESTOR:
+                it = new Navigator.AncestorEnumeration(this, false);
+                break;
+            case Axis.ANCESTOR_OR_SELF:
+                it = new Navigator.AncestorEnumeration(this, true);
+                break;
+            case Axis.ATTRIBUTE:
+                if (kind != Type.ELEMENT)
+                    return EmptyIterator.getInstance();
+                it = new AttributeEnumeration(this);
+                break;
+            case Axis.CHILD:
+                if (!hasChildNodes())
+                    return EmptyIterator.getInstance();
+                it = new ChildEnumeration(this, true, true);
+                break;
+            case Axis.DESCENDANT:
+                if (!hasChildNodes())
+                    return EmptyIterator.getInstance();
+                it = new Navigator.DescendantEnumeration(this, false, true);
+                break;
+            case Axis.DESCENDANT_OR_SELF:
+                it = new Navigator.DescendantEnumeration(this, true, true);
+                break;
+            case Axis.FOLLOWING:
+                it = new Navigator.FollowingEnumeration(this);
+                break;
+            case Axis.FOLLOWING_SIBLING:
+                if (kind == Type.ATTRIBUTE || kind == Type.DOCUMENT)
+                    return EmptyIterator.getInstance();
+                it = new ChildEnumeration(this, false, true);
+                break;
+            case Axis.NAMESPACE:
+                if (kind != Type.ELEMENT)
+                    return EmptyIterator.getInstance();
+                return new NamespaceIterator(this, nodeTest);
+            case Axis.PARENT:
+                return Navigator.filteredSingleton(getParent(), nodeTest);
+            case Axis.PRECEDING:
+                it = new Navigator.PrecedingEnumeration(this, false);
+                break;
+            case Axis.PRECEDING_SIBLING:
+                if (kind == Type.ATTRIBUTE || kind == Type.DOCUMENT)
+                    return EmptyIterator.getInstance();
+                it = new ChildEnumeration(this, false, false);
+                break;
+            case Axis.SELF:
+                return Navigator.filteredSingleton(this, nodeTest);
+            case Axis.PRECEDING_OR_ANCESTOR:
+                it = new Navigator.PrecedingEnumeration(this, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown axis number " +
+                    axisNumber);
+        }
+
+        return nodeTest == null ? it : new Navigator.AxisFilter(it, nodeTest);
+    }
+
+    public String getAttributeValue(int fingerprint)
+    {
+        NamePool pool = getNamePool();
+        return node.getAttributeValue(pool.getURI(fingerprint),
+            pool.getLocalName(fingerprint));
+    }
+
+    public void generateId(FastStringBuffer buffer)
+    {
+        buffer.append("d");
+        buffer.append(Integer.toString(tree.documentNumber));
+        buffer.append("n");
+        buffer.append(Integer.toString(tree.numbering.getNumber(node)));
+    }
+
+    public int getDocumentNumber()
+    {
+        return tree.documentNumber;
+    }
+
+    public void copy(Receiver out, int whichNamespaces,
+                     boolean copyAnnotations, int locationId)
+        throws XPathException
+    {
+        Navigator.copy(this, out, getNamePool(), whichNamespaces,
+            copyAnnotations, locationId);
+    }
+
+    public int[] getDeclaredNamespaces(int[] buffer)
+    {
+        if (getNodeKind() != Type.ELEMENT)
+            return null;
+
+        String[] decls = node.getNamespaceDeclarations();
+        int count = decls.length / 2;
+        int[] codes = buffer == null || count > buffer.length ?
+            new int[count] : buffer;
+
+        NamePool pool = getNamePool();
+        for (int i = 0; i < count; i++)
+            codes[i] = pool.allocateNamespaceCode(decls[i * 2], decls[i * 2 + 1]);
+
+        if (count < codes.length)
+            codes[count] = -1;
+
+        return codes;
+    }
+
+    public void sendNamespaceDeclarations(Receiver out, boolean includeAncestors)
+        throws XPathException
+    {
+        if (getNodeKind() != Type.ELEMENT)
+            return;
+
+        int[] codes = getDeclaredNamespaces(null);
+        for (int i = 0; i < codes.length && codes[i] != -1; i++)
+            out.namespace(codes[i], 0);
+
+        // Declarations of the ancestors are sent unless a nearer one
+        // declared the same prefix
+        if (includeAncestors)
+        {
+            HashSet prefixes = new HashSet();
+            for (int i = 0; i < codes.length && codes[i] != -1; i++)
+                prefixes.add(new Integer(codes[i] >> 16));
+
+            for (NodeInfo p = getParent(); p != null &&
+                 p.getNodeKind() == Type.ELEMENT; p = p.getParent())
+            {
+                int[] outer = p.getDeclaredNamespaces(null);
+                for (int i = 0; i < outer.length && outer[i] != -1; i++)
+                {
+                    if (prefixes.add(new Integer(outer[i] >> 16)))
+                        out.namespace(outer[i], 0);
+                }
+            }
+        }
+    }
+
+    public boolean isId()
+    {
+        return false;
+    }
+
+    public boolean isIdref()
+    {
+        return false;
+    }
+
+    public boolean isNilled()
+    {
+        return false;
+    }
+
+    /**
+     * The attributes of an element.
+     */
+    private static final class AttributeEnumeration
+            extends Navigator.BaseEnumeration
+    {
+        private final XBeansNodeInfo element;
+        private StoreNode next;
+
+        AttributeEnumeration(XBeansNodeInfo element)
+        {
+            this.element = element;
+            this.next = element.node.getFirstAttribute();
+        }
+
+        public void advance()
+        {
+            if (next == null)
+                current = null;
+            else
+            {
+                current = element.wrap(next);
+                next = next.getNextAttribute();
+            }
+        }
+
+        public SequenceIterator getAnother()
+        {
+            return new AttributeEnumeration(element);
+        }
+    }
+
+    /**
+     * The children of a node, or the siblings after or before it.
+     */
+    private static final class ChildEnumeration
+            extends Navigator.BaseEnumeration
+    {
+        private final XBeansNodeInfo start;
+        private final boolean children;
+        private final boolean forwards;
+        private StoreNode next;
+
+        ChildEnumeration(XBeansNodeInfo start, boolean children,
+                         boolean forwards)
+        {
+            this.start = start;
+            this.children = children;
+            this.forwards = forwards;
+
+            if (children)
+                next = start.node.getFirstChild();
+            else
+                next = step(start.node);
+        }
+
+        private StoreNode step(StoreNode n)
+        {
+            return forwards ? n.getNextSibling() : n.getPreviousSibling();
+        }
+
+        public void advance()
+        {
+            if (next == null)
+                current = null;
+            else
+            {
+                current = start.wrap(next);
+                next = step(next);
+            }
+        }
+
+        public SequenceIterator getAnother()
+        {
+            return new ChildEnumeration(start, children, forwards);
+        }
+    }
+}
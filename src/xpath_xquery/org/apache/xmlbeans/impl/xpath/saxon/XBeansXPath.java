@@ -25,7 +25,6 @@ import javax.xml.transform.TransformerException;
 import org.w3c.dom.Node;
 
 import net.sf.saxon.Configuration;
-import net.sf.saxon.dom.NodeWrapper;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.VirtualNode;
 import net.sf.saxon.om.Item;
@@ -109,9 +108,10 @@ public class XBeansXPath
             xpe.setStaticContext(sc);
             XPathVariable thisVar = xpe.declareVariable("", contextVar);
             XPathExpression xpath = xpe.createExpression(path);
-            NodeInfo contextItem = 
-                //config.buildDocument(new DOMSource(contextNode));
-                config.unravel(new DOMSource(contextNode));
+            // Nodes of the store are navigated in place, others through DOM
+            NodeInfo contextItem = XBeansNodeInfo.wrap(config, contextNode);
+            if (contextItem == null)
+                contextItem = config.unravel(new DOMSource(contextNode));
             XPathDynamicContext dc = xpath.createDynamicContext(null);
             dc.setContextItem(contextItem);
             dc.setVariable(thisVar, contextItem);
@@ -122,9 +122,9 @@ public class XBeansXPath
                 Object o = it.next();
                 if (o instanceof NodeInfo)
                 {
-                    if (o instanceof NodeWrapper)
+                    if (o instanceof VirtualNode)
                     {
-                        Node n = getUnderlyingNode((NodeWrapper)o);
+                        Node n = getUnderlyingNode((VirtualNode)o);
                         it.set(n);
                     }
                     else
@@ -28,6 +28,7 @@ import org.w3c.dom.Node;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.dom.NodeOverNodeInfo;
 import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.VirtualNode;
 import net.sf.saxon.query.DynamicQueryContext;
 import net.sf.saxon.query.StaticQueryContext;
 import net.sf.saxon.query.XQueryExpression;
@@ -35,6 +36,7 @@ import net.sf.saxon.query.XQueryExpression;
 import org.apache.xmlbeans.XmlRuntimeException;
 import org.apache.xmlbeans.XmlTokenSource;
 import org.apache.xmlbeans.impl.store.QueryDelegate;
+import org.apache.xmlbeans.impl.xpath.saxon.XBeansNodeInfo;
 
 public class XBeansXQuery
         implements QueryDelegate.QueryInterface
@@ -80,9 +82,10 @@ public class XBeansXQuery
         try
         {
             Node contextNode = (Node)node;
-            NodeInfo contextItem = 
-                config.buildDocument(new DOMSource(contextNode));
-                //config.unravel(new DOMSource(contextNode));
+            // Nodes of the store are navigated in place rather than copied
+            NodeInfo contextItem = XBeansNodeInfo.wrap(config, contextNode);
+            if (contextItem == null)
+                contextItem = config.buildDocument(new DOMSource(contextNode));
             DynamicQueryContext dc = new DynamicQueryContext(config);
             dc.setContextItem(contextItem);
             dc.setParameter(contextVar, contextItem);
@@ -98,7 +101,9 @@ public class XBeansXQuery
                     if (value instanceof XmlTokenSource)
                     {
                         Node paramObject = ((XmlTokenSource)value).getDomNode();
-                        dc.setParameter(key, paramObject);
+                        NodeInfo paramNode = XBeansNodeInfo.wrap(config, paramObject);
+                        dc.setParameter(key, paramNode == null ?
+                            (Object)paramObject : paramNode);
                     }
                     else if (value instanceof String)
                         dc.setParameter(key, value);
@@ -109,7 +114,9 @@ public class XBeansXQuery
             for (ListIterator it = saxonNodes.listIterator(); it.hasNext(); )
             {
                 Object o = it.next();
-                if(o instanceof NodeInfo)
+                if (o instanceof VirtualNode)
+                    it.set(((VirtualNode)o).getUnderlyingNode());
+                else if(o instanceof NodeInfo)
                 {
                     Node n = NodeOverNodeInfo.wrap((NodeInfo)o);
                     it.set(n);
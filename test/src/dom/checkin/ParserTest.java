@@ -22,6 +22,8 @@ import javax.xml.stream.XMLInputFactory;
 
 import junit.framework.*;
 
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptionsBean;
 import org.apache.xmlbeans.impl.common.*;
 import org.xml.sax.InputSource;
@@ -95,4 +97,52 @@ public class ParserTest extends TestCase {
 
         reader.parse(new InputSource(new ByteArrayInputStream("<xml></xml>".getBytes("UTF-8"))));
     }
+
+    public void testXMLReaderPool() throws Exception {
+        XmlOptionsBean options = new XmlOptionsBean();
+        XMLReader reader = SAXHelper.leaseXMLReader(options);
+        assertNotSame(reader, SAXHelper.leaseXMLReader(options));
+        SAXHelper.returnXMLReader(options, reader);
+
+        assertSame(reader, SAXHelper.leaseXMLReader(options));
+        assertNull(reader.getContentHandler());
+        assertEquals(SAXHelper.IGNORING_ENTITY_RESOLVER, reader.getEntityResolver());
+        reader.parse(new InputSource(new ByteArrayInputStream("<xml></xml>".getBytes("UTF-8"))));
+        SAXHelper.returnXMLReader(options, reader);
+
+        XmlOptionsBean other = new XmlOptionsBean();
+        other.setLoadDTDGrammar(true);
+        XMLReader otherReader = SAXHelper.leaseXMLReader(other);
+        assertNotSame(reader, otherReader);
+        assertTrue(otherReader.getFeature(XMLBeansConstants.FEATURE_LOAD_DTD_GRAMMAR));
+        SAXHelper.returnXMLReader(other, otherReader);
+
+        assertSame(reader, SAXHelper.leaseXMLReader(options));
+    }
+
+    public void testXMLReaderPoolDisabled() throws Exception {
+        int size = SAXHelper.getXMLReaderPoolSize();
+        try {
+            SAXHelper.setXMLReaderPoolSize(0);
+            XmlOptionsBean options = new XmlOptionsBean();
+            XMLReader reader = SAXHelper.leaseXMLReader(options);
+            SAXHelper.returnXMLReader(options, reader);
+            assertNotSame(reader, SAXHelper.leaseXMLReader(options));
+        } finally {
+            SAXHelper.setXMLReaderPoolSize(size);
+        }
+    }
+
+    public void testParseReusesPooledReader() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals("<a>" + i + "</a>",
+                XmlObject.Factory.parse("<a>" + i + "</a>").xmlText());
+        }
+        try {
+            XmlObject.Factory.parse("<a><b></a>");
+            fail("Expected XmlException");
+        } catch (XmlException e) {
+        }
+        assertEquals("<a/>", XmlObject.Factory.parse("<a/>").xmlText());
+    }
 }
@@ -23,8 +23,12 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
 import org.apache.xmlbeans.impl.store.CharUtil;
 import org.apache.xmlbeans.impl.store.CharUtil.CharJoin;
+import org.apache.xmlbeans.impl.store.Locale;
 
 public class CharUtilTests extends TestCase
 {
@@ -239,6 +243,52 @@ public class CharUtilTests extends TestCase
         }
     }
 
+    public void testCharArenaGrowth ( ) throws Exception
+    {
+        CharUtil cu = new CharUtil( 16, 64 );
+        char[] chars = new char[ 10 ];
+
+        Assert.assertEquals( 0, cu.getBufferCount() );
+
+        for ( int i = 0 ; i < 20 ; i++ )
+            cu.saveChars( chars, 0, chars.length );
+
+        // 16 + 32 + 64 + 64 ... chars, rather than 16 char buffers
+        Assert.assertTrue( cu.getAllocatedChars() >= 200 );
+        Assert.assertEquals( 5, cu.getBufferCount() );
+        Assert.assertEquals( 16 + 32 + 64 + 64 + 64, cu.getAllocatedChars() );
+    }
+
+    public void testCharArenaLoad ( ) throws Exception
+    {
+        StringBuffer sb = new StringBuffer( "<root>" );
+
+        for ( int i = 0 ; i < 5000 ; i++ )
+            sb.append( "<item id='" ).append( i ).append( "'>some text " ).append( i ).append( "</item>" );
+
+        sb.append( "</root>" );
+
+        XmlObject plain = XmlObject.Factory.parse( sb.toString() );
+        XmlObject arena = XmlObject.Factory.parse( sb.toString(), new XmlOptions().setLoadUseCharArena() );
+
+        Assert.assertEquals( plain.xmlText(), arena.xmlText() );
+
+        Locale l = (Locale) arena.monitor();
+
+        Assert.assertTrue( l.getCharArenaSize() > 0 );
+        Assert.assertTrue( l.getCharArenaSlabCount() < 5 );
+        Assert.assertEquals( 0, ((Locale) plain.monitor()).getCharArenaSize() );
+
+        // edits go to the arena as well
+        XmlCursor c = arena.newCursor();
+        c.toFirstChild();
+        c.toFirstChild();
+        c.setTextValue( "changed" );
+        c.dispose();
+
+        Assert.assertTrue( arena.xmlText().indexOf( "<item id=\"0\">changed</item>" ) > 0 );
+    }
+
     private int rnd ( int n )
     {
         return n == 1 ? 0 : _rnd.nextInt( n - 1 );
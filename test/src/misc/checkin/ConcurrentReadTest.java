@@ -0,0 +1,256 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package misc.checkin;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.SchemaTypeLoader;
+import org.apache.xmlbeans.SimpleValue;
+import org.apache.xmlbeans.XmlBeans;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.impl.values.TypeStore;
+import org.apache.xmlbeans.impl.values.XmlObjectBase;
+
+import javax.xml.namespace.QName;
+
+public class ConcurrentReadTest extends TestCase {
+    private static final String NS = "urn:concurrent";
+    private static final QName R = new QName(NS, "r");
+    private static final QName V = new QName(NS, "v");
+    private static final QName N = new QName("", "n");
+
+    private static final String XSD =
+        "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'" +
+        " targetNamespace='" + NS + "' elementFormDefault='qualified'>" +
+        "<xs:element name='r'><xs:complexType><xs:sequence>" +
+        "<xs:element name='v' type='xs:int' maxOccurs='unbounded'/>" +
+        "</xs:sequence><xs:attribute name='n' type='xs:string'/>" +
+        "</xs:complexType></xs:element></xs:schema>";
+
+    private static final int THREAD_COUNT = 8;
+    private static final int VALUE_COUNT = 100;
+
+    public ConcurrentReadTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ConcurrentReadTest.class);
+    }
+
+    private static XmlObject load() throws Exception {
+        return load(new XmlOptions().setLoadConcurrentReads());
+    }
+
+    private static XmlObject load(XmlOptions options) throws Exception {
+        SchemaTypeLoader stl = XmlBeans.compileXsd(
+            new XmlObject[] {XmlObject.Factory.parse(XSD)},
+            XmlBeans.getBuiltinTypeSystem(), null);
+
+        StringBuffer sb = new StringBuffer("<r xmlns='" + NS + "' n='name'>");
+        for (int i = 0; i < VALUE_COUNT; i++)
+            sb.append("<v>").append(i).append("</v>");
+        sb.append("</r>");
+
+        return stl.parse(sb.toString(), null, options);
+    }
+
+    private static TypeStore store(Object xo) {
+        return ((XmlObjectBase) xo).get_store();
+    }
+
+    /** Reads the document the way generated getters do. */
+    private static void read(XmlObject doc) {
+        XmlObject r;
+        synchronized (doc.monitor()) {
+            r = (XmlObject) store(doc).find_element_user(R, 0);
+        }
+        synchronized (r.monitor()) {
+            TypeStore s = store(r);
+            assertEquals(VALUE_COUNT, s.count_elements(V));
+            for (int i = 0; i < VALUE_COUNT; i++)
+                assertEquals(i, ((SimpleValue) s.find_element_user(V, i)).getIntValue());
+            assertEquals("name",
+                ((SimpleValue) s.find_attribute_user(N)).getStringValue());
+        }
+    }
+
+    public void testConcurrentReads() throws Throwable {
+        readConcurrently(load());
+    }
+
+    private static void readConcurrently(final XmlObject doc) throws Throwable {
+        final Throwable[] errors = new Throwable[THREAD_COUNT];
+
+        assertNotSame(doc.monitor(), doc.monitor());
+
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int n = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            read(doc);
+                            if (i % 50 == 0)
+                                assertTrue(doc.xmlText().length() > 0);
+                        }
+                    } catch (Throwable e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+        }
+
+        for (int t = 0; t < THREAD_COUNT; t++)
+            threads[t].start();
+        for (int t = 0; t < THREAD_COUNT; t++)
+            threads[t].join();
+        for (int t = 0; t < THREAD_COUNT; t++)
+            if (errors[t] != null)
+                throw errors[t];
+    }
+
+    public void testReadOnly() throws Exception {
+        XmlObject doc = load();
+        XmlObject r = (XmlObject) store(doc).find_element_user(R, 0);
+
+        try {
+            ((SimpleValue) store(r).find_element_user(V, 0)).setIntValue(5);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+
+        try {
+            store(r).add_element_user(V);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+
+        assertEquals(VALUE_COUNT, store(r).count_elements(V));
+        assertTrue(doc.validate());
+    }
+
+    public void testCopy() throws Exception {
+        XmlObject doc = load();
+        XmlObject copy = doc.copy();
+
+        assertSame(copy.monitor(), copy.monitor());
+        assertEquals(doc.xmlText(), copy.xmlText());
+
+        XmlObject r = (XmlObject) store(copy).find_element_user(R, 0);
+        ((SimpleValue) store(r).find_element_user(V, 0)).setIntValue(5);
+        assertEquals(5, ((SimpleValue) store(r).find_element_user(V, 0)).getIntValue());
+    }
+
+    public void testFreeze() throws Throwable {
+        XmlObject doc = load(null);
+        XmlObject r = (XmlObject) store(doc).find_element_user(R, 0);
+        SimpleValue v = (SimpleValue) store(r).find_element_user(V, 0);
+
+        // The text of v is only held by the typed object until frozen
+        v.setIntValue(0);
+        assertFalse(doc.isFrozen());
+        assertSame(doc.monitor(), doc.monitor());
+
+        v.freeze();
+        assertTrue(doc.isFrozen());
+        assertTrue(r.isFrozen());
+        assertNotSame(doc.monitor(), doc.monitor());
+
+        try {
+            v.setIntValue(1);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(0, v.getIntValue());
+        assertTrue(doc.xmlText().indexOf("<v>0</v>") > 0);
+
+        readConcurrently(doc);
+
+        doc.freeze();
+        XmlObject copy = doc.copy();
+        assertFalse(copy.isFrozen());
+        assertEquals(doc.xmlText(), copy.xmlText());
+    }
+
+    public void testReadCopiesOfFrozen() throws Throwable {
+        XmlObject doc = load(null);
+
+        // A copy made before the freeze is in the same synchronization
+        // domain, and its getters still need the lock
+        final XmlObject before = doc.copy();
+        doc.freeze();
+        final XmlObject after = doc.copy();
+
+        assertTrue(doc.isFrozen());
+        assertFalse(before.isFrozen());
+        assertFalse(after.isFrozen());
+        assertSame(before.monitor(), before.monitor());
+        assertNotSame(doc.monitor(), before.monitor());
+
+        final XmlObject[] docs = {doc, before, after};
+        final Throwable[] errors = new Throwable[THREAD_COUNT];
+
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int n = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++)
+                            read(docs[(n + i) % docs.length]);
+                    } catch (Throwable e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+        }
+
+        for (int t = 0; t < THREAD_COUNT; t++)
+            threads[t].start();
+        for (int t = 0; t < THREAD_COUNT; t++)
+            threads[t].join();
+        for (int t = 0; t < THREAD_COUNT; t++)
+            if (errors[t] != null)
+                throw errors[t];
+    }
+
+    public void testFreezeSharedDomain() throws Exception {
+        XmlObject doc = XmlObject.Factory.parse("<a/>");
+        XmlObject other = XmlObject.Factory.parse("<b/>");
+        XmlOptions opts = new XmlOptions();
+        opts.put("USE_SAME_LOCALE", doc);
+        XmlObject.Factory.newInstance(opts);
+
+        try {
+            doc.freeze();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        assertFalse(doc.isFrozen());
+
+        other.freeze();
+        try {
+            opts.put("USE_SAME_LOCALE", other);
+            XmlObject.Factory.newInstance(opts);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
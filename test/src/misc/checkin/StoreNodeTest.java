@@ -0,0 +1,167 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package misc.checkin;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.impl.store.StoreNode;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The read only view of the store used by tree models which navigate it
+ * in place.
+ */
+public class StoreNodeTest extends TestCase {
+    private static final String DOC =
+        "<!--c--><p:a xmlns:p='urn:p' xmlns='urn:d' p:x='1' y='2'>" +
+            "lead<b>text</b>mid<?pi data?><c/>tail</p:a>";
+
+    public StoreNodeTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StoreNodeTest.class);
+    }
+
+    private static String describe(StoreNode n) {
+        switch (n.getNodeType()) {
+            case Node.DOCUMENT_NODE:
+                return "#doc";
+            case Node.TEXT_NODE:
+                return "'" + n.getStringValue() + "'";
+            case Node.COMMENT_NODE:
+                return "!" + n.getStringValue();
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                return "?" + n.getLocalName() + "=" + n.getStringValue();
+            case Node.ATTRIBUTE_NODE:
+                return "@" + n.getLocalName() + "=" + n.getStringValue();
+            default:
+                return n.getLocalName();
+        }
+    }
+
+    /** Every node in document order, attributes after their element. */
+    private static List walk(StoreNode n, List nodes) {
+        nodes.add(n);
+        for (StoreNode a = n.getFirstAttribute(); a != null;
+             a = a.getNextAttribute())
+            nodes.add(a);
+        for (StoreNode c = n.getFirstChild(); c != null; c = c.getNextSibling())
+            walk(c, nodes);
+        return nodes;
+    }
+
+    private static StoreNode document(XmlObject xo) {
+        return StoreNode.forDom(xo.getDomNode());
+    }
+
+    public void testNavigation() throws Exception {
+        StoreNode doc = document(XmlObject.Factory.parse(DOC));
+
+        List nodes = walk(doc, new ArrayList());
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < nodes.size(); i++)
+            sb.append(describe((StoreNode) nodes.get(i))).append(" ");
+
+        assertEquals("#doc !c a @x=1 @y=2 'lead' b 'text' 'mid' ?pi=data" +
+            " c 'tail' ", sb.toString());
+
+        // Backwards and up give the same nodes
+        StoreNode a = doc.getFirstChild().getNextSibling();
+        List children = new ArrayList();
+        for (StoreNode c = a.getFirstChild(); c != null; c = c.getNextSibling())
+            children.add(c);
+        for (int i = children.size() - 1; i > 0; i--) {
+            StoreNode c = (StoreNode) children.get(i);
+            assertEquals(children.get(i - 1), c.getPreviousSibling());
+            assertEquals(a, c.getParent());
+        }
+        assertNull(((StoreNode) children.get(0)).getPreviousSibling());
+        assertEquals(doc, a.getFirstAttribute().getRoot());
+    }
+
+    public void testNames() throws Exception {
+        StoreNode a = document(XmlObject.Factory.parse(DOC))
+            .getFirstChild().getNextSibling();
+
+        assertEquals("p", a.getPrefix());
+        assertEquals("urn:p", a.getNamespaceURI());
+        assertEquals("1", a.getAttributeValue("urn:p", "x"));
+        assertEquals("2", a.getAttributeValue("", "y"));
+        assertNull(a.getAttributeValue("", "x"));
+        assertEquals(Arrays.asList(new String[] {"p", "urn:p", "", "urn:d"}),
+            Arrays.asList(a.getNamespaceDeclarations()));
+
+        assertEquals("leadtextmidtail", a.getStringValue());
+        assertEquals("leadtextmidtail", a.getRoot().getStringValue());
+    }
+
+    public void testDom() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+        StoreNode doc = document(xo);
+
+        List nodes = walk(doc, new ArrayList());
+        for (int i = 0; i < nodes.size(); i++) {
+            StoreNode n = (StoreNode) nodes.get(i);
+            Node dom = n.getDom();
+
+            assertEquals(n.getNodeType(), dom.getNodeType());
+            assertEquals(n, StoreNode.forDom(dom));
+        }
+
+        assertSame(xo.getDomNode(), doc.getDom());
+        assertNull(StoreNode.forDom("not a node"));
+    }
+
+    public void testNumbering() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+        List nodes = walk(document(xo), new ArrayList());
+
+        StoreNode.Numbering numbering = new StoreNode.Numbering();
+        for (int i = 1; i < nodes.size(); i++) {
+            StoreNode prev = (StoreNode) nodes.get(i - 1);
+            StoreNode n = (StoreNode) nodes.get(i);
+
+            assertTrue(numbering.getNumber(prev) < numbering.getNumber(n));
+            assertEquals(-1, numbering.compare(prev, n));
+            assertEquals(1, numbering.compare(n, prev));
+            assertEquals(0, numbering.compare(n, StoreNode.forDom(n.getDom())));
+        }
+
+        // Changes to the tree number it again
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toFirstChild();
+            c.insertElement("new");
+        } finally {
+            c.dispose();
+        }
+
+        nodes = walk(document(xo), new ArrayList());
+        for (int i = 1; i < nodes.size(); i++)
+            assertEquals(-1, numbering.compare((StoreNode) nodes.get(i - 1),
+                (StoreNode) nodes.get(i)));
+    }
+}
@@ -0,0 +1,106 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlcursor.xpath.xbean_xpath.detailed;
+
+import junit.framework.TestCase;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.impl.store.CompiledCache;
+
+/**
+ * The shared cache of compiled paths
+ */
+public class CompiledPathCacheTest extends TestCase {
+    private static final String DOC = "<a><b>1</b><b>2</b><c/></a>";
+
+    public void testHits() throws Exception {
+        CompiledCache cache = CompiledCache.getInstance();
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+
+        String path = "./a/d" + System.identityHashCode(this);
+        long misses = cache.getMisses();
+        assertEquals(0, xo.selectPath(path).length);
+        assertEquals(misses + 1, cache.getMisses());
+
+        long hits = cache.getHits();
+        xo.selectPath(path);
+        xo.selectPath(path);
+        assertEquals(hits + 2, cache.getHits());
+
+        assertEquals(2, xo.selectPath("./a/b").length);
+    }
+
+    public void testCurrentNodeVariable() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+        XmlOptions opts = new XmlOptions().setXqueryCurrentNodeVar("cur");
+
+        assertEquals(2, xo.selectPath("$cur/a/b", opts).length);
+
+        // The same expression compiled for another variable is not reused
+        try {
+            xo.selectPath("$cur/a/b");
+            fail("Expected $cur to be unknown without the option");
+        } catch (RuntimeException e) {
+        }
+
+        assertEquals(2, xo.selectPath("$cur/a/b", opts).length);
+    }
+
+    public void testEviction() throws Exception {
+        CompiledCache cache = CompiledCache.getInstance();
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+
+        long evictions = cache.getEvictions();
+        for (int i = 0; i <= cache.getMaxSize(); i++)
+            xo.selectPath("./a/c" + i);
+
+        assertTrue(cache.getEvictions() > evictions);
+        assertTrue(cache.size() <= cache.getMaxSize());
+
+        // The most recent ones are kept
+        long hits = cache.getHits();
+        xo.selectPath("./a/c" + cache.getMaxSize());
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+    public void testThreads() throws Exception {
+        final XmlObject xo = XmlObject.Factory.parse(DOC);
+        final Throwable[] failure = new Throwable[1];
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            int n = xo.selectPath("./a/b[" + (i % 50 + 1) + "]").length;
+                            if (n != (i % 50 < 2 ? 1 : 0))
+                                throw new AssertionError("Got " + n + " for " + i);
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+
+        if (failure[0] != null)
+            throw new RuntimeException(failure[0]);
+    }
+}
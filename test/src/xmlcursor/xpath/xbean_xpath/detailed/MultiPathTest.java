@@ -0,0 +1,108 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlcursor.xpath.xbean_xpath.detailed;
+
+import junit.framework.TestCase;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.impl.store.MultiPath;
+
+/**
+ * Several paths selected in one walk
+ */
+public class MultiPathTest extends TestCase {
+    private static final String DOC =
+        "<a xmlns:p='urn:p'>" +
+        "<b id='1'>one<c>x</c></b>" +
+        "<b id='2'>two<p:c p:x='y'>z</p:c><b id='4'>four</b></b>" +
+        "<b id='3'>three</b>" +
+        "</a>";
+
+    private static final String[] PATHS = {
+        "./a/b",
+        ".//b",
+        ".//b/@id",
+        "./a/b[@id='2']/b",
+        "./a/b[3]",
+        "./a/b/text()",
+        "declare namespace p='urn:p' .//p:c/@p:x",
+        "./a/b/c | ./a/b[1]",
+        ".",
+        "./a/b/c/..",
+        "./a/nothing",
+    };
+
+    private static String dump(XmlCursor c) {
+        StringBuffer sb = new StringBuffer();
+        sb.append(c.getSelectionCount()).append(':');
+        while (c.toNextSelection())
+            sb.append(' ').append(c.currentTokenType()).append('=').append(c.xmlText());
+        return sb.toString();
+    }
+
+    public void testSameAsSelectPath() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+        MultiPath mp = MultiPath.compile(PATHS, null);
+        assertEquals(PATHS.length, mp.size());
+
+        XmlCursor xc = xo.newCursor();
+        XmlCursor[] results = mp.select(xc);
+
+        for (int i = 0; i < PATHS.length; i++) {
+            XmlCursor one = xo.newCursor();
+            one.selectPath(PATHS[i]);
+            assertEquals(PATHS[i], dump(one), dump(results[i]));
+            one.dispose();
+            results[i].dispose();
+        }
+
+        // The context cursor is not moved
+        assertTrue(xc.isStartdoc());
+        xc.dispose();
+    }
+
+    public void testObjects() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+        MultiPath mp = MultiPath.compile(new String[] {
+            "./a/b", ".//b/@id", "./a/b[@id='3']"}, null);
+
+        XmlObject[][] results = mp.select(xo);
+
+        assertEquals(3, results[0].length);
+        assertEquals(4, results[1].length);
+        assertEquals(1, results[2].length);
+        assertEquals("three", results[2][0].newCursor().getTextValue());
+
+        // Relative to an element
+        XmlObject b = xo.selectPath("./a/b[2]")[0];
+        results = mp.select(b);
+        assertEquals(0, results[0].length);
+        assertEquals(1, results[1].length);
+    }
+
+    public void testEmpty() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+        assertEquals(0, MultiPath.compile(new String[0], null).select(xo).length);
+    }
+
+    public void testBadPath() throws Exception {
+        try {
+            MultiPath.compile(new String[] {"./a", "./a[["}, null);
+            fail("Expected the bad path to fail compiling");
+        } catch (RuntimeException e) {
+        }
+    }
+}
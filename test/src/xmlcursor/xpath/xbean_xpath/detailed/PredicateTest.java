@@ -0,0 +1,115 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlcursor.xpath.xbean_xpath.detailed;
+
+import junit.framework.TestCase;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.impl.common.XPath;
+
+/**
+ * Predicates, text() and .. run by the XBean path engine
+ */
+public class PredicateTest extends TestCase {
+    String sXml = "<doc xmlns:p='urn:p'>" +
+            "<item id='1'><name>one</name><v>x</v></item>" +
+            "<item id='2'><name>two</name><v>y</v><!--c-->tail</item>" +
+            "<item id='3' p:k='k'><name>three</name><v>x</v></item>" +
+            "<other><item id='4'><name>four</name></item></other>" +
+            "</doc>";
+
+    private String select(String sQuery) throws XmlException {
+        return select(XmlObject.Factory.parse(sXml).newCursor(), sQuery);
+    }
+
+    private String select(XmlCursor c, String sQuery) {
+        c.selectPath(sQuery);
+        StringBuffer sb = new StringBuffer();
+        while (c.toNextSelection()) {
+            if (sb.length() > 0)
+                sb.append("|");
+            sb.append(c.isText() ? c.getChars() : c.getTextValue());
+        }
+        return sb.toString();
+    }
+
+    public void testAttributeValue() throws XmlException {
+        assertEquals("two", select("./doc/item[@id='2']/name"));
+        assertEquals("two", select("$this/doc/item[@id=\"2\"]/name"));
+        assertEquals("", select("./doc/item[@id='5']/name"));
+        assertEquals("three", select("declare namespace q='urn:p'; " +
+                ".//item[@q:k]/name"));
+        assertEquals("onetwothreefour", select(".//item[@id]/name")
+                .replaceAll("\\|", ""));
+    }
+
+    public void testChildValue() throws XmlException {
+        assertEquals("1|3", select("./doc/item[v='x']/@id"));
+        assertEquals("4", select(".//item[name='four']/@id"));
+        assertEquals("1|2|3", select("./doc/item[v]/@id"));
+        assertEquals("2", select("./doc/item[name][v='y']/@id"));
+        assertEquals("one", select("./doc/item/name[.='one']"));
+        assertEquals("2", select("./doc/item[text()='tail']/@id"));
+    }
+
+    public void testPosition() throws XmlException {
+        assertEquals("2", select("./doc/item[2]/@id"));
+        assertEquals("2", select("./doc/item[position()=2]/@id"));
+        assertEquals("3", select("./doc/item[v='x'][2]/@id"));
+        assertEquals("", select("./doc/item[2][v='x']/@id"));
+        // Positions count among the children of each parent
+        assertEquals("1|4", select(".//item[1]/@id"));
+    }
+
+    public void testText() throws XmlException {
+        assertEquals("tail", select("./doc/item/text()"));
+        assertEquals("one|two|tail|three|four",
+                select("./doc//text()").replaceAll("\\|[xy]", ""));
+    }
+
+    public void testParent() throws XmlException {
+        assertEquals("4", select(".//name[.='four']/../@id"));
+        assertEquals("1|3", select("./doc/item/v[.='x']/../@id"));
+        assertEquals("one", select("./doc/item[1]/v/../name"));
+
+        XmlCursor c = XmlObject.Factory.parse(sXml).newCursor();
+        c.toFirstChild();
+        c.toFirstChild();
+        assertEquals("2", select(c, "../item[name='two']/@id"));
+    }
+
+    public void testUnion() throws XmlException {
+        assertEquals("1|3|4", select("./doc/item[1]/@id | ./doc/item[3]/@id" +
+                " | .//other/item/@id"));
+    }
+
+    public void testDeepAttribute() throws XmlException {
+        assertEquals("1|2|3|4", select(".//item/@id"));
+        assertEquals("4", select(".//other/*/@id"));
+    }
+
+    public void testIdentityConstraintGrammar() throws Exception {
+        // Identity constraints keep the grammar without predicates
+        try {
+            XPath.compileXPath("a[@x='1']");
+            fail("Expected predicates to be rejected");
+        } catch (XPath.XPathCompileException e) {
+        }
+
+        XPath.compileXPath("a[@x='1']/../b/text()", "$this", null, true);
+    }
+}
@@ -0,0 +1,175 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlcursor.xpath.xbean_xpath.detailed;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.impl.common.StreamingXPath;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.InputSource;
+
+/**
+ * Paths evaluated on the events of a document
+ */
+public class StreamingXPathTest extends TestCase {
+    private static final String DOC =
+        "<a xmlns:p='urn:p'>" +
+        "<b id='1'>one</b>" +
+        "<b id='2'>two<p:c p:x='y'>&amp;more</p:c></b>" +
+        "<b id='3'>three</b>" +
+        "</a>";
+
+    private static InputStream in(String xml) {
+        return new ByteArrayInputStream(xml.getBytes());
+    }
+
+    private static Map namespaces() {
+        Map ns = new HashMap();
+        ns.put("p", "urn:p");
+        return ns;
+    }
+
+    public void testSeveralPaths() throws Exception {
+        StreamingXPath sx = new StreamingXPath();
+        int b = sx.addPath("./a/b", null);
+        int id = sx.addPath("./a/b/@id", null);
+        int c = sx.addPath("./a/b/p:c", namespaces());
+
+        List[] matches = sx.selectAll(in(DOC));
+
+        assertEquals(Arrays.asList(new String[] {"one", "two&more", "three"}), matches[b]);
+        assertEquals(Arrays.asList(new String[] {"1", "2", "3"}), matches[id]);
+        assertEquals(Arrays.asList(new String[] {"&more"}), matches[c]);
+    }
+
+    public void testPredicates() throws Exception {
+        StreamingXPath sx = new StreamingXPath();
+        int attr = sx.addPath("./a/b[@id='3']", null);
+        int pos = sx.addPath("./a/b[2]/@id", null);
+
+        List[] matches = sx.selectAll(in(DOC));
+
+        assertEquals(Arrays.asList(new String[] {"three"}), matches[attr]);
+        assertEquals(Arrays.asList(new String[] {"2"}), matches[pos]);
+    }
+
+    public void testText() throws Exception {
+        StreamingXPath sx = new StreamingXPath();
+        int text = sx.addPath("./a/b/text()", null, false);
+
+        assertEquals(Arrays.asList(new String[] {"one", "two", "three"}), sx.selectAll(in(DOC))[text]);
+    }
+
+    public void testFragments() throws Exception {
+        StreamingXPath sx = new StreamingXPath();
+        int b = sx.addPath("./a/b[@id='2']", null, true);
+        int c = sx.addPath(".//p:c", namespaces(), true);
+
+        List[] matches = sx.selectAll(in(DOC));
+
+        assertEquals(Arrays.asList(new String[] {
+            "<b xmlns:p=\"urn:p\" id=\"2\">two<p:c p:x=\"y\">&amp;more</p:c></b>"}),
+            matches[b]);
+        assertEquals(Arrays.asList(new String[] {
+            "<p:c xmlns:p=\"urn:p\" p:x=\"y\">&amp;more</p:c>"}),
+            matches[c]);
+    }
+
+    public void testStop() throws Exception {
+        StreamingXPath sx = new StreamingXPath();
+        sx.addPath("./a/b/@id", null);
+
+        final List seen = new ArrayList();
+        boolean done = sx.evaluate(in(DOC), new StreamingXPath.MatchHandler() {
+            public boolean match(int id, String value) {
+                seen.add(value);
+                return seen.size() < 2;
+            }
+        });
+
+        assertFalse(done);
+        assertEquals(Arrays.asList(new String[] {"1", "2"}), seen);
+
+        assertTrue(sx.matches(in(DOC)));
+        assertFalse(sx.matches(in("<a><b/></a>")));
+    }
+
+    public void testSax() throws Exception {
+        StreamingXPath sx = new StreamingXPath();
+        sx.addPath("./a/b[@id='2']", null, true);
+        sx.addPath("./a/b/@id", null);
+
+        final List seen = new ArrayList();
+        StreamingXPath.MatchHandler handler = new StreamingXPath.MatchHandler() {
+            public boolean match(int id, String value) {
+                seen.add(id + ":" + value);
+                return true;
+            }
+        };
+
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(sx.newContentHandler(handler));
+        reader.parse(new InputSource(in(DOC)));
+
+        assertEquals(Arrays.asList(new String[] {
+            "1:1", "1:2",
+            "0:<b xmlns:p=\"urn:p\" id=\"2\">two<p:c p:x=\"y\">&amp;more</p:c></b>",
+            "1:3"}), seen);
+
+        // Stopping throws out of the parse
+        seen.clear();
+        reader.setContentHandler(sx.newContentHandler(new StreamingXPath.MatchHandler() {
+            public boolean match(int id, String value) {
+                seen.add(value);
+                return false;
+            }
+        }));
+        try {
+            reader.parse(new InputSource(in(DOC)));
+            fail("Expected the parse to stop");
+        } catch (SAXException e) {
+        }
+        assertEquals(1, seen.size());
+    }
+
+    public void testNotStreamable() throws Exception {
+        StreamingXPath sx = new StreamingXPath();
+        try {
+            sx.addPath("./a/b[c]", null);
+            fail("Expected a child predicate to be refused");
+        } catch (XmlException e) {
+        }
+        try {
+            sx.addPath("./a/b/..", null);
+            fail("Expected .. to be refused");
+        } catch (XmlException e) {
+        }
+        assertEquals(0, sx.size());
+    }
+}
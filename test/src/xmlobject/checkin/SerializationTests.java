@@ -24,6 +24,7 @@ import com.easypo.XmlPurchaseOrderDocumentBean.PurchaseOrder;
 import com.easypo.XmlLineItemBean;
 import com.easypo.XmlShipperBean;
 import com.easypo.XmlPurchaseOrderDocumentBean;
+import org.apache.xmlbeans.XmlInt;
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.SchemaTypeLoader;
 import org.apache.xmlbeans.XmlBeans;
@@ -71,6 +72,33 @@ public class SerializationTests extends TestCase
         Assert.assertEquals(simpleDocument, newdoc.xmlText());
     }
 
+    public void testDocumentSerialization() throws Exception
+    {
+        String document =
+            "<!--c--><p:a xmlns:p=\"urn:p\" p:x=\"é\"><b>text &amp; 中文</b><?pi data?><c/></p:a>";
+        XmlObject doc = XmlObject.Factory.parse(document);
+        XmlObject typed = XmlObject.Factory.parse("<xml-fragment>5</xml-fragment>",
+            new XmlOptions().setDocumentType(XmlInt.type));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(doc);
+        oos.writeObject(typed);
+        oos.writeObject(doc.selectPath("*/b")[0]);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()));
+        XmlObject newdoc = (XmlObject)ois.readObject();
+        XmlObject newtyped = (XmlObject)ois.readObject();
+        XmlObject newb = (XmlObject)ois.readObject();
+        ois.close();
+
+        Assert.assertEquals(doc.xmlText(), newdoc.xmlText());
+        Assert.assertEquals(5, ((XmlInt)newtyped).getIntValue());
+        Assert.assertEquals(doc.selectPath("*/b")[0].xmlText(), newb.xmlText());
+        Assert.assertEquals(newdoc.selectPath("*/b")[0], newb);
+    }
+
     public void testXBeanSerialization() throws Exception
     {
         XmlPurchaseOrderDocumentBean doc = XmlPurchaseOrderDocumentBean.Factory.newInstance();
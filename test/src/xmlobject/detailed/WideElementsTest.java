@@ -0,0 +1,149 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlobject.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.QNameSet;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.impl.values.TypeStore;
+import org.apache.xmlbeans.impl.values.XmlObjectBase;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Indexed access to the children of elements with many repeated children,
+ * before and after the structure of the document changes.
+ */
+public class WideElementsTest extends TestCase {
+    private static final QName A = new QName("a");
+    private static final QName B = new QName("b");
+
+    public WideElementsTest(String name) {
+        super(name);
+    }
+
+    public static Test suite() {
+        return new TestSuite(WideElementsTest.class);
+    }
+
+    private static XmlObject wide(int n) throws Exception {
+        StringBuffer sb = new StringBuffer("<r>");
+        for (int i = 0; i < n; i++)
+            sb.append(i % 3 == 0 ? "<b>" : "<a>").append(i)
+              .append(i % 3 == 0 ? "</b>" : "</a>").append(' ');
+        sb.append("</r>");
+
+        XmlObject doc = XmlObject.Factory.parse(sb.toString());
+        XmlCursor c = doc.newCursor();
+        try {
+            c.toFirstChild();
+            return c.getObject();
+        } finally {
+            c.dispose();
+        }
+    }
+
+    private static TypeStore store(XmlObject xo) {
+        return ((XmlObjectBase) xo).get_store();
+    }
+
+    private static String text(Object user) {
+        return ((XmlObject) user).newCursor().getTextValue();
+    }
+
+    /** The n'th child named name, by walking the cursor. */
+    private static String walk(XmlObject parent, QName name, int n) {
+        XmlCursor c = parent.newCursor();
+        try {
+            return c.toChild(name, n) ? c.getTextValue() : null;
+        } finally {
+            c.dispose();
+        }
+    }
+
+    public void testFindAndCount() throws Exception {
+        XmlObject r = wide(300);
+        TypeStore s = store(r);
+
+        synchronized (r.monitor()) {
+            assertEquals(200, s.count_elements(A));
+            assertEquals(100, s.count_elements(B));
+
+            for (int i = 0; i < 200; i++)
+                assertEquals(walk(r, A, i), text(s.find_element_user(A, i)));
+            for (int i = 0; i < 100; i++)
+                assertEquals(Integer.toString(i * 3),
+                    text(s.find_element_user(B, i)));
+
+            assertNull(s.find_element_user(A, 200));
+            assertNull(s.find_element_user(new QName("c"), 0));
+
+            QNameSet both = QNameSet.forArray(new QName[] {A, B});
+            assertEquals(300, s.count_elements(both));
+            for (int i = 0; i < 300; i++)
+                assertEquals(Integer.toString(i),
+                    text(s.find_element_user(both, i)));
+
+            List all = new ArrayList();
+            s.find_all_element_users(B, all);
+            assertEquals(100, all.size());
+            assertEquals("297", text(all.get(99)));
+        }
+    }
+
+    public void testStructureChange() throws Exception {
+        XmlObject r = wide(100);
+        TypeStore s = store(r);
+
+        synchronized (r.monitor()) {
+            assertEquals(66, s.count_elements(A));
+            assertEquals("1", text(s.find_element_user(A, 0)));
+
+            s.remove_element(A, 0);
+            assertEquals(65, s.count_elements(A));
+            assertEquals("2", text(s.find_element_user(A, 0)));
+
+            s.insert_element_user(A, 10);
+            assertEquals(66, s.count_elements(A));
+            assertEquals("", text(s.find_element_user(A, 10)));
+            assertEquals(walk(r, A, 11), text(s.find_element_user(A, 11)));
+
+            // Changing text only does not change the children
+
+            ((XmlObject) s.find_element_user(A, 10)).newCursor().setTextValue("x");
+            assertEquals("x", text(s.find_element_user(A, 10)));
+        }
+
+        XmlCursor c = r.newCursor();
+        try {
+            c.toChild(B, 0);
+            c.setName(A);
+        } finally {
+            c.dispose();
+        }
+
+        synchronized (r.monitor()) {
+            assertEquals(67, s.count_elements(A));
+            assertEquals(33, s.count_elements(B));
+            assertEquals("0", text(s.find_element_user(A, 0)));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlobject.xmlloader.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlInt;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class BinaryXmlTest extends TestCase {
+    private static final String[] DOCS = {
+        "<a x='1' y=\"two\">text<b>more</b>tail</a>",
+        "<p:a xmlns:p='urn:p' xmlns='urn:d' p:x='v'><b p:y='w'/>" +
+            "<p:c xmlns:p='urn:q'><p:d/></p:c><e xmlns=''/></p:a>",
+        "<!--before--><a>Procter &amp; Gamble<!--c--><?pi data?><?empty?></a><?after?>",
+        "<a>café 中文 𝄞<b x='é'>ÿ</b></a>",
+        "<xml-fragment>lead<a/>tail</xml-fragment>",
+    };
+
+    public BinaryXmlTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(BinaryXmlTest.class);
+    }
+
+    private static byte[] saveBinary(XmlObject xo) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        xo.saveBinary(bos);
+        return bos.toByteArray();
+    }
+
+    private static XmlObject roundTrip(XmlObject xo) throws Exception {
+        return XmlObject.Factory.parseBinary(
+            new ByteArrayInputStream(saveBinary(xo)));
+    }
+
+    public void testSameDocument() throws Exception {
+        for (int i = 0; i < DOCS.length; i++) {
+            XmlObject xo = XmlObject.Factory.parse(DOCS[i]);
+            assertEquals(DOCS[i], xo.xmlText(), roundTrip(xo).xmlText());
+        }
+    }
+
+    public void testLongText() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 20000; i++)
+            sb.append((char) ('a' + i % 26)).append(i % 1000 == 0 ? "€" : "");
+        String text = sb.toString();
+
+        XmlObject xo = XmlObject.Factory.newInstance();
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toNextToken();
+            c.beginElement("a");
+            c.insertAttributeWithValue("x", text);
+            c.insertChars(text);
+            c.insertElementWithText("b", text.substring(0, 10000));
+        } finally {
+            c.dispose();
+        }
+
+        assertEquals(xo.xmlText(), roundTrip(xo).xmlText());
+
+        xo = XmlObject.Factory.parse("<a>" + text + "<!--" + text + "--></a>");
+        assertEquals(xo.xmlText(), roundTrip(xo).xmlText());
+    }
+
+    public void testDocType() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(
+            "<!DOCTYPE a PUBLIC \"-//A//DTD A//EN\" \"a.dtd\"><a/>");
+        XmlOptions opts = new XmlOptions().setSaveOuter();
+
+        assertEquals(xo.xmlText(opts), roundTrip(xo).xmlText(opts));
+        assertEquals("a.dtd",
+            roundTrip(xo).documentProperties().getDoctypeSystemId());
+    }
+
+    public void testSaveCursor() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOCS[1]);
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toFirstChild();
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            c.saveBinary(bos);
+
+            assertEquals(c.xmlText(), XmlObject.Factory.parseBinary(
+                new ByteArrayInputStream(bos.toByteArray())).xmlText());
+        } finally {
+            c.dispose();
+        }
+    }
+
+    public void testLoadOptions() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(
+            "<a> <b>  x  </b> <!--c--> </a>");
+
+        XmlOptions opts = new XmlOptions().setLoadStripWhitespace()
+            .setLoadStripComments();
+        XmlObject loaded = XmlObject.Factory.parseBinary(
+            new ByteArrayInputStream(saveBinary(xo)), opts);
+
+        assertEquals("<a><b>x</b></a>", loaded.xmlText());
+    }
+
+    public void testSavedType() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse("<xml-fragment>5</xml-fragment>",
+            new XmlOptions().setDocumentType(XmlInt.type));
+        assertTrue(xo instanceof XmlInt);
+
+        XmlObject loaded = roundTrip(xo);
+        assertTrue(loaded instanceof XmlInt);
+        assertEquals(5, ((XmlInt) loaded).getIntValue());
+
+        // The type in the options wins
+        XmlObject untyped = XmlObject.Factory.parseBinary(
+            new ByteArrayInputStream(saveBinary(xo)),
+            new XmlOptions().setDocumentType(XmlObject.type));
+        assertFalse(untyped instanceof XmlInt);
+    }
+
+    public void testConsumesOnlyTheDocument() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XmlObject.Factory.parse(DOCS[0]).saveBinary(bos);
+        XmlObject.Factory.parse(DOCS[3]).saveBinary(bos);
+        bos.write('!');
+
+        InputStream is = new ByteArrayInputStream(bos.toByteArray());
+
+        assertEquals(XmlObject.Factory.parse(DOCS[0]).xmlText(),
+            XmlObject.Factory.parseBinary(is).xmlText());
+        assertEquals(XmlObject.Factory.parse(DOCS[3]).xmlText(),
+            XmlObject.Factory.parseBinary(is).xmlText());
+        assertEquals('!', is.read());
+        assertEquals(-1, is.read());
+    }
+
+    public void testBadInput() throws Exception {
+        byte[] bytes = saveBinary(XmlObject.Factory.parse(DOCS[1]));
+
+        byte[][] bad = {
+            new byte[0],
+            "<a/>".getBytes("UTF-8"),
+            Arrays.copyOf(bytes, bytes.length - 1),
+            Arrays.copyOf(bytes, bytes.length / 2),
+        };
+
+        for (int i = 0; i < bad.length; i++) {
+            try {
+                XmlObject.Factory.parseBinary(new ByteArrayInputStream(bad[i]));
+                fail("Expected an XmlException for input " + i);
+            } catch (XmlException e) {
+            }
+        }
+
+        byte[] unknown = (byte[]) bytes.clone();
+        unknown[6] = 99;
+        try {
+            XmlObject.Factory.parseBinary(new ByteArrayInputStream(unknown));
+            fail("Expected an XmlException for an unknown opcode");
+        } catch (XmlException e) {
+        }
+
+        // The header followed by operations with null strings, referred to
+        // by 1, where a name, uri or target is needed
+        byte[][] nulls = {
+            {4, 1, 1, 0},           // xmlns with a null prefix and uri
+            {1, 0, 0, 6, 'u', 'r', 'n', 0, 2, 'a', 0, 0, 4, 4, 1, 2, 0},
+                                    // <a> then xmlns with a null uri
+            {7, 1, 0, 0},           // procinst with a null target
+            {8, 1, 1, 1, 0},        // doctype with a null name
+        };
+
+        for (int i = 0; i < nulls.length; i++) {
+            byte[] doc = new byte[6 + nulls[i].length];
+            System.arraycopy(bytes, 0, doc, 0, 6);
+            System.arraycopy(nulls[i], 0, doc, 6, nulls[i].length);
+            try {
+                XmlObject.Factory.parseBinary(new ByteArrayInputStream(doc));
+                fail("Expected an XmlException for null strings " + i);
+            } catch (XmlException e) {
+                assertTrue(e.getMessage(), e.getMessage().indexOf("Binary XML") >= 0);
+            }
+        }
+    }
+}
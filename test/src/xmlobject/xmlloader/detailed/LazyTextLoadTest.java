@@ -0,0 +1,125 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlobject.xmlloader.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.impl.store.Locale;
+
+import javax.xml.namespace.QName;
+
+public class LazyTextLoadTest extends TestCase {
+    private static final String[] DOCS = {
+        "<a x='1' y=\"two\">text<b>more</b>tail</a>",
+        "<a>Procter &amp; Gamble<b>&lt;x&gt;</b>&#65;BC</a>",
+        "<a>line\r\nend<![CDATA[<raw>]]>after<!--c--><?pi data?></a>",
+        "<a><b>1</b><b>1</b><b>11</b><c>1</c>1</a>",
+        "<p:a xmlns:p='urn:p' p:x='v'> <p:b>  spaced  </p:b> </p:a>",
+    };
+
+    public LazyTextLoadTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(LazyTextLoadTest.class);
+    }
+
+    private static XmlOptions lazyOptions() {
+        return new XmlOptions().setLoadLazyText();
+    }
+
+    public void testSameDocument() throws Exception {
+        for (int i = 0; i < DOCS.length; i++) {
+            assertEquals(DOCS[i], XmlObject.Factory.parse(DOCS[i]).xmlText(),
+                XmlObject.Factory.parse(DOCS[i], lazyOptions()).xmlText());
+        }
+    }
+
+    public void testTextNotCopied() throws Exception {
+        // The locale's char arena holds all text copied into the document
+        XmlOptions opts = lazyOptions();
+        opts.setLoadUseCharArena();
+
+        // Attribute values are always copied
+        XmlObject lazy = XmlObject.Factory.parse(
+            "<a>text<b>more</b>tail<c/>end</a>", opts);
+        assertEquals(0, ((Locale) lazy.monitor()).getCharArenaSize());
+
+        XmlObject copied = XmlObject.Factory.parse(DOCS[1], opts);
+        assertTrue(((Locale) copied.monitor()).getCharArenaSize() > 0);
+    }
+
+    public void testLargeText() throws Exception {
+        // Long text is reported in several pieces, which follow each other
+        // in the source
+        StringBuffer sb = new StringBuffer("<a>");
+        for (int i = 0; i < 5000; i++) {
+            sb.append("<b>value ").append(i).append("</b>\n");
+        }
+        sb.append("<c>");
+        for (int i = 0; i < 100000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        sb.append("</c></a>");
+        String doc = sb.toString();
+
+        XmlOptions opts = lazyOptions();
+        opts.setLoadUseCharArena();
+
+        XmlObject xo = XmlObject.Factory.parse(doc, opts);
+        assertEquals(0, ((Locale) xo.monitor()).getCharArenaSize());
+        assertEquals(XmlObject.Factory.parse(doc).xmlText(), xo.xmlText());
+    }
+
+    public void testStripWhitespace() throws Exception {
+        XmlOptions opts = lazyOptions();
+        opts.setLoadStripWhitespace();
+
+        XmlObject xo = XmlObject.Factory.parse(DOCS[4], opts);
+        assertEquals("<p:a p:x=\"v\" xmlns:p=\"urn:p\"><p:b>spaced</p:b></p:a>",
+            xo.xmlText());
+    }
+
+    public void testModify() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOCS[0], lazyOptions());
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.setAttributeText(new QName("x"), "changed");
+            c.toFirstContentToken();
+            c.toNextChar(2);
+            c.insertChars("--");
+            c.toNextToken();
+            c.removeXml();
+        } finally {
+            c.dispose();
+        }
+        assertEquals("<a x=\"changed\" y=\"two\">te--xttail</a>", xo.xmlText());
+    }
+
+    public void testReadOnly() throws Exception {
+        XmlOptions opts = lazyOptions();
+        opts.setLoadReadOnly();
+
+        XmlObject xo = XmlObject.Factory.parse(DOCS[2], opts);
+        assertEquals(XmlObject.Factory.parse(DOCS[2]).xmlText(), xo.xmlText());
+    }
+}
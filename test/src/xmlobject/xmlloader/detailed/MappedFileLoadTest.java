@@ -0,0 +1,143 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlobject.xmlloader.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.impl.common.MappedXmlReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.CharacterCodingException;
+
+public class MappedFileLoadTest extends TestCase {
+    // Latin-1, CJK and a character outside the BMP
+    private static final String TEXT = "café 中文 𝄞";
+
+    public MappedFileLoadTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(MappedFileLoadTest.class);
+    }
+
+    private static File write(byte[] bom, String xml, String encoding)
+        throws Exception {
+        File f = File.createTempFile("mapped", ".xml");
+        f.deleteOnExit();
+
+        OutputStream os = new FileOutputStream(f);
+        try {
+            os.write(bom);
+            os.write(xml.getBytes(encoding));
+        } finally {
+            os.close();
+        }
+        return f;
+    }
+
+    private static void assertSameLoad(File f) throws Exception {
+        XmlObject mapped = XmlObject.Factory.parse(f,
+            new XmlOptions().setLoadMapFile());
+        XmlObject streamed = XmlObject.Factory.parse(f);
+
+        assertEquals(streamed.xmlText(), mapped.xmlText());
+        assertEquals(f.toURI().normalize().toString(),
+            mapped.documentProperties().getSourceName());
+    }
+
+    public void testEncodings() throws Exception {
+        String xml = "<a x='" + TEXT + "'>" + TEXT + "</a>";
+
+        assertSameLoad(write(new byte[0], xml, "UTF-8"));
+        assertSameLoad(write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF},
+            xml, "UTF-8"));
+        assertSameLoad(write(new byte[0], xml, "UTF-16"));
+        assertSameLoad(write(new byte[0],
+            "<?xml version='1.0' encoding='ISO-8859-1'?><a>café</a>",
+            "ISO-8859-1"));
+    }
+
+    public void testReadCharByChar() throws Exception {
+        File f = write(new byte[0], "<a>" + TEXT + "</a>", "UTF-8");
+
+        MappedXmlReader r = new MappedXmlReader(f);
+        try {
+            assertEquals("UTF-8", r.getXmlEncoding());
+
+            StringBuffer sb = new StringBuffer();
+            for (int ch; (ch = r.read()) >= 0; )
+                sb.append((char) ch);
+            assertEquals("<a>" + TEXT + "</a>", sb.toString());
+            assertEquals(-1, r.read());
+        } finally {
+            r.close();
+        }
+    }
+
+    public void testEmptyAndMalformed() throws Exception {
+        File empty = write(new byte[0], "", "UTF-8");
+        try {
+            XmlObject.Factory.parse(empty, new XmlOptions().setLoadMapFile());
+            fail("Expected XmlException");
+        } catch (XmlException e) {
+        }
+
+        File bad = write(new byte[0], "<a><b></a>", "UTF-8");
+        try {
+            XmlObject.Factory.parse(bad, new XmlOptions().setLoadMapFile());
+            fail("Expected XmlException");
+        } catch (XmlException e) {
+        }
+    }
+
+    public void testInvalidBytes() throws Exception {
+        // A lone continuation byte is not UTF-8
+        File f = write(new byte[0], "<a>x", "UTF-8");
+        OutputStream os = new FileOutputStream(f, true);
+        try {
+            os.write(new byte[] {(byte) 0x80});
+            os.write("</a>".getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+
+        try {
+            XmlObject.Factory.parse(f, new XmlOptions().setLoadMapFile());
+            fail("Expected XmlException");
+        } catch (XmlException e) {
+        }
+
+        MappedXmlReader r = new MappedXmlReader(f);
+        try {
+            char[] buf = new char[16];
+            assertEquals(4, r.read(buf, 0, buf.length));
+            try {
+                r.read(buf, 0, buf.length);
+                fail("Expected CharacterCodingException");
+            } catch (CharacterCodingException e) {
+            }
+        } finally {
+            r.close();
+        }
+    }
+}
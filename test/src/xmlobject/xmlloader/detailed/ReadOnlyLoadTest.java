@@ -0,0 +1,159 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlobject.xmlloader.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlInt;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlString;
+import org.apache.xmlbeans.impl.store.Locale;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+
+public class ReadOnlyLoadTest extends TestCase {
+    private static final String XML =
+        "<a x=\"1\"><!--c--><b>text</b>tail<?pi data?><c y='2'>more</c></a>";
+
+    public ReadOnlyLoadTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ReadOnlyLoadTest.class);
+    }
+
+    private static XmlOptions readOnlyOptions() {
+        return new XmlOptions().setLoadReadOnly();
+    }
+
+    public void testSameContent() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(XML, readOnlyOptions());
+        assertEquals(XmlObject.Factory.parse(XML).xmlText(), xo.xmlText());
+
+        XmlObject[] c = xo.selectPath("./a/c");
+        assertEquals(1, c.length);
+        assertEquals(XmlObject.Factory.parse(XML).selectPath("./a/c")[0].xmlText(),
+            c[0].xmlText());
+    }
+
+    public void testTypedValue() throws Exception {
+        XmlInt xi = XmlInt.Factory.parse(
+            "<xml-fragment> 42 </xml-fragment>", readOnlyOptions());
+        assertEquals(42, xi.getIntValue());
+    }
+
+    public void testMutationThrows() throws Exception {
+        XmlInt xi = XmlInt.Factory.parse(
+            "<xml-fragment>42</xml-fragment>", readOnlyOptions());
+        try {
+            xi.setIntValue(7);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(42, xi.getIntValue());
+
+        XmlObject xo = XmlObject.Factory.parse(XML, readOnlyOptions());
+        XmlCursor cur = xo.newCursor();
+        try {
+            cur.toFirstChild();
+            try {
+                cur.setAttributeText(new QName("x"), "2");
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+            }
+            try {
+                cur.removeXml();
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+            }
+        } finally {
+            cur.dispose();
+        }
+
+        Element a = (Element) xo.getDomNode().getFirstChild();
+        try {
+            a.setAttribute("z", "3");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+
+        assertEquals(XmlObject.Factory.parse(XML).xmlText(), xo.xmlText());
+    }
+
+    public void testChangeTypeThrows() throws Exception {
+        XmlInt xi = XmlInt.Factory.parse(
+            "<xml-fragment>42</xml-fragment>", readOnlyOptions());
+        try {
+            xi.changeType(XmlString.type);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(42, xi.getIntValue());
+    }
+
+    public void testCopyIsModifiable() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(XML, readOnlyOptions());
+        XmlObject copy = xo.copy();
+        assertEquals(xo.xmlText(), copy.xmlText());
+
+        XmlCursor cur = copy.newCursor();
+        try {
+            cur.toFirstChild();
+            cur.removeXml();
+        } finally {
+            cur.dispose();
+        }
+        assertEquals("<xml-fragment/>", copy.xmlText());
+        assertEquals(XmlObject.Factory.parse(XML).xmlText(), xo.xmlText());
+    }
+
+    public void testStaxLoad() throws Exception {
+        XmlOptions opts = readOnlyOptions();
+        opts.setLoadUseStax();
+
+        XmlObject xo = XmlObject.Factory.parse(XML, opts);
+        assertEquals(XmlObject.Factory.parse(XML).xmlText(), xo.xmlText());
+    }
+
+    public void testSameLocaleRefused() throws Exception {
+        XmlObject other = XmlObject.Factory.parse(XML);
+
+        XmlOptions opts = readOnlyOptions();
+        opts.put(Locale.USE_SAME_LOCALE, other);
+        try {
+            XmlObject.Factory.parse(XML, opts);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+
+        opts = new XmlOptions().setLoadConcurrentReads();
+        opts.put(Locale.USE_SAME_LOCALE, other);
+        try {
+            XmlObject.Factory.parse(XML, opts);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // The refused loads leave the other document free to be frozen
+        other.freeze();
+        assertTrue(other.isFrozen());
+    }
+}
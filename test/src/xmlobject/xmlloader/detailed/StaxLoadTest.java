@@ -0,0 +1,162 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlobject.xmlloader.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlLineNumber;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+
+public class StaxLoadTest extends TestCase {
+    private static final String[] DOCS = {
+        "<a/>",
+        "<a x=\"1\" y='2'>text<b>more</b>tail</a>",
+        "<p:a xmlns:p=\"urn:p\" xmlns=\"urn:d\" p:x=\"v\"><b><p:c/></b></p:a>",
+        "<?pi data?><!-- lead --><a><!--c--><?target?>x&amp;y&lt;<![CDATA[<raw>]]></a><!-- trail -->",
+        "<a xmlns:q=\"urn:q\"><b xmlns=\"\">t</b><q:c q:attr=\"&quot;\"/></a>",
+        "<a>  <b> spaced </b>\n\t</a>",
+    };
+
+    public StaxLoadTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StaxLoadTest.class);
+    }
+
+    private static XmlOptions staxOptions() {
+        return new XmlOptions().setLoadUseStax();
+    }
+
+    public void testSameTreeAsSax() throws Exception {
+        for (int i = 0; i < DOCS.length; i++) {
+            XmlObject sax = XmlObject.Factory.parse(DOCS[i]);
+            XmlObject stax = XmlObject.Factory.parse(DOCS[i], staxOptions());
+            assertEquals(DOCS[i], sax.xmlText(), stax.xmlText());
+        }
+    }
+
+    public void testStreamAndReader() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><a>é中</a>";
+
+        XmlObject fromStream = XmlObject.Factory.parse(
+            new ByteArrayInputStream(xml.getBytes("UTF-8")), staxOptions());
+        XmlObject fromReader = XmlObject.Factory.parse(
+            new StringReader(xml), staxOptions());
+
+        assertEquals("<a>é中</a>", fromStream.xmlText());
+        assertEquals(fromStream.xmlText(), fromReader.xmlText());
+    }
+
+    public void testLoadOptions() throws Exception {
+        XmlOptions opts = staxOptions();
+        opts.setLoadStripWhitespace();
+        opts.setLoadStripComments();
+
+        XmlObject xo = XmlObject.Factory.parse(
+            "<foo>01234   <!--c--><bar>text</bar>   chars \r\n</foo>  ", opts);
+        assertEquals("<foo>01234<bar>text</bar>chars</foo>", xo.xmlText());
+    }
+
+    public void testLineNumbers() throws Exception {
+        XmlOptions opts = staxOptions();
+        opts.setLoadLineNumbers();
+
+        XmlObject xo = XmlObject.Factory.parse("<a>\n<b/>\n</a>", opts);
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toFirstChild();
+            XmlLineNumber ln = (XmlLineNumber) c.getBookmark(XmlLineNumber.class);
+            assertNotNull(ln);
+            assertEquals(2, ln.getLine());
+        } finally {
+            c.dispose();
+        }
+    }
+
+    public void testMalformed() throws Exception {
+        try {
+            XmlObject.Factory.parse("<a><b></a>", staxOptions());
+            fail("Expected XmlException");
+        } catch (XmlException e) {
+            assertNotNull(e.getError());
+        }
+    }
+
+    public void testDoctype() throws Exception {
+        String xml = "<!DOCTYPE a PUBLIC '-//p' 'a.dtd' [<!ENTITY e 'hello'>]><a>&e;</a>";
+
+        XmlObject xo = XmlObject.Factory.parse(xml, staxOptions());
+
+        assertEquals(XmlObject.Factory.parse(xml).xmlText(), xo.xmlText());
+        assertTrue(xo.xmlText().endsWith("<a>hello</a>"));
+        assertEquals("a", xo.documentProperties().getDoctypeName());
+        assertEquals("-//p", xo.documentProperties().getDoctypePublicId());
+        assertEquals("a.dtd", xo.documentProperties().getDoctypeSystemId());
+    }
+
+    public void testIdAttributes() throws Exception {
+        String xml =
+            "<!DOCTYPE a [<!ATTLIST b key ID #IMPLIED>]><a><b key='k1'>one</b><b key='k2'/></a>";
+
+        Document sax = (Document) XmlObject.Factory.parse(xml).getDomNode();
+        Document stax = (Document) XmlObject.Factory.parse(xml, staxOptions()).getDomNode();
+
+        assertNotNull(sax.getElementById("k1"));
+        assertEquals("one", stax.getElementById("k1").getFirstChild().getNodeValue());
+        assertNotNull(stax.getElementById("k2"));
+        assertNull(stax.getElementById("k3"));
+    }
+
+    public void testLimitsPerLoad() throws Exception {
+        String xml =
+            "<!DOCTYPE a [<!ENTITY e 'twenty characters...'>]><a>&e;</a>";
+
+        // A load with the default limits creates a shared factory first
+        XmlObject.Factory.parse(xml, staxOptions());
+
+        XmlOptions opts = staxOptions();
+        opts.setLoadEntityBytesLimit(10);
+        try {
+            XmlObject.Factory.parse(xml, opts);
+            fail("Expected the entity bytes limit to be exceeded");
+        } catch (XmlException e) {
+        }
+
+        String expanding =
+            "<!DOCTYPE a [<!ENTITY e 'x'>]><a>&e;&e;&e;&e;&e;</a>";
+
+        opts = staxOptions();
+        opts.setEntityExpansionLimit(2);
+        opts.setLoadDTDGrammar(true);
+        XmlObject.Factory.parse(expanding, staxOptions());
+        try {
+            XmlObject.Factory.parse(expanding, opts);
+            fail("Expected the entity expansion limit to be exceeded");
+        } catch (XmlException e) {
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmlobject.xmlloader.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlBeans;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlRuntimeException;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+
+public class StreamElementsTest extends TestCase {
+    private static final QName RECORD = new QName("urn:r", "record");
+
+    public StreamElementsTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StreamElementsTest.class);
+    }
+
+    private static InputStream stream(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+
+    public void testRecords() throws Exception {
+        String xml =
+            "<root xmlns='urn:r' xmlns:p='urn:p'><header>skipped</header>" +
+            "<group xmlns:q='urn:q'>" +
+            "<record id='1'><p:v>q:name</p:v></record>" +
+            "<record id='2' xmlns:q='urn:q2'><record id='nested'/></record>" +
+            "</group>" +
+            "<record id='3'/>" +
+            "</root>";
+
+        Iterator it = XmlBeans.streamElements(stream(xml), RECORD, null, null);
+
+        assertTrue(it.hasNext());
+        assertTrue(it.hasNext());
+        XmlObject r1 = (XmlObject) it.next();
+
+        // The prefixes of the ancestors are declared on each element,
+        // and resolve as they did in the whole document
+        XmlCursor c = r1.newCursor();
+        try {
+            assertTrue(c.toFirstChild());
+            assertEquals(RECORD, c.getName());
+            assertEquals("1", c.getAttributeText(new QName("id")));
+            assertEquals("urn:q", c.namespaceForPrefix("q"));
+            assertTrue(c.toFirstChild());
+            assertEquals(new QName("urn:p", "v"), c.getName());
+        } finally {
+            c.dispose();
+        }
+
+        XmlObject r2 = (XmlObject) it.next();
+        assertEquals(1, r2.selectPath(
+            "declare namespace r='urn:r' ./r:record/r:record").length);
+        c = r2.newCursor();
+        try {
+            c.toFirstChild();
+            assertEquals("urn:q2", c.namespaceForPrefix("q"));
+        } finally {
+            c.dispose();
+        }
+
+        XmlObject r3 = (XmlObject) it.next();
+        c = r3.newCursor();
+        try {
+            c.toFirstChild();
+            assertEquals("3", c.getAttributeText(new QName("id")));
+            assertNull(c.namespaceForPrefix("q"));
+        } finally {
+            c.dispose();
+        }
+
+        assertFalse(it.hasNext());
+        assertFalse(it.hasNext());
+
+        // Each element is a document of its own
+        assertNotSame(r1.monitor(), r3.monitor());
+    }
+
+    public void testLoadOptions() throws Exception {
+        String xml = "<r:list xmlns:r='urn:r'><r:record>  1  </r:record></r:list>";
+
+        XmlOptions opts = new XmlOptions();
+        opts.setLoadStripWhitespace();
+        opts.setLoadReadOnly();
+
+        Iterator it = XmlBeans.streamElements(stream(xml), RECORD, null, opts);
+        XmlObject r = (XmlObject) it.next();
+        assertEquals("<r:record xmlns:r=\"urn:r\">1</r:record>", r.xmlText());
+
+        XmlCursor c = r.newCursor();
+        try {
+            c.toFirstChild();
+            c.setTextValue("2");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        } finally {
+            c.dispose();
+        }
+        assertFalse(it.hasNext());
+    }
+
+    public void testNoMatches() throws Exception {
+        Iterator it = XmlBeans.streamElements(
+            stream("<a><b/></a>"), RECORD, null, null);
+        assertFalse(it.hasNext());
+    }
+
+    public void testMalformed() throws Exception {
+        Iterator it = XmlBeans.streamElements(
+            stream("<a xmlns='urn:r'><record/><record></a>"), RECORD, null, null);
+
+        assertNotNull(it.next());
+        try {
+            it.next();
+            fail("Expected XmlRuntimeException");
+        } catch (XmlRuntimeException e) {
+        }
+        assertFalse(it.hasNext());
+    }
+}
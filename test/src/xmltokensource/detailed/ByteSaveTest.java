@@ -0,0 +1,280 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmltokensource.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlTokenSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+
+/**
+ * Saving to an OutputStream encodes straight to bytes for UTF-8, US-ASCII
+ * and ISO-8859-1; the bytes must be those of the stream returned by
+ * newInputStream().
+ */
+public class ByteSaveTest extends TestCase {
+    private static final String[] DOCS = {
+        "<a/>",
+        "<a x='1' y=\"t&quot;w&lt;o&amp;\">te&lt;xt<b>m&amp;ore</b>]]&gt;tail</a>",
+        "<p:a xmlns:p='urn:p' xmlns='urn:d' p:x='v'><b p:y='w'/><p:c xmlns:p='urn:q'/></p:a>",
+        "<!DOCTYPE a SYSTEM \"a.dtd\"><a><!--c-o-mment--><?pi data?></a>",
+        "<a>café 中文 𝄞 &#13;</a>",
+        "<élément attré='é'>x</élément>",
+        "<a>&lt;&lt;&lt;&lt;&lt;&lt; more than thirty two chars of text</a>",
+    };
+
+    private static final String[] ENCODINGS = {
+        null, "UTF-8", "US-ASCII", "ISO-8859-1", "UTF-16",
+    };
+
+    public ByteSaveTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ByteSaveTest.class);
+    }
+
+    private static byte[] save(XmlTokenSource xo, XmlOptions opts)
+        throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        xo.save(bos, opts);
+        return bos.toByteArray();
+    }
+
+    private static byte[] read(XmlTokenSource xo, XmlOptions opts)
+        throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        InputStream is = xo.newInputStream(opts);
+        byte[] buf = new byte[100];
+        for (int n; (n = is.read(buf)) >= 0; )
+            bos.write(buf, 0, n);
+        return bos.toByteArray();
+    }
+
+    private static byte[] readChannel(XmlTokenSource xo, XmlOptions opts,
+        ByteBuffer buf) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ReadableByteChannel ch = xo.newChannel(opts);
+        try {
+            for (int n; (n = ch.read(buf)) >= 0; ) {
+                // Each read fills the buffer, but for the last
+                assertTrue(n > 0);
+                buf.flip();
+                while (buf.hasRemaining())
+                    bos.write(buf.get());
+                buf.clear();
+            }
+            assertEquals(-1, ch.read(buf));
+        } finally {
+            ch.close();
+        }
+        return bos.toByteArray();
+    }
+
+    private static void assertSameBytes(XmlTokenSource xo, XmlOptions opts)
+        throws Exception {
+        byte[] expected = read(xo, opts);
+        byte[] actual = save(xo, opts);
+        if (!Arrays.equals(expected, actual))
+            assertEquals(new String(expected, "ISO-8859-1"),
+                new String(actual, "ISO-8859-1"));
+    }
+
+    private static XmlOptions encoding(String encoding) {
+        XmlOptions opts = new XmlOptions();
+        if (encoding != null)
+            opts.setCharacterEncoding(encoding);
+        return opts;
+    }
+
+    public void testDocuments() throws Exception {
+        for (int i = 0; i < DOCS.length; i++) {
+            XmlObject xo = XmlObject.Factory.parse(DOCS[i]);
+            for (int j = 0; j < ENCODINGS.length; j++)
+                assertSameBytes(xo, encoding(ENCODINGS[j]));
+        }
+    }
+
+    public void testOptions() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOCS[2]);
+
+        assertSameBytes(xo, new XmlOptions().setSaveNoXmlDecl());
+        assertSameBytes(xo, new XmlOptions().setSaveNamespacesFirst());
+        assertSameBytes(xo, new XmlOptions().setSaveAggressiveNamespaces());
+        assertSameBytes(xo, new XmlOptions().setSaveOuter());
+        assertSameBytes(xo, new XmlOptions().setUseDefaultNamespace());
+
+        xo = XmlObject.Factory.parse(DOCS[6]);
+        assertSameBytes(xo, new XmlOptions().setSaveCDataLengthThreshold(100));
+        assertSameBytes(xo, new XmlOptions().setSaveCDataEntityCountThreshold(0));
+
+        XmlOptions opts = new XmlOptions();
+        opts.setUseCDataBookmarks();
+        xo = XmlObject.Factory.parse("<a><![CDATA[<x>]]></a>", opts);
+        assertSameBytes(xo, opts);
+    }
+
+    public void testFragments() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOCS[2]);
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toFirstChild();
+            assertSameBytes(c, null);
+            assertSameBytes(c.getObject(), new XmlOptions().setSaveOuter());
+
+            c.toNextToken();
+            c.toNextToken();
+            assertSameBytes(c, null);
+        } finally {
+            c.dispose();
+        }
+    }
+
+    public void testCommentsAndProcinsts() throws Exception {
+        // Content the loader cannot produce but the saver must make well
+        // formed
+        XmlObject xo = XmlObject.Factory.parse("<a/>");
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toEndToken();
+            c.insertComment("a--b---");
+            c.insertProcInst("pi", "da?>ta");
+            c.insertChars("\u0001\uFFFF");
+        } finally {
+            c.dispose();
+        }
+        assertSameBytes(xo, null);
+        assertSameBytes(xo, encoding("US-ASCII"));
+    }
+
+    public void testBadChars() throws Exception {
+        // A bad char is saved as '?', which then ends a "?>" in a procinst
+        // and may start a CDATA
+        XmlObject xo = XmlObject.Factory.parse("<a/>");
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toEndToken();
+            c.insertProcInst("pi", "x\u0001>y\u0001?>z\uFFFE");
+            c.insertElementWithText("b", "\u0001<&&& text\uFFFE");
+        } finally {
+            c.dispose();
+        }
+
+        XmlOptions cdata = new XmlOptions();
+        cdata.setSaveCDataLengthThreshold(0);
+        cdata.setSaveCDataEntityCountThreshold(2);
+
+        assertSameBytes(xo, null);
+        assertSameBytes(xo, cdata);
+
+        String saved = new String(save(xo, cdata), "UTF-8");
+        assertTrue(saved, saved.indexOf("<?pi x? y?? z??>") >= 0);
+        assertTrue(saved, saved.indexOf("<b><![CDATA[?<&&& text?]]></b>") >= 0);
+        assertEquals(xo.xmlText(cdata), XmlObject.Factory.parse(saved).xmlText(cdata));
+    }
+
+    public void testLongText() throws Exception {
+        // Text is encoded in chunks, put "]]>" and a surrogate pair across
+        // every chunk boundary
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i % 5 == 0 ? "]]&gt;" : "𝄞");
+            sb.append(i % 7 == 0 ? "&amp;" : "x");
+        }
+        String text = sb.toString();
+
+        XmlObject xo = XmlObject.Factory.parse(
+            "<a attr='" + text + "'>" + text + "</a>");
+        for (int j = 0; j < ENCODINGS.length; j++)
+            assertSameBytes(xo, encoding(ENCODINGS[j]));
+
+        XmlObject copy = XmlObject.Factory.parse(
+            new java.io.ByteArrayInputStream(save(xo, null)));
+        assertEquals(xo.xmlText(), copy.xmlText());
+    }
+
+    public void testChannel() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOCS[4]);
+        byte[] expected = save(xo, null);
+
+        int[] sizes = {1, 7, 100, 8192, 100000};
+        for (int i = 0; i < sizes.length; i++) {
+            assertTrue(Arrays.equals(expected,
+                readChannel(xo, null, ByteBuffer.allocate(sizes[i]))));
+            assertTrue(Arrays.equals(expected,
+                readChannel(xo, null, ByteBuffer.allocateDirect(sizes[i]))));
+        }
+
+        // Options the channel cannot encode directly
+        XmlOptions opts = new XmlOptions().setSavePrettyPrint();
+        assertTrue(Arrays.equals(save(xo, opts),
+            readChannel(xo, opts, ByteBuffer.allocate(7))));
+        opts = encoding("UTF-16");
+        assertTrue(Arrays.equals(save(xo, opts),
+            readChannel(xo, opts, ByteBuffer.allocate(7))));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        xo.save(Channels.newChannel(bos));
+        assertTrue(Arrays.equals(expected, bos.toByteArray()));
+    }
+
+    public void testChannelFailFast() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOCS[2]);
+
+        ReadableByteChannel ch = xo.newChannel();
+        ch.read(ByteBuffer.allocate(10));
+
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.setAttributeText(new javax.xml.namespace.QName("x"), "y");
+        } finally {
+            c.dispose();
+        }
+
+        // What was saved before the change may still be read
+        try {
+            while (ch.read(ByteBuffer.allocate(10)) >= 0)
+                ;
+            fail("Expected ConcurrentModificationException");
+        } catch (ConcurrentModificationException e) {
+        }
+
+        ch.close();
+        assertFalse(ch.isOpen());
+        try {
+            ch.read(ByteBuffer.allocate(10));
+            fail("Expected ClosedChannelException");
+        } catch (ClosedChannelException e) {
+        }
+    }
+}
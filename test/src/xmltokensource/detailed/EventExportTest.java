@@ -0,0 +1,186 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmltokensource.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * SAX events and XMLStreamReader text served from the store rather than
+ * from copies of it.
+ */
+public class EventExportTest extends TestCase {
+    private static final String DOC =
+        "<p:a xmlns:p='urn:p' xmlns='urn:d' p:x='1' y='2'>" +
+            "text<b xmlns:q='urn:q' q:z='3'>more</b>tail</p:a>";
+
+    public EventExportTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(EventExportTest.class);
+    }
+
+    private static class Recorder extends DefaultHandler {
+        StringBuffer _sb = new StringBuffer();
+
+        public void startElement(String uri, String local, String qName,
+            Attributes attrs) {
+            _sb.append("<").append(qName);
+            for (int i = 0; i < attrs.getLength(); i++) {
+                _sb.append(" ").append(attrs.getQName(i)).append("{")
+                    .append(attrs.getURI(i)).append("}")
+                    .append(attrs.getLocalName(i)).append("=")
+                    .append(attrs.getValue(i));
+
+                assertEquals("CDATA", attrs.getType(i));
+                assertEquals(i, attrs.getIndex(attrs.getQName(i)));
+                assertEquals(i,
+                    attrs.getIndex(attrs.getURI(i), attrs.getLocalName(i)));
+                assertEquals(attrs.getValue(i),
+                    attrs.getValue(attrs.getURI(i), attrs.getLocalName(i)));
+            }
+            assertNull(attrs.getQName(attrs.getLength()));
+            assertNull(attrs.getValue(-1));
+            assertNull(attrs.getValue("nothing"));
+            _sb.append(">");
+        }
+
+        public void endElement(String uri, String local, String qName) {
+            _sb.append("</").append(qName).append(">");
+        }
+
+        public void characters(char[] ch, int start, int length) {
+            _sb.append(ch, start, length);
+        }
+    }
+
+    private static String record(XmlObject xo, XmlOptions opts)
+        throws Exception {
+        Recorder r = new Recorder();
+        xo.save(r, null, opts);
+        return r._sb.toString();
+    }
+
+    public void testSaxAttributes() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+
+        assertEquals("<p:a p:x{urn:p}x=1 y{}y=2" +
+            " xmlns:p{http://www.w3.org/2000/xmlns/}p=urn:p" +
+            " xmlns{http://www.w3.org/2000/xmlns/}xmlns=urn:d>text" +
+            "<b q:z{urn:q}z=3 xmlns:q{http://www.w3.org/2000/xmlns/}q=urn:q>" +
+            "more</b>tail</p:a>",
+            record(xo, new XmlOptions()));
+
+        assertEquals("<p:a xmlns:p{http://www.w3.org/2000/xmlns/}p=urn:p" +
+            " xmlns{http://www.w3.org/2000/xmlns/}xmlns=urn:d" +
+            " p:x{urn:p}x=1 y{}y=2>text" +
+            "<b xmlns:q{http://www.w3.org/2000/xmlns/}q=urn:q q:z{urn:q}z=3>" +
+            "more</b>tail</p:a>",
+            record(xo, new XmlOptions().setSaveNamespacesFirst()));
+
+        assertEquals("<p:a p:x{urn:p}x=1 y{}y=2>text<b q:z{urn:q}z=3>" +
+            "more</b>tail</p:a>",
+            record(xo, new XmlOptions().setSaveSaxNoNSDeclsInAttributes()));
+    }
+
+    public void testSaxAttributePrefix() throws Exception {
+        // An attribute in the default namespace needs a prefix of its own
+        XmlObject xo = XmlObject.Factory.newInstance();
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toNextToken();
+            c.beginElement("a", "urn:d");
+            c.insertNamespace("", "urn:d");
+            c.insertAttributeWithValue("x", "urn:d", "1");
+        } finally {
+            c.dispose();
+        }
+
+        String events = record(xo,
+            new XmlOptions().setSaveSaxNoNSDeclsInAttributes());
+        assertTrue(events, events.matches("<a \\w+:x\\{urn:d\\}x=1></a>"));
+    }
+
+    private static String readText(XMLStreamReader xsr) throws Exception {
+        char[] chars = xsr.getTextCharacters();
+        int start = xsr.getTextStart();
+        int length = xsr.getTextLength();
+
+        String text = new String(chars, start, length);
+        assertEquals(xsr.getText(), text);
+
+        char[] copy = new char[length + 2];
+        assertEquals(length, xsr.getTextCharacters(0, copy, 1, length));
+        assertEquals(text, new String(copy, 1, length));
+
+        return text;
+    }
+
+    public void testStreamText() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(
+            "<a>first<b>second</b><!--third--></a>");
+
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toFirstChild();
+            c.insertChars("inserted");
+        } finally {
+            c.dispose();
+        }
+
+        StringBuffer sb = new StringBuffer();
+        XMLStreamReader xsr = xo.newXMLStreamReader();
+        for (; xsr.hasNext(); xsr.next()) {
+            int event = xsr.getEventType();
+            if (event == XMLStreamConstants.CHARACTERS ||
+                event == XMLStreamConstants.COMMENT)
+                sb.append(readText(xsr)).append("|");
+        }
+        xsr.close();
+
+        assertEquals("firstinserted|second|third|", sb.toString());
+    }
+
+    public void testStreamTextInside() throws Exception {
+        // A reader made in the middle of a text has only that text
+        XmlObject xo = XmlObject.Factory.parse("<a>first<b/></a>");
+
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toFirstContentToken();
+            c.toNextChar(2);
+
+            XMLStreamReader xsr = c.newXMLStreamReader();
+            assertEquals(XMLStreamConstants.CHARACTERS, xsr.getEventType());
+            assertEquals("rst", readText(xsr));
+        } finally {
+            c.dispose();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmltokensource.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A parallel save of a frozen document must write the same bytes as a
+ * save made on one thread, whichever way the children of the document
+ * element are split.
+ */
+public class ParallelSaveTest extends TestCase {
+    private static final String[] DOCS = {
+        "<a>lead<b>1</b>between<c x='2'/><!--c--><?pi data?>tail<d><e/></d></a>",
+        "<!--before--><p:a xmlns:p='urn:p' xmlns='urn:d' p:x='v'>" +
+            "<b p:y='w'/><p:c xmlns:p='urn:q'><p:d/></p:c><e xmlns=''/>" +
+            "<f><g xmlns:p='urn:p'>text</g></f></p:a><?after?>",
+        "<a x='1'><b>&lt;&lt;&lt;&lt;&lt;&lt; more than thirty two chars</b>" +
+            "<b>]]&gt;</b><b>café 中文 𝄞</b><b/><b/></a>",
+    };
+
+    private ExecutorService _pool;
+
+    public ParallelSaveTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(ParallelSaveTest.class);
+    }
+
+    public void setUp() {
+        _pool = Executors.newFixedThreadPool(3);
+    }
+
+    public void tearDown() {
+        _pool.shutdown();
+    }
+
+    private static byte[] save(XmlObject xo, XmlOptions opts)
+        throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        xo.save(bos, opts);
+        return bos.toByteArray();
+    }
+
+    private static class CountingExecutor implements Executor {
+        private final Executor _executor;
+        int _count;
+
+        CountingExecutor(Executor executor) {
+            _executor = executor;
+        }
+
+        public synchronized void execute(Runnable r) {
+            _count++;
+            _executor.execute(r);
+        }
+    }
+
+    private void assertSameSave(XmlObject xo, XmlOptions opts, int children)
+        throws Exception {
+        byte[] expected = save(xo, opts);
+
+        for (int n = 2; n <= children + 1; n++) {
+            CountingExecutor executor = new CountingExecutor(_pool);
+
+            XmlOptions parallel = new XmlOptions(opts);
+            parallel.setSaveExecutor(executor);
+            parallel.setSaveParallelism(n);
+
+            byte[] actual = save(xo, parallel);
+            assertTrue(new String(actual, "UTF-8"),
+                Arrays.equals(expected, actual));
+            assertEquals(Math.min(n, children) - 1, executor._count);
+        }
+    }
+
+    public void testSameAsSequential() throws Exception {
+        int[] children = {5, 4, 5};
+
+        for (int i = 0; i < DOCS.length; i++) {
+            XmlObject xo = XmlObject.Factory.parse(DOCS[i]);
+            xo.freeze();
+
+            assertSameSave(xo, new XmlOptions(), children[i]);
+            assertSameSave(xo, new XmlOptions().setSaveNoXmlDecl()
+                .setCharacterEncoding("US-ASCII"), children[i]);
+            assertSameSave(xo, new XmlOptions().setSaveAggressiveNamespaces()
+                .setSaveFilterProcinst("pi"), children[i]);
+        }
+    }
+
+    public void testSynthesizedNamespaces() throws Exception {
+        // The children are in namespaces declared nowhere, each range has
+        // to declare them as a save on one thread would
+
+        XmlObject xo = XmlObject.Factory.parse("<r xmlns:q='urn:q'/>");
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toEndToken();
+            for (int i = 0; i < 6; i++) {
+                c.beginElement(
+                    new QName(i % 2 == 0 ? "urn:x" : "urn:q", "e"));
+                c.insertAttributeWithValue(new QName("urn:y", "a"), "v");
+                c.insertChars("" + i);
+                c.toNextToken();
+            }
+        } finally {
+            c.dispose();
+        }
+        xo.freeze();
+
+        assertSameSave(xo, new XmlOptions(), 6);
+        assertSameSave(xo, new XmlOptions().setUseDefaultNamespace(), 6);
+    }
+
+    public void testConcurrentReadsLoad() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOCS[1],
+            new XmlOptions().setLoadConcurrentReads());
+
+        assertSameSave(xo, new XmlOptions(), 4);
+    }
+
+    public void testNotFrozen() throws Exception {
+        // The option is ignored for documents which may change, and for
+        // saves which are not of a whole document
+
+        XmlObject xo = XmlObject.Factory.parse(DOCS[0]);
+
+        CountingExecutor executor = new CountingExecutor(_pool);
+        XmlOptions opts = new XmlOptions().setSaveExecutor(executor);
+
+        assertEquals(new String(save(xo, null), "UTF-8"),
+            new String(save(xo, opts), "UTF-8"));
+
+        xo.freeze();
+
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            XmlObject a = c.getObject();
+            assertEquals(new String(save(a, null), "UTF-8"),
+                new String(save(a, opts), "UTF-8"));
+            assertEquals(new String(save(xo, opts.setSavePrettyPrint()), "UTF-8"),
+                new String(save(xo, new XmlOptions().setSavePrettyPrint()), "UTF-8"));
+        } finally {
+            c.dispose();
+        }
+
+        assertEquals(0, executor._count);
+    }
+}
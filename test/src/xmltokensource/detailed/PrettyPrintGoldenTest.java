@@ -0,0 +1,119 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmltokensource.detailed;
+
+import common.Common;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * Pretty printed saves are compared with golden files, in
+ * test/cases/xbean/xmltokensource/pretty, of the output of the pretty
+ * printer as it was before it was rewritten.  Each golden file holds the
+ * saves of a document, of its document element, of the content of the
+ * document element and of the first child, separated by "=====" lines.
+ */
+public class PrettyPrintGoldenTest extends TestCase {
+    private static final String DIR = Common.XBEAN_CASE_ROOT + Common.P +
+        "xmltokensource" + Common.P + "pretty";
+
+    private static final String[] DOCS = {"order", "flat"};
+
+    public PrettyPrintGoldenTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(PrettyPrintGoldenTest.class);
+    }
+
+    private static String read(File f) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        InputStream is = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[1024];
+            for (int n; (n = is.read(buf)) >= 0; )
+                bos.write(buf, 0, n);
+        } finally {
+            is.close();
+        }
+        return bos.toString("UTF-8");
+    }
+
+    private static void assertGolden(String variant, XmlOptions load,
+        XmlOptions opts) throws Exception {
+        for (int i = 0; i < DOCS.length; i++) {
+            XmlObject xo = XmlObject.Factory.parse(
+                new File(DIR, DOCS[i] + ".xml"), load);
+
+            StringBuffer sb = new StringBuffer();
+            sb.append(xo.xmlText(opts)).append("\n=====\n");
+
+            XmlCursor c = xo.newCursor();
+            try {
+                c.toFirstChild();
+                sb.append(c.xmlText(opts)).append("\n=====\n");
+                sb.append(c.xmlText(new XmlOptions(opts).setSaveInner()))
+                    .append("\n=====\n");
+                c.toFirstChild();
+                sb.append(c.xmlText(opts)).append("\n=====\n");
+            } finally {
+                c.dispose();
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            xo.save(bos, opts);
+            sb.append(bos.toString("UTF-8"));
+
+            String name = DOCS[i] + "-" + variant + ".txt";
+            assertEquals(name, read(new File(DIR, name)),
+                sb.toString().replaceAll(Common.NEWLINE, "\n"));
+        }
+    }
+
+    public void testDefault() throws Exception {
+        assertGolden("default", null, new XmlOptions().setSavePrettyPrint());
+    }
+
+    public void testIndentAndOffset() throws Exception {
+        assertGolden("indent4", null, new XmlOptions().setSavePrettyPrint()
+            .setSavePrettyPrintIndent(4).setSavePrettyPrintOffset(2));
+    }
+
+    public void testOneLine() throws Exception {
+        assertGolden("oneline", null, new XmlOptions().setSavePrettyPrint()
+            .setSavePrettyPrintIndent(-1));
+    }
+
+    public void testNoIndent() throws Exception {
+        assertGolden("indent0", null, new XmlOptions().setSavePrettyPrint()
+            .setSavePrettyPrintIndent(0));
+    }
+
+    public void testCDataBookmarks() throws Exception {
+        assertGolden("cdata", new XmlOptions().setUseCDataBookmarks(),
+            new XmlOptions().setSavePrettyPrint().setUseCDataBookmarks());
+    }
+}
@@ -0,0 +1,158 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmltokensource.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptionCharEscapeMap;
+import org.apache.xmlbeans.XmlOptions;
+
+/**
+ * Escaping of text and attribute values when saving to a String.
+ */
+public class TextEscapeTest extends TestCase {
+    public TextEscapeTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TextEscapeTest.class);
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < n; i++)
+            sb.append(s);
+        return sb.toString();
+    }
+
+    // Text inserted with a cursor is saved from a String rather than from
+    // the char[] of a parsed document
+    private static XmlObject insert(String text, String attr) {
+        XmlObject xo = XmlObject.Factory.newInstance();
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toNextToken();
+            c.beginElement("a");
+            if (attr != null)
+                c.insertAttributeWithValue("x", attr);
+            c.insertChars(text);
+        } finally {
+            c.dispose();
+        }
+        return xo;
+    }
+
+    public void testEscapes() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(
+            "<a x='&lt;&amp;&quot;&gt;'>a&lt;b&amp;c&gt;d]]&gt;e]&gt;&#13;\t</a>");
+
+        assertEquals("<a x=\"&lt;&amp;&quot;>\">a&lt;b&amp;c>d]]&gt;e]>&#13;\t</a>",
+            xo.xmlText());
+    }
+
+    public void testBadChars() throws Exception {
+        XmlObject xo = insert("a\u0001b\uFFFEc", "d\u0002e");
+
+        assertEquals("<a x=\"d\u0002e\">a?b?c</a>", xo.xmlText());
+        assertEquals("<a x=\"d\u0002e\"><![CDATA[a?b?c]]></a>", xo.xmlText(
+            new XmlOptions().setSaveCDataLengthThreshold(0)
+                .setSaveCDataEntityCountThreshold(-1)));
+
+        // Every char of a CDATA is checked, the first two as well
+        assertEquals("<a x=\"d\u0002e\"><![CDATA[??c]]></a>",
+            insert("\u0001\u0002c", "d\u0002e").xmlText(
+                new XmlOptions().setSaveCDataLengthThreshold(0)
+                    .setSaveCDataEntityCountThreshold(-1)));
+    }
+
+    public void testCDataThresholds() throws Exception {
+        String text = repeat("&<", 3) + repeat("x", 30);
+
+        // Six entities in a text of more than 32 chars
+        assertEquals("<a><![CDATA[" + text + "]]></a>",
+            insert(text, null).xmlText());
+
+        // Five entities are not enough
+        assertEquals("<a>" + repeat("&lt;&amp;", 2) + "&lt;" +
+            repeat("x", 31) + "</a>",
+            insert(text.substring(1) + "x", null).xmlText());
+
+        // Nor is a text of 32 chars
+        assertEquals("<a>" + repeat("&amp;&lt;", 3) + repeat("x", 26) + "</a>",
+            insert(text.substring(0, 32), null).xmlText());
+
+        XmlOptions opts = new XmlOptions().setSaveCDataLengthThreshold(2)
+            .setSaveCDataEntityCountThreshold(0);
+        assertEquals("<a>a&lt;</a>", insert("a<", null).xmlText(opts));
+        assertEquals("<a><![CDATA[ab<]]></a>", insert("ab<", null).xmlText(opts));
+        assertEquals("<a>abc</a>", insert("abc", null).xmlText(opts));
+    }
+
+    public void testCDataEnd() throws Exception {
+        XmlOptions opts = new XmlOptions().setSaveCDataLengthThreshold(0)
+            .setSaveCDataEntityCountThreshold(-1);
+
+        assertEquals("<a><![CDATA[a]]]]>><![CDATA[b]]></a>",
+            insert("a]]>b", null).xmlText(opts));
+        assertEquals("<a>a]]&gt;b</a>", insert("a]]>b", null).xmlText());
+    }
+
+    public void testLongText() throws Exception {
+        // Texts are escaped in chunks, a "]]>" may span two of them
+
+        String text = repeat("]]>&é", 200);
+        String escaped = repeat("]]&gt;&amp;é", 200);
+        String attr = repeat("]]>&amp;é", 200);
+
+        XmlOptions opts = new XmlOptions().setSaveCDataEntityCountThreshold(
+            Integer.MAX_VALUE);
+
+        assertEquals("<a x=\"" + attr + "\">" + escaped + "</a>",
+            insert(text, text).xmlText(opts));
+        assertEquals("<a x=\"" + attr + "\">" + escaped + "</a>",
+            XmlObject.Factory.parse("<a x='" + escaped + "'>" + escaped + "</a>")
+                .xmlText(opts));
+
+        assertEquals("<a><![CDATA[" +
+            repeat("]]]]>><![CDATA[&é", 200) + "]]></a>",
+            insert(text, null).xmlText());
+    }
+
+    public void testSubstituteCharacters() throws Exception {
+        XmlOptionCharEscapeMap map = new XmlOptionCharEscapeMap();
+        map.addMapping('>', XmlOptionCharEscapeMap.PREDEF_ENTITY);
+        map.addMapping('<', XmlOptionCharEscapeMap.DECIMAL);
+        map.addMapping('\r', XmlOptionCharEscapeMap.HEXADECIMAL);
+        map.addMapping('é', XmlOptionCharEscapeMap.HEXADECIMAL);
+
+        XmlObject xo = insert("<>\ré]]>", "<>\ré");
+        XmlOptions opts = new XmlOptions().setSaveSubstituteCharacters(map);
+
+        assertEquals("<a x=\"&lt;&gt;&#xd;&#xe9;\">&lt;&gt;&#13;&#xe9;]]&gt;</a>",
+            xo.xmlText(opts));
+        assertEquals("<a x=\"&lt;&gt;&#xd;&#xe9;\">&lt;&gt;&#xd;&#xe9;]]&gt;</a>",
+            xo.xmlText(new XmlOptions(opts).setSavePrettyPrint()));
+
+        // Nothing is substituted in a CDATA
+        assertEquals("<a x=\"&lt;&gt;&#xd;&#xe9;\"><![CDATA[<>\ré]]]]>><![CDATA[]]></a>",
+            xo.xmlText(new XmlOptions(opts).setSaveCDataLengthThreshold(0)
+                .setSaveCDataEntityCountThreshold(0)));
+    }
+}
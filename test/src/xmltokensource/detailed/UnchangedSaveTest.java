@@ -0,0 +1,252 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package xmltokensource.detailed;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.impl.xb.xsdschema.SchemaDocument;
+import org.apache.xmlbeans.impl.xb.xsdschema.TopLevelElement;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/**
+ * A save which reuses the bytes of the elements which have not changed
+ * since the last save must write the same bytes as a save made anew.
+ */
+public class UnchangedSaveTest extends TestCase {
+    private static final String DOC =
+        "<!--before--><p:a xmlns:p='urn:p' xmlns='urn:d' p:x='v'>" +
+            "<b p:y='w'>text<c>deep</c></b><p:c xmlns:p='urn:q'><p:d/></p:c>" +
+            "<e xmlns=''><f>1</f></e><?pi data?>" +
+            "<g><h>&lt;&lt;&lt;&lt;&lt;&lt; more than thirty two chars</h></g>" +
+            "<i>café 中文 𝄞</i></p:a><?after?>";
+
+    public UnchangedSaveTest(String sName) {
+        super(sName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(UnchangedSaveTest.class);
+    }
+
+    private static String save(XmlObject xo, XmlOptions opts)
+        throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        xo.save(bos, opts);
+        return bos.toString("UTF-8");
+    }
+
+    private static void assertSavedSame(XmlObject xo, XmlOptions opts)
+        throws Exception {
+        String expected = save(xo, new XmlOptions(opts));
+        XmlOptions reuse = new XmlOptions(opts).setSaveReuseUnchanged();
+
+        assertEquals(expected, save(xo, reuse));
+        assertEquals(expected, save(xo, reuse));
+    }
+
+    private static void assertSavedSame(XmlObject xo) throws Exception {
+        assertSavedSame(xo, new XmlOptions());
+    }
+
+    public void testUnchanged() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+
+        assertSavedSame(xo);
+        assertSavedSame(xo.selectPath("*/*")[0]);
+        assertSavedSame(xo, new XmlOptions().setSaveOuter());
+        assertSavedSame(xo, new XmlOptions().setSaveAggressiveNamespaces());
+        assertSavedSame(xo, new XmlOptions().setSaveSyntheticDocumentElement(
+            new QName("urn:s", "s")));
+    }
+
+    public void testChanges() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+        assertSavedSame(xo);
+
+        XmlCursor c = xo.newCursor();
+        try {
+            // Text deep in the document
+            c.toFirstChild();
+            c.toFirstChild();
+            c.toFirstChild();
+            c.toFirstContentToken();
+            c.insertChars("er");
+            assertSavedSame(xo);
+
+            // An attribute value
+            c.toParent();
+            c.toParent();
+            c.setAttributeText(new QName("urn:p", "y"), "changed");
+            assertSavedSame(xo);
+
+            // An element name
+            c.toNextSibling();
+            c.setName(new QName("urn:q", "renamed"));
+            assertSavedSame(xo);
+
+            // The text after an element
+            c.toEndToken();
+            c.toNextToken();
+            c.insertChars("after");
+            assertSavedSame(xo);
+
+            // A new element, and one removed
+            c.toParent();
+            c.toFirstChild();
+            c.toEndToken();
+            c.toNextToken();
+            c.insertElementWithText("new", "urn:n", "inserted");
+            assertSavedSame(xo);
+
+            c.toParent();
+            c.toFirstChild();
+            c.toNextSibling();
+            c.removeXml();
+            assertSavedSame(xo);
+
+            // A comment
+            c.toParent();
+            c.toEndToken();
+            c.insertComment("comment");
+            assertSavedSame(xo);
+        } finally {
+            c.dispose();
+        }
+    }
+
+    public void testMovedElement() throws Exception {
+        // An element saved again in other mappings is saved differently
+        XmlObject xo = XmlObject.Factory.parse(
+            "<a xmlns:p='urn:p'><p:b><p:c/></p:b>" +
+                "<d xmlns:p='urn:x'><p:e/></d><f xmlns='urn:p'/></a>");
+        assertSavedSame(xo);
+
+        XmlCursor c = xo.newCursor();
+        XmlCursor to = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toFirstChild();
+            to.toFirstChild();
+            to.toChild(1);
+            to.toEndToken();
+            c.moveXml(to);
+            assertSavedSame(xo);
+
+            to.toNextSibling();
+            to.toEndToken();
+            to.toPrevToken();
+            c.toPrevSibling();
+            c.copyXml(to);
+            assertSavedSame(xo);
+        } finally {
+            c.dispose();
+            to.dispose();
+        }
+    }
+
+    public void testTypedValue() throws Exception {
+        SchemaDocument doc = SchemaDocument.Factory.newInstance();
+        TopLevelElement elem = doc.addNewSchema().addNewElement();
+        elem.setName("x");
+        assertSavedSame(doc);
+
+        elem.setName("y");
+        assertSavedSame(doc);
+
+        // The value is not in the tree any more, only with the user
+        elem.setName("z");
+        elem.addNewAnnotation().addNewDocumentation();
+        assertSavedSame(doc);
+        assertTrue(save(doc, new XmlOptions()).indexOf("name=\"z\"") > 0);
+    }
+
+    public void testOptions() throws Exception {
+        XmlObject xo = XmlObject.Factory.parse(DOC);
+
+        HashMap prefixes = new HashMap();
+        prefixes.put("urn:n", "n");
+
+        XmlOptions[] options = {
+            new XmlOptions(),
+            new XmlOptions().setSaveNamespacesFirst(),
+            new XmlOptions().setCharacterEncoding("ISO-8859-1"),
+            new XmlOptions().setSaveCDataLengthThreshold(8),
+            new XmlOptions().setSaveFilterProcinst("pi"),
+            new XmlOptions().setSaveSuggestedPrefixes(prefixes),
+            new XmlOptions().setUseDefaultNamespace(),
+        };
+
+        XmlCursor c = xo.newCursor();
+        try {
+            c.toFirstChild();
+            c.toFirstChild();
+            c.toEndToken();
+            c.insertElement("new", "urn:n");
+        } finally {
+            c.dispose();
+        }
+
+        for (int i = 0; i < options.length; i++)
+            assertSavedSame(xo, options[i]);
+
+        // Saves with other options in between drop the saved bytes
+        for (int i = 0; i < options.length; i++) {
+            XmlOptions reuse = new XmlOptions(options[i]).setSaveReuseUnchanged();
+            save(xo, reuse);
+            save(xo, new XmlOptions(options[(i + 1) % options.length])
+                .setSaveReuseUnchanged());
+            assertEquals(save(xo, options[i]), save(xo, reuse));
+        }
+    }
+
+    public void testAttributeInDefaultNamespace() throws Exception {
+        // The prefix of the attribute is one of those mapped to urn:d
+        XmlObject xo = XmlObject.Factory.parse(
+            "<a xmlns='urn:d' xmlns:p='urn:d' xmlns:q='urn:d'>" +
+                "<b><c p:x='1'/></b></a>");
+        assertSavedSame(xo);
+    }
+
+    public void testSubtreeAfterDocument() throws Exception {
+        // The mappings of the ancestors of a subtree are pushed together,
+        // so a rebound prefix renames urn:c differently than in the document
+        XmlObject xo = XmlObject.Factory.parse(
+            "<r xmlns:b='urn:c' xmlns:a='urn:c'>" +
+                "<a:s xmlns:a='urn:a' xmlns:urn='urn:c'><t xmlns:q='urn:c'>" +
+                "<b:e xmlns:b='urn:b'><u urn:x='1' xmlns:q='urn:b'/></b:e>" +
+                "</t></a:s></r>");
+        XmlObject sub = xo.selectPath(
+            "declare namespace b='urn:b' .//b:e")[0];
+
+        XmlOptions reuse = new XmlOptions().setSaveReuseUnchanged();
+        save(xo, reuse);
+
+        XmlOptions outer = new XmlOptions().setSaveOuter();
+        assertEquals(save(sub, outer),
+            save(sub, new XmlOptions(outer).setSaveReuseUnchanged()));
+        assertEquals(save(sub, new XmlOptions()), save(sub, reuse));
+
+        // And the other way round
+        assertEquals(save(xo, new XmlOptions()), save(xo, reuse));
+    }
+}
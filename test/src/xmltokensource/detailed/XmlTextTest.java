@@ -128,5 +128,36 @@ public class XmlTextTest extends BasicCursorTestCase {
         toNextTokenOfType(m_xc, TokenType.TEXT);
         assertEquals(" ws \\r\\n ", m_xc.getChars());
     }
-}
 
+    public void testNamespaceScopes() throws Exception {
+        // The same names are saved with different prefixes as the
+        // declarations in scope change
+        String xml = "<p:a xmlns:p=\"urn:1\"><p:x p:at=\"1\"/>" +
+            "<p:b xmlns:p=\"urn:2\"><x q:at=\"2\" xmlns=\"urn:1\" xmlns:q=\"urn:1\"/>" +
+            "<p:x/></p:b><p:x/></p:a>";
+        m_xo = XmlObject.Factory.parse(xml);
+        assertEquals(xml, m_xo.xmlText());
+
+        m_xo = XmlObject.Factory.parse("<a/>");
+        m_xc = m_xo.newCursor();
+        m_xc.toFirstChild();
+        m_xc.toEndToken();
+        for (int i = 0; i < 3; i++) {
+            m_xc.beginElement(new QName("urn:" + (i % 2), "e", "p"));
+            m_xc.insertAttributeWithValue(new QName("urn:0", "at"), "v");
+            m_xc.toNextToken();
+        }
+        assertEquals("<a><p:e p:at=\"v\" xmlns:p=\"urn:0\"/>" +
+            "<p:e urn:at=\"v\" xmlns:p=\"urn:1\" xmlns:urn=\"urn:0\"/>" +
+            "<p:e p:at=\"v\" xmlns:p=\"urn:0\"/></a>", m_xo.xmlText());
+    }
+
+    public void testPrefixesOfEqualNames() throws Exception {
+        // Names differing only in their prefix are equal QNames, each is
+        // saved with its own prefix
+        String xml = "<xsd:a xmlns:xsd=\"urn:s\" xmlns:xs=\"urn:s\">" +
+            "<xsd:b/><xs:b/><xsd:b/></xsd:a>";
+        m_xo = XmlObject.Factory.parse(xml);
+        assertEquals(xml, m_xo.xmlText());
+    }
+}